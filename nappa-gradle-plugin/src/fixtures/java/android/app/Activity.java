@@ -0,0 +1,29 @@
+package android.app;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stub of the Android class, recording the started activities
+ */
+public class Activity {
+    public final List<Intent> startedIntents = new ArrayList<>();
+
+    protected void onCreate(Bundle savedInstanceState) {
+    }
+
+    public void startActivity(Intent intent) {
+        startedIntents.add(intent);
+    }
+
+    public void startActivityForResult(Intent intent, int requestCode) {
+        startedIntents.add(intent);
+    }
+
+    public void startActivityForResult(Intent intent, int requestCode, Bundle options) {
+        startedIntents.add(intent);
+    }
+}
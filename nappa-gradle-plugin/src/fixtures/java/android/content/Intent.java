@@ -0,0 +1,14 @@
+package android.content;
+
+import android.os.Bundle;
+
+/**
+ * Stub of the Android class, only used by the class fixtures
+ */
+public class Intent {
+    private final Bundle extras = new Bundle();
+
+    public Bundle getExtras() {
+        return extras;
+    }
+}
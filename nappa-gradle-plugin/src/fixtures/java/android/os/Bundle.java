@@ -0,0 +1,7 @@
+package android.os;
+
+/**
+ * Stub of the Android class, only used by the class fixtures
+ */
+public class Bundle {
+}
@@ -0,0 +1,17 @@
+package androidx.activity;
+
+import android.app.Activity;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+
+/**
+ * Stub of the AndroidX class, owning a lifecycle
+ */
+public class ComponentActivity extends Activity implements LifecycleOwner {
+    private final Lifecycle lifecycle = new Lifecycle();
+
+    @Override
+    public Lifecycle getLifecycle() {
+        return lifecycle;
+    }
+}
@@ -0,0 +1,15 @@
+package androidx.lifecycle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stub of the AndroidX class, recording the added observers
+ */
+public class Lifecycle {
+    public final List<LifecycleObserver> observers = new ArrayList<>();
+
+    public void addObserver(LifecycleObserver observer) {
+        observers.add(observer);
+    }
+}
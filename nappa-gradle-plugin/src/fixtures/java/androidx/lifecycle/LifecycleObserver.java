@@ -0,0 +1,7 @@
+package androidx.lifecycle;
+
+/**
+ * Stub of the AndroidX interface, only used by the class fixtures
+ */
+public interface LifecycleObserver {
+}
@@ -0,0 +1,8 @@
+package androidx.lifecycle;
+
+/**
+ * Stub of the AndroidX interface, only used by the class fixtures
+ */
+public interface LifecycleOwner {
+    Lifecycle getLifecycle();
+}
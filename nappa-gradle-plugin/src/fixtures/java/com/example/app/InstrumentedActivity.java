@@ -0,0 +1,29 @@
+package com.example.app;
+
+import android.content.Intent;
+import android.os.Bundle;
+import androidx.activity.ComponentActivity;
+import nl.vu.cs.s2group.nappa.Nappa;
+import nl.vu.cs.s2group.nappa.NappaLifecycleObserver;
+import okhttp3.OkHttpClient;
+
+/**
+ * An activity whose sites are already instrumented in the sources
+ */
+public class InstrumentedActivity extends ComponentActivity {
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        getLifecycle().addObserver(new NappaLifecycleObserver(this));
+    }
+
+    public void openDetails(Intent intent) {
+        Nappa.notifyExtras(intent.getExtras());
+        startActivity(intent);
+    }
+
+    public OkHttpClient createClient() {
+        return Nappa.getOkHttp(new OkHttpClient());
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.app;
+
+import android.content.Intent;
+import android.os.Bundle;
+import androidx.activity.ComponentActivity;
+import okhttp3.OkHttpClient;
+
+/**
+ * An activity whose sites are not instrumented in the sources
+ */
+public class MainActivity extends ComponentActivity {
+    public boolean isCreated;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        isCreated = true;
+    }
+
+    public void openDetails(Intent intent) {
+        startActivity(intent);
+    }
+
+    public void openForResult(Intent intent, Bundle options) {
+        startActivityForResult(intent, 1, options);
+    }
+
+    public OkHttpClient createClient() {
+        return new OkHttpClient();
+    }
+
+    public OkHttpClient buildClient() {
+        return new OkHttpClient.Builder().build();
+    }
+
+    public void discardClient() {
+        new OkHttpClient();
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.app;
+
+import android.app.Activity;
+import android.content.Intent;
+
+/**
+ * A class starting activities with several arguments and branches, thus it has stack map frames
+ */
+public class Navigator {
+
+    public static void open(Activity activity, Intent intent, long requestCode) {
+        if (requestCode >= 0) {
+            activity.startActivityForResult(intent, (int) requestCode);
+        } else {
+            activity.startActivity(intent);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.app;
+
+import androidx.activity.ComponentActivity;
+
+/**
+ * An activity which does not override {@code onCreate}
+ */
+public class PlainActivity extends ComponentActivity {
+}
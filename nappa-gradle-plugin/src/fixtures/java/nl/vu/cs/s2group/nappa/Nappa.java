@@ -0,0 +1,24 @@
+package nl.vu.cs.s2group.nappa;
+
+import android.os.Bundle;
+import okhttp3.OkHttpClient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stub of the NAPPA library, recording the calls of the probes
+ */
+public class Nappa {
+    public static final List<Bundle> notifiedExtras = new ArrayList<>();
+    public static final List<OkHttpClient> clients = new ArrayList<>();
+
+    public static void notifyExtras(Bundle extras) {
+        notifiedExtras.add(extras);
+    }
+
+    public static OkHttpClient getOkHttp(OkHttpClient client) {
+        clients.add(client);
+        return client;
+    }
+}
@@ -0,0 +1,13 @@
+package nl.vu.cs.s2group.nappa;
+
+import android.app.Activity;
+import androidx.lifecycle.LifecycleObserver;
+
+/**
+ * Stub of the NAPPA library, only used by the class fixtures
+ */
+public class NappaLifecycleObserver implements LifecycleObserver {
+
+    public NappaLifecycleObserver(Activity activity) {
+    }
+}
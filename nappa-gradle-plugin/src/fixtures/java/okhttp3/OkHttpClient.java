@@ -0,0 +1,13 @@
+package okhttp3;
+
+/**
+ * Stub of the OkHttp class, only used by the class fixtures
+ */
+public class OkHttpClient {
+
+    public static class Builder {
+        public OkHttpClient build() {
+            return new OkHttpClient();
+        }
+    }
+}
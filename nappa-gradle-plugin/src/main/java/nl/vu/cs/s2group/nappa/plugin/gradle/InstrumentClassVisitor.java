@@ -0,0 +1,75 @@
+package nl.vu.cs.s2group.nappa.plugin.gradle;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Injects the NAPPA probes in a compiled class, see {@link InstrumentProbes}. Each method is buffered in a
+ * {@link MethodNode}, instrumented once it is fully read, and then passed to the next visitor. If the class is an
+ * activity which does not override {@code onCreate}, the method is added to register the lifecycle observer.
+ */
+public class InstrumentClassVisitor extends ClassVisitor {
+    private final boolean isLifecycleActivity;
+    private String className;
+    private String superClassName;
+    private boolean isAbstract;
+    private boolean hasOnCreateMethod;
+    private int instrumentedCount;
+
+    /**
+     * @param api                 The ASM API version implemented by this visitor
+     * @param classVisitor        The visitor to which the instrumented class is passed
+     * @param isLifecycleActivity Indicates if the class is an activity owning a lifecycle, see
+     *                            {@link InstrumentProbes#isLifecycleActivity}
+     */
+    public InstrumentClassVisitor(int api, ClassVisitor classVisitor, boolean isLifecycleActivity) {
+        super(api, classVisitor);
+        this.isLifecycleActivity = isLifecycleActivity;
+    }
+
+    /**
+     * @return The number of probes injected in the class
+     */
+    public int getInstrumentedCount() {
+        return instrumentedCount;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        className = name;
+        superClassName = superName;
+        isAbstract = (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE)) != 0;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (methodVisitor == null || (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0) return methodVisitor;
+
+        boolean isOnCreateMethod = isLifecycleActivity && InstrumentProbes.isOnCreateMethod(access, name, descriptor);
+        if (isOnCreateMethod) hasOnCreateMethod = true;
+        return new MethodNode(api, access, name, descriptor, signature, exceptions) {
+            @Override
+            public void visitEnd() {
+                super.visitEnd();
+                instrumentedCount += InstrumentProbes.instrumentStartActivityCalls(this);
+                instrumentedCount += InstrumentProbes.instrumentOkHttpClients(this);
+                if (isOnCreateMethod && !isAbstract && InstrumentProbes.injectLifecycleObserver(this, className))
+                    instrumentedCount++;
+                accept(methodVisitor);
+            }
+        };
+    }
+
+    @Override
+    public void visitEnd() {
+        if (cv != null && isLifecycleActivity && !isAbstract && !hasOnCreateMethod) {
+            InstrumentProbes.createOnCreateMethod(className, superClassName).accept(cv);
+            instrumentedCount++;
+        }
+        super.visitEnd();
+    }
+}
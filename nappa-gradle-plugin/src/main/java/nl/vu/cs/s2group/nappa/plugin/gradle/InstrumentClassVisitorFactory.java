@@ -0,0 +1,29 @@
+package nl.vu.cs.s2group.nappa.plugin.gradle;
+
+import com.android.build.api.instrumentation.AsmClassVisitorFactory;
+import com.android.build.api.instrumentation.ClassContext;
+import com.android.build.api.instrumentation.ClassData;
+import com.android.build.api.instrumentation.InstrumentationParameters;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Creates the visitors injecting the NAPPA probes in the classes of the app, see {@link InstrumentClassVisitor}.
+ * The Android Gradle Plugin only passes the classes changed since the last build, thus the cost of an incremental
+ * build depends on the changed classes instead of the size of the app. The classes of the NAPPA library are not
+ * instrumented.
+ */
+public abstract class InstrumentClassVisitorFactory implements AsmClassVisitorFactory<InstrumentationParameters.None> {
+
+    @Override
+    public ClassVisitor createClassVisitor(ClassContext classContext, ClassVisitor nextClassVisitor) {
+        ClassData classData = classContext.getCurrentClassData();
+        return new InstrumentClassVisitor(Opcodes.ASM9, nextClassVisitor,
+                InstrumentProbes.isLifecycleActivity(classData.getSuperClasses(), classData.getInterfaces()));
+    }
+
+    @Override
+    public boolean isInstrumentable(ClassData classData) {
+        return !InstrumentProbes.isNappaLibraryClass(classData.getClassName());
+    }
+}
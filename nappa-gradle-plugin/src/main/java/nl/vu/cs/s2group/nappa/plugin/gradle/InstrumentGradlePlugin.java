@@ -0,0 +1,38 @@
+package nl.vu.cs.s2group.nappa.plugin.gradle;
+
+import com.android.build.api.instrumentation.FramesComputationMode;
+import com.android.build.api.instrumentation.InstrumentationScope;
+import com.android.build.api.variant.ApplicationAndroidComponentsExtension;
+import kotlin.Unit;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+
+/**
+ * Instruments an Android app with NAPPA at build time, as an alternative to the IDE actions rewriting the sources.
+ * The probes are injected in the compiled classes of the app, see {@link InstrumentClassVisitorFactory}, thus the
+ * source files are not changed. The plugin must be applied to the app module, along with the Android Gradle Plugin:
+ *
+ * <pre>{@code
+ * plugins {
+ *     id 'com.android.application'
+ *     id 'nl.vu.cs.s2group.nappa.instrumentation'
+ * }
+ * }</pre>
+ */
+public class InstrumentGradlePlugin implements Plugin<Project> {
+
+    @Override
+    public void apply(Project project) {
+        project.getPluginManager().withPlugin("com.android.application", androidPlugin -> {
+            ApplicationAndroidComponentsExtension androidComponents =
+                    project.getExtensions().getByType(ApplicationAndroidComponentsExtension.class);
+            androidComponents.onVariants(androidComponents.selector().all(), variant -> {
+                // Only the classes of the app are instrumented, the library dependencies are not
+                variant.getInstrumentation().transformClassesWith(InstrumentClassVisitorFactory.class,
+                        InstrumentationScope.PROJECT, parameters -> Unit.INSTANCE);
+                // The probes keep the stack map frames valid, thus the frames are copied instead of computed
+                variant.getInstrumentation().setAsmFramesComputationMode(FramesComputationMode.COPY_FRAMES);
+            });
+        });
+    }
+}
@@ -0,0 +1,323 @@
+package nl.vu.cs.s2group.nappa.plugin.gradle;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Injects the NAPPA probes in the bytecode of a method, i.e. the same code the IDE actions inject in the sources:
+ * <ul>
+ * <li>{@code Nappa.notifyExtras(intent.getExtras())} before each {@code startActivity} call</li>
+ * <li>{@code Nappa.getOkHttp(client)} around each {@code OkHttpClient} construction</li>
+ * <li>{@code getLifecycle().addObserver(new NappaLifecycleObserver(this))} in the {@code onCreate} method of
+ * each activity</li>
+ * </ul>
+ * A site is skipped if it already has its probe, e.g. if it was instrumented in the sources. The probes only use
+ * new local variables between storing and loading the arguments of a call, without branches, thus the stack map
+ * frames of the method remain valid. The maximum sizes of the stack and the local variables are updated here, thus
+ * the frames do not need to be computed again.
+ */
+public final class InstrumentProbes {
+    private static final String NAPPA_PACKAGE_NAME = "nl.vu.cs.s2group.nappa";
+    private static final String NAPPA_SAMPLE_APP_PACKAGE_NAME = "nl.vu.cs.s2group.nappa.sample.app";
+    private static final String NAPPA_CLASS = "nl/vu/cs/s2group/nappa/Nappa";
+    private static final String NAPPA_LIFECYCLE_OBSERVER_CLASS = "nl/vu/cs/s2group/nappa/NappaLifecycleObserver";
+    private static final String INTENT_CLASS = "android/content/Intent";
+    private static final String OKHTTP_CLIENT_CLASS = "okhttp3/OkHttpClient";
+    private static final String OKHTTP_CLIENT_BUILDER_CLASS = "okhttp3/OkHttpClient$Builder";
+    private static final String LIFECYCLE_CLASS = "androidx/lifecycle/Lifecycle";
+    private static final String NOTIFY_EXTRAS_DESCRIPTOR = "(Landroid/os/Bundle;)V";
+    private static final String GET_OKHTTP_DESCRIPTOR = "(Lokhttp3/OkHttpClient;)Lokhttp3/OkHttpClient;";
+    static final String ON_CREATE_METHOD = "onCreate";
+    static final String ON_CREATE_DESCRIPTOR = "(Landroid/os/Bundle;)V";
+    private static final int LIFECYCLE_OBSERVER_STACK_SIZE = 4;
+
+    // Defines all variations of the method startActivity in the Android API, as the IDE action does
+    private static final Set<String> START_ACTIVITY_METHODS = new HashSet<>(Arrays.asList(
+            "startActivity",
+            "startActivityForResult",
+            "startActivityFromChild",
+            "startActivityFromFragment",
+            "startActivityIfNeeded"
+    ));
+
+    // The activities providing getLifecycle(), in case the interfaces of the superclasses are not known
+    private static final Set<String> LIFECYCLE_ACTIVITY_CLASSES = new HashSet<>(Arrays.asList(
+            "androidx.activity.ComponentActivity",
+            "androidx.core.app.ComponentActivity",
+            "androidx.appcompat.app.AppCompatActivity",
+            "androidx.fragment.app.FragmentActivity"
+    ));
+
+    private InstrumentProbes() {
+        throw new IllegalStateException("InstrumentProbes is a utility class and should be instantiated!");
+    }
+
+    /**
+     * Verifies if a class belongs to the NAPPA library. The sample app is not considered part of the library.
+     *
+     * @param className The fully qualified name of a class, e.g. {@code com.example.MainActivity}
+     * @return {@code True} if it is a class of the library or {@code False} otherwise
+     */
+    public static boolean isNappaLibraryClass(String className) {
+        return className.startsWith(NAPPA_PACKAGE_NAME + ".") && !className.startsWith(NAPPA_SAMPLE_APP_PACKAGE_NAME + ".");
+    }
+
+    /**
+     * Verifies if a class is an activity which owns a lifecycle, thus the lifecycle observer can be injected in it
+     *
+     * @param superClasses The fully qualified names of all superclasses of the class
+     * @param interfaces   The fully qualified names of the interfaces implemented by the class
+     * @return {@code True} if the class is a lifecycle owner activity or {@code False} otherwise
+     */
+    public static boolean isLifecycleActivity(Collection<String> superClasses, Collection<String> interfaces) {
+        if (!superClasses.contains("android.app.Activity")) return false;
+        return interfaces.contains("androidx.lifecycle.LifecycleOwner") ||
+                superClasses.stream().anyMatch(LIFECYCLE_ACTIVITY_CLASSES::contains);
+    }
+
+    /**
+     * Verifies if a method is the {@code onCreate} method of an activity
+     *
+     * @param access     The access flags of the method
+     * @param name       The name of the method
+     * @param descriptor The descriptor of the method
+     * @return {@code True} if it is the method {@code onCreate(Bundle)} or {@code False} otherwise
+     */
+    static boolean isOnCreateMethod(int access, String name, String descriptor) {
+        return (access & (Opcodes.ACC_STATIC | Opcodes.ACC_ABSTRACT)) == 0 &&
+                ON_CREATE_METHOD.equals(name) && ON_CREATE_DESCRIPTOR.equals(descriptor);
+    }
+
+    /**
+     * Sends the extras of the intent to NAPPA before each {@code startActivity} call of the method. A call is
+     * skipped if it follows a call to {@code Nappa.notifyExtras} which is not followed by another
+     * {@code startActivity} call. The calls to {@code super.startActivity} are skipped as well, as their callers
+     * are instrumented instead.
+     *
+     * @param method The method to instrument
+     * @return The number of instrumented calls
+     */
+    static int instrumentStartActivityCalls(MethodNode method) {
+        int instrumentedCount = 0;
+        boolean hasPendingProbe = false;
+        boolean duplicatesIntent = false;
+        int maxLocals = method.maxLocals;
+        for (AbstractInsnNode instruction : method.instructions.toArray()) {
+            if (!(instruction instanceof MethodInsnNode)) continue;
+            MethodInsnNode call = (MethodInsnNode) instruction;
+            if (isNappaCall(call, "notifyExtras")) {
+                hasPendingProbe = true;
+            } else if (START_ACTIVITY_METHODS.contains(call.name) && call.getOpcode() != Opcodes.INVOKESTATIC &&
+                    call.getOpcode() != Opcodes.INVOKESPECIAL) {
+                Type[] argumentTypes = Type.getArgumentTypes(call.desc);
+                int intentIndex = getIntentArgumentIndex(argumentTypes);
+                if (intentIndex < 0) continue;
+                if (hasPendingProbe) {
+                    hasPendingProbe = false;
+                    continue;
+                }
+                maxLocals = Math.max(maxLocals, insertNotifyExtras(method, call, argumentTypes, intentIndex));
+                duplicatesIntent |= argumentTypes.length == 1;
+                instrumentedCount++;
+            }
+        }
+        method.maxLocals = maxLocals;
+        // Storing several arguments frees enough stack slots for the probe, duplicating the intent needs one more
+        if (duplicatesIntent) method.maxStack++;
+        return instrumentedCount;
+    }
+
+    /**
+     * Passes each {@code OkHttpClient} created in the method to {@code Nappa.getOkHttp}, i.e. the clients created
+     * with a constructor or with {@code OkHttpClient.Builder.build()}. A client is skipped if it is already passed
+     * to {@code Nappa.getOkHttp} or if it is not used, e.g. in {@code new OkHttpClient();}.
+     *
+     * @param method The method to instrument
+     * @return The number of instrumented clients
+     */
+    static int instrumentOkHttpClients(MethodNode method) {
+        int instrumentedCount = 0;
+        // For each pending construction of a client, if the client is used after the constructor returns
+        Deque<Boolean> pendingConstructions = new ArrayDeque<>();
+        for (AbstractInsnNode instruction : method.instructions.toArray()) {
+            if (instruction.getOpcode() == Opcodes.NEW && OKHTTP_CLIENT_CLASS.equals(((TypeInsnNode) instruction).desc)) {
+                AbstractInsnNode next = getNextInstruction(instruction);
+                pendingConstructions.push(next != null && next.getOpcode() == Opcodes.DUP);
+            } else if (instruction instanceof MethodInsnNode) {
+                MethodInsnNode call = (MethodInsnNode) instruction;
+                boolean createsClient;
+                if (call.getOpcode() == Opcodes.INVOKESPECIAL && OKHTTP_CLIENT_CLASS.equals(call.owner) && "<init>".equals(call.name))
+                    // A constructor without a pending construction is the super call of a subclass
+                    createsClient = !pendingConstructions.isEmpty() && pendingConstructions.pop();
+                else
+                    createsClient = OKHTTP_CLIENT_BUILDER_CLASS.equals(call.owner) && "build".equals(call.name) &&
+                            Type.getReturnType(call.desc).getInternalName().equals(OKHTTP_CLIENT_CLASS);
+                if (!createsClient) continue;
+
+                AbstractInsnNode next = getNextInstruction(call);
+                if (next == null || next.getOpcode() == Opcodes.POP) continue;
+                if (next instanceof MethodInsnNode && isNappaCall((MethodInsnNode) next, "getOkHttp")) continue;
+                method.instructions.insert(call, new MethodInsnNode(Opcodes.INVOKESTATIC, NAPPA_CLASS, "getOkHttp", GET_OKHTTP_DESCRIPTOR, false));
+                instrumentedCount++;
+            }
+        }
+        return instrumentedCount;
+    }
+
+    /**
+     * Registers the NAPPA lifecycle observer in the {@code onCreate} method of an activity, after the call to
+     * {@code super.onCreate} or at the start of the method if it does not call it. The method is skipped if it
+     * already creates a lifecycle observer.
+     *
+     * @param method    The {@code onCreate} method
+     * @param className The internal name of the activity class
+     * @return {@code True} if the observer is injected or {@code False} otherwise
+     */
+    static boolean injectLifecycleObserver(MethodNode method, String className) {
+        AbstractInsnNode superCall = null;
+        for (AbstractInsnNode instruction : method.instructions.toArray()) {
+            if (instruction.getOpcode() == Opcodes.NEW && NAPPA_LIFECYCLE_OBSERVER_CLASS.equals(((TypeInsnNode) instruction).desc))
+                return false;
+            if (superCall == null && instruction.getOpcode() == Opcodes.INVOKESPECIAL &&
+                    ON_CREATE_METHOD.equals(((MethodInsnNode) instruction).name) &&
+                    ON_CREATE_DESCRIPTOR.equals(((MethodInsnNode) instruction).desc))
+                superCall = instruction;
+        }
+
+        if (superCall != null) method.instructions.insert(superCall, createLifecycleObserverProbe(className));
+        else method.instructions.insert(createLifecycleObserverProbe(className));
+        method.maxStack = Math.max(method.maxStack, LIFECYCLE_OBSERVER_STACK_SIZE);
+        return true;
+    }
+
+    /**
+     * Creates the {@code onCreate} method of an activity which does not override it. The method calls
+     * {@code super.onCreate} and registers the NAPPA lifecycle observer.
+     *
+     * @param className      The internal name of the activity class
+     * @param superClassName The internal name of the superclass of the activity
+     * @return The {@code onCreate} method
+     */
+    static MethodNode createOnCreateMethod(String className, String superClassName) {
+        MethodNode method = new MethodNode(Opcodes.ACC_PROTECTED, ON_CREATE_METHOD, ON_CREATE_DESCRIPTOR, null, null);
+        method.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        method.instructions.add(new VarInsnNode(Opcodes.ALOAD, 1));
+        method.instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, superClassName, ON_CREATE_METHOD, ON_CREATE_DESCRIPTOR, false));
+        method.instructions.add(createLifecycleObserverProbe(className));
+        method.instructions.add(new InsnNode(Opcodes.RETURN));
+        method.maxStack = LIFECYCLE_OBSERVER_STACK_SIZE;
+        method.maxLocals = 2;
+        return method;
+    }
+
+    /**
+     * Inserts {@code Nappa.notifyExtras(intent.getExtras())} before a {@code startActivity} call. If the intent is
+     * the only argument, it is duplicated in the stack, which needs one more stack slot. Otherwise, the arguments are stored in new local variables,
+     * starting at the current maximum, and loaded again after the probe.
+     *
+     * @param method        The method containing the call
+     * @param call          The {@code startActivity} call
+     * @param argumentTypes The types of the arguments of the call
+     * @param intentIndex   The position of the intent in the arguments
+     * @return The number of local variables used by the method after the insertion
+     */
+    private static int insertNotifyExtras(MethodNode method, MethodInsnNode call, Type[] argumentTypes, int intentIndex) {
+        InsnList probe = new InsnList();
+        if (argumentTypes.length == 1) {
+            probe.add(new InsnNode(Opcodes.DUP));
+            addNotifyExtras(probe);
+            method.instructions.insertBefore(call, probe);
+            return method.maxLocals;
+        }
+
+        int[] locals = new int[argumentTypes.length];
+        int nextLocal = method.maxLocals;
+        for (int i = 0; i < argumentTypes.length; i++) {
+            locals[i] = nextLocal;
+            nextLocal += argumentTypes[i].getSize();
+        }
+        for (int i = argumentTypes.length - 1; i >= 0; i--) {
+            probe.add(new VarInsnNode(argumentTypes[i].getOpcode(Opcodes.ISTORE), locals[i]));
+        }
+        probe.add(new VarInsnNode(Opcodes.ALOAD, locals[intentIndex]));
+        addNotifyExtras(probe);
+        for (int i = 0; i < argumentTypes.length; i++) {
+            probe.add(new VarInsnNode(argumentTypes[i].getOpcode(Opcodes.ILOAD), locals[i]));
+        }
+        method.instructions.insertBefore(call, probe);
+        return nextLocal;
+    }
+
+    /**
+     * Adds {@code Nappa.notifyExtras(intent.getExtras())}, consuming the intent at the top of the stack
+     *
+     * @param probe The instructions to add the probe to
+     */
+    private static void addNotifyExtras(InsnList probe) {
+        probe.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, INTENT_CLASS, "getExtras", "()Landroid/os/Bundle;", false));
+        probe.add(new MethodInsnNode(Opcodes.INVOKESTATIC, NAPPA_CLASS, "notifyExtras", NOTIFY_EXTRAS_DESCRIPTOR, false));
+    }
+
+    /**
+     * @param className The internal name of the activity class
+     * @return The instructions of {@code getLifecycle().addObserver(new NappaLifecycleObserver(this))}
+     */
+    private static InsnList createLifecycleObserverProbe(String className) {
+        InsnList probe = new InsnList();
+        probe.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        probe.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, className, "getLifecycle", "()L" + LIFECYCLE_CLASS + ";", false));
+        probe.add(new TypeInsnNode(Opcodes.NEW, NAPPA_LIFECYCLE_OBSERVER_CLASS));
+        probe.add(new InsnNode(Opcodes.DUP));
+        probe.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        probe.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, NAPPA_LIFECYCLE_OBSERVER_CLASS, "<init>", "(Landroid/app/Activity;)V", false));
+        probe.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, LIFECYCLE_CLASS, "addObserver", "(Landroidx/lifecycle/LifecycleObserver;)V", false));
+        return probe;
+    }
+
+    /**
+     * @param argumentTypes The types of the arguments of a call
+     * @return The position of the first intent in the arguments or {@code -1} if there is none
+     */
+    private static int getIntentArgumentIndex(Type[] argumentTypes) {
+        for (int i = 0; i < argumentTypes.length; i++) {
+            if (argumentTypes[i].getSort() == Type.OBJECT && INTENT_CLASS.equals(argumentTypes[i].getInternalName()))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param call       A method call
+     * @param methodName The name of a method of the class {@code Nappa}
+     * @return {@code True} if the call invokes the method or {@code False} otherwise
+     */
+    private static boolean isNappaCall(MethodInsnNode call, String methodName) {
+        return call.getOpcode() == Opcodes.INVOKESTATIC && NAPPA_CLASS.equals(call.owner) && methodName.equals(call.name);
+    }
+
+    /**
+     * @param instruction An instruction of a method
+     * @return The next instruction executed, skipping labels, line numbers and frames, or {@code null} if there is none
+     */
+    private static AbstractInsnNode getNextInstruction(AbstractInsnNode instruction) {
+        AbstractInsnNode next = instruction.getNext();
+        while (next != null && next.getOpcode() < 0) {
+            next = next.getNext();
+        }
+        return next;
+    }
+}
@@ -0,0 +1,193 @@
+package nl.vu.cs.s2group.nappa.plugin.gradle;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import com.example.app.InstrumentedActivity;
+import com.example.app.MainActivity;
+import com.example.app.Navigator;
+import com.example.app.PlainActivity;
+import nl.vu.cs.s2group.nappa.Nappa;
+import nl.vu.cs.s2group.nappa.NappaLifecycleObserver;
+import okhttp3.OkHttpClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instruments the compiled classes of the fixtures (see {@code src/fixtures/java}) and runs them on the JVM. The
+ * Android, OkHttp and NAPPA classes are stubs recording the calls of the probes, thus no device is needed. The
+ * instrumented classes are written without computing the frames or the maximum sizes, as the Android Gradle
+ * Plugin does, and loaded with the bytecode verifier enabled.
+ */
+public class InstrumentClassVisitorTest {
+    private int instrumentedCount;
+
+    @Before
+    public void setUp() {
+        Nappa.notifiedExtras.clear();
+        Nappa.clients.clear();
+    }
+
+    @Test
+    public void notifiesTheExtrasBeforeStartingAnActivity() throws Exception {
+        Activity activity = newInstance(instrument(MainActivity.class, true));
+        Intent intent = new Intent();
+        invoke(activity, "openDetails", new Class<?>[]{Intent.class}, intent);
+
+        assertEquals(Collections.singletonList(intent.getExtras()), Nappa.notifiedExtras);
+        assertEquals(Collections.singletonList(intent), activity.startedIntents);
+    }
+
+    @Test
+    public void notifiesTheExtrasOfACallWithSeveralArguments() throws Exception {
+        Activity activity = newInstance(instrument(MainActivity.class, true));
+        Intent intent = new Intent();
+        invoke(activity, "openForResult", new Class<?>[]{Intent.class, Bundle.class}, intent, new Bundle());
+
+        assertEquals(Collections.singletonList(intent.getExtras()), Nappa.notifiedExtras);
+        assertEquals(Collections.singletonList(intent), activity.startedIntents);
+    }
+
+    @Test
+    public void keepsTheFramesValidInMethodsWithBranches() throws Exception {
+        Class<?> navigator = instrument(Navigator.class, false);
+        Activity activity = new Activity();
+        Intent firstIntent = new Intent();
+        Intent secondIntent = new Intent();
+        invoke(null, navigator, "open", new Class<?>[]{Activity.class, Intent.class, long.class}, activity, firstIntent, 1L);
+        invoke(null, navigator, "open", new Class<?>[]{Activity.class, Intent.class, long.class}, activity, secondIntent, -1L);
+
+        assertEquals(2, instrumentedCount);
+        assertEquals(Arrays.asList(firstIntent.getExtras(), secondIntent.getExtras()), Nappa.notifiedExtras);
+        assertEquals(Arrays.asList(firstIntent, secondIntent), activity.startedIntents);
+    }
+
+    @Test
+    public void wrapsTheCreatedOkHttpClients() throws Exception {
+        Activity activity = newInstance(instrument(MainActivity.class, true));
+        Object constructedClient = invoke(activity, "createClient", new Class<?>[0]);
+        Object builtClient = invoke(activity, "buildClient", new Class<?>[0]);
+        invoke(activity, "discardClient", new Class<?>[0]);
+
+        assertEquals(Arrays.<OkHttpClient>asList((OkHttpClient) constructedClient, (OkHttpClient) builtClient), Nappa.clients);
+    }
+
+    @Test
+    public void registersTheLifecycleObserverInOnCreate() throws Exception {
+        Activity activity = newInstance(instrument(MainActivity.class, true));
+        invoke(activity, "onCreate", new Class<?>[]{Bundle.class}, new Bundle());
+
+        assertTrue(activity.getClass().getField("isCreated").getBoolean(activity));
+        Lifecycle lifecycle = ((LifecycleOwner) activity).getLifecycle();
+        assertEquals(1, lifecycle.observers.size());
+        assertTrue(lifecycle.observers.get(0) instanceof NappaLifecycleObserver);
+    }
+
+    @Test
+    public void addsOnCreateToActivitiesWithoutIt() throws Exception {
+        Activity activity = newInstance(instrument(PlainActivity.class, true));
+        invoke(activity, "onCreate", new Class<?>[]{Bundle.class}, new Bundle());
+
+        assertEquals(1, instrumentedCount);
+        assertEquals(1, ((LifecycleOwner) activity).getLifecycle().observers.size());
+    }
+
+    @Test
+    public void doesNotRegisterTheLifecycleObserverOutsideActivities() throws Exception {
+        Activity activity = newInstance(instrument(MainActivity.class, false));
+        invoke(activity, "onCreate", new Class<?>[]{Bundle.class}, new Bundle());
+
+        assertTrue(((LifecycleOwner) activity).getLifecycle().observers.isEmpty());
+    }
+
+    @Test
+    public void skipsTheSitesInstrumentedInTheSources() throws Exception {
+        Activity activity = newInstance(instrument(InstrumentedActivity.class, true));
+        invoke(activity, "onCreate", new Class<?>[]{Bundle.class}, new Bundle());
+        invoke(activity, "openDetails", new Class<?>[]{Intent.class}, new Intent());
+        invoke(activity, "createClient", new Class<?>[0]);
+
+        assertEquals(0, instrumentedCount);
+        assertEquals(1, ((LifecycleOwner) activity).getLifecycle().observers.size());
+        assertEquals(1, Nappa.notifiedExtras.size());
+        assertEquals(1, Nappa.clients.size());
+    }
+
+    @Test
+    public void findsTheClassesToInstrument() {
+        assertTrue(InstrumentProbes.isLifecycleActivity(
+                Arrays.asList("androidx.appcompat.app.AppCompatActivity", "androidx.fragment.app.FragmentActivity",
+                        "androidx.activity.ComponentActivity", "android.app.Activity", "java.lang.Object"),
+                Collections.emptyList()));
+        assertTrue(InstrumentProbes.isLifecycleActivity(Arrays.asList("android.app.Activity", "java.lang.Object"),
+                Collections.singletonList("androidx.lifecycle.LifecycleOwner")));
+        assertFalse(InstrumentProbes.isLifecycleActivity(Arrays.asList("android.app.Activity", "java.lang.Object"),
+                Collections.emptyList()));
+
+        assertTrue(InstrumentProbes.isNappaLibraryClass("nl.vu.cs.s2group.nappa.Nappa"));
+        assertFalse(InstrumentProbes.isNappaLibraryClass("nl.vu.cs.s2group.nappa.sample.app.MainActivity"));
+        assertFalse(InstrumentProbes.isNappaLibraryClass("com.example.app.MainActivity"));
+    }
+
+    /**
+     * Instruments the compiled class of a fixture and loads it in its own class loader. The other classes are
+     * loaded by the class loader of the tests, thus the stubs are shared with the tests.
+     *
+     * @param fixture             The class of the fixture
+     * @param isLifecycleActivity Indicates if the fixture is a lifecycle owner activity
+     * @return The instrumented class
+     */
+    private Class<?> instrument(Class<?> fixture, boolean isLifecycleActivity) throws ClassNotFoundException {
+        String resourceName = "/" + fixture.getName().replace('.', '/') + ".class";
+        byte[] instrumentedClass;
+        try (InputStream stream = fixture.getResourceAsStream(resourceName)) {
+            ClassReader reader = new ClassReader(stream);
+            ClassWriter writer = new ClassWriter(0);
+            InstrumentClassVisitor visitor = new InstrumentClassVisitor(Opcodes.ASM9, writer, isLifecycleActivity);
+            reader.accept(visitor, 0);
+            instrumentedCount = visitor.getInstrumentedCount();
+            instrumentedClass = writer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (!name.equals(fixture.getName())) return super.loadClass(name, resolve);
+                synchronized (getClassLoadingLock(name)) {
+                    Class<?> loadedClass = findLoadedClass(name);
+                    return loadedClass != null ? loadedClass : defineClass(name, instrumentedClass, 0, instrumentedClass.length);
+                }
+            }
+        }.loadClass(fixture.getName());
+    }
+
+    private static Activity newInstance(Class<?> activityClass) throws Exception {
+        return (Activity) activityClass.getConstructor().newInstance();
+    }
+
+    private static Object invoke(Object target, String methodName, Class<?>[] parameterTypes, Object... arguments) throws Exception {
+        return invoke(target, target.getClass(), methodName, parameterTypes, arguments);
+    }
+
+    private static Object invoke(Object target, Class<?> targetClass, String methodName, Class<?>[] parameterTypes, Object... arguments) throws Exception {
+        Method method = targetClass.getDeclaredMethod(methodName, parameterTypes);
+        method.setAccessible(true);
+        return method.invoke(target, arguments);
+    }
+}
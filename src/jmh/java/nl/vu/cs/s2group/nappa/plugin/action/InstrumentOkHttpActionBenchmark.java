@@ -0,0 +1,64 @@
+package nl.vu.cs.s2group.nappa.plugin.action;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.psi.*;
+import nl.vu.cs.s2group.nappa.plugin.benchmark.BenchmarkProject;
+import nl.vu.cs.s2group.nappa.plugin.benchmark.SyntheticSources;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link InstrumentOkHttpAction#makeInstrumentationLine} on the three kinds of statements it instruments.
+ * The size of the statements grows with the {@code builderCalls} chained to the {@code OkHttpClient.Builder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InstrumentOkHttpActionBenchmark {
+    @Param({"1", "10", "100"})
+    public int builderCalls;
+
+    private BenchmarkProject benchmarkProject;
+    private PsiLocalVariable declaration;
+    private PsiAssignmentExpression assignment;
+    private PsiReturnStatement returnStatement;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        benchmarkProject = new BenchmarkProject();
+        PsiJavaFile javaFile = benchmarkProject.createJavaFile(SyntheticSources.CLASS_NAME + ".java",
+                SyntheticSources.javaActivity(1, 10, builderCalls));
+
+        ReadAction.run(() -> {
+            //noinspection ConstantConditions -- The synthetic methods have a body
+            PsiStatement[] statements = javaFile.getClasses()[0].getMethods()[0].getBody().getStatements();
+            declaration = (PsiLocalVariable) ((PsiDeclarationStatement) statements[2]).getDeclaredElements()[0];
+            assignment = (PsiAssignmentExpression) ((PsiExpressionStatement) statements[3]).getExpression();
+            returnStatement = (PsiReturnStatement) statements[statements.length - 1];
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        benchmarkProject.dispose();
+    }
+
+    @Benchmark
+    public String makeInstrumentationLineForDeclaration() {
+        return ReadAction.compute(() -> InstrumentOkHttpAction.makeInstrumentationLine(
+                InstrumentOkHttpAction.STATEMENT_TYPE_DECLARATION, declaration));
+    }
+
+    @Benchmark
+    public String makeInstrumentationLineForAssignment() {
+        return ReadAction.compute(() -> InstrumentOkHttpAction.makeInstrumentationLine(
+                InstrumentOkHttpAction.STATEMENT_TYPE_ASSIGNMENT, assignment));
+    }
+
+    @Benchmark
+    public String makeInstrumentationLineForReturn() {
+        return ReadAction.compute(() -> InstrumentOkHttpAction.makeInstrumentationLine(
+                InstrumentOkHttpAction.STATEMENT_TYPE_RETURN, returnStatement));
+    }
+}
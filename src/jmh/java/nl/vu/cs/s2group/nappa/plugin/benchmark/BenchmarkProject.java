@@ -0,0 +1,69 @@
+package nl.vu.cs.s2group.nappa.plugin.benchmark;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.testFramework.EdtTestUtil;
+import com.intellij.testFramework.LightProjectDescriptor;
+import com.intellij.testFramework.fixtures.IdeaProjectTestFixture;
+import com.intellij.testFramework.fixtures.IdeaTestFixtureFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.psi.KtFile;
+
+import static org.jetbrains.kotlin.psi.KtPsiFactoryKt.KtPsiFactory;
+
+/**
+ * A light IntelliJ project used by the benchmarks to build synthetic PSI, see {@link SyntheticSources}.
+ * The files are not written to disk and their references are not resolved, which is enough for the utilities
+ * that only inspect the structure and text of the PSI tree.
+ * <p>
+ * Starting the project is slow, thus a project should be created once per trial and disposed afterwards.
+ */
+public final class BenchmarkProject {
+    private final IdeaProjectTestFixture fixture;
+
+    public BenchmarkProject() {
+        fixture = IdeaTestFixtureFactory.getFixtureFactory()
+                .createLightFixtureBuilder(LightProjectDescriptor.EMPTY_PROJECT_DESCRIPTOR)
+                .getFixture();
+        EdtTestUtil.runInEdtAndWait(fixture::setUp);
+    }
+
+    /**
+     * @return An object representing an IntelliJ project.
+     */
+    public @NotNull
+    Project getProject() {
+        return fixture.getProject();
+    }
+
+    /**
+     * @param fileName The name of the file, e.g. {@code MainActivity.java}
+     * @param text     The source code of the file
+     * @return A Java file which is not written to disk
+     */
+    public @NotNull
+    PsiJavaFile createJavaFile(@NotNull String fileName, @NotNull String text) {
+        return ReadAction.compute(() -> (PsiJavaFile) PsiFileFactory.getInstance(getProject())
+                .createFileFromText(fileName, JavaFileType.INSTANCE, text));
+    }
+
+    /**
+     * @param fileName The name of the file, e.g. {@code MainActivity.kt}
+     * @param text     The source code of the file
+     * @return A Kotlin file which is not written to disk
+     */
+    public @NotNull
+    KtFile createKotlinFile(@NotNull String fileName, @NotNull String text) {
+        return ReadAction.compute(() -> KtPsiFactory(getProject()).createFile(fileName, text));
+    }
+
+    /**
+     * Closes the project
+     */
+    public void dispose() {
+        EdtTestUtil.runInEdtAndWait(fixture::tearDown);
+    }
+}
@@ -0,0 +1,101 @@
+package nl.vu.cs.s2group.nappa.plugin.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Generates the source code of synthetic Android activities of increasing size. Each method contains one
+ * instance of each instrumentable site (a {@code startActivity} call, an {@code OkHttpClient} declaration,
+ * assignment and return) followed by filler statements.
+ */
+public final class SyntheticSources {
+    public static final String CLASS_NAME = "SyntheticActivity";
+
+    // The number of statements of a method that are not fillers, including the return statement
+    private static final int SITE_STATEMENTS = 6;
+
+    private SyntheticSources() {
+        throw new IllegalStateException("SyntheticSources is a utility class and should be instantiated!");
+    }
+
+    /**
+     * @param methods             The number of methods of the class
+     * @param statementsPerMethod The number of statements of each method, at least {@value #SITE_STATEMENTS}
+     * @param builderCalls        The number of calls chained to each {@code OkHttpClient.Builder}
+     * @return The source code of a Java activity
+     */
+    public static @NotNull
+    String javaActivity(int methods, int statementsPerMethod, int builderCalls) {
+        StringBuilder builder = new StringBuilder()
+                .append("package nl.vu.cs.s2group.nappa.sample;\n\n")
+                .append("import android.content.Context;\n")
+                .append("import android.content.Intent;\n")
+                .append("import androidx.appcompat.app.AppCompatActivity;\n")
+                .append("import okhttp3.OkHttpClient;\n\n")
+                .append("public class ").append(CLASS_NAME).append(" extends AppCompatActivity {\n")
+                .append("    private OkHttpClient client = new OkHttpClient();\n\n");
+
+        for (int i = 0; i < methods; i++) {
+            builder.append("    public OkHttpClient method").append(i).append("(Context context) {\n")
+                    .append("        Intent intent = new Intent(context, ").append(CLASS_NAME).append(".class);\n")
+                    .append("        intent.putExtra(\"key\", ").append(i).append(");\n")
+                    .append("        OkHttpClient okHttpClient = new OkHttpClient.Builder()")
+                    .append(javaBuilderCalls(builderCalls)).append(".build();\n")
+                    .append("        okHttpClient = new OkHttpClient();\n")
+                    .append("        startActivity(intent);\n");
+            for (int j = SITE_STATEMENTS; j < statementsPerMethod; j++) {
+                builder.append("        int value").append(j).append(" = ").append(j).append(";\n");
+            }
+            builder.append("        return new OkHttpClient.Builder()")
+                    .append(javaBuilderCalls(builderCalls)).append(".build();\n")
+                    .append("    }\n\n");
+        }
+
+        return builder.append("}\n").toString();
+    }
+
+    /**
+     * @param methods             The number of functions of the class
+     * @param statementsPerMethod The number of statements of each function, at least {@value #SITE_STATEMENTS}
+     * @return The source code of a Kotlin activity
+     */
+    public static @NotNull
+    String kotlinActivity(int methods, int statementsPerMethod) {
+        StringBuilder builder = new StringBuilder()
+                .append("package nl.vu.cs.s2group.nappa.sample\n\n")
+                .append("import android.content.Context\n")
+                .append("import android.content.Intent\n")
+                .append("import androidx.appcompat.app.AppCompatActivity\n")
+                .append("import okhttp3.OkHttpClient\n\n")
+                .append("class ").append(CLASS_NAME).append(" : AppCompatActivity() {\n")
+                .append("    private var client = OkHttpClient()\n\n");
+
+        for (int i = 0; i < methods; i++) {
+            builder.append("    fun method").append(i).append("(context: Context): OkHttpClient {\n")
+                    .append("        val intent = Intent(context, ").append(CLASS_NAME).append("::class.java)\n")
+                    .append("        intent.putExtra(\"key\", ").append(i).append(")\n")
+                    .append("        var okHttpClient = OkHttpClient.Builder().build()\n")
+                    .append("        okHttpClient = OkHttpClient()\n")
+                    .append("        startActivity(intent)\n");
+            for (int j = SITE_STATEMENTS; j < statementsPerMethod; j++) {
+                builder.append("        val value").append(j).append(" = ").append(j).append("\n");
+            }
+            builder.append("        return OkHttpClient.Builder().build()\n")
+                    .append("    }\n\n");
+        }
+
+        return builder.append("}\n").toString();
+    }
+
+    /**
+     * @param builderCalls The number of calls to chain
+     * @return The calls to chain to an {@code OkHttpClient.Builder}, e.g. {@code .retryOnConnectionFailure(true)}
+     */
+    private static @NotNull
+    String javaBuilderCalls(int builderCalls) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < builderCalls; i++) {
+            builder.append("\n                .retryOnConnectionFailure(").append(i % 2 == 0).append(")");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
+import nl.vu.cs.s2group.nappa.plugin.benchmark.BenchmarkProject;
+import nl.vu.cs.s2group.nappa.plugin.benchmark.SyntheticSources;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSite;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.uast.UCallExpression;
+import org.jetbrains.uast.UElement;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the utilities of {@link InstrumentUtil} on a synthetic Java activity with {@code size} methods
+ * of {@code size} statements each. Each benchmark runs in a read action, as the instrumentation does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InstrumentUtilBenchmark {
+    @Param({"10", "50", "200"})
+    public int size;
+
+    private BenchmarkProject benchmarkProject;
+    private PsiJavaFile javaFile;
+    // The deepest leaf of the last method, the worst case when searching for an ancestor
+    private PsiElement deepestElement;
+    private PsiStatement lastStatement;
+    // The startActivity calls, as recorded by the InstrumentSiteIndex
+    private List<InstrumentSite> sites;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        benchmarkProject = new BenchmarkProject();
+        javaFile = benchmarkProject.createJavaFile(SyntheticSources.CLASS_NAME + ".java",
+                SyntheticSources.javaActivity(size, size, 1));
+
+        ReadAction.run(() -> {
+            PsiClass psiClass = javaFile.getClasses()[0];
+            PsiMethod[] psiMethods = psiClass.getMethods();
+            //noinspection ConstantConditions -- The synthetic methods have a body
+            PsiStatement[] lastStatements = psiMethods[psiMethods.length - 1].getBody().getStatements();
+            lastStatement = lastStatements[lastStatements.length - 1];
+            deepestElement = PsiTreeUtil.getDeepestLast(lastStatement);
+
+            sites = new ArrayList<>();
+            for (PsiMethod psiMethod : psiMethods) {
+                //noinspection ConstantConditions -- The synthetic methods have a body
+                for (PsiStatement statement : psiMethod.getBody().getStatements()) {
+                    if (statement.getText().startsWith("startActivity"))
+                        sites.add(new InstrumentSite(statement.getTextRange().getStartOffset(), false));
+                }
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        benchmarkProject.dispose();
+    }
+
+    @Benchmark
+    public String getUniqueVariableName() {
+        // A new plan is created in each invocation, otherwise the names reserved by previous invocations accumulate
+        return ReadAction.compute(() -> InstrumentUtil.getUniqueVariableName(lastStatement, "intent",
+                new InstrumentPlan(benchmarkProject.getProject())));
+    }
+
+    @Benchmark
+    public PsiElement getAncestorPsiElementFromElement() {
+        return ReadAction.compute(() -> InstrumentUtil.getAncestorPsiElementFromElement(deepestElement, PsiClass.class));
+    }
+
+    /**
+     * The equivalent search with the IntelliJ utilities, used as baseline for {@link #getAncestorPsiElementFromElement}
+     */
+    @Benchmark
+    public PsiElement getParentOfType() {
+        return ReadAction.compute(() -> PsiTreeUtil.getParentOfType(deepestElement, PsiClass.class));
+    }
+
+    /**
+     * The UAST visit of {@link InstrumentUastScanner#scanFile}, skipping the subtrees without sites and matching
+     * the {@code startActivity} calls. The matched calls are consumed instead of instrumented.
+     */
+    @Benchmark
+    public void scanFile(Blackhole blackhole) {
+        ReadAction.run(() -> InstrumentUastScanner.scanFile(javaFile, sites, new InstrumentUastScanner.SiteMatcher() {
+            @Override
+            public @NotNull
+            InstrumentSiteKind getKind() {
+                return InstrumentSiteKind.START_ACTIVITY;
+            }
+
+            @Override
+            public @NotNull
+            List<FileType> getFileTypes() {
+                return Collections.singletonList(JavaFileType.INSTANCE);
+            }
+
+            @Override
+            public boolean matches(@NotNull UElement node, @NotNull InstrumentResultMessage resultMessage) {
+                return node instanceof UCallExpression &&
+                        "startActivity".equals(InstrumentUastScanner.getCalleeName((UCallExpression) node));
+            }
+
+            @Override
+            public void instrument(@NotNull UElement site, @NotNull InstrumentPlan plan, @NotNull InstrumentResultMessage resultMessage) {
+                blackhole.consume(site);
+            }
+        }, new InstrumentPlan(benchmarkProject.getProject()), new InstrumentResultMessage()));
+    }
+}
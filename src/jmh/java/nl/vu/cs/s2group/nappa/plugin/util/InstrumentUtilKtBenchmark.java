@@ -0,0 +1,58 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.util.PsiTreeUtil;
+import nl.vu.cs.s2group.nappa.plugin.benchmark.BenchmarkProject;
+import nl.vu.cs.s2group.nappa.plugin.benchmark.SyntheticSources;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the utilities of {@link InstrumentUtilKt} on a synthetic Kotlin activity with {@code size} functions
+ * of {@code size} statements each. Each benchmark runs in a read action, as the instrumentation does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InstrumentUtilKtBenchmark {
+    @Param({"10", "50", "200"})
+    public int size;
+
+    private BenchmarkProject benchmarkProject;
+    // The deepest leaf of the file, the worst case when searching for the file
+    private PsiElement deepestElement;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        benchmarkProject = new BenchmarkProject();
+        KtFile ktFile = benchmarkProject.createKotlinFile(SyntheticSources.CLASS_NAME + ".kt",
+                SyntheticSources.kotlinActivity(size, size));
+        deepestElement = ReadAction.compute(() -> PsiTreeUtil.getDeepestLast(ktFile));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        benchmarkProject.dispose();
+    }
+
+    @Benchmark
+    public InstrumentPlan addLibraryImportToKt() {
+        // A new plan is created in each invocation, otherwise it would only record the import once
+        return ReadAction.compute(() -> {
+            InstrumentPlan plan = new InstrumentPlan(benchmarkProject.getProject());
+            InstrumentUtilKt.addLibraryImportToKt(plan, deepestElement);
+            return plan;
+        });
+    }
+
+    /**
+     * The cost of creating the plan, used as baseline for {@link #addLibraryImportToKt}
+     */
+    @Benchmark
+    public InstrumentPlan createPlan() {
+        return ReadAction.compute(() -> new InstrumentPlan(benchmarkProject.getProject()));
+    }
+}
@@ -0,0 +1,120 @@
+package nl.vu.cs.s2group.nappa.plugin.action;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPlan;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentTask;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Base class of the actions that instrument a project. The instrumentation runs as a cancellable
+ * background task (see {@link InstrumentTask}) and the action is disabled while another
+ * instrumentation is running in the same project.
+ * <p>
+ * The actions do not modify the source code while scanning. Instead, they register their edits in an
+ * {@link InstrumentPlan}, which is applied once the scan finishes, and at the checkpoints of long scans if the
+ * project enables them.
+ * If the preview is enabled (see {@link InstrumentPreviewToggleAction}), the plan is only applied once the user
+ * accepts its changes.
+ */
+public abstract class InstrumentAction extends AnAction {
+    private final String taskTitle;
+    private final String resultTitle;
+    private final String errorTitle;
+
+    /**
+     * @param taskTitle   The title of the background task shown in the progress bar
+     * @param resultTitle The title of the results tab
+     * @param errorTitle  The title of the error dialog
+     */
+    protected InstrumentAction(String taskTitle, String resultTitle, String errorTitle) {
+        this.taskTitle = taskTitle;
+        this.resultTitle = resultTitle;
+        this.errorTitle = errorTitle;
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        e.getPresentation().setEnabled(project != null && !InstrumentTask.isRunning(project));
+    }
+
+    /**
+     * Starts the instrumentation in background, in preview mode if the preview is enabled.
+     *
+     * @param e {@inheritDoc}
+     */
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) return;
+
+        InstrumentPlan plan = new InstrumentPlan(project);
+        plan.setPreviewMode(InstrumentPreviewToggleAction.isPreviewEnabled());
+        InstrumentResultMessage resultMessage = new InstrumentResultMessage();
+        new InstrumentTask(project, taskTitle, plan, resultMessage, resultTitle, errorTitle,
+                indicator -> runInstrumentation(project, indicator, plan, resultMessage)).queue();
+    }
+
+    /**
+     * Runs the instrumentation in the calling thread and applies the plan, without a background task or dialogs.
+     * It is used to instrument a project from the command line, see
+     * {@link nl.vu.cs.s2group.nappa.plugin.headless.InstrumentStarter InstrumentStarter}.
+     * This method blocks until the plan is applied and must not be invoked in the Event Dispatch Thread.
+     *
+     * @param project       An object representing an IntelliJ project.
+     * @param indicator     The progress indicator of the instrumentation
+     * @param resultMessage The result message to fill with the outcome of the instrumentation
+     * @return The number of edits that could not be applied, see {@link InstrumentPlan#apply}
+     */
+    public final int instrumentInCurrentThread(@NotNull Project project,
+                                               @NotNull ProgressIndicator indicator,
+                                               @NotNull InstrumentResultMessage resultMessage) {
+        InstrumentPlan plan = new InstrumentPlan(project);
+        ProgressManager.getInstance().runProcess(() -> runInstrumentation(project, indicator, plan, resultMessage), indicator);
+
+        int[] skippedEdits = new int[]{0};
+        ApplicationManager.getApplication().invokeAndWait(() -> skippedEdits[0] = plan.apply(taskTitle, resultMessage));
+        resultMessage.getStatistics().appendToProjectLog(project);
+        return skippedEdits[0];
+    }
+
+    /**
+     * Runs {@link #instrument} and records its total time in the {@code resultMessage} under the name of this action
+     *
+     * @param project       An object representing an IntelliJ project.
+     * @param indicator     The progress indicator of the running task
+     * @param plan          The plan collecting the edits of the instrumentation
+     * @param resultMessage The result message to fill with the outcome of the instrumentation
+     */
+    protected final void runInstrumentation(@NotNull Project project,
+                                            @NotNull ProgressIndicator indicator,
+                                            @NotNull InstrumentPlan plan,
+                                            @NotNull InstrumentResultMessage resultMessage) {
+        long start = System.nanoTime();
+        try {
+            instrument(project, indicator, plan, resultMessage);
+        } finally {
+            resultMessage.recordActionTime(getClass().getSimpleName(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Scans the project and registers the edits required to instrument all elements found.
+     * This method runs in a background thread and must not modify the source code.
+     *
+     * @param project       An object representing an IntelliJ project.
+     * @param indicator     The progress indicator of the running task
+     * @param plan          The plan collecting the edits of the instrumentation
+     * @param resultMessage The result message to fill with the outcome of the instrumentation
+     */
+    protected abstract void instrument(@NotNull Project project,
+                                       @NotNull ProgressIndicator indicator,
+                                       @NotNull InstrumentPlan plan,
+                                       @NotNull InstrumentResultMessage resultMessage);
+}
@@ -1,578 +1,1203 @@
 package nl.vu.cs.s2group.nappa.plugin.action;
 
-import com.intellij.openapi.actionSystem.AnAction;
-import com.intellij.openapi.actionSystem.AnActionEvent;
-import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
-import com.intellij.psi.search.FilenameIndex;
 import com.intellij.psi.search.GlobalSearchScope;
-import com.intellij.psi.xml.XmlAttribute;
+import com.intellij.psi.search.searches.ClassInheritorsSearch;
+import com.intellij.psi.util.InheritanceUtil;
+import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTag;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteCollector;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteCollectorKt;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
+import nl.vu.cs.s2group.nappa.plugin.settings.InstrumentSettings;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentManifest;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPhase;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPlan;
 import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentTask;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUastScanner;
 import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUtil;
 import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUtilKt;
 import org.jetbrains.annotations.NotNull;
-
-import org.jetbrains.kotlin.idea.quickfix.crossLanguage.KotlinElementActionsFactory;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.asJava.LightClassUtilsKt;
+import org.jetbrains.kotlin.idea.KotlinFileType;
 import org.jetbrains.kotlin.psi.*;
+import org.jetbrains.uast.UClass;
+import org.jetbrains.uast.UElement;
+import org.jetbrains.uast.UMethod;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * This class pertains to the parsing of the android manifest files for Activities
  * and also setting up the Pre-fetching library package imports for usage on the application/ Project.
  * Furthermore injects the Prefetch.init code to the project in order to initialize the prefetching
- * library
+ * library in the {@code Application} class of the app, which is generated when the app does not declare one
+ * <p>
+ * The action also matches the {@code onCreate} methods of the activities, thus a single activity can be instrumented
+ * without searching the project, e.g. from the editor.
  */
-public class InstrumentActivityAction extends AnAction {
-    private Project project;
-    private InstrumentResultMessage resultMessage;
+public class InstrumentActivityAction extends InstrumentAction {
+    // AppCompatActivity extends Activity, but it is also searched in case the Android SDK is not resolved
+    private static final String[] ACTIVITY_BASE_CLASSES = new String[]{
+            "android.app.Activity",
+            "androidx.appcompat.app.AppCompatActivity",
+            "android.support.v7.app.AppCompatActivity"
+    };
+    private static final String GENERATED_APPLICATION_CLASS_NAME = "NappaApplication";
+
+    public InstrumentActivityAction() {
+        super("Instrumenting activities", "Lifecycle Observer Instrumentation Result", "Failed to Instrument Lifecycle Observer");
+    }
 
     /**
-     * This Action is responsible for initializing the Prefetching Library in the main launcher
-     * {@link android.app.Activity} and to inject lifecycle observer in all {@link android.app.Activity}.
+     * This Action is responsible for initializing the Prefetching Library in the {@code Application} class of
+     * each app and to inject lifecycle observer in all {@link android.app.Activity}. The library is initialized in
+     * the main launcher {@link android.app.Activity} only if the {@code Application} class cannot be instrumented,
+     * e.g. if it is declared in a library.
      *
-     * @param e {@inheritDoc}
+     * @param project       {@inheritDoc}
+     * @param indicator     {@inheritDoc}
+     * @param plan          {@inheritDoc}
+     * @param resultMessage {@inheritDoc}
      */
     @Override
-    public void actionPerformed(@NotNull AnActionEvent e) {
-        project = e.getProject();
-        resultMessage = new InstrumentResultMessage();
-        actionPerformedBodyKt();
-
-        try {
-            getAllJavaFilesWithAnActivity().forEach((activityName, isMainLauncherActivity) -> {
-                PsiFile[] psiFiles = FilenameIndex.getFilesByName(project, activityName + ".java", GlobalSearchScope.projectScope(project));
-                for (PsiFile psiFile : psiFiles) {
-                    resultMessage.incrementPossibleInstrumentationCount();
-                    PsiJavaFile psiJavaFile = (PsiJavaFile) psiFile;
-                    InstrumentUtil.addLibraryImport(project, psiJavaFile);
-                    injectLifecycleObserver(psiJavaFile);
-                    if (Boolean.TRUE.equals(isMainLauncherActivity)) {
-                        resultMessage.incrementPossibleInstrumentationCount();
-                        addLibraryInitializationStatement(psiJavaFile);
-                    }
-                }
-            });
-            resultMessage.showResultDialog(project, "Lifecycle Observer Instrumentation Result");
-        } catch (Exception exception) {
-            resultMessage.showErrorDialog(project, exception, "Failed to Instrument Lifecycle Observer");
-        }
-    }
-
-    public void actionPerformedBodyKt(){
-
-        try {
-            getAllJavaFilesWithAnActivity().forEach((activityName, isMainLauncherActivity) -> {
-                PsiFile[] psiFiles = FilenameIndex.getFilesByName(project, activityName + ".kt", GlobalSearchScope.projectScope(project));
-                for (PsiFile psiFile : psiFiles) {
-                    resultMessage.incrementPossibleInstrumentationCount();
-                    KtFile ktFile = (KtFile) psiFile;
-                    InstrumentUtilKt.addLibraryImportToKt(project, ktFile);
-                    injectLifecycleObserverKt(ktFile);
-                    if (Boolean.TRUE.equals(isMainLauncherActivity)) {
-                        //TODO: ADD LOGGING
-                        //resultMessage.incrementPossibleInstrumentationCount();
-                        InstrumentUtilKt.addStrategyTypeImportToKt(project, ktFile);
-                        addLibraryInitializationStatementKt(ktFile);
-                    }
-                }
-            });
-            resultMessage.showResultDialog(project, "Lifecycle Observer Instrumentation Result");
-        } catch (Exception exception) {
-            resultMessage.showErrorDialog(project, exception, "Failed to Instrument Lifecycle Observer");
-        }
+    protected void instrument(@NotNull Project project,
+                              @NotNull ProgressIndicator indicator,
+                              @NotNull InstrumentPlan plan,
+                              @NotNull InstrumentResultMessage resultMessage) {
+        new Instrumentation(project, plan, resultMessage).run(indicator);
     }
 
     /**
-     * This method finds the {@code onCreate()} method implemented in an {@link android.app.Activity} and
-     * insert an instrumented text to add the lifecycle observer.There are three instrumentation cases for
-     * injecting the lifecycle observer.
-     * <br/><br/>git che
+     * Creates a matcher of the activities of the {@code project}, which instruments them one at a time without
+     * searching them. It is used to instrument the activities highlighted in the editor, see
+     * {@link nl.vu.cs.s2group.nappa.plugin.inspection.InstrumentInspection}.
      *
-     * <p> Case 1. The {@link android.app.Activity} don't have the method {@code onCreate()}. In this case,
-     * the method is injected containing the super constructor and the lifecycle observer. The injected code
-     * is as follows:
-     *
-     * <pre>{@code
-     * @Override
-     * protected void onCreate(Bundle savedInstanceState) {
-     *     super.onCreate(savedInstanceState);
-     *     getLifecycle().addObserver(new NappaLifecycleObserver(this));
-     * }
-     * }</pre>
-     *
-     * <p> Case 2. The {@link android.app.Activity} has a method {@code onCreate()} with existing source
-     * code. In this case, the lifecycle observer is inserted at the top of the method {@code onCreate()},
-     * after invoking the super constructor, if it present, or before the first statement in the method.
-     * The injected code is as follows:
-     *
-     * <pre>{@code getLifecycle().addObserver(new NappaLifecycleObserver(this));}</pre>
-     *
-     * <p> Case 3. The {@link android.app.Activity} has an empty method {@code onCreate()}. In this case,
-     * the super constructor is injected together with the lifecycle observer. The injected code is as follows:
-     *
-     * <pre>{@code
-     * super.onCreate();
-     * getLifecycle().addObserver(new NappaLifecycleObserver(this));
-     * }</pre>
-     *
-     * @param javaFile The Java file containing the an {@link android.app.Activity}
+     * @param project An object representing an IntelliJ project.
+     * @return The matcher of the {@code onCreate} methods of the activities of the {@code project}
      */
-    private void injectLifecycleObserver(@NotNull PsiJavaFile javaFile) {
-        String instrumentedText = "getLifecycle().addObserver(new NappaLifecycleObserver(this));";
-        PsiClass[] psiClasses = javaFile.getClasses();
-        for (PsiClass psiClass : psiClasses) {
-            // There is only one initialization per app
-            if (psiClass.getText().contains(instrumentedText)) {
-                resultMessage.incrementAlreadyInstrumentedCount();
-                break;
-            }
-
-
-            // The library must be initialized only in the file main class
-            if (!InstrumentUtil.isMainPublicClass(psiClass)) continue;
+    public static @NotNull
+    InstrumentUastScanner.SiteMatcher setUp(@NotNull Project project) {
+        return new Matcher(project);
+    }
 
-            // There are three cases to inject a lifecycle observer 
-            PsiMethod[] psiMethods = psiClass.findMethodsByName("onCreate", false);
-            // Case 1. There is no method "onCreate"
-            if (psiMethods.length == 0) injectLifecycleObserverWithoutOnCreateMethod(psiClass, instrumentedText);
-            else {
-                PsiCodeBlock psiBody = psiMethods[0].getBody();
-                // Case 2. There is a method "onCreate" and it an empty body
-                // Only interfaces and abstracts methods don't have a body.
-                // The method "onCreate" will always have a body.
-                // noinspection ConstantConditions
-                if (psiBody.getStatements().length == 0)
-                    injectLifecycleObserverWithEmptyOnCreateMethod(psiClass, psiBody, instrumentedText);
-                    // Case 3. There is a method "onCreate" and it has a non-empty body
-                else
-                    injectLifecycleObserverWithNonEmptyOnCreateMethod(psiClass, psiBody, instrumentedText);
+    /**
+     * @param psiClass Represents a Java class or the light class of a Kotlin class
+     * @return {@code True} if the class is a concrete {@link android.app.Activity} or {@code False} otherwise
+     */
+    private static boolean isActivityClass(@Nullable PsiClass psiClass) {
+        if (psiClass == null || psiClass.isInterface() || psiClass.hasModifierProperty(PsiModifier.ABSTRACT)) return false;
+        return Arrays.stream(ACTIVITY_BASE_CLASSES).anyMatch(baseClassName -> InheritanceUtil.isInheritor(psiClass, baseClassName));
+    }
 
-                resultMessage.incrementInstrumentationCount()
-                        .appendPsiClass(psiClass)
-                        .appendPsiMethod(psiMethods[0])
-                        .appendNewBlock();
-            }
+    /**
+     * @param psiClass Represents a Java class.
+     * @return The {@code Nappa.init} call of the class or {@code null} if it does not initialize the library
+     */
+    private static @Nullable
+    PsiMethodCallExpression findLibraryInitialization(@NotNull PsiClass psiClass) {
+        return PsiTreeUtil.findChildrenOfType(psiClass, PsiMethodCallExpression.class).stream()
+                .filter(call -> InstrumentSiteCollector.isNappaCall(call, "init"))
+                .findFirst()
+                .orElse(null);
+    }
 
-        }
+    /**
+     * @param ktClass Represents a Kotlin class.
+     * @return The {@code Nappa.init} expression of the class or {@code null} if it does not initialize the library
+     */
+    private static @Nullable
+    PsiElement findLibraryInitializationKt(@NotNull KtClass ktClass) {
+        // The call is qualified by the class Nappa, thus its parent is the qualified expression
+        return PsiTreeUtil.findChildrenOfType(ktClass, KtCallExpression.class).stream()
+                .filter(call -> InstrumentSiteCollectorKt.isNappaCall(call, "init"))
+                .map(PsiElement::getParent)
+                .findFirst()
+                .orElse(null);
     }
 
     /**
-     * This method finds the {@code onCreate()} method implemented in an {@link android.app.Activity} and
-     * insert an instrumented text to add the lifecycle observer.There are three instrumentation cases for
-     * injecting the lifecycle observer.
-     * <br/><br/>git che
-     *
-     * <p> Case 1. The {@link android.app.Activity} don't have the method {@code onCreate()}. In this case,
-     * the method is injected containing the super constructor and the lifecycle observer. The injected code
-     * is as follows:
-     *
-     * <pre>{@code
-     * @Override
-     * protected void onCreate(Bundle savedInstanceState) {
-     *     super.onCreate(savedInstanceState);
-     *     getLifecycle().addObserver(new NappaLifecycleObserver(this));
-     * }
-     * }</pre>
-     *
-     * <p> Case 2. The {@link android.app.Activity} has a method {@code onCreate()} with existing source
-     * code. In this case, the lifecycle observer is inserted at the top of the method {@code onCreate()},
-     * after invoking the super constructor, if it present, or before the first statement in the method.
-     * The injected code is as follows:
-     *
-     * <pre>{@code getLifecycle().addObserver(new NappaLifecycleObserver(this));}</pre>
-     *
-     * <p> Case 3. The {@link android.app.Activity} has an empty method {@code onCreate()}. In this case,
-     * the super constructor is injected together with the lifecycle observer. The injected code is as follows:
-     *
-     * <pre>{@code
-     * super.onCreate();
-     * getLifecycle().addObserver(new NappaLifecycleObserver(this));
-     * }</pre>
-     *
-     * @param javaFile The Java file containing the an {@link android.app.Activity}
+     * Matches the {@code onCreate} methods of the activities of a project and instruments their activities
      */
-    private void injectLifecycleObserverKt(@NotNull KtFile ktFile) {
-        String instrumentedText = "lifecycle.addObserver(NappaLifecycleObserver(this))";
+    private static final class Matcher implements InstrumentUastScanner.SiteMatcher {
+        private final Project project;
 
-        for (PsiElement child : ktFile.getChildren()) {
-            if (child instanceof KtClass) {
-                KtClass ktClass = (KtClass) child;
-                List<KtNamedFunction> functions = ktClass.getBody().getFunctions();
-                // There is only one initialization per app
-                if (ktClass.getText().contains(instrumentedText)) {
-                    resultMessage.incrementAlreadyInstrumentedCount();
-                    break;
-                }
+        private Matcher(@NotNull Project project) {
+            this.project = project;
+        }
 
-                // The library must be initialized only in the file main class
-                if (!InstrumentUtil.isMainPublicClassKt(ktClass)) continue;
+        @Override
+        public @NotNull
+        InstrumentSiteKind getKind() {
+            return InstrumentSiteKind.ON_CREATE;
+        }
 
-                KtNamedFunction onCreateFunction = functions.stream()
-                        .filter(f -> f.getName().equals("onCreate"))
-                        .findFirst()
-                        .orElse(null);
+        @Override
+        public @NotNull
+        List<FileType> getFileTypes() {
+            return Arrays.asList(JavaFileType.INSTANCE, KotlinFileType.INSTANCE);
+        }
 
-                    if (onCreateFunction == null) {
-                    // Case 1. There is no method "onCreate"
-                    System.out.println("Case 1");
-                        injectLifecycleObserverWithoutOnCreateMethodKt(ktClass, instrumentedText);
-                } else {
-                    KtExpression bodyExpression = onCreateFunction.getBodyExpression();
-                    String onCreateBody = bodyExpression.getText();
-
-                    boolean isEmpty = bodyExpression.getText().isBlank();
-
-                    if (isEmpty) {
-                        // Case 2. There is a method "onCreate" and it an empty body
-                        // Only interfaces and abstracts methods don't have a body.
-                        // The method "onCreate" will always have a body.
-                        // noinspection ConstantConditions
-
-                        // TODO Handle Case 2
-                        System.out.println("Case 2");
-                        injectLifecycleObserverWithEmptyOnCreateMethodKt(ktClass, onCreateFunction.getBodyBlockExpression(), instrumentedText);
-                    } else {
-                        // Case 3. There is a method "onCreate" and it has a non-empty body
-                        System.out.println("Case 3");
-                        injectLifecycleObserverWithNonEmptyOnCreateMethodKt(ktClass, onCreateFunction.getBodyBlockExpression(), instrumentedText);
-                    }
-                }
+        /**
+         * Verifies if the node is the {@code onCreate} method of a concrete {@link android.app.Activity}, or a
+         * concrete {@link android.app.Activity} without this method, in which it is injected
+         *
+         * @param node          {@inheritDoc}
+         * @param resultMessage {@inheritDoc}
+         * @return {@inheritDoc}
+         */
+        @Override
+        public boolean matches(@NotNull UElement node, @NotNull InstrumentResultMessage resultMessage) {
+            if (node instanceof UClass) {
+                PsiClass psiClass = ((UClass) node).getJavaPsi();
+                return psiClass.findMethodsByName("onCreate", false).length == 0 &&
+                        resultMessage.measure(InstrumentPhase.TYPE_RESOLUTION, () -> isActivityClass(psiClass));
             }
+            if (!(node instanceof UMethod) || !"onCreate".equals(((UMethod) node).getName())) return false;
+            PsiClass psiClass = ((UMethod) node).getContainingClass();
+            return resultMessage.measure(InstrumentPhase.TYPE_RESOLUTION, () -> isActivityClass(psiClass));
         }
-    }
 
-    /**
-     * Inject the lifecycle observer to the method {@code onCreate} with empty body to the class
-     *
-     * @param psiClass         Represents a Java class.
-     * @param psiBody          Represents the body of the method {@code onCreate} found in the class
-     * @param instrumentedText Represents the source code to inject
-     */
-    private void injectLifecycleObserverWithEmptyOnCreateMethod(PsiClass psiClass, PsiCodeBlock psiBody, String instrumentedText) {
-        PsiElement instrumentedElement = PsiElementFactory
-                .getInstance(project)
-                .createStatementFromText("" +
-                        "super.onCreate(savedInstanceState);\n" +
-                        instrumentedText, psiClass);
-
-        WriteCommandAction.runWriteCommandAction(project, () -> {
-            psiBody.add(instrumentedElement);
-        });
+        /**
+         * Injects the lifecycle observer in the activity of the site, as the action does for each activity of the
+         * project. The other classes of the file are not changed. The library initialization is left to the action,
+         * since it is injected in the {@code Application} class instead of an activity.
+         *
+         * @param site          {@inheritDoc}
+         * @param plan          {@inheritDoc}
+         * @param resultMessage {@inheritDoc}
+         */
+        @Override
+        public void instrument(@NotNull UElement site, @NotNull InstrumentPlan plan, @NotNull InstrumentResultMessage resultMessage) {
+            PsiElement sourcePsi = site.getSourcePsi();
+            if (sourcePsi == null) return;
+
+            Instrumentation instrumentation = new Instrumentation(project, plan, resultMessage);
+            PsiFile psiFile = sourcePsi.getContainingFile();
+            if (psiFile instanceof PsiJavaFile) {
+                PsiClass psiClass = PsiTreeUtil.getParentOfType(sourcePsi, PsiClass.class, false);
+                if (psiClass != null) instrumentation.instrumentJavaActivityClass((PsiJavaFile) psiFile, psiClass);
+            } else if (psiFile instanceof KtFile) {
+                KtClass ktClass = PsiTreeUtil.getParentOfType(sourcePsi, KtClass.class, false);
+                if (ktClass != null) instrumentation.instrumentKotlinActivityClass((KtFile) psiFile, ktClass);
+            }
+        }
     }
 
     /**
-     * Inject the lifecycle observer to the method {@code onCreate} with empty body to the class
-     *
-     * @param psiClass         Represents a Java class.
-     * @param psiBody          Represents the body of the method {@code onCreate} found in the class
-     * @param instrumentedText Represents the source code to inject
+     * The state of an instrumentation of the activities. An instance is created for each run of the action and
+     * for each activity instrumented from the editor, with the plan and the result message it fills.
      */
-    private void injectLifecycleObserverWithEmptyOnCreateMethodKt(KtClass ktClass, KtBlockExpression psiBody, String instrumentedText) {
-        //TODO: implement this
-        String newLine = System.getProperty("line.separator");
-        KtPsiFactory ktPsiFactoryFactory = new KtPsiFactory(project);
-        String expressionString = "super.onCreate(savedInstanceState)".concat(newLine)
-                                    .concat(instrumentedText).concat(newLine);
-        KtExpression expression = ktPsiFactoryFactory.createBlock(expressionString);
+    private static final class Instrumentation {
+        private final Project project;
+        private final InstrumentPlan plan;
+        private final InstrumentResultMessage resultMessage;
+        // The onCreate bodies injected by the lifecycle observer. They are only added to the source code when the
+        // plan is applied, thus the library initialization is injected directly in them.
+        private final Map<PsiElement, PsiElement> plannedOnCreateBodies = new HashMap<>();
+        // The main launcher activities of the apps whose Application class initializes the Prefetching Library
+        private final Set<String> initializedLauncherActivities = new HashSet<>();
+
+        private Instrumentation(@NotNull Project project, @NotNull InstrumentPlan plan, @NotNull InstrumentResultMessage resultMessage) {
+            this.project = project;
+            this.plan = plan;
+            this.resultMessage = resultMessage;
+        }
 
-        WriteCommandAction.runWriteCommandAction(project, () -> {
+        /**
+         * Initializes the Prefetching Library in the {@code Application} classes and injects the lifecycle observer
+         * in the activities of the project, see {@link InstrumentActivityAction#instrument}
+         *
+         * @param indicator The progress indicator of the running task
+         */
+        void run(@NotNull ProgressIndicator indicator) {
+            initializedLauncherActivities.addAll(resultMessage.measure(InstrumentPhase.VISITING, () -> DumbService.getInstance(project)
+                    .runReadActionInSmartMode(this::initializeLibraryInApplications)));
+            Map<VirtualFile, Boolean> activityFiles = resultMessage.measure(InstrumentPhase.ENUMERATION, () -> DumbService.getInstance(project)
+                    .runReadActionInSmartMode(this::findActivityFiles));
+
+            int processedActivities = 0;
+            for (Map.Entry<VirtualFile, Boolean> activityFile : activityFiles.entrySet()) {
+                InstrumentTask.reportFileProgress(indicator, processedActivities++, activityFiles.size());
+                resultMessage.measure(InstrumentPhase.VISITING, () -> DumbService.getInstance(project).runReadActionInSmartMode(() -> {
+                    VirtualFile virtualFile = activityFile.getKey();
+                    PsiFile psiFile = virtualFile.isValid() ? PsiManager.getInstance(project).findFile(virtualFile) : null;
+                    if (psiFile instanceof PsiJavaFile)
+                        instrumentJavaActivity((PsiJavaFile) psiFile, activityFile.getValue());
+                    else if (psiFile instanceof KtFile)
+                        instrumentKotlinActivity((KtFile) psiFile, activityFile.getValue());
+                }));
+            }
+        }
 
-        });
-    }
+        /**
+         * Find the source files declaring an {@link android.app.Activity}. The activities are read from the manifests
+         * and found by their fully qualified name. Then, the classes inheriting from {@link android.app.Activity} are
+         * searched in the project, which also finds the activities of manifests which are not in the project (e.g.
+         * library modules) or not parsed. The search uses the stub indexes, thus the bodies of the files are not parsed.
+         * Abstract activities are not instrumented, as their subclasses are.
+         *
+         * @return The files declaring activities, in the order they were found, and if each file declares a main
+         * launcher activity initializing the library, i.e. of an app whose {@code Application} class does not
+         */
+        private @NotNull
+        Map<VirtualFile, Boolean> findActivityFiles() {
+            Map<VirtualFile, Boolean> activityFiles = new LinkedHashMap<>();
+            for (InstrumentManifest.Activity activity : InstrumentManifest.getActivities(project)) {
+                PsiClass psiClass = resultMessage.measure(InstrumentPhase.TYPE_RESOLUTION,
+                        () -> InstrumentManifest.findActivityClass(project, activity));
+                VirtualFile virtualFile = getSourceFile(psiClass);
+                boolean initializesLibrary = activity.isMainLauncher() && !initializedLauncherActivities.contains(activity.getQualifiedName());
+                if (virtualFile != null) activityFiles.merge(virtualFile, initializesLibrary, Boolean::logicalOr);
+            }
 
+            GlobalSearchScope projectScope = GlobalSearchScope.projectScope(project);
+            GlobalSearchScope allScope = GlobalSearchScope.allScope(project);
+            JavaPsiFacade facade = JavaPsiFacade.getInstance(project);
+            for (String baseClassName : ACTIVITY_BASE_CLASSES) {
+                PsiClass baseClass = facade.findClass(baseClassName, allScope);
+                if (baseClass == null) continue;
+                ClassInheritorsSearch.search(new ClassInheritorsSearch.SearchParameters(baseClass, projectScope, true, true, false))
+                        .forEach(psiClass -> {
+                            if (psiClass.isInterface() || psiClass.hasModifierProperty(PsiModifier.ABSTRACT)) return;
+                            VirtualFile virtualFile = getSourceFile(psiClass);
+                            if (virtualFile != null) activityFiles.putIfAbsent(virtualFile, false);
+                        });
+            }
+            return activityFiles;
+        }
 
-    /**
-     * Inject the lifecycle observer to the method {@code onCreate} containing existing code to the class
-     *
-     * @param psiClass         Represents a Java class.
-     * @param psiBody          Represents the body of the method {@code onCreate} found in the class
-     * @param instrumentedText Represents the source code to inject
-     */
-    private void injectLifecycleObserverWithNonEmptyOnCreateMethod(PsiClass psiClass, @NotNull PsiCodeBlock psiBody, String instrumentedText) {
-        // If there is a super constructor invocation, is must be in the first line of the method
-        PsiStatement firstStatement = psiBody.getStatements()[0];
-        boolean isSuperOnCreate = firstStatement.getText().contains("super.onCreate(");
-
-        PsiElement instrumentedElement = PsiElementFactory
-                .getInstance(project)
-                .createStatementFromText(instrumentedText, psiClass);
-
-        WriteCommandAction.runWriteCommandAction(project, () -> {
-            if (isSuperOnCreate) psiBody.addAfter(instrumentedElement, firstStatement);
-            else psiBody.addBefore(instrumentedElement, firstStatement);
-        });
-    }
+        /**
+         * @param psiClass The class of an {@link android.app.Activity} or an {@code Application}
+         * @return The Java or Kotlin file declaring the class or {@code null} if it is not a source file of the app
+         */
+        private @Nullable
+        VirtualFile getSourceFile(@Nullable PsiClass psiClass) {
+            if (psiClass == null) return null;
+            // The navigation element of the light class of a Kotlin activity is the Kotlin class
+            PsiFile psiFile = psiClass.getNavigationElement().getContainingFile();
+            if (!(psiFile instanceof PsiJavaFile) && !(psiFile instanceof KtFile)) return null;
+            if (InstrumentUtil.isNappaLibraryPackage(((PsiClassOwner) psiFile).getPackageName())) return null;
+            return psiFile.getVirtualFile();
+        }
 
-    /**
-     * Inject the lifecycle observer to the method {@code onCreate} containing existing code to the class
-     *
-     * @param psiClass         Represents a Java class.
-     * @param psiBody          Represents the body of the method {@code onCreate} found in the class
-     * @param instrumentedText Represents the source code to inject
-     */
-    private void injectLifecycleObserverWithNonEmptyOnCreateMethodKt(KtClass ktClass, @NotNull KtBlockExpression psiBody, String instrumentedText) {
-        // If there is a super constructor invocation, is must be in the first line of the method
-        KtExpression firstStatement = psiBody.getFirstStatement();
-        boolean isSuperOnCreate = firstStatement.getText().contains("super.onCreate(");
-        KtPsiFactory ktPsiFactoryFactory = new KtPsiFactory(project);
-        KtExpression expression = ktPsiFactoryFactory.createExpression(instrumentedText);
-
-        WriteCommandAction.runWriteCommandAction(project, () -> {
-            if (isSuperOnCreate){
-                PsiElement element = psiBody.addAfter(expression, firstStatement);
-                psiBody.addBefore(ktPsiFactoryFactory.createNewLine(), element);
+        /**
+         * Inject the lifecycle observer in the Java file of the {@link android.app.Activity} and, if
+         * it is the main launcher activity, initializes the Prefetching Library
+         *
+         * @param psiJavaFile            The Java file declaring the {@link android.app.Activity}
+         * @param isMainLauncherActivity Indicates if the {@link android.app.Activity} is the main launcher
+         */
+        private void instrumentJavaActivity(@NotNull PsiJavaFile psiJavaFile, boolean isMainLauncherActivity) {
+            resultMessage.incrementPossibleInstrumentationCount();
+            InstrumentUtil.addLibraryImport(plan, psiJavaFile);
+            injectLifecycleObserver(psiJavaFile);
+            if (isMainLauncherActivity) {
+                resultMessage.incrementPossibleInstrumentationCount();
+                InstrumentUtil.addStrategyImport(plan, psiJavaFile);
+                addLibraryInitializationStatement(psiJavaFile);
+            } else if (isInitializedLauncherActivity(psiJavaFile)) {
+                removeLibraryInitializationStatement(psiJavaFile);
             }
-            else {
-                PsiElement element = psiBody.addBefore(expression, firstStatement);
-                psiBody.addAfter(ktPsiFactoryFactory.createNewLine(), element);
+        }
+
+        /**
+         * Inject the lifecycle observer in the Kotlin file of the {@link android.app.Activity} and, if
+         * it is the main launcher activity, initializes the Prefetching Library
+         *
+         * @param ktFile                 The Kotlin file declaring the {@link android.app.Activity}
+         * @param isMainLauncherActivity Indicates if the {@link android.app.Activity} is the main launcher
+         */
+        private void instrumentKotlinActivity(@NotNull KtFile ktFile, boolean isMainLauncherActivity) {
+            resultMessage.incrementPossibleInstrumentationCount();
+            InstrumentUtilKt.addLibraryImportToKt(plan, ktFile);
+            injectLifecycleObserverKt(ktFile);
+            if (isMainLauncherActivity) {
+                resultMessage.incrementPossibleInstrumentationCount();
+                InstrumentUtilKt.addStrategyTypeImportToKt(plan, ktFile);
+                if (!InstrumentSettings.getInstance(project).getParameters().isEmpty())
+                    InstrumentUtilKt.addStrategyConfigImportToKt(plan, ktFile);
+                addLibraryInitializationStatementKt(ktFile);
+            } else if (isInitializedLauncherActivity(ktFile)) {
+                removeLibraryInitializationStatementKt(ktFile);
             }
-        });
-    }
+        }
 
-    /**
-     * Inject a {@code onCreate} method with the lifecycle observer to the class
-     *
-     * @param psiClass         Represents a Java class.
-     * @param instrumentedText Represents the source code to inject
-     */
-    private void injectLifecycleObserverWithoutOnCreateMethod(PsiClass psiClass, String instrumentedText) {
-        PsiMethod instrumentedElement = PsiElementFactory
-                .getInstance(project)
-                .createMethodFromText("" +
-                        "@Override\n" +
-                        "protected void onCreate(Bundle savedInstanceState) {\n" +
-                        "super.onCreate(savedInstanceState);\n" +
-                        instrumentedText + "\n" +
-                        "}", psiClass);
+        /**
+         * Inject the lifecycle observer in a single {@link android.app.Activity} of a Java file
+         *
+         * @param psiJavaFile The Java file declaring the {@link android.app.Activity}
+         * @param psiClass    Represents the Java class of the {@link android.app.Activity}
+         */
+        void instrumentJavaActivityClass(@NotNull PsiJavaFile psiJavaFile, @NotNull PsiClass psiClass) {
+            resultMessage.incrementPossibleInstrumentationCount();
+            InstrumentUtil.addLibraryImport(plan, psiJavaFile);
+            injectLifecycleObserver(psiClass);
+        }
 
-        resultMessage.incrementInstrumentationCount()
-                .appendPsiClass(psiClass)
-                .appendOverridePsiMethod(instrumentedElement)
-                .appendNewBlock();
+        /**
+         * Inject the lifecycle observer in a single {@link android.app.Activity} of a Kotlin file
+         *
+         * @param ktFile  The Kotlin file declaring the {@link android.app.Activity}
+         * @param ktClass Represents the Kotlin class of the {@link android.app.Activity}
+         */
+        void instrumentKotlinActivityClass(@NotNull KtFile ktFile, @NotNull KtClass ktClass) {
+            resultMessage.incrementPossibleInstrumentationCount();
+            InstrumentUtilKt.addLibraryImportToKt(plan, ktFile);
+            injectLifecycleObserverKt(ktClass);
+        }
 
-        WriteCommandAction.runWriteCommandAction(project, () -> {
-            psiClass.add(instrumentedElement);
-        });
-    }
+        /**
+         * This method finds the {@code onCreate()} method implemented in an {@link android.app.Activity} and
+         * insert an instrumented text to add the lifecycle observer.There are three instrumentation cases for
+         * injecting the lifecycle observer.
+         * <br/><br/>
+         *
+         * <p> Case 1. The {@link android.app.Activity} don't have the method {@code onCreate()}. In this case,
+         * the method is injected containing the super constructor and the lifecycle observer. The injected code
+         * is as follows:
+         *
+         * <pre>{@code
+         * @Override
+         * protected void onCreate(Bundle savedInstanceState) {
+         *     super.onCreate(savedInstanceState);
+         *     getLifecycle().addObserver(new NappaLifecycleObserver(this));
+         * }
+         * }</pre>
+         *
+         * <p> Case 2. The {@link android.app.Activity} has a method {@code onCreate()} with existing source
+         * code. In this case, the lifecycle observer is inserted at the top of the method {@code onCreate()},
+         * after invoking the super constructor, if it present, or before the first statement in the method.
+         * The injected code is as follows:
+         *
+         * <pre>{@code getLifecycle().addObserver(new NappaLifecycleObserver(this));}</pre>
+         *
+         * <p> Case 3. The {@link android.app.Activity} has an empty method {@code onCreate()}. In this case,
+         * the super constructor is injected together with the lifecycle observer. The injected code is as follows:
+         *
+         * <pre>{@code
+         * super.onCreate();
+         * getLifecycle().addObserver(new NappaLifecycleObserver(this));
+         * }</pre>
+         *
+         * @param javaFile The Java file containing the {@link android.app.Activity}
+         */
+        private void injectLifecycleObserver(@NotNull PsiJavaFile javaFile) {
+            for (PsiClass psiClass : javaFile.getClasses()) {
+                // The lifecycle observer is injected only in the file main class, which must be an activity
+                if (InstrumentUtil.isMainPublicClass(psiClass) && isActivityClass(psiClass)) injectLifecycleObserver(psiClass);
+            }
+        }
 
+        /**
+         * Inject the lifecycle observer in a Java {@link android.app.Activity}, as described in
+         * {@link #injectLifecycleObserver(PsiJavaFile)}
+         *
+         * @param psiClass Represents the Java class of the {@link android.app.Activity}
+         */
+        private void injectLifecycleObserver(@NotNull PsiClass psiClass) {
+            String instrumentedText = "getLifecycle().addObserver(new NappaLifecycleObserver(this));";
+            if (InstrumentSiteCollector.registersLifecycleObserver(psiClass)) {
+                resultMessage.incrementAlreadyInstrumentedCount();
+                return;
+            }
 
-    /**
-     * Inject a {@code onCreate} method with the lifecycle observer to the class
-     *
-     * @param psiClass         Represents a Java class.
-     * @param instrumentedText Represents the source code to inject
-     */
-    private void injectLifecycleObserverWithoutOnCreateMethodKt(KtClass psiClass, String instrumentedText) {
-
-        KtPsiFactory ktPsiFactoryFactory = new KtPsiFactory(project);
-        String newLine = System.getProperty("line.separator");
-        KtNamedFunction function = ktPsiFactoryFactory.createFunction("override fun onCreate(savedInstanceState: Bundle?) {".
-                                                concat(newLine).concat("super.onCreate(savedInstanceState)")
-                                                .concat(newLine).concat(instrumentedText)
-                                                .concat(newLine).concat("}"));
-        //TODO: add logging
-        /*resultMessage.incrementInstrumentationCount()
-                .appendPsiClass((psiClass.getPsiOrParent())
-                .appendOverridePsiMethod()
-                .appendNewBlock();*/
-
-
-        WriteCommandAction.runWriteCommandAction(project, () -> {
-            psiClass.addBefore(function, psiClass.getBody().getRBrace());
-        });
-    }
+            // There are three cases to inject a lifecycle observer
+            PsiMethod[] psiMethods = psiClass.findMethodsByName("onCreate", false);
+            // Case 1. There is no method "onCreate"
+            if (psiMethods.length == 0) {
+                injectLifecycleObserverWithoutOnCreateMethod(psiClass, instrumentedText);
+                return;
+            }
 
+            // Only interfaces and abstracts methods don't have a body
+            PsiCodeBlock psiBody = psiMethods[0].getBody();
+            if (psiBody == null) return;
+            // Case 2. There is a method "onCreate" and it an empty body
+            if (psiBody.getStatements().length == 0)
+                injectLifecycleObserverWithEmptyOnCreateMethod(psiClass, psiBody, instrumentedText);
+                // Case 3. There is a method "onCreate" and it has a non-empty body
+            else
+                injectLifecycleObserverWithNonEmptyOnCreateMethod(psiClass, psiBody, instrumentedText);
 
-    /**
-     * Inject a {@code onCreate} method with the lifecycle observer to the class
-     *
-     * @param psiClass         Represents a Java class.
-     * @param instrumentedText Represents the source code to inject
-     */
+            resultMessage.incrementInstrumentationCount()
+                    .appendPsiClass(psiClass)
+                    .appendPsiMethod(psiMethods[0])
+                    .appendNewBlock();
+        }
 
-    /**
-     * This method finds the {@code onCreate()} method implemented in the main launcher
-     * {@link android.app.Activity} and insert an instrumented text containing the Prefetching Library
-     * initialization with the default Greedy Prefetching Strategy
-     * <br/><br/>
-     *
-     * <p> The initialization is inserted at the top of the {@code onCreate()} method, after
-     * invoking the super constructor, if present, or before the first statement in the method.
-     * <br/><br/>
-     *
-     * <p> The following source code is instrumented:
-     *
-     * <pre>{@code Prefetch.init(this, PrefetchingStrategy.STRATEGY_GREEDY);}</pre>
-     *
-     * @param javaFile The Java file containing the main launcher {@link android.app.Activity}
-     */
-    private void addLibraryInitializationStatement(@NotNull PsiJavaFile javaFile) {
-        String instrumentedText = "Nappa.init(this, PrefetchingStrategyType.STRATEGY_GREEDY_VISIT_FREQUENCY)";
-        PsiClass[] psiClasses = javaFile.getClasses();
+        /**
+         * This method finds the {@code onCreate()} method implemented in an {@link android.app.Activity} and
+         * insert an instrumented text to add the lifecycle observer.There are three instrumentation cases for
+         * injecting the lifecycle observer.
+         * <br/><br/>
+         *
+         * <p> Case 1. The {@link android.app.Activity} don't have the method {@code onCreate()}. In this case,
+         * the method is injected containing the super constructor and the lifecycle observer. The injected code
+         * is as follows:
+         *
+         * <pre>{@code
+         * @Override
+         * protected void onCreate(Bundle savedInstanceState) {
+         *     super.onCreate(savedInstanceState);
+         *     getLifecycle().addObserver(new NappaLifecycleObserver(this));
+         * }
+         * }</pre>
+         *
+         * <p> Case 2. The {@link android.app.Activity} has a method {@code onCreate()} with existing source
+         * code. In this case, the lifecycle observer is inserted at the top of the method {@code onCreate()},
+         * after invoking the super constructor, if it present, or before the first statement in the method.
+         * The injected code is as follows:
+         *
+         * <pre>{@code getLifecycle().addObserver(new NappaLifecycleObserver(this));}</pre>
+         *
+         * <p> Case 3. The {@link android.app.Activity} has an empty method {@code onCreate()}. In this case,
+         * the super constructor is injected together with the lifecycle observer. The injected code is as follows:
+         *
+         * <pre>{@code
+         * super.onCreate();
+         * getLifecycle().addObserver(new NappaLifecycleObserver(this));
+         * }</pre>
+         *
+         * @param ktFile The Kotlin file containing the {@link android.app.Activity}
+         */
+        private void injectLifecycleObserverKt(@NotNull KtFile ktFile) {
+            for (PsiElement child : ktFile.getChildren()) {
+                if (!(child instanceof KtClass)) continue;
+                KtClass ktClass = (KtClass) child;
+                // The lifecycle observer is injected only in the file main class, which must be an activity
+                if (InstrumentUtil.isMainPublicClassKt(ktClass) && isActivityClass(LightClassUtilsKt.toLightClass(ktClass)))
+                    injectLifecycleObserverKt(ktClass);
+            }
+        }
 
-        for (PsiClass psiClass : psiClasses) {
-            // There is only one initialization per app
-            if (psiClass.getText().contains(instrumentedText)) {
+        /**
+         * Inject the lifecycle observer in a Kotlin {@link android.app.Activity}, as described in
+         * {@link #injectLifecycleObserverKt(KtFile)}
+         *
+         * @param ktClass Represents the Kotlin class of the {@link android.app.Activity}
+         */
+        private void injectLifecycleObserverKt(@NotNull KtClass ktClass) {
+            String instrumentedText = "lifecycle.addObserver(NappaLifecycleObserver(this))";
+            if (InstrumentSiteCollectorKt.registersLifecycleObserver(ktClass)) {
                 resultMessage.incrementAlreadyInstrumentedCount();
-                break;
+                return;
             }
 
-            // The library must be initialized only in the file main class
-            if (!InstrumentUtil.isMainPublicClass(psiClass)) continue;
+            // There are three cases to inject a lifecycle observer
+            KtClassBody classBody = ktClass.getBody();
+            KtNamedFunction onCreateFunction = classBody == null ? null : classBody.getFunctions().stream()
+                    .filter(function -> "onCreate".equals(function.getName()))
+                    .findFirst()
+                    .orElse(null);
+            // Case 1. There is no function "onCreate"
+            if (onCreateFunction == null) {
+                injectLifecycleObserverWithoutOnCreateMethodKt(ktClass, instrumentedText);
+                return;
+            }
 
-            // There should be exactly a single method named "onCreate" and it should not be empty
-            PsiMethod[] psiMethods = psiClass.findMethodsByName("onCreate", false);
-            if (psiMethods.length == 0) break;
-            PsiCodeBlock psiBody = psiMethods[0].getBody();
-            if (psiBody == null) break;
+            // A function "onCreate" declared with an expression body, e.g. "= super.onCreate(state)", is not instrumented
+            KtBlockExpression ktBody = onCreateFunction.getBodyBlockExpression();
+            if (ktBody == null) return;
+            // Case 2. There is a function "onCreate" and it has an empty body
+            if (ktBody.getStatements().isEmpty())
+                injectLifecycleObserverWithEmptyOnCreateMethodKt(ktClass, onCreateFunction, ktBody, instrumentedText);
+                // Case 3. There is a function "onCreate" and it has a non-empty body
+            else
+                injectLifecycleObserverWithNonEmptyOnCreateMethodKt(ktClass, ktBody, instrumentedText);
+
+            resultMessage.incrementInstrumentationCount()
+                    .appendText("Registered the NAPPA lifecycle observer")
+                    .appendLocation(onCreateFunction)
+                    .appendNewBlock();
+        }
 
+        /**
+         * Inject the lifecycle observer to the method {@code onCreate} with empty body to the class
+         *
+         * @param psiClass         Represents a Java class.
+         * @param psiBody          Represents the body of the method {@code onCreate} found in the class
+         * @param instrumentedText Represents the source code to inject
+         */
+        private void injectLifecycleObserverWithEmptyOnCreateMethod(PsiClass psiClass, PsiCodeBlock psiBody, String instrumentedText) {
+            PsiCodeBlock instrumentedBody = PsiElementFactory
+                    .getInstance(project)
+                    .createCodeBlockFromText("{\n" +
+                            "super.onCreate(savedInstanceState);\n" +
+                            instrumentedText + "\n" +
+                            "}", psiClass);
+
+            plan.replace(psiBody, instrumentedBody);
+            plannedOnCreateBodies.put(psiClass, instrumentedBody);
+        }
+
+        /**
+         * Inject the lifecycle observer to the function {@code onCreate} with empty body to the class
+         *
+         * @param ktClass          Represents a Kotlin class.
+         * @param onCreateFunction The function {@code onCreate} found in the class
+         * @param ktBody           Represents the body of the function {@code onCreate}
+         * @param instrumentedText Represents the source code to inject
+         */
+        private void injectLifecycleObserverWithEmptyOnCreateMethodKt(@NotNull KtClass ktClass,
+                                                                      @NotNull KtNamedFunction onCreateFunction,
+                                                                      @NotNull KtBlockExpression ktBody,
+                                                                      @NotNull String instrumentedText) {
+            List<KtParameter> parameters = onCreateFunction.getValueParameters();
+            String parameterName = parameters.isEmpty() || parameters.get(0).getName() == null ? "savedInstanceState" : parameters.get(0).getName();
+            KtBlockExpression instrumentedBody = new KtPsiFactory(project).createBlock("super.onCreate(" + parameterName + ")\n" +
+                    instrumentedText);
+
+            plan.replace(ktBody, instrumentedBody);
+            plannedOnCreateBodies.put(ktClass, instrumentedBody);
+        }
+
+        /**
+         * Inject the lifecycle observer to the method {@code onCreate} containing existing code to the class
+         *
+         * @param psiClass         Represents a Java class.
+         * @param psiBody          Represents the body of the method {@code onCreate} found in the class
+         * @param instrumentedText Represents the source code to inject
+         */
+        private void injectLifecycleObserverWithNonEmptyOnCreateMethod(PsiClass psiClass, @NotNull PsiCodeBlock psiBody, String instrumentedText) {
             // If there is a super constructor invocation, is must be in the first line of the method
             PsiStatement firstStatement = psiBody.getStatements()[0];
             boolean isSuperOnCreate = firstStatement.getText().contains("super.onCreate(");
 
-            // This is the Element which contains the statement to connect the
-            // Android application's Main activity to the NAPPA Prefetching Library.
-            // Essentially, we add a statement which initializes Nappa at the very beginning
-            // of the application launch
             PsiElement instrumentedElement = PsiElementFactory
                     .getInstance(project)
                     .createStatementFromText(instrumentedText, psiClass);
 
+            if (isSuperOnCreate) plan.addAfter(firstStatement, instrumentedElement);
+            else plan.addBefore(firstStatement, instrumentedElement);
+        }
+
+        /**
+         * Inject the lifecycle observer to the function {@code onCreate} containing existing code to the class
+         *
+         * @param ktClass          Represents a Kotlin class.
+         * @param psiBody          Represents the body of the function {@code onCreate} found in the class
+         * @param instrumentedText Represents the source code to inject
+         */
+        private void injectLifecycleObserverWithNonEmptyOnCreateMethodKt(KtClass ktClass, @NotNull KtBlockExpression psiBody, String instrumentedText) {
+            // If there is a super constructor invocation, is must be in the first line of the method
+            KtExpression firstStatement = psiBody.getFirstStatement();
+            boolean isSuperOnCreate = firstStatement.getText().contains("super.onCreate(");
+            KtPsiFactory ktPsiFactoryFactory = new KtPsiFactory(project);
+            KtExpression expression = ktPsiFactoryFactory.createExpression(instrumentedText);
+
+            if (isSuperOnCreate) plan.addAfter(firstStatement, expression, ktPsiFactoryFactory.createNewLine());
+            else plan.addBefore(firstStatement, expression, ktPsiFactoryFactory.createNewLine());
+        }
+
+        /**
+         * Inject a {@code onCreate} method with the lifecycle observer to the class
+         *
+         * @param psiClass         Represents a Java class.
+         * @param instrumentedText Represents the source code to inject
+         */
+        private void injectLifecycleObserverWithoutOnCreateMethod(PsiClass psiClass, String instrumentedText) {
+            PsiMethod instrumentedElement = PsiElementFactory
+                    .getInstance(project)
+                    .createMethodFromText("" +
+                            "@Override\n" +
+                            "protected void onCreate(Bundle savedInstanceState) {\n" +
+                            "super.onCreate(savedInstanceState);\n" +
+                            instrumentedText + "\n" +
+                            "}", psiClass);
+
             resultMessage.incrementInstrumentationCount()
                     .appendPsiClass(psiClass)
-                    .appendPsiMethod(psiMethods[0])
+                    .appendOverridePsiMethod(instrumentedElement)
                     .appendNewBlock();
 
-            WriteCommandAction.runWriteCommandAction(project, () -> {
-                if (isSuperOnCreate) psiBody.addAfter(instrumentedElement, firstStatement);
-                else psiBody.addBefore(instrumentedElement, firstStatement);
-            });
+            plan.add(psiClass, instrumentedElement);
+            plannedOnCreateBodies.put(psiClass, instrumentedElement.getBody());
         }
-    }
 
-    /**
-     * This method finds the {@code onCreate()} method implemented in the main launcher
-     * {@link android.app.Activity} and insert an instrumented text containing the Prefetching Library
-     * initialization with the default Greedy Prefetching Strategy
-     * <br/><br/>
-     *
-     * <p> The initialization is inserted at the top of the {@code onCreate()} method, after
-     * invoking the super constructor, if present, or before the first statement in the method.
-     * <br/><br/>
-     *
-     * <p> The following source code is instrumented:
-     *
-     * <pre>{@code Prefetch.init(this, PrefetchingStrategy.STRATEGY_GREEDY);}</pre>
-     *
-     * @param javaFile The Java file containing the main launcher {@link android.app.Activity}
-     */
-    private void addLibraryInitializationStatementKt(@NotNull KtFile ktFile) {
-        String instrumentedText = "Nappa.init(this, PrefetchingStrategyType.STRATEGY_GREEDY_VISIT_FREQUENCY)";
-        KtClass[] ktClasses = Arrays.stream(ktFile.getChildren()).filter(child -> child instanceof KtClass).toArray(KtClass[]::new);
+        /**
+         * Inject a {@code onCreate} function with the lifecycle observer to the class
+         *
+         * @param ktClass          Represents a Kotlin class.
+         * @param instrumentedText Represents the source code to inject
+         */
+        private void injectLifecycleObserverWithoutOnCreateMethodKt(@NotNull KtClass ktClass, @NotNull String instrumentedText) {
+            KtPsiFactory ktPsiFactory = new KtPsiFactory(project);
+            KtNamedFunction function = ktPsiFactory.createFunction("" +
+                    "override fun onCreate(savedInstanceState: Bundle?) {\n" +
+                    "super.onCreate(savedInstanceState)\n" +
+                    instrumentedText + "\n" +
+                    "}");
 
-        for (KtClass ktClass : ktClasses) {
-            // There is only one initialization per app
-            if (ktClass.getText().contains(instrumentedText)) {
+            resultMessage.incrementInstrumentationCount()
+                    .appendText("Added the function onCreate registering the NAPPA lifecycle observer")
+                    .appendLocation(ktClass)
+                    .appendNewBlock();
+
+            KtClassBody classBody = ktClass.getBody();
+            if (classBody != null && classBody.getRBrace() != null) {
+                plan.addBefore(classBody.getRBrace(), function);
+                plannedOnCreateBodies.put(ktClass, function.getBodyBlockExpression());
+                return;
+            }
+
+            // The class is declared without a body, e.g. "class MainActivity : AppCompatActivity()"
+            KtClassBody instrumentedBody = ktPsiFactory.createEmptyClassBody();
+            //noinspection ConstantConditions --> The created body always has braces
+            KtNamedFunction addedFunction = (KtNamedFunction) instrumentedBody.addAfter(function, instrumentedBody.getLBrace());
+            instrumentedBody.addBefore(ktPsiFactory.createNewLine(), addedFunction);
+            instrumentedBody.addAfter(ktPsiFactory.createNewLine(), addedFunction);
+            plan.addAfter(ktClass.getLastChild(), instrumentedBody, ktPsiFactory.createWhiteSpace());
+            plannedOnCreateBodies.put(ktClass, addedFunction.getBodyBlockExpression());
+        }
+
+        /**
+         * This method finds the {@code onCreate()} method implemented in the main launcher
+         * {@link android.app.Activity} and insert an instrumented text containing the Prefetching Library
+         * initialization with the Prefetching Strategy of the {@link InstrumentSettings}
+         * <br/><br/>
+         *
+         * <p> The initialization is inserted at the top of the {@code onCreate()} method, after
+         * invoking the super constructor, if present, or before the first statement in the method.
+         * If the library is already initialized with another strategy, the existing initialization is updated.
+         * <br/><br/>
+         *
+         * <p> The following source code is instrumented:
+         *
+         * <pre>{@code Nappa.init(this, PrefetchingStrategyType.STRATEGY_GREEDY_VISIT_FREQUENCY);}</pre>
+         *
+         * @param javaFile The Java file containing the main launcher {@link android.app.Activity}
+         */
+        private void addLibraryInitializationStatement(@NotNull PsiJavaFile javaFile) {
+            String initCallText = InstrumentSettings.getInstance(project).getJavaInitCall();
+            String instrumentedText = initCallText + ";";
+            PsiClass[] psiClasses = javaFile.getClasses();
+
+            for (PsiClass psiClass : psiClasses) {
+                // There is only one initialization per app, which is updated if the strategy changed
+                if (updateLibraryInitializationStatement(psiClass, initCallText)) break;
+
+                // The library must be initialized only in the file main class, which must be an activity
+                if (!InstrumentUtil.isMainPublicClass(psiClass) || !isActivityClass(psiClass)) continue;
+
+                PsiElement instrumentedElement = PsiElementFactory
+                        .getInstance(project)
+                        .createStatementFromText(instrumentedText, psiClass);
+
+                // The method "onCreate" is injected by the lifecycle observer and it always invokes the super constructor
+                PsiMethod[] psiMethods = psiClass.findMethodsByName("onCreate", false);
+                PsiCodeBlock plannedBody = (PsiCodeBlock) plannedOnCreateBodies.get(psiClass);
+                if (plannedBody != null) {
+                    plannedBody.addAfter(instrumentedElement, plannedBody.getStatements()[0]);
+                    updateParametersMethod(psiClass);
+                    resultMessage.incrementInstrumentationCount().appendPsiClass(psiClass);
+                    if (psiMethods.length > 0) resultMessage.appendPsiMethod(psiMethods[0]);
+                    else resultMessage.appendOverridePsiMethod((PsiMethod) plannedBody.getParent());
+                    resultMessage.appendNewBlock();
+                    continue;
+                }
+
+                // There should be exactly a single method named "onCreate" and it should not be empty
+                if (psiMethods.length == 0) break;
+                PsiCodeBlock psiBody = psiMethods[0].getBody();
+                if (psiBody == null || psiBody.getStatements().length == 0) break;
+
+                // If there is a super constructor invocation, is must be in the first line of the method
+                PsiStatement firstStatement = psiBody.getStatements()[0];
+                boolean isSuperOnCreate = firstStatement.getText().contains("super.onCreate(");
+
+                // The instrumentedElement contains the statement to connect the
+                // Android application's Main activity to the NAPPA Prefetching Library.
+                // Essentially, we add a statement which initializes Nappa at the very beginning
+                // of the application launch
+                resultMessage.incrementInstrumentationCount()
+                        .appendPsiClass(psiClass)
+                        .appendPsiMethod(psiMethods[0])
+                        .appendNewBlock();
+
+                if (isSuperOnCreate) plan.addAfter(firstStatement, instrumentedElement);
+                else plan.addBefore(firstStatement, instrumentedElement);
+                updateParametersMethod(psiClass);
+            }
+        }
+
+        /**
+         * This method finds the {@code onCreate()} method implemented in the main launcher
+         * {@link android.app.Activity} and insert an instrumented text containing the Prefetching Library
+         * initialization with the Prefetching Strategy of the {@link InstrumentSettings}
+         * <br/><br/>
+         *
+         * <p> The initialization is inserted at the top of the {@code onCreate()} method, after
+         * invoking the super constructor, if present, or before the first statement in the method.
+         * If the library is already initialized with another strategy, the existing initialization is updated.
+         * <br/><br/>
+         *
+         * <p> The following source code is instrumented:
+         *
+         * <pre>{@code Nappa.init(this, PrefetchingStrategyType.STRATEGY_GREEDY_VISIT_FREQUENCY)}</pre>
+         *
+         * @param ktFile The Kotlin file containing the main launcher {@link android.app.Activity}
+         */
+        private void addLibraryInitializationStatementKt(@NotNull KtFile ktFile) {
+            String instrumentedText = InstrumentSettings.getInstance(project).getKotlinInitCall();
+            KtClass[] ktClasses = Arrays.stream(ktFile.getChildren()).filter(child -> child instanceof KtClass).toArray(KtClass[]::new);
+
+            for (KtClass ktClass : ktClasses) {
+                // There is only one initialization per app, which is updated if the strategy changed
+                if (updateLibraryInitializationStatementKt(ktClass, instrumentedText)) break;
+
+                // The library must be initialized only in the file main class, which must be an activity
+                if (!InstrumentUtil.isMainPublicClassKt(ktClass) || !isActivityClass(LightClassUtilsKt.toLightClass(ktClass))) continue;
+
+                KtPsiFactory ktPsiFactory = new KtPsiFactory(project);
+                KtExpression expression = ktPsiFactory.createExpression(instrumentedText);
+
+                // The function "onCreate" is injected by the lifecycle observer and it always invokes the super constructor
+                KtBlockExpression plannedBody = (KtBlockExpression) plannedOnCreateBodies.get(ktClass);
+                if (plannedBody != null) {
+                    //noinspection ConstantConditions
+                    PsiElement element = plannedBody.addAfter(expression, plannedBody.getFirstStatement());
+                    plannedBody.addBefore(ktPsiFactory.createNewLine(), element);
+                    resultMessage.incrementInstrumentationCount()
+                            .appendText("Initialized the library in the function onCreate")
+                            .appendLocation(ktClass)
+                            .appendNewBlock();
+                    continue;
+                }
+
+                // There should be exactly a single function named "onCreate" and it should not be empty
+                KtClassBody classBody = ktClass.getBody();
+                KtNamedFunction onCreateFunction = classBody == null ? null : classBody.getFunctions().stream()
+                        .filter(function -> "onCreate".equals(function.getName()))
+                        .findFirst()
+                        .orElse(null);
+                if (onCreateFunction == null) break;
+                KtBlockExpression ktBody = onCreateFunction.getBodyBlockExpression();
+                if (ktBody == null || ktBody.getStatements().isEmpty()) break;
+
+                // If there is a super constructor invocation, is must be in the first line of the function
+                KtExpression firstStatement = ktBody.getStatements().get(0);
+                boolean isSuperOnCreate = firstStatement.getText().contains("super.onCreate(");
+
+                // The expression contains the statement to connect the
+                // Android application's Main activity to the NAPPA Prefetching Library.
+                // Essentially, we add a statement which initializes Nappa at the very beginning
+                // of the application launch
+                resultMessage.incrementInstrumentationCount()
+                        .appendText("Initialized the library in the function onCreate")
+                        .appendLocation(onCreateFunction)
+                        .appendNewBlock();
+
+                if (isSuperOnCreate) plan.addAfter(firstStatement, expression, ktPsiFactory.createNewLine());
+                else plan.addBefore(firstStatement, expression, ktPsiFactory.createNewLine());
+            }
+        }
+
+        /**
+         * Find the library initialization in the {@code psiClass} and update it, and the method creating its
+         * parameters, to the Prefetching Strategy of the {@link InstrumentSettings}
+         *
+         * @param psiClass     Represents a Java class.
+         * @param initCallText The source code of the initialization, without the semicolon
+         * @return {@code True} if the class already initializes the library or {@code False} otherwise
+         */
+        private boolean updateLibraryInitializationStatement(@NotNull PsiClass psiClass, @NotNull String initCallText) {
+            PsiMethodCallExpression initCall = findLibraryInitialization(psiClass);
+            if (initCall == null) return false;
+
+            PsiClass initClass = PsiTreeUtil.getParentOfType(initCall, PsiClass.class);
+            boolean isParametersMethodUpdated = initClass != null && updateParametersMethod(initClass);
+            boolean isInitCallUpdated = !StringUtil.equalsIgnoreWhitespaces(initCall.getText(), initCallText);
+            if (!isInitCallUpdated && !isParametersMethodUpdated) {
                 resultMessage.incrementAlreadyInstrumentedCount();
-                break;
+            } else {
+                if (isInitCallUpdated) {
+                    plan.replace(initCall, PsiElementFactory.getInstance(project).createExpressionFromText(initCallText, initCall));
+                }
+                resultMessage.incrementInstrumentationCount()
+                        .appendPsiClass(psiClass)
+                        .appendText("Updated the prefetching strategy of the library initialization")
+                        .appendLocation(initCall)
+                        .appendNewBlock();
             }
+            return true;
+        }
 
+        /**
+         * Add, update or delete the method creating the parameters of the library initialization in the
+         * {@code psiClass}, according to the parameters of the {@link InstrumentSettings}
+         *
+         * @param psiClass Represents the Java class initializing the library.
+         * @return {@code True} if the method is changed or {@code False} if it is already up to date
+         */
+        private boolean updateParametersMethod(@NotNull PsiClass psiClass) {
+            String methodText = InstrumentSettings.getInstance(project).getJavaParametersMethod();
+            PsiMethod[] psiMethods = psiClass.findMethodsByName(InstrumentSettings.JAVA_PARAMETERS_METHOD_NAME, false);
+            if (methodText == null) {
+                if (psiMethods.length == 0) return false;
+                plan.delete(psiMethods[0]);
+                return true;
+            }
+            if (psiMethods.length > 0 && StringUtil.equalsIgnoreWhitespaces(psiMethods[0].getText(), methodText)) return false;
 
-            // The library must be initialized only in the file main class
-            if (!InstrumentUtil.isMainPublicClassKt(ktClass)) continue;
+            PsiMethod instrumentedMethod = PsiElementFactory.getInstance(project).createMethodFromText(methodText, psiClass);
+            if (psiMethods.length == 0) plan.add(psiClass, instrumentedMethod);
+            else plan.replace(psiMethods[0], instrumentedMethod);
+            return true;
+        }
 
-            // There should be exactly a single method named "onCreate" and it should not be empty
-            List<KtNamedFunction> functions = ktClass.getBody().getFunctions();
-            KtNamedFunction onCreateFunction = functions.stream()
-                    .filter(f -> f.getName().equals("onCreate"))
+        /**
+         * Find the library initialization in the {@code ktClass} and update it to the Prefetching Strategy of the
+         * {@link InstrumentSettings}
+         *
+         * @param ktClass          Represents a Kotlin class.
+         * @param instrumentedText The source code of the initialization
+         * @return {@code True} if the class already initializes the library or {@code False} otherwise
+         */
+        private boolean updateLibraryInitializationStatementKt(@NotNull KtClass ktClass, @NotNull String instrumentedText) {
+            PsiElement initExpression = findLibraryInitializationKt(ktClass);
+            if (initExpression == null) return false;
+
+            if (StringUtil.equalsIgnoreWhitespaces(initExpression.getText(), instrumentedText)) {
+                resultMessage.incrementAlreadyInstrumentedCount();
+            } else {
+                plan.replace(initExpression, new KtPsiFactory(project).createExpression(instrumentedText));
+                resultMessage.incrementInstrumentationCount()
+                        .appendText("Updated the prefetching strategy of the library initialization")
+                        .appendLocation(initExpression)
+                        .appendNewBlock();
+            }
+            return true;
+        }
+
+        /**
+         * Initialize the Prefetching Library in the {@code Application} class of each app of the project. The class
+         * is read from the {@code android:name} attribute of the {@code application} tag of the manifest. When the
+         * manifest does not declare one, a class is generated next to the main launcher {@link android.app.Activity}
+         * and registered in the manifest. The library is then initialized before any activity is created, whatever
+         * activity the app is started with (e.g. from a deep link or a notification).
+         * <p>
+         * The apps whose {@code Application} class is declared in a library or in a compiled dependency are not
+         * instrumented here, their main launcher {@link android.app.Activity} initializes the library instead.
+         *
+         * @return The fully qualified names of the main launcher activities of the apps initialized in their
+         * {@code Application} class
+         */
+        private @NotNull
+        Set<String> initializeLibraryInApplications() {
+            Set<String> initializedLaunchers = new HashSet<>();
+            for (InstrumentManifest.Application application : InstrumentManifest.getApplications(project)) {
+                // The libraries have no launcher activity, they are initialized by the apps depending on them
+                InstrumentManifest.Activity launcherActivity = application.getLauncherActivity();
+                if (launcherActivity == null) continue;
+                resultMessage.incrementPossibleInstrumentationCount();
+
+                boolean isInitialized;
+                if (application.getQualifiedName() == null) {
+                    isInitialized = generateApplicationClass(application, launcherActivity);
+                } else {
+                    PsiClass psiClass = resultMessage.measure(InstrumentPhase.TYPE_RESOLUTION,
+                            () -> InstrumentManifest.findApplicationClass(project, application));
+                    isInitialized = getSourceFile(psiClass) != null && initializeLibraryInApplication(psiClass);
+                }
+                if (isInitialized) initializedLaunchers.add(launcherActivity.getQualifiedName());
+            }
+            return initializedLaunchers;
+        }
+
+        /**
+         * @param psiClass The {@code Application} class of an app, declared in a source file of the app
+         * @return {@code True} if the class initializes the library once the plan is applied or {@code False} otherwise
+         */
+        private boolean initializeLibraryInApplication(@NotNull PsiClass psiClass) {
+            // The navigation element of the light class of a Kotlin class is the Kotlin class
+            PsiElement navigationElement = psiClass.getNavigationElement();
+            if (navigationElement instanceof KtClass) return initializeLibraryInApplicationKt((KtClass) navigationElement);
+            return psiClass.getContainingFile() instanceof PsiJavaFile && initializeLibraryInApplicationJava(psiClass);
+        }
+
+        /**
+         * This method finds the {@code onCreate()} method of the {@code Application} class and inserts the Prefetching
+         * Library initialization at its top, after invoking the super method, if present, or before the first
+         * statement in the method. If the class does not override {@code onCreate()}, the method is injected as follows:
+         *
+         * <pre>{@code
+         * @Override
+         * public void onCreate() {
+         *     super.onCreate();
+         *     Nappa.init(this, PrefetchingStrategyType.STRATEGY_GREEDY_VISIT_FREQUENCY);
+         * }
+         * }</pre>
+         *
+         * @param psiClass The {@code Application} class of an app
+         * @return {@code True} if the class initializes the library once the plan is applied or {@code False} otherwise
+         */
+        private boolean initializeLibraryInApplicationJava(@NotNull PsiClass psiClass) {
+            String initCallText = InstrumentSettings.getInstance(project).getJavaInitCall();
+            if (updateLibraryInitializationStatement(psiClass, initCallText)) return true;
+
+            PsiElementFactory factory = PsiElementFactory.getInstance(project);
+            PsiMethod onCreateMethod = Arrays.stream(psiClass.findMethodsByName("onCreate", false))
+                    .filter(method -> method.getParameterList().getParametersCount() == 0)
                     .findFirst()
                     .orElse(null);
+            if (onCreateMethod == null) {
+                PsiMethod instrumentedMethod = factory.createMethodFromText("" +
+                        "@Override\n" +
+                        "public void onCreate() {\n" +
+                        "super.onCreate();\n" +
+                        initCallText + ";\n" +
+                        "}", psiClass);
+                plan.add(psiClass, instrumentedMethod);
+                resultMessage.incrementInstrumentationCount()
+                        .appendPsiClass(psiClass)
+                        .appendOverridePsiMethod(instrumentedMethod)
+                        .appendNewBlock();
+            } else {
+                PsiCodeBlock psiBody = onCreateMethod.getBody();
+                if (psiBody == null) return false;
+
+                PsiStatement[] statements = psiBody.getStatements();
+                if (statements.length == 0) {
+                    plan.replace(psiBody, factory.createCodeBlockFromText("{\n" +
+                            "super.onCreate();\n" +
+                            initCallText + ";\n" +
+                            "}", psiClass));
+                } else {
+                    PsiStatement instrumentedElement = factory.createStatementFromText(initCallText + ";", psiClass);
+                    if (statements[0].getText().contains("super.onCreate(")) plan.addAfter(statements[0], instrumentedElement);
+                    else plan.addBefore(statements[0], instrumentedElement);
+                }
+                resultMessage.incrementInstrumentationCount()
+                        .appendPsiClass(psiClass)
+                        .appendPsiMethod(onCreateMethod)
+                        .appendNewBlock();
+            }
 
-            if (onCreateFunction == null) break;
-            KtExpression bodyExpression = onCreateFunction.getBodyExpression();
-            String onCreateBody = bodyExpression.getText();
-            boolean isEmpty = bodyExpression.getText().isBlank();
-            if (isEmpty) break;
+            updateParametersMethod(psiClass);
+            InstrumentUtil.addLibraryImport(plan, psiClass);
+            InstrumentUtil.addStrategyImport(plan, psiClass);
+            return true;
+        }
 
-            // If there is a super constructor invocation, is must be in the first line of the method
-            KtBlockExpression ktBody = onCreateFunction.getBodyBlockExpression();
-            KtExpression firstStatement = ktBody.getFirstStatement();
-            boolean isSuperOnCreate = firstStatement.getText().contains("super.onCreate(");
+        /**
+         * This method finds the {@code onCreate()} function of the {@code Application} class and inserts the
+         * Prefetching Library initialization, as {@link #initializeLibraryInApplicationJava} does. If the class does
+         * not override {@code onCreate()}, the function is injected as follows:
+         *
+         * <pre>{@code
+         * override fun onCreate() {
+         *     super.onCreate()
+         *     Nappa.init(this, PrefetchingStrategyType.STRATEGY_GREEDY_VISIT_FREQUENCY)
+         * }
+         * }</pre>
+         *
+         * @param ktClass The {@code Application} class of an app
+         * @return {@code True} if the class initializes the library once the plan is applied or {@code False} otherwise
+         */
+        private boolean initializeLibraryInApplicationKt(@NotNull KtClass ktClass) {
+            String instrumentedText = InstrumentSettings.getInstance(project).getKotlinInitCall();
+            if (updateLibraryInitializationStatementKt(ktClass, instrumentedText)) return true;
+
+            KtPsiFactory ktPsiFactory = new KtPsiFactory(project);
+            KtClassBody classBody = ktClass.getBody();
+            KtNamedFunction onCreateFunction = classBody == null ? null : classBody.getFunctions().stream()
+                    .filter(function -> "onCreate".equals(function.getName()) && function.getValueParameters().isEmpty())
+                    .findFirst()
+                    .orElse(null);
+            if (onCreateFunction == null) {
+                KtNamedFunction function = ktPsiFactory.createFunction("override fun onCreate() {\n" +
+                        "super.onCreate()\n" +
+                        instrumentedText + "\n" +
+                        "}");
+                if (classBody != null && classBody.getRBrace() != null) {
+                    plan.addBefore(classBody.getRBrace(), function);
+                } else {
+                    // The class is declared without a body, e.g. "class App : Application()"
+                    KtClassBody instrumentedBody = ktPsiFactory.createEmptyClassBody();
+                    //noinspection ConstantConditions --> The created body always has braces
+                    PsiElement addedFunction = instrumentedBody.addAfter(function, instrumentedBody.getLBrace());
+                    instrumentedBody.addBefore(ktPsiFactory.createNewLine(), addedFunction);
+                    instrumentedBody.addAfter(ktPsiFactory.createNewLine(), addedFunction);
+                    plan.addAfter(ktClass.getLastChild(), instrumentedBody, ktPsiFactory.createWhiteSpace());
+                }
+                resultMessage.incrementInstrumentationCount()
+                        .appendText("Added the function onCreate initializing the library")
+                        .appendLocation(ktClass)
+                        .appendNewBlock();
+            } else {
+                KtBlockExpression ktBody = onCreateFunction.getBodyBlockExpression();
+                if (ktBody == null) return false;
 
+                KtExpression firstStatement = ktBody.getFirstStatement();
+                if (firstStatement == null) {
+                    plan.replace(ktBody, ktPsiFactory.createBlock("super.onCreate()\n" + instrumentedText));
+                } else {
+                    KtExpression expression = ktPsiFactory.createExpression(instrumentedText);
+                    if (firstStatement.getText().contains("super.onCreate(")) plan.addAfter(firstStatement, expression, ktPsiFactory.createNewLine());
+                    else plan.addBefore(firstStatement, expression, ktPsiFactory.createNewLine());
+                }
+                resultMessage.incrementInstrumentationCount()
+                        .appendText("Initialized the library")
+                        .appendLocation(onCreateFunction)
+                        .appendNewBlock();
+            }
 
-            // This is the Element which contains the statement to connect the
-            // Android application's Main activity to the NAPPA Prefetching Library.
-            // Essentially, we add a statement which initializes Nappa at the very beginning
-            // of the application launch
+            InstrumentUtilKt.addLibraryImportToKt(plan, ktClass);
+            InstrumentUtilKt.addStrategyTypeImportToKt(plan, ktClass);
+            if (!InstrumentSettings.getInstance(project).getParameters().isEmpty())
+                InstrumentUtilKt.addStrategyConfigImportToKt(plan, ktClass);
+            return true;
+        }
 
+        /**
+         * Generate an {@code Application} class initializing the Prefetching Library and register it in the
+         * {@code android:name} attribute of the {@code application} tag of the manifest. The class is generated in
+         * the package of the main launcher {@link android.app.Activity}, in the same language.
+         *
+         * @param application      The application of an app which does not declare an {@code Application} class
+         * @param launcherActivity The main launcher activity of the app
+         * @return {@code True} if the class is generated once the plan is applied or {@code False} otherwise
+         */
+        private boolean generateApplicationClass(@NotNull InstrumentManifest.Application application,
+                                                 @NotNull InstrumentManifest.Activity launcherActivity) {
+            PsiClass launcherClass = resultMessage.measure(InstrumentPhase.TYPE_RESOLUTION,
+                    () -> InstrumentManifest.findActivityClass(project, launcherActivity));
+            if (getSourceFile(launcherClass) == null) return false;
+            PsiFile launcherFile = launcherClass.getNavigationElement().getContainingFile();
+            PsiDirectory directory = launcherFile.getContainingDirectory();
+            VirtualFile manifestFile = application.getManifestFile();
+            PsiFile manifestPsiFile = manifestFile.isValid() ? PsiManager.getInstance(project).findFile(manifestFile) : null;
+            XmlTag manifestTag = manifestPsiFile instanceof XmlFile ? ((XmlFile) manifestPsiFile).getRootTag() : null;
+            if (directory == null || manifestTag == null) return false;
+
+            String packageName = ((PsiClassOwner) launcherFile).getPackageName();
+            boolean isKotlin = launcherFile instanceof KtFile;
+            String fileName = GENERATED_APPLICATION_CLASS_NAME + (isKotlin ? ".kt" : ".java");
+            // The class was already generated if the manifest was reverted without deleting it
+            if (directory.findFile(fileName) == null) {
+                String text = isKotlin ? getApplicationClassTextKt(packageName) : getApplicationClassText(packageName);
+                plan.addFile(directory, PsiFileFactory.getInstance(project)
+                        .createFileFromText(fileName, isKotlin ? KotlinFileType.INSTANCE : JavaFileType.INSTANCE, text));
+            }
 
-            KtPsiFactory ktPsiFactoryFactory = new KtPsiFactory(project);
-            KtExpression expression =  ktPsiFactoryFactory.createExpression(instrumentedText);
+            String qualifiedName = packageName.isEmpty() ? GENERATED_APPLICATION_CLASS_NAME : packageName + "." + GENERATED_APPLICATION_CLASS_NAME;
+            String name = packageName.equals(application.getPackageName()) ? "." + GENERATED_APPLICATION_CLASS_NAME : qualifiedName;
+            XmlElementFactory xmlFactory = XmlElementFactory.getInstance(project);
+            XmlTag applicationTag = manifestTag.findFirstSubTag("application");
+            if (applicationTag == null)
+                plan.add(manifestTag, xmlFactory.createTagFromText("<application android:name=\"" + name + "\"/>"));
+            else
+                plan.add(applicationTag, xmlFactory.createAttribute("android:name", name, applicationTag));
 
-            //TODO: logging
-            /*resultMessage.incrementInstrumentationCount()
-                    .appendPsiClass(psiClass)
-                    .appendPsiMethod(psiMethods[0])
+            resultMessage.incrementInstrumentationCount()
+                    .appendText("Generated the class " + qualifiedName + " initializing the library and registered it in the manifest")
+                    .appendLocation(manifestTag)
                     .appendNewBlock();
-            */
-            WriteCommandAction.runWriteCommandAction(project, () -> {
-                if (isSuperOnCreate){
-                    PsiElement element = ktBody.addAfter(expression, firstStatement);
-                    ktBody.addBefore(ktPsiFactoryFactory.createNewLine(), element);
-                }
-                else {
-                    PsiElement element = ktBody.addBefore(expression, firstStatement);
-                    ktBody.addAfter(ktPsiFactoryFactory.createNewLine(), element);
-                }
-            });
+            return true;
         }
-    }
 
+        /**
+         * @param packageName The package of the generated class
+         * @return The source code of a Java {@code Application} class initializing the Prefetching Library
+         */
+        private @NotNull
+        String getApplicationClassText(@NotNull String packageName) {
+            InstrumentSettings settings = InstrumentSettings.getInstance(project);
+            String parametersMethodText = settings.getJavaParametersMethod();
+            return (packageName.isEmpty() ? "" : "package " + packageName + ";\n\n") +
+                    "import android.app.Application;\n\n" +
+                    "import nl.vu.cs.s2group.nappa.*;\n" +
+                    "import nl.vu.cs.s2group.nappa.prefetch.*;\n\n" +
+                    "public class " + GENERATED_APPLICATION_CLASS_NAME + " extends Application {\n" +
+                    "    @Override\n" +
+                    "    public void onCreate() {\n" +
+                    "        super.onCreate();\n" +
+                    "        " + settings.getJavaInitCall() + ";\n" +
+                    "    }\n" +
+                    (parametersMethodText == null ? "" : "\n" + parametersMethodText.replaceAll("(?m)^", "    ") + "\n") +
+                    "}\n";
+        }
 
+        /**
+         * @param packageName The package of the generated class
+         * @return The source code of a Kotlin {@code Application} class initializing the Prefetching Library
+         */
+        private @NotNull
+        String getApplicationClassTextKt(@NotNull String packageName) {
+            InstrumentSettings settings = InstrumentSettings.getInstance(project);
+            return (packageName.isEmpty() ? "" : "package " + packageName + "\n\n") +
+                    "import android.app.Application\n" +
+                    "import nl.vu.cs.s2group.nappa.*\n" +
+                    (settings.getParameters().isEmpty() ? "" : "import nl.vu.cs.s2group.nappa.prefetch.PrefetchingStrategyConfigKeys\n") +
+                    "import nl.vu.cs.s2group.nappa.prefetch.PrefetchingStrategyType\n\n" +
+                    "class " + GENERATED_APPLICATION_CLASS_NAME + " : Application() {\n" +
+                    "    override fun onCreate() {\n" +
+                    "        super.onCreate()\n" +
+                    "        " + settings.getKotlinInitCall() + "\n" +
+                    "    }\n" +
+                    "}\n";
+        }
 
-    /**
-     * Identify all Java classes that are child of the class {@link android.app.Activity} by scanning
-     * all AndroidManifest files within a project. This method also identifies the main launcher activity.
-     *
-     * @return A map of java file names to a flag indicating if this file contains the main launcher activity
-     */
-    @NotNull
-    private Map<String, Boolean> getAllJavaFilesWithAnActivity() {
-        Map<String, Boolean> javaFiles = new HashMap<>();
-        PsiFile[] androidManifestFiles = FilenameIndex.getFilesByName(project, "AndroidManifest.xml", GlobalSearchScope.projectScope(project));
-
-        // Navigate tags until you reach the Activity Tags according to the following hierarchy
-        //  Manifest -> application -> activity
-        for (PsiFile psiFile : androidManifestFiles) {
-            XmlFile androidManifestFile = (XmlFile) psiFile;
-            XmlTag rootTag = androidManifestFile.getRootTag();
-
-            if (rootTag == null) continue;
-            XmlTag applicationTag = rootTag.findFirstSubTag("application");
-
-            if (applicationTag == null) continue;
-            XmlTag[] activityTags = applicationTag.findSubTags("activity");
-
-            for (XmlTag activityTag : activityTags) {
-                XmlAttribute tagAndroidName = activityTag.getAttribute("android:name");
-                if (tagAndroidName == null) continue;
-                String activityName = tagAndroidName.getValue();
-                if (activityName == null) continue;
-
-                // Fetch the java resource file corresponding to the activity name
-                activityName = activityName.substring(activityName.lastIndexOf(".") + 1);
-                boolean isMainLauncherActivity = activityTag.getText().contains("android.intent.action.MAIN") &&
-                        activityTag.getText().contains("android.intent.category.LAUNCHER");
-                javaFiles.put(activityName, isMainLauncherActivity);
+        /**
+         * @param file The Java or Kotlin file of an {@link android.app.Activity}
+         * @return {@code True} if the file declares the main launcher activity of an app initialized in its
+         * {@code Application} class or {@code False} otherwise
+         */
+        private boolean isInitializedLauncherActivity(@NotNull PsiClassOwner file) {
+            return Arrays.stream(file.getClasses())
+                    .anyMatch(psiClass -> initializedLauncherActivities.contains(psiClass.getQualifiedName()));
+        }
+
+        /**
+         * Remove the library initialization injected in the main launcher {@link android.app.Activity} by previous
+         * versions of this action, since the library is now initialized in the {@code Application} class
+         *
+         * @param javaFile The Java file containing the main launcher {@link android.app.Activity}
+         */
+        private void removeLibraryInitializationStatement(@NotNull PsiJavaFile javaFile) {
+            for (PsiClass psiClass : javaFile.getClasses()) {
+                PsiMethodCallExpression initCall = findLibraryInitialization(psiClass);
+                PsiStatement initStatement = PsiTreeUtil.getParentOfType(initCall, PsiStatement.class);
+                if (initStatement == null) continue;
+                plan.delete(initStatement);
+                PsiMethod[] parametersMethods = psiClass.findMethodsByName(InstrumentSettings.JAVA_PARAMETERS_METHOD_NAME, false);
+                if (parametersMethods.length > 0) plan.delete(parametersMethods[0]);
+                resultMessage.incrementInstrumentationCount()
+                        .appendPsiClass(psiClass)
+                        .appendText("Moved the library initialization to the Application class")
+                        .appendLocation(initStatement)
+                        .appendNewBlock();
+            }
+        }
+
+        /**
+         * Remove the library initialization injected in the main launcher {@link android.app.Activity} by previous
+         * versions of this action, since the library is now initialized in the {@code Application} class
+         *
+         * @param ktFile The Kotlin file containing the main launcher {@link android.app.Activity}
+         */
+        private void removeLibraryInitializationStatementKt(@NotNull KtFile ktFile) {
+            for (PsiElement child : ktFile.getChildren()) {
+                if (!(child instanceof KtClass)) continue;
+                PsiElement initExpression = findLibraryInitializationKt((KtClass) child);
+                if (initExpression == null) continue;
+                plan.delete(initExpression);
+                resultMessage.incrementInstrumentationCount()
+                        .appendText("Moved the library initialization to the Application class")
+                        .appendLocation(initExpression)
+                        .appendNewBlock();
             }
         }
-        return javaFiles;
     }
 }
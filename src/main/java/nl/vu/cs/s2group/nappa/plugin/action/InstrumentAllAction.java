@@ -0,0 +1,53 @@
+package nl.vu.cs.s2group.nappa.plugin.action;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPlan;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUastScanner;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs all instrumentations at once, with a single plan and a single result.
+ * <p>
+ * The activities are found in the manifests and the class hierarchy, thus the lifecycle observers are injected
+ * without scanning the project, see {@link InstrumentActivityAction}. The intent extras, OkHttp and Retrofit sites are then instrumented
+ * in a single scan, in which each file is visited once and each node is sent to the matchers of all three actions. The fragment
+ * sites are instrumented in the same scan if the project enables them, see {@link InstrumentFragmentAction}.
+ * Thus, instrumenting a project with this action costs about one scan instead of one scan per action.
+ */
+public class InstrumentAllAction extends InstrumentAction {
+
+    public InstrumentAllAction() {
+        super("Instrumenting the app", "NAPPA Instrumentation Result", "Failed to Instrument the App");
+    }
+
+    /**
+     * Injects the lifecycle observers and then instruments the intent extras, OkHttp, Retrofit and enabled fragment sites
+     * in a single scan
+     *
+     * @param project       {@inheritDoc}
+     * @param indicator     {@inheritDoc}
+     * @param plan          {@inheritDoc}
+     * @param resultMessage {@inheritDoc}
+     */
+    @Override
+    protected void instrument(@NotNull Project project,
+                              @NotNull ProgressIndicator indicator,
+                              @NotNull InstrumentPlan plan,
+                              @NotNull InstrumentResultMessage resultMessage) {
+        indicator.setText("Instrumenting activities");
+        new InstrumentActivityAction().runInstrumentation(project, indicator, plan, resultMessage);
+
+        List<InstrumentUastScanner.SiteMatcher> matchers = new ArrayList<>(Arrays.asList(InstrumentIntentExtrasAction.setUp(project),
+                InstrumentOkHttpAction.setUp(project), InstrumentRetrofitAction.setUp(project)));
+        if (InstrumentFragmentAction.isEnabled(project)) matchers.add(InstrumentFragmentAction.setUp(project));
+
+        indicator.setText("Instrumenting intent extras, OkHttp and Retrofit clients");
+        InstrumentUastScanner.scanProject(project, matchers, indicator, plan, resultMessage);
+    }
+}
@@ -0,0 +1,328 @@
+package nl.vu.cs.s2group.nappa.plugin.action;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.PsiUtil;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteCollector;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
+import nl.vu.cs.s2group.nappa.plugin.settings.InstrumentSettings;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPhase;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPlan;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUastScanner;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.idea.KotlinFileType;
+import org.jetbrains.kotlin.psi.KtExpression;
+import org.jetbrains.uast.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Instruments the navigation between the fragments of an activity. Single-activity apps navigate by adding or
+ * replacing fragments in a container, and send data to the next screen in the arguments of the fragment, thus the
+ * activity probes see a single node in the navigation graph of NAPPA. This action injects the fragment counterparts
+ * of the activity probes, which gives the graph one node per fragment.
+ * <p>
+ * The plugin considers the following Fragment Transition Scenario:
+ *
+ * <pre>{@code
+ * Nappa.notifyExtras(arguments);
+ * fragment.setArguments(arguments);
+ * Nappa.setCurrentFragment(fragment);
+ * getSupportFragmentManager().beginTransaction()
+ *         .replace(R.id.container, fragment)
+ *         .commit();
+ * }</pre>
+ * <p>
+ * Only the transactions showing a fragment in a container are instrumented, i.e. the variants of {@code add} and
+ * {@code replace} receiving a container view id and a fragment instance. The fragments added without a container
+ * do not have a view, thus they are not a screen of the app.
+ * <p>
+ * The released versions of the library do not provide {@code Nappa.setCurrentFragment} yet, thus this action only
+ * runs if the project enables the fragment probes, see {@link InstrumentSettings#isFragmentProbesEnabled()}.
+ */
+public class InstrumentFragmentAction extends InstrumentAction {
+    // The fragment classes of the Android framework, the AndroidX library and the deprecated support library
+    private static final Set<String> FRAGMENT_CLASSES = new HashSet<>(Arrays.asList(
+            "androidx.fragment.app.Fragment",
+            "android.app.Fragment",
+            "android.support.v4.app.Fragment"
+    ));
+    private static final Set<String> FRAGMENT_TRANSACTION_CLASSES = new HashSet<>(Arrays.asList(
+            "androidx.fragment.app.FragmentTransaction",
+            "android.app.FragmentTransaction",
+            "android.support.v4.app.FragmentTransaction"
+    ));
+    private static final String NAVIGATION_PROBE = "setCurrentFragment";
+    private static final String EXTRAS_PROBE = "notifyExtras";
+
+    public InstrumentFragmentAction() {
+        super("Instrumenting fragments", "Fragment Instrumentation Result", "Failed to Instrument Fragments");
+    }
+
+    /**
+     * @param project An object representing an IntelliJ project.
+     * @return {@code True} if the project enables the fragment probes, see {@link InstrumentSettings}
+     */
+    public static boolean isEnabled(@NotNull Project project) {
+        return InstrumentSettings.getInstance(project).isFragmentProbesEnabled();
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        super.update(e);
+        Project project = e.getProject();
+        if (project != null && !isEnabled(project)) e.getPresentation().setEnabled(false);
+    }
+
+    /**
+     * Will find the fragment transactions and the arguments set to fragments, and from there it will prepend
+     * a call to Nappa.setCurrentFragment(fragment) or Nappa.notifyExtras(arguments).
+     * <p>
+     * The Java and Kotlin files are scanned in a single pass, see {@link InstrumentUastScanner}.
+     *
+     * @param project       {@inheritDoc}
+     * @param indicator     {@inheritDoc}
+     * @param plan          {@inheritDoc}
+     * @param resultMessage {@inheritDoc}
+     */
+    @Override
+    protected void instrument(@NotNull Project project,
+                              @NotNull ProgressIndicator indicator,
+                              @NotNull InstrumentPlan plan,
+                              @NotNull InstrumentResultMessage resultMessage) {
+        if (!isEnabled(project))
+            throw new IllegalStateException("The fragment probes are disabled, enable them in Settings > Tools > NAPPA");
+        InstrumentUastScanner.scanProject(project, setUp(project), indicator, plan, resultMessage);
+    }
+
+    /**
+     * Creates a matcher of the sites of the {@code project}, without scanning it.
+     * It is used to share a single scan with other actions, see {@link InstrumentAllAction}, and to instrument the
+     * sites highlighted in the editor, see {@link nl.vu.cs.s2group.nappa.plugin.inspection.InstrumentInspection}.
+     *
+     * @param project An object representing an IntelliJ project.
+     * @return The matcher of the fragment transactions and navigations of the {@code project}
+     */
+    public static @NotNull
+    InstrumentUastScanner.SiteMatcher setUp(@NotNull Project project) {
+        return new Matcher(project);
+    }
+
+    /**
+     * Find the value sent to the probe of a site, i.e. the fragment shown by a transaction or the arguments set
+     * to a fragment. The calls are resolved, thus the methods with the same name in other classes (e.g.
+     * {@code List.add}) are not sites.
+     *
+     * @param node A UAST node
+     * @return The argument of the site or {@code null} if the node is not a fragment navigation site
+     */
+    private static @Nullable
+    UExpression findProbedArgument(@NotNull UElement node) {
+        if (node instanceof UCallExpression) {
+            UCallExpression call = (UCallExpression) node;
+            String name = InstrumentUastScanner.getCalleeName(call);
+            if (!"setArguments".equals(name) && !"add".equals(name) && !"replace".equals(name)) return null;
+            PsiMethod method = call.resolve();
+            PsiClass containingClass = method == null ? null : method.getContainingClass();
+            if (containingClass == null) return null;
+
+            if ("setArguments".equals(name))
+                return FRAGMENT_CLASSES.contains(containingClass.getQualifiedName()) && call.getValueArgumentCount() == 1
+                        ? call.getValueArguments().get(0) : null;
+            if (!FRAGMENT_TRANSACTION_CLASSES.contains(containingClass.getQualifiedName())) return null;
+            return findFragmentArgument(call, method);
+        }
+
+        // In Kotlin, the arguments are usually set as a property, e.g. "fragment.arguments = bundle"
+        if (node instanceof UBinaryExpression && ((UBinaryExpression) node).getOperator() == UastBinaryOperator.ASSIGN) {
+            UBinaryExpression assignment = (UBinaryExpression) node;
+            UExpression left = assignment.getLeftOperand();
+            if (!(left instanceof UResolvable)) return null;
+            PsiElement resolved = ((UResolvable) left).resolve();
+            if (!(resolved instanceof PsiMethod)) return null;
+            PsiMethod accessor = (PsiMethod) resolved;
+            PsiClass containingClass = accessor.getContainingClass();
+            boolean isArgumentsProperty = "getArguments".equals(accessor.getName()) || "setArguments".equals(accessor.getName());
+            return isArgumentsProperty && containingClass != null && FRAGMENT_CLASSES.contains(containingClass.getQualifiedName())
+                    ? assignment.getRightOperand() : null;
+        }
+        return null;
+    }
+
+    /**
+     * @param call   A call to {@code FragmentTransaction.add} or {@code FragmentTransaction.replace}
+     * @param method The resolved method
+     * @return The fragment shown in a container or {@code null} if the variant does not receive a container view
+     * id and a fragment instance, e.g. {@code replace(containerViewId, fragmentClass, args)}
+     */
+    private static @Nullable
+    UExpression findFragmentArgument(@NotNull UCallExpression call, @NotNull PsiMethod method) {
+        PsiParameter[] parameters = method.getParameterList().getParameters();
+        boolean hasContainer = Arrays.stream(parameters).anyMatch(parameter -> PsiType.INT.equals(parameter.getType()));
+        if (!hasContainer) return null;
+        for (int i = 0; i < parameters.length; i++) {
+            if (FRAGMENT_CLASSES.contains(parameters[i].getType().getCanonicalText()))
+                return call.getArgumentForParameter(i);
+        }
+        return null;
+    }
+
+    /**
+     * @param site A site matched by this action
+     * @return {@code True} if the site is a fragment transaction or {@code False} if it sets the fragment arguments
+     */
+    private static boolean isTransaction(@NotNull UElement site) {
+        return site instanceof UCallExpression && !"setArguments".equals(InstrumentUastScanner.getCalleeName((UCallExpression) site));
+    }
+
+    /**
+     * Matches the fragment transactions and navigations of a project and injects the fragment probes
+     */
+    private static final class Matcher implements InstrumentUastScanner.SiteMatcher {
+        private final Project project;
+        private final InstrumentFragmentActionKt kotlinWriter;
+
+        private Matcher(@NotNull Project project) {
+            this.project = project;
+            kotlinWriter = new InstrumentFragmentActionKt(project);
+        }
+
+        @Override
+        public @NotNull
+        InstrumentSiteKind getKind() {
+            return InstrumentSiteKind.FRAGMENT_NAVIGATION;
+        }
+
+        @Override
+        public @NotNull
+        List<FileType> getFileTypes() {
+            return Arrays.asList(JavaFileType.INSTANCE, KotlinFileType.INSTANCE);
+        }
+
+        /**
+         * Verifies if the node adds or replaces a fragment in a container, or sets the arguments of a fragment,
+         * either by calling {@code setArguments} or by assigning the Kotlin property {@code arguments}
+         *
+         * @param node          {@inheritDoc}
+         * @param resultMessage {@inheritDoc}
+         * @return {@inheritDoc}
+         */
+        @Override
+        public boolean matches(@NotNull UElement node, @NotNull InstrumentResultMessage resultMessage) {
+            return resultMessage.measure(InstrumentPhase.TYPE_RESOLUTION, () -> findProbedArgument(node) != null);
+        }
+
+        /**
+         * Prepend the {@code Nappa.setCurrentFragment} probe to a fragment transaction, or the
+         * {@code Nappa.notifyExtras} probe to the arguments set to a fragment. The Kotlin sites are instrumented by
+         * {@link InstrumentFragmentActionKt}.
+         *
+         * @param site          {@inheritDoc}
+         * @param plan          {@inheritDoc}
+         * @param resultMessage {@inheritDoc}
+         */
+        @Override
+        public void instrument(@NotNull UElement site, @NotNull InstrumentPlan plan, @NotNull InstrumentResultMessage resultMessage) {
+            UExpression argument = findProbedArgument(site);
+            PsiElement sourcePsi = site.getSourcePsi();
+            PsiElement argumentPsi = argument == null ? null : argument.getSourcePsi();
+            if (sourcePsi == null || argumentPsi == null) return;
+
+            String probeName = isTransaction(site) ? NAVIGATION_PROBE : EXTRAS_PROBE;
+            if (sourcePsi instanceof PsiMethodCallExpression && argumentPsi instanceof PsiExpression)
+                processFragmentSite((PsiMethodCallExpression) sourcePsi, (PsiExpression) argumentPsi, probeName, plan, resultMessage);
+            else if (sourcePsi instanceof KtExpression && argumentPsi instanceof KtExpression)
+                kotlinWriter.processFragmentSite((KtExpression) sourcePsi, (KtExpression) argumentPsi, probeName, plan, resultMessage);
+        }
+
+        /**
+         * Instrument a fragment navigation site declared in a Java file. The probe is injected before the statement of
+         * the site. If the argument is not a variable, it is first extracted to a variable, thus it is evaluated once
+         * and the probe receives the same object as the site:
+         *
+         * <pre>{@code
+         * // Target
+         * transaction.replace(R.id.container, DetailFragment.newInstance(id));
+         *
+         * // Result
+         * DetailFragment fragment = DetailFragment.newInstance(id);
+         * Nappa.setCurrentFragment(fragment);
+         * transaction.replace(R.id.container, fragment);
+         * }</pre>
+         * <p>
+         * The sites declared in an inline statement (e.g. a lambda function without body or an inline THEN branch)
+         * are not instrumented, since the probe would not run only when the site runs.
+         *
+         * @param methodCall    The {@code add}, {@code replace} or {@code setArguments} method call
+         * @param argument      The fragment or the arguments sent to the probe
+         * @param probeName     The name of the NAPPA method to call
+         * @param plan          The plan collecting the edits of the scanned file
+         * @param resultMessage The result message of the scanned file
+         */
+        private void processFragmentSite(@NotNull PsiMethodCallExpression methodCall,
+                                         @NotNull PsiExpression argument,
+                                         @NotNull String probeName,
+                                         @NotNull InstrumentPlan plan,
+                                         @NotNull InstrumentResultMessage resultMessage) {
+            resultMessage.incrementPossibleInstrumentationCount();
+            if (InstrumentSiteCollector.isPrecededByNappaCall(methodCall, probeName)) {
+                resultMessage.incrementAlreadyInstrumentedCount();
+                return;
+            }
+
+            PsiStatement referenceStatement = PsiTreeUtil.getParentOfType(methodCall, PsiStatement.class);
+            PsiClass psiClass = PsiTreeUtil.getParentOfType(methodCall, PsiClass.class);
+            if (referenceStatement == null || psiClass == null || !(referenceStatement.getParent() instanceof PsiCodeBlock) ||
+                    PsiTreeUtil.getParentOfType(methodCall, PsiLambdaExpression.class, true, PsiStatement.class) != null)
+                return;
+
+            PsiElementFactory factory = PsiElementFactory.getInstance(project);
+            PsiExpression value = PsiUtil.skipParenthesizedExprDown(argument);
+            String argumentText;
+            if (value instanceof PsiReferenceExpression || value instanceof PsiThisExpression) {
+                argumentText = value.getText();
+            } else {
+                String typeText = getTypeText(argument);
+                if (typeText == null) return;
+                argumentText = InstrumentUtil.getUniqueVariableName(methodCall, NAVIGATION_PROBE.equals(probeName) ? "fragment" : "arguments", plan);
+                plan.addBefore(referenceStatement, factory.createStatementFromText(typeText + " " + argumentText + " = " + argument.getText() + ";", psiClass));
+                plan.replace(argument, factory.createExpressionFromText(argumentText, argument));
+            }
+
+            InstrumentUtil.addLibraryImport(plan, psiClass);
+            plan.addBefore(referenceStatement, factory.createStatementFromText("Nappa." + probeName + "(" + argumentText + ");", psiClass));
+
+            resultMessage.incrementInstrumentationCount().appendPsiClass(psiClass);
+            PsiMethod psiMethod = PsiTreeUtil.getParentOfType(methodCall, PsiMethod.class);
+            if (psiMethod != null) resultMessage.appendPsiMethod(psiMethod);
+            else resultMessage.appendPsiClassInitializer();
+            resultMessage.appendNewBlock();
+        }
+
+        /**
+         * @param expression The expression extracted to a variable
+         * @return The type of the variable, by its simple name if the class is visible in the file of the expression
+         * or by its fully qualified name otherwise, or {@code null} if the type is unknown
+         */
+        private @Nullable
+        String getTypeText(@NotNull PsiExpression expression) {
+            PsiType type = expression.getType();
+            if (!(type instanceof PsiClassType)) return null;
+            PsiClass psiClass = ((PsiClassType) type).resolve();
+            if (psiClass == null || psiClass.getName() == null) return type.getCanonicalText();
+            PsiClass visibleClass = JavaPsiFacade.getInstance(project).getResolveHelper().resolveReferencedClass(psiClass.getName(), expression);
+            return psiClass.equals(visibleClass) ? type.getPresentableText() : type.getCanonicalText();
+        }
+    }
+}
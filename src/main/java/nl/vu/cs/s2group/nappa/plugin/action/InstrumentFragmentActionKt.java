@@ -0,0 +1,104 @@
+package nl.vu.cs.s2group.nappa.plugin.action;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteCollectorKt;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPlan;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUtilKt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.psi.*;
+
+/**
+ * Instruments the navigation between the fragments of an activity in the Kotlin files. The sites are found by
+ * {@link InstrumentFragmentAction}, which scans the Java and Kotlin files together.
+ * <p>
+ * The plugin considers the following Fragment Transition Scenario:
+ *
+ * <pre>{@code
+ * Nappa.notifyExtras(arguments)
+ * fragment.arguments = arguments
+ * Nappa.setCurrentFragment(fragment)
+ * supportFragmentManager.beginTransaction()
+ *         .replace(R.id.container, fragment)
+ *         .commit()
+ * }</pre>
+ */
+final class InstrumentFragmentActionKt {
+    private final Project project;
+
+    /**
+     * @param project An object representing an IntelliJ project.
+     */
+    InstrumentFragmentActionKt(@NotNull Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Instrument a fragment navigation site declared in a Kotlin file. The probe is injected before the statement
+     * of the site, and an argument which is not a variable is first extracted to a variable, as
+     * {@link InstrumentFragmentAction} does for the Java files. The statements of a lambda function (e.g.
+     * {@code apply { arguments = bundle }}) are instrumented inside the lambda function.
+     *
+     * @param site          The {@code add}, {@code replace} or {@code setArguments} call, or the assignment of
+     *                      the {@code arguments} property
+     * @param argument      The fragment or the arguments sent to the probe
+     * @param probeName     The name of the NAPPA method to call
+     * @param plan          The plan collecting the edits of the scanned file
+     * @param resultMessage The result message of the scanned file
+     */
+    void processFragmentSite(@NotNull KtExpression site,
+                             @NotNull KtExpression argument,
+                             @NotNull String probeName,
+                             @NotNull InstrumentPlan plan,
+                             @NotNull InstrumentResultMessage resultMessage) {
+        resultMessage.incrementPossibleInstrumentationCount();
+        if (InstrumentSiteCollectorKt.isPrecededByNappaCall(site, probeName)) {
+            resultMessage.incrementAlreadyInstrumentedCount();
+            return;
+        }
+
+        KtExpression referenceStatement = findStatement(site);
+        if (referenceStatement == null) return;
+
+        KtPsiFactory ktPsiFactory = new KtPsiFactory(project);
+        KtExpression value = KtPsiUtil.safeDeparenthesize(argument);
+        String argumentText;
+        if (value instanceof KtNameReferenceExpression || value instanceof KtThisExpression) {
+            argumentText = value.getText();
+        } else {
+            argumentText = InstrumentUtilKt.getUniqueVariableName(site, "setCurrentFragment".equals(probeName) ? "fragment" : "arguments", plan);
+            plan.addBefore(referenceStatement, ktPsiFactory.createProperty("val " + argumentText + " = " + argument.getText()),
+                    ktPsiFactory.createNewLine());
+            plan.replace(argument, ktPsiFactory.createExpression(argumentText));
+        }
+
+        InstrumentUtilKt.addLibraryImportToKt(plan, site);
+        plan.addBefore(referenceStatement, ktPsiFactory.createExpression("Nappa." + probeName + "(" + argumentText + ")"),
+                ktPsiFactory.createNewLine());
+
+        resultMessage.incrementInstrumentationCount()
+                .appendText("Notified NAPPA of the fragment navigation")
+                .appendLocation(site)
+                .appendNewBlock();
+    }
+
+    /**
+     * @param site A fragment navigation site
+     * @return The statement of the site in a block, or {@code null} if the site is in a branch without braces,
+     * since the probe would not run only when the site runs
+     */
+    private static @Nullable
+    KtExpression findStatement(@NotNull KtExpression site) {
+        PsiElement statement = site;
+        while (!(statement.getParent() instanceof KtBlockExpression)) {
+            statement = statement.getParent();
+            if (statement == null || statement instanceof KtDeclarationWithBody || statement instanceof PsiFile ||
+                    statement instanceof KtContainerNodeForControlStructureBody || statement instanceof KtWhenEntry)
+                return null;
+        }
+        return statement instanceof KtExpression ? (KtExpression) statement : null;
+    }
+}
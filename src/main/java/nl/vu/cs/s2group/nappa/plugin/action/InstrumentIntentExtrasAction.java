@@ -1,16 +1,24 @@
 package nl.vu.cs.s2group.nappa.plugin.action;
 
 
-import com.intellij.openapi.actionSystem.AnAction;
-import com.intellij.openapi.actionSystem.AnActionEvent;
-import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.*;
 import com.intellij.psi.util.PsiTreeUtil;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteCollector;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPlan;
 import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUastScanner;
 import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.idea.KotlinFileType;
+import org.jetbrains.kotlin.psi.KtCallExpression;
+import org.jetbrains.uast.UCallExpression;
+import org.jetbrains.uast.UElement;
 
 import java.util.Arrays;
 import java.util.List;
@@ -35,414 +43,434 @@ import java.util.List;
  * startActivity(intent);
  */
 
-public class InstrumentIntentExtrasAction extends AnAction {
+public class InstrumentIntentExtrasAction extends InstrumentAction {
     private static final int HAS_NO_INLINE_IF = 0;
     private static final int HAS_INLINE_THEN_BRANCH = 1;
     private static final int HAS_INLINE_ELSE_BRANCH = 2;
 
-    private Project project;
-    private InstrumentResultMessage resultMessage;
+    public InstrumentIntentExtrasAction() {
+        super("Instrumenting Intent extras", "Intent Extras Instrumentation Result", "Failed to Instrument Intent Extras");
+    }
 
     /**
      * Will find the location of the startActivity(...) method, and from there it will
      * prepend a call to Nappa.notifyExtras(intent.getAllExtras).
+     * <p>
+     * The Java and Kotlin files are scanned in a single pass, see {@link InstrumentUastScanner}.
      *
-     * @param event {@inheritDoc}
+     * @param project       {@inheritDoc}
+     * @param indicator     {@inheritDoc}
+     * @param plan          {@inheritDoc}
+     * @param resultMessage {@inheritDoc}
      */
     @Override
-    public void actionPerformed(@NotNull AnActionEvent event) {
-        project = event.getProject();
-        resultMessage = new InstrumentResultMessage();
-        String[] fileFilter = new String[]{"android.content.Intent"};
-        String[] classFilter = new String[]{"Intent"};
-
-        try {
-            List<PsiFile> psiFiles = InstrumentUtil.getAllJavaFilesInProjectAsPsi(project);
-            InstrumentUtil.runScanOnJavaFile(psiFiles, fileFilter, classFilter, this::processPsiStatement);
-            resultMessage.showResultDialog(project, "Intent Extras Instrumentation Result");
-        } catch (Exception exception) {
-            resultMessage.showErrorDialog(project, exception, "Failed to Instrument Intent Extras");
-        }
-
-        (new InstrumentIntentExtrasActionKt()).actionPerformed(event);
+    protected void instrument(@NotNull Project project,
+                              @NotNull ProgressIndicator indicator,
+                              @NotNull InstrumentPlan plan,
+                              @NotNull InstrumentResultMessage resultMessage) {
+        InstrumentUastScanner.scanProject(project, setUp(project), indicator, plan, resultMessage);
     }
 
+    /**
+     * Creates a matcher of the sites of the {@code project}, without scanning it.
+     * It is used to share a single scan with other actions, see {@link InstrumentAllAction}, and to instrument the
+     * sites highlighted in the editor, see {@link nl.vu.cs.s2group.nappa.plugin.inspection.InstrumentInspection}.
+     *
+     * @param project An object representing an IntelliJ project.
+     * @return The matcher of the {@code startActivity} calls of the {@code project}
+     */
+    public static @NotNull
+    InstrumentUastScanner.SiteMatcher setUp(@NotNull Project project) {
+        return new Matcher(project);
+    }
 
+    /**
+     * Matches the {@code startActivity} calls of a project and injects the probes of their intent extras
+     */
+    private static final class Matcher implements InstrumentUastScanner.SiteMatcher {
+        private final Project project;
+        private final InstrumentIntentExtrasActionKt kotlinWriter;
 
-    private void processPsiStatement(@NotNull PsiElement rootPsiElement) {
-        // Defines all variations of the method startActivity in the Android API
-        String[] identifierFilter = new String[]{
-                // https://developer.android.com/reference/android/app/Activity#startActivity(android.content.Intent)
-                "startActivity",
-
-                // https://developer.android.com/reference/android/app/Activity#startActivityForResult(android.content.Intent,%20int)
-                "startActivityForResult",
+        private Matcher(@NotNull Project project) {
+            this.project = project;
+            kotlinWriter = new InstrumentIntentExtrasActionKt(project);
+        }
 
-                // https://developer.android.com/reference/android/app/Activity#startActivityFromChild(android.app.Activity,%20android.content.Intent,%20int)
-                // This method was deprecated in API level 30.
-                "startActivityFromChild",
+        @Override
+        public @NotNull
+        InstrumentSiteKind getKind() {
+            return InstrumentSiteKind.START_ACTIVITY;
+        }
 
-                // https://developer.android.com/reference/android/app/Activity#startActivityFromFragment(android.app.Fragment,%20android.content.Intent,%20int,%20android.os.Bundle)
-                // This method was deprecated in API level 28.
-                "startActivityFromFragment",
+        @Override
+        public @NotNull
+        List<FileType> getFileTypes() {
+            return Arrays.asList(JavaFileType.INSTANCE, KotlinFileType.INSTANCE);
+        }
 
-                // https://developer.android.com/reference/android/app/Activity#startActivityIfNeeded(android.content.Intent,%20int,%20android.os.Bundle)
-                "startActivityIfNeeded",
-        };
+        /**
+         * Verifies if the node is a call to a {@code startActivity} method
+         *
+         * @param node          {@inheritDoc}
+         * @param resultMessage {@inheritDoc}
+         * @return {@inheritDoc}
+         */
+        @Override
+        public boolean matches(@NotNull UElement node, @NotNull InstrumentResultMessage resultMessage) {
+            return node instanceof UCallExpression && InstrumentSiteCollector.START_ACTIVITY_METHODS.contains(InstrumentUastScanner.getCalleeName((UCallExpression) node));
+        }
 
-        rootPsiElement.accept(new JavaRecursiveElementVisitor() {
-            @Override
-            public void visitElement(PsiElement element) {
-                String elementText = element.getText();
-                resultMessage.incrementProcessedElementsCount();
+        /**
+         * Prepend the {@code Nappa.notifyExtras} probe to a {@code startActivity} method call. The Kotlin calls are
+         * instrumented by {@link InstrumentIntentExtrasActionKt}.
+         *
+         * @param site          {@inheritDoc}
+         * @param plan          {@inheritDoc}
+         * @param resultMessage {@inheritDoc}
+         */
+        @Override
+        public void instrument(@NotNull UElement site, @NotNull InstrumentPlan plan, @NotNull InstrumentResultMessage resultMessage) {
+            PsiElement sourcePsi = site.getSourcePsi();
+            if (sourcePsi instanceof PsiMethodCallExpression)
+                processStartActivityCall((PsiMethodCallExpression) sourcePsi, plan, resultMessage);
+            else if (sourcePsi instanceof KtCallExpression)
+                kotlinWriter.processStartActivityCall((KtCallExpression) sourcePsi, plan, resultMessage);
+        }
 
-                // This verification is done here to reduce the number of recursive calls
-                if (!element.getText().contains("startActivity")) return;
+        /**
+         * Instrument a {@code startActivity} method call declared in a Java file
+         *
+         * @param methodCall    The {@code startActivity} method call
+         * @param plan          The plan collecting the edits of the scanned file
+         * @param resultMessage The result message of the scanned file
+         */
+        private void processStartActivityCall(@NotNull PsiMethodCallExpression methodCall,
+                                              @NotNull InstrumentPlan plan,
+                                              @NotNull InstrumentResultMessage resultMessage) {
+            PsiElement identifier = methodCall.getMethodExpression().getReferenceNameElement();
+            if (!(identifier instanceof PsiIdentifier)) return;
+            resultMessage.incrementPossibleInstrumentationCount();
+
+            // Verifies if the startActivity method call is declared inside an inline lambda function
+            // or in a IF statement with an inline THEN or ELSe branches
+            int hasInlineIfStatement = isProcessingInlineIf(methodCall);
+            boolean hasInlineLambdaFunction = methodCall.getParent() instanceof PsiLambdaExpression;
+            boolean requiresToEncapsulateInCodeBlock = hasInlineLambdaFunction || hasInlineIfStatement != HAS_NO_INLINE_IF;
+
+            // Fetches the Intent object sent as parameter in the method startActivity and the statement
+            // element used as reference to instrument non-inline occurrences
+            PsiElement intentParameter = findElementSentAsIntentParameter((PsiIdentifier) identifier, methodCall);
+            PsiStatement referenceStatement = PsiTreeUtil.getParentOfType(methodCall, PsiStatement.class);
+            if (referenceStatement == null || intentParameter == null) return;
+
+
+            // Verifies if this element is already instrumented. The requiresToEncapsulateInCodeBlock flag
+            // is considered in the verification since any inline block instrumented by this action will
+            // always be replaced with a code block. Thus, if a inline statement is found, the method has
+            // not been instrumented yet. Furthermore, the previous statement of a inline block might contain
+            // a instrumented statement referent to another startActivity method.
+            if (!requiresToEncapsulateInCodeBlock && InstrumentSiteCollector.hasNotifyExtrasProbe(methodCall)) {
+                resultMessage.incrementAlreadyInstrumentedCount();
+                return;
+            }
 
-                // Verifies if it is a identifier of a startActivity method
-                if (!(element instanceof PsiIdentifier) || Arrays.stream(identifierFilter).noneMatch(element.getText()::equals)) {
-                    super.visitElement(element);
-                    return;
-                }
+            PsiClass psiClass = PsiTreeUtil.getParentOfType(methodCall, PsiClass.class);
+            if (psiClass == null) return;
+            InstrumentUtil.addLibraryImport(plan, psiClass);
+
+            String instrumentedText = "Nappa.notifyExtras(INTENT.getExtras());";
+
+            if (intentParameter instanceof PsiReferenceExpression)
+                injectExtraProbeForVariableReference(plan,
+                        psiClass,
+                        referenceStatement,
+                        methodCall,
+                        (PsiReferenceExpression) intentParameter,
+                        instrumentedText,
+                        requiresToEncapsulateInCodeBlock);
+            else
+                injectExtraProbeForMethodCallOrNewExpression(plan,
+                        psiClass,
+                        referenceStatement,
+                        methodCall,
+                        intentParameter,
+                        instrumentedText,
+                        requiresToEncapsulateInCodeBlock);
+
+            resultMessage.incrementInstrumentationCount().appendPsiClass(psiClass);
+            PsiMethod psiMethod = PsiTreeUtil.getParentOfType(methodCall, PsiMethod.class);
+            if (psiMethod != null) resultMessage.appendPsiMethod(psiMethod);
+            else resultMessage.appendPsiClassInitializer();
+            resultMessage.appendNewBlock();
+        }
 
-                // Verifies if this identifier refers to a method call
-                PsiMethodCallExpression methodCall = PsiTreeUtil.getParentOfType(element, PsiMethodCallExpression.class);
-                if (methodCall == null) return;
-
-                resultMessage.incrementPossibleInstrumentationCount();
-
-                // Verifies if the startActivity method call is declared inside an inline lambda function
-                // or in a IF statement with an inline THEN or ELSe branches
-                int hasInlineIfStatement = isProcessingInlineIf(methodCall);
-                boolean hasInlineLambdaFunction = methodCall.getParent() instanceof PsiLambdaExpression;
-                boolean requiresToEncapsulateInCodeBlock = hasInlineLambdaFunction || hasInlineIfStatement != HAS_NO_INLINE_IF;
-
-                // Verifies if the processed element is in an inline THEN branch of a IF statement and if
-                // the IF has a ELSE branch. If this is the case, the the ELSE branch is processed first.
-                // In the current implementation, if the THEN branch is processed before the ELSE branch,
-                // then the ELSE branch is skipped.
-                if (hasInlineIfStatement == HAS_INLINE_THEN_BRANCH) {
-                    PsiIfStatement ifStatement = PsiTreeUtil.getParentOfType(methodCall, PsiIfStatement.class, false, PsiCodeBlock.class);
-                    if (ifStatement != null && ifStatement.getElseBranch() != null)
-                        super.visitElement(ifStatement.getElseBranch());
-                }
+        /**
+         * Verifies if the method call is declared in an inline THEN/ELSE branch of an IF statement
+         *
+         * @param methodCall The {@code startActivity} method
+         * @return {@code True} if the {@code startActivity} method is declared either in the THEN or ELSE branch
+         * of an IF statement and the branch is an inline branch
+         */
+        private int isProcessingInlineIf(PsiMethodCallExpression methodCall) {
+            // Verifies if the methodCall is inside an IF statement
+            PsiIfStatement ifStatement = PsiTreeUtil.getParentOfType(methodCall, PsiIfStatement.class, false, PsiCodeBlock.class);
+            if (ifStatement == null) return HAS_NO_INLINE_IF;
+
+            // Verifies if there is an THEN branch -- It should always have, but just in case...
+            PsiStatement thenBranch = ifStatement.getThenBranch();
+            if (thenBranch == null) return HAS_NO_INLINE_IF;
+
+            // Verifies if the THEN branch is inline and if it contains the methodCall
+            PsiMethodCallExpression methodCallInThenBranch = PsiTreeUtil.getChildOfType(ifStatement.getThenBranch(), PsiMethodCallExpression.class);
+            if (methodCallInThenBranch != null && methodCallInThenBranch.equals(methodCall)) return HAS_INLINE_THEN_BRANCH;
+
+            // Verifies if there is an ELSE branch
+            PsiStatement elseBranch = ifStatement.getElseBranch();
+            if (elseBranch == null) return HAS_NO_INLINE_IF;
+
+            // Verifies if the ELSE branch is inline and if it contains the methodCall
+            PsiMethodCallExpression methodCallInElseBranch = PsiTreeUtil.getChildOfType(ifStatement.getElseBranch(), PsiMethodCallExpression.class);
+            if (methodCallInElseBranch != null && methodCallInElseBranch.equals(methodCall)) return HAS_INLINE_ELSE_BRANCH;
+
+            return HAS_NO_INLINE_IF;
+        }
 
-                // Fetches the Intent object sent as parameter in the method startActivity and the statement
-                // element used as reference to instrument non-inline occurrences
-                PsiElement intentParameter = findElementSentAsIntentParameter((PsiIdentifier) element, methodCall);
-                PsiStatement referenceStatement = PsiTreeUtil.getParentOfType(methodCall, PsiStatement.class);
-                if (referenceStatement == null || intentParameter == null) return;
-
-
-                // Verifies if this element is already instrumented. The requiresToEncapsulateInCodeBlock flag
-                // is considered in the verification since any inline block instrumented by this action will
-                // always be replaced with a code block. Thus, if a inline statement is found, the method has
-                // not been instrumented yet. Furthermore, the previous statement of a inline block might contain
-                // a instrumented statement referent to another startActivity method.
-                PsiStatement previousStatement = PsiTreeUtil.getPrevSiblingOfType(referenceStatement, PsiStatement.class);
-                if (previousStatement != null && !requiresToEncapsulateInCodeBlock && previousStatement.getText().contains("Nappa.notifyExtras")) {
-                    resultMessage.incrementAlreadyInstrumentedCount();
-                    return;
+        /**
+         * Scan the parameter list and return the {@link PsiElement} representing the object sent as the
+         * {@link android.content.Intent Intent} parameter for the method {@code startActivity} and its variants
+         *
+         * @param methodIdentifier     Represent the identifier of the method {@code startActivity}
+         * @param methodCallExpression Represents the list of parameter send to the method {@code startActivity}
+         * @return The {@link PsiElement} object representing the parameter {@link android.content.Intent Intent}
+         * or {@code null} otherwise
+         */
+        @Nullable
+        private PsiElement findElementSentAsIntentParameter(@NotNull PsiIdentifier methodIdentifier, PsiMethodCallExpression methodCallExpression) {
+            // Verifies in which position the method receives a Intent parameter
+            String[] identifierFilter = new String[]{
+                    "startActivityFromChild",
+                    "startActivityFromFragment",
+            };
+            int parameterPosition = Arrays.asList(identifierFilter).contains(methodIdentifier.getText()) ? 2 : 1;
+            int currentParameterPosition = 0;
+
+            // Fetch the list of parameters
+            PsiExpressionList parameterList = PsiTreeUtil.getChildOfType(methodCallExpression, PsiExpressionList.class);
+            if (parameterList == null) return null;
+
+            // Loop through the method parameters list
+            for (PsiElement child : parameterList.getChildren()) {
+                if (!(child instanceof PsiJavaToken || child instanceof PsiWhiteSpace)) {
+                    currentParameterPosition++;
+                    if (currentParameterPosition == parameterPosition) return child;
                 }
 
-                PsiClass psiClass = PsiTreeUtil.getParentOfType(rootPsiElement, PsiClass.class);
-                //noinspection ConstantConditions --> To arrive here we looped through Java clasees
-                InstrumentUtil.addLibraryImport(project, psiClass);
-
-                String instrumentedText = "Nappa.notifyExtras(INTENT.getExtras());";
-
-                if (intentParameter instanceof PsiReferenceExpression)
-                    injectExtraProbeForVariableReference(psiClass,
-                            referenceStatement,
-                            methodCall,
-                            (PsiReferenceExpression) intentParameter,
-                            instrumentedText,
-                            requiresToEncapsulateInCodeBlock);
-                else
-                    injectExtraProbeForMethodCallOrNewExpression(psiClass,
-                            referenceStatement,
-                            methodCall,
-                            intentParameter,
-                            instrumentedText,
-                            requiresToEncapsulateInCodeBlock);
-
-                PsiMethod psiMethod = PsiTreeUtil.getParentOfType(rootPsiElement, PsiMethod.class);
-                //noinspection ConstantConditions --> To arrive here we looped through Java methods
-                resultMessage.incrementInstrumentationCount()
-                        .appendPsiClass(psiClass)
-                        .appendPsiMethod(psiMethod)
-                        .appendNewBlock();
             }
-        });
-    }
-
-    /**
-     * Verifies if the method call is declared in an inline THEN/ELSE branch of an IF statement
-     *
-     * @param methodCall The {@code startActivity} method
-     * @return {@code True} if the {@code startActivity} method is declared either in the THEN or ELSE branch
-     * of an IF statement and the branch is an inline branch
-     */
-    private int isProcessingInlineIf(PsiMethodCallExpression methodCall) {
-        // Verifies if the methodCall is inside an IF statement
-        PsiIfStatement ifStatement = PsiTreeUtil.getParentOfType(methodCall, PsiIfStatement.class, false, PsiCodeBlock.class);
-        if (ifStatement == null) return HAS_NO_INLINE_IF;
-
-        // Verifies if there is an THEN branch -- It should always have, but just in case...
-        PsiStatement thenBranch = ifStatement.getThenBranch();
-        if (thenBranch == null) return HAS_NO_INLINE_IF;
-
-        // Verifies if the THEN branch is inline and if it contains the methodCall
-        PsiMethodCallExpression methodCallInThenBranch = PsiTreeUtil.getChildOfType(ifStatement.getThenBranch(), PsiMethodCallExpression.class);
-        if (methodCallInThenBranch != null && methodCallInThenBranch.equals(methodCall)) return HAS_INLINE_THEN_BRANCH;
-
-        // Verifies if there is an ELSE branch
-        PsiStatement elseBranch = ifStatement.getElseBranch();
-        if (elseBranch == null) return HAS_NO_INLINE_IF;
-
-        // Verifies if the ELSE branch is inline and if it contains the methodCall
-        PsiMethodCallExpression methodCallInElseBranch = PsiTreeUtil.getChildOfType(ifStatement.getElseBranch(), PsiMethodCallExpression.class);
-        if (methodCallInElseBranch != null && methodCallInElseBranch.equals(methodCall)) return HAS_INLINE_ELSE_BRANCH;
-
-        return HAS_NO_INLINE_IF;
-    }
+            return null;
+        }
 
-    /**
-     * Scan the parameter list and return the {@link PsiElement} representing the object sent as the
-     * {@link android.content.Intent Intent} parameter for the method {@code startActivity} and its variants
-     *
-     * @param methodIdentifier     Represent the identifier of the method {@code startActivity}
-     * @param methodCallExpression Represents the list of parameter send to the method {@code startActivity}
-     * @return The {@link PsiElement} object representing the parameter {@link android.content.Intent Intent}
-     * or {@code null} otherwise
-     */
-    @Nullable
-    private PsiElement findElementSentAsIntentParameter(@NotNull PsiIdentifier methodIdentifier, PsiMethodCallExpression methodCallExpression) {
-        // Verifies in which position the method receives a Intent parameter
-        String[] identifierFilter = new String[]{
-                "startActivityFromChild",
-                "startActivityFromFragment",
-        };
-        int parameterPosition = Arrays.asList(identifierFilter).contains(methodIdentifier.getText()) ? 2 : 1;
-        int currentParameterPosition = 0;
-
-        // Fetch the list of parameters
-        PsiExpressionList parameterList = PsiTreeUtil.getChildOfType(methodCallExpression, PsiExpressionList.class);
-        if (parameterList == null) return null;
-
-        // Loop through the method parameters list
-        for (PsiElement child : parameterList.getChildren()) {
-            if (!(child instanceof PsiJavaToken || child instanceof PsiWhiteSpace)) {
-                currentParameterPosition++;
-                if (currentParameterPosition == parameterPosition) return child;
+        /**
+         * Instrument the simplest case when the method {@code startActivity} receives a existing
+         * {@link android.content.Intent Intent} object. The target source code and resulting instrumentation
+         * are the follow"
+         *
+         * <pre>{@code
+         * // Target
+         * Intent myIntent = ...
+         * startActivity(myIntent);
+         *
+         * // Result
+         * Intent myIntent = ...
+         * Nappa.notifyExtras(myIntent.getExtras());
+         * startActivity(myIntent);
+         * }</pre>
+         *
+         * @param plan               The plan collecting the edits of the scanned file
+         * @param psiClass           Represents a Java class
+         * @param referenceStatement Represents the {@link PsiElement} used as reference to inject a new {@link PsiElement}
+         * @param methodCall         Represents the method {@code startActivity}
+         * @param intentParameter    Represent the object send as the parameter {@link android.content.Intent Intent} in
+         *                           the method {@code startActivity}
+         * @param instrumentedText   Represents the template source code to inject
+         */
+        private void injectExtraProbeForVariableReference(@NotNull InstrumentPlan plan,
+                                                          PsiClass psiClass,
+                                                          PsiElement referenceStatement,
+                                                          @NotNull PsiMethodCallExpression methodCall,
+                                                          @NotNull PsiReferenceExpression intentParameter,
+                                                          @NotNull String instrumentedText,
+                                                          boolean requiresToEncapsulateInCodeBlock) {
+            // Construct the element to inject
+            PsiElement instrumentedElement = PsiElementFactory
+                    .getInstance(project)
+                    .createStatementFromText(instrumentedText.replace("INTENT", intentParameter.getText()), psiClass);
+
+            // Verifies if we are instrumenting a inline statement
+            if (requiresToEncapsulateInCodeBlock) {
+                injectExtraProbesForInlineLambdaFunction(plan, methodCall, new PsiElement[]{
+                        instrumentedElement,
+                        PsiElementFactory
+                                .getInstance(project)
+                                .createStatementFromText(methodCall.getText() + ";", psiClass),
+                });
+                return;
             }
 
+            // Inject the instrumented notifier of extra changes
+            plan.addBefore(referenceStatement, instrumentedElement);
         }
-        return null;
-    }
 
-    /**
-     * Instrument the simplest case when the method {@code startActivity} receives a existing
-     * {@link android.content.Intent Intent} object. The target source code and resulting instrumentation
-     * are the follow"
-     *
-     * <pre>{@code
-     * // Target
-     * Intent myIntent = ...
-     * startActivity(myIntent);
-     *
-     * // Result
-     * Intent myIntent = ...
-     * Nappa.notifyExtras(myIntent.getExtras());
-     * startActivity(myIntent);
-     * }</pre>
-     *
-     * @param psiClass           Represents a Java class
-     * @param referenceStatement Represents the {@link PsiElement} used as reference to inject a new {@link PsiElement}
-     * @param methodCall         Represents the method {@code startActivity}
-     * @param intentParameter    Represent the object send as the parameter {@link android.content.Intent Intent} in
-     *                           the method {@code startActivity}
-     * @param instrumentedText   Represents the template source code to inject
-     */
-    private void injectExtraProbeForVariableReference(PsiClass psiClass,
-                                                      PsiElement referenceStatement,
-                                                      @NotNull PsiMethodCallExpression methodCall,
-                                                      @NotNull PsiReferenceExpression intentParameter,
-                                                      @NotNull String instrumentedText,
-                                                      boolean requiresToEncapsulateInCodeBlock) {
-        // Construct the element to inject
-        PsiElement instrumentedElement = PsiElementFactory
-                .getInstance(project)
-                .createStatementFromText(instrumentedText.replace("INTENT", intentParameter.getText()), psiClass);
-
-        // Verifies if we are instrumenting a inline statement
-        if (requiresToEncapsulateInCodeBlock) {
-            injectExtraProbesForInlineLambdaFunction(methodCall, new PsiElement[]{
-                    instrumentedElement,
-                    PsiElementFactory
-                            .getInstance(project)
-                            .createStatementFromText(methodCall.getText() + ";", psiClass),
-            });
-            return;
-        }
+        /**
+         * Instrument the simplest case when the method {@code startActivity} receives a new
+         * {@link android.content.Intent Intent} object, either via a instantiation with keyword {@code new}
+         * or a method call. The target source code and resulting instrumentation are the follow:
+         * <br/><br/>
+         *
+         * <p> Case 1. Instantiation
+         *
+         * <pre>{@code
+         * // Target
+         * startActivity(new Intent(...));
+         *
+         * // Result
+         * Intent intent = new Intent(...);
+         * Nappa.notifyExtras(intent.getExtras());
+         * startActivity(intent)
+         * }</pre>
+         *
+         * <p> Case 1. Method call
+         *
+         * <pre>{@code
+         * // Target
+         * startActivity(Intent.createChooser(...));
+         *
+         * // Result
+         * Intent intent = Intent.createChooser(...);
+         * Nappa.notifyExtras(intent.getExtras());
+         * startActivity(intent)
+         * }</pre>
+         *
+         * @param plan               The plan collecting the edits of the scanned file
+         * @param psiClass           Represents a Java class
+         * @param referenceStatement Represents the {@link PsiElement} used as reference to inject a new {@link PsiElement}
+         * @param methodCall         Represents the method {@code startActivity}
+         * @param intentParameter    Represent the object send as the parameter {@link android.content.Intent Intent} in
+         *                           the method {@code startActivity}
+         * @param instrumentedText   Represents the template source code to inject
+         */
+        private void injectExtraProbeForMethodCallOrNewExpression(@NotNull InstrumentPlan plan,
+                                                                  PsiClass psiClass,
+                                                                  PsiElement referenceStatement,
+                                                                  @NotNull PsiMethodCallExpression methodCall,
+                                                                  @NotNull PsiElement intentParameter,
+                                                                  @NotNull String instrumentedText,
+                                                                  boolean requiresToEncapsulateInCodeBlock) {
+            // Construct the source code text to inject
+            String variableName = InstrumentUtil.getUniqueVariableName(methodCall, "intent", plan);
+            String intentDeclarationText = "Intent " + variableName + " = " + intentParameter.getText() + ";";
+            String methodCallText = methodCall.getText().replace(intentParameter.getText(), variableName);
+            methodCallText = methodCallText.replace("\n", "").replaceAll(" {2}", " ");
+
+            // Construct the elements to inject -- The declaration of an Intent object and the call to the Prefetch Library
+            PsiElement instrumentedElementIntent = PsiElementFactory
+                    .getInstance(project)
+                    .createStatementFromText(intentDeclarationText, psiClass);
+            PsiElement instrumentedElementLibrary = PsiElementFactory
+                    .getInstance(project)
+                    .createStatementFromText(instrumentedText.replace("INTENT", variableName), psiClass);
+
+            // Verifies if we are instrumenting a inline statement
+            if (requiresToEncapsulateInCodeBlock) {
+                injectExtraProbesForInlineLambdaFunction(plan, methodCall, new PsiElement[]{
+                        instrumentedElementIntent,
+                        instrumentedElementLibrary,
+                        PsiElementFactory
+                                .getInstance(project)
+                                .createStatementFromText(methodCallText + ";", psiClass),
+                });
+                return;
+            }
 
-        // Inject the instrumented notifier of extra changes
-        WriteCommandAction.runWriteCommandAction(project, () -> {
-            referenceStatement.getParent().addBefore(instrumentedElement, referenceStatement);
-        });
-    }
+            // Construct the elements to inject -- The call to the method startActivity
+            PsiElement instrumentedElementMethodCall = PsiElementFactory
+                    .getInstance(project)
+                    .createStatementFromText(methodCallText, psiClass);
 
-    /**
-     * Instrument the simplest case when the method {@code startActivity} receives a new
-     * {@link android.content.Intent Intent} object, either via a instantiation with keyword {@code new}
-     * or a method call. The target source code and resulting instrumentation are the follow:
-     * <br/><br/>
-     *
-     * <p> Case 1. Instantiation
-     *
-     * <pre>{@code
-     * // Target
-     * startActivity(new Intent(...));
-     *
-     * // Result
-     * Intent intent = new Intent(...);
-     * Nappa.notifyExtras(intent.getExtras());
-     * startActivity(intent)
-     * }</pre>
-     *
-     * <p> Case 1. Method call
-     *
-     * <pre>{@code
-     * // Target
-     * startActivity(Intent.createChooser(...));
-     *
-     * // Result
-     * Intent intent = Intent.createChooser(...);
-     * Nappa.notifyExtras(intent.getExtras());
-     * startActivity(intent)
-     * }</pre>
-     *
-     * @param psiClass           Represents a Java class
-     * @param referenceStatement Represents the {@link PsiElement} used as reference to inject a new {@link PsiElement}
-     * @param methodCall         Represents the method {@code startActivity}
-     * @param intentParameter    Represent the object send as the parameter {@link android.content.Intent Intent} in
-     *                           the method {@code startActivity}
-     * @param instrumentedText   Represents the template source code to inject
-     */
-    private void injectExtraProbeForMethodCallOrNewExpression(PsiClass psiClass,
-                                                              PsiElement referenceStatement,
-                                                              @NotNull PsiMethodCallExpression methodCall,
-                                                              @NotNull PsiElement intentParameter,
-                                                              @NotNull String instrumentedText,
-                                                              boolean requiresToEncapsulateInCodeBlock) {
-        // Construct the source code text to inject
-        String variableName = InstrumentUtil.getUniqueVariableName(methodCall, "intent");
-        String intentDeclarationText = "Intent " + variableName + " = " + intentParameter.getText() + ";";
-        String methodCallText = methodCall.getText().replace(intentParameter.getText(), variableName);
-        methodCallText = methodCallText.replace("\n", "").replaceAll(" {2}", " ");
-
-        // Construct the elements to inject -- The declaration of an Intent object and the call to the Prefetch Library
-        PsiElement instrumentedElementIntent = PsiElementFactory
-                .getInstance(project)
-                .createStatementFromText(intentDeclarationText, psiClass);
-        PsiElement instrumentedElementLibrary = PsiElementFactory
-                .getInstance(project)
-                .createStatementFromText(instrumentedText.replace("INTENT", variableName), psiClass);
-
-        // Verifies if we are instrumenting a inline statement
-        if (requiresToEncapsulateInCodeBlock) {
-            injectExtraProbesForInlineLambdaFunction(methodCall, new PsiElement[]{
-                    instrumentedElementIntent,
-                    instrumentedElementLibrary,
-                    PsiElementFactory
-                            .getInstance(project)
-                            .createStatementFromText(methodCallText + ";", psiClass),
-            });
-            return;
+            // Inject the instrumented notifier of extra changes and the new Intent object
+            plan.addBefore(referenceStatement, instrumentedElementIntent);
+            plan.addBefore(referenceStatement, instrumentedElementLibrary);
+            plan.replace(methodCall, instrumentedElementMethodCall);
         }
 
-        // Construct the elements to inject -- The call to the method startActivity
-        PsiElement instrumentedElementMethodCall = PsiElementFactory
-                .getInstance(project)
-                .createStatementFromText(methodCallText, psiClass);
-
-        // Inject the instrumented notifier of extra changes and the new Intent object
-        WriteCommandAction.runWriteCommandAction(project, () -> {
-            referenceStatement.getParent().addBefore(instrumentedElementIntent, referenceStatement);
-            referenceStatement.getParent().addBefore(instrumentedElementLibrary, referenceStatement);
-            methodCall.replace(instrumentedElementMethodCall);
-        });
-    }
-
-    /**
-     * This method provides an extension to the methods {@link #injectExtraProbeForMethodCallOrNewExpression}
-     * and {@link #injectExtraProbeForVariableReference} for cases where the startActivity method to instrument
-     * is declared within an inline statement (e.g. lambda function, inline THEN/ELSE branches in IFs statements).
-     * It replaces the {@code methodCall} element with a new {@link PsiCodeBlock} containing all elements
-     * in the list {@code elementsToInject}
-     * <br/><br/>
-     *
-     * <p> Case 1. Lambda functions
-     *
-     * <pre>{@code
-     * // Target
-     * someMethod((someParams) -> startActivity(intent));
-     * someMethod2((someParams2) -> startActivity(createsNewIntent()));
-     *
-     * // Result
-     * someMethod((someParams) -> {
-     *     Nappa.notifyExtras(intent.getExtras());
-     *     startActivity(intent);
-     * });
-     * someMethod2((someParams2) -> {
-     *     Intent intent1 = createsNewIntent();
-     *     Nappa.notifyExtras(intent1.getExtras());
-     *     startActivity(intent1);
-     * });
-     * }</pre>
-     *
-     * <p> Case 1. IF statements
-     *
-     * <pre>{@code
-     * // Target
-     * if(condition) startActivity(new Intent(....));
-     * else startActivity(new Intent(....);
-     *
-     * // Result
-     * if(condition) {
-     *     Intent intent1 = new Intent(....);
-     *     Nappa.notifyExtras(intent1.getExtras());
-     *     startActivity(intent1);
-     * } else {
-     *     Intent intent = new Intent(....);
-     *     Nappa.notifyExtras(intent.getExtras());
-     *     startActivity(intent);
-     * }
-     * }</pre>
-     *
-     * @param methodCall       Represents the startActivity method to instrument
-     * @param elementsToInject Represents the list of {@link PsiElement} to inject in this instrumentation
-     */
-    private void injectExtraProbesForInlineLambdaFunction(PsiMethodCallExpression methodCall, PsiElement[] elementsToInject) {
-        // Fetches the ancestor with possible inline statement
-        PsiLambdaExpression lambdaExpression = PsiTreeUtil.getParentOfType(methodCall, PsiLambdaExpression.class, false, PsiCodeBlock.class);
-        PsiIfStatement ifStatement = PsiTreeUtil.getParentOfType(methodCall, PsiIfStatement.class, false, PsiCodeBlock.class);
-
-        // Construct a empty code block to inject
-        PsiElement newCodeBlock = PsiElementFactory
-                .getInstance(project)
-                .createCodeBlock();
-
-        // Inject the instrumented statements within a code block
-        WriteCommandAction.runWriteCommandAction(project, () -> {
+        /**
+         * This method provides an extension to the methods {@link #injectExtraProbeForMethodCallOrNewExpression}
+         * and {@link #injectExtraProbeForVariableReference} for cases where the startActivity method to instrument
+         * is declared within an inline statement (e.g. lambda function, inline THEN/ELSE branches in IFs statements).
+         * It replaces the {@code methodCall} element with a new {@link PsiCodeBlock} containing all elements
+         * in the list {@code elementsToInject}
+         * <br/><br/>
+         *
+         * <p> Case 1. Lambda functions
+         *
+         * <pre>{@code
+         * // Target
+         * someMethod((someParams) -> startActivity(intent));
+         * someMethod2((someParams2) -> startActivity(createsNewIntent()));
+         *
+         * // Result
+         * someMethod((someParams) -> {
+         *     Nappa.notifyExtras(intent.getExtras());
+         *     startActivity(intent);
+         * });
+         * someMethod2((someParams2) -> {
+         *     Intent intent1 = createsNewIntent();
+         *     Nappa.notifyExtras(intent1.getExtras());
+         *     startActivity(intent1);
+         * });
+         * }</pre>
+         *
+         * <p> Case 1. IF statements
+         *
+         * <pre>{@code
+         * // Target
+         * if(condition) startActivity(new Intent(....));
+         * else startActivity(new Intent(....);
+         *
+         * // Result
+         * if(condition) {
+         *     Intent intent1 = new Intent(....);
+         *     Nappa.notifyExtras(intent1.getExtras());
+         *     startActivity(intent1);
+         * } else {
+         *     Intent intent = new Intent(....);
+         *     Nappa.notifyExtras(intent.getExtras());
+         *     startActivity(intent);
+         * }
+         * }</pre>
+         *
+         * @param plan             The plan collecting the edits of the scanned file
+         * @param methodCall       Represents the startActivity method to instrument
+         * @param elementsToInject Represents the list of {@link PsiElement} to inject in this instrumentation
+         */
+        private void injectExtraProbesForInlineLambdaFunction(@NotNull InstrumentPlan plan, PsiMethodCallExpression methodCall, PsiElement[] elementsToInject) {
+            // Fetches the ancestor with possible inline statement
+            PsiLambdaExpression lambdaExpression = PsiTreeUtil.getParentOfType(methodCall, PsiLambdaExpression.class, false, PsiCodeBlock.class);
+            PsiIfStatement ifStatement = PsiTreeUtil.getParentOfType(methodCall, PsiIfStatement.class, false, PsiCodeBlock.class);
+
+            // Construct a empty code block to inject
+            PsiElement newCodeBlock = PsiElementFactory
+                    .getInstance(project)
+                    .createCodeBlock();
+
+            // Fill the code block with the instrumented statements. The code block is not part of the
+            // project source code yet, thus it can be modified without a write action
             for (PsiElement psiElement : elementsToInject) {
                 newCodeBlock.add(psiElement);
             }
 
             // Verifies what type of inline statement is being instrumented
-            if (lambdaExpression != null) methodCall.replace(newCodeBlock);
-            else if (ifStatement != null) methodCall.getParent().replace(newCodeBlock);
-        });
+            if (lambdaExpression != null) plan.replace(methodCall, newCodeBlock);
+            else if (ifStatement != null) plan.replace(methodCall.getParent(), newCodeBlock);
+        }
     }
 }
-
@@ -1,158 +1,78 @@
 package nl.vu.cs.s2group.nappa.plugin.action;
 
-import com.intellij.openapi.actionSystem.AnAction;
-import com.intellij.openapi.actionSystem.AnActionEvent;
-import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteCollector;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPhase;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPlan;
 import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUastScanner;
 import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUtil;
+import org.jetbrains.uast.*;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Implements the action responsible to identify {@code OkHttpClient} instances and, when applicable,
  * instrument them to inject the NAPPA library HTTP interceptor
  */
-public class InstrumentOkHttpAction extends AnAction {
-    private static final int STATEMENT_TYPE_DECLARATION = 0;
-    private static final int STATEMENT_TYPE_ASSIGNMENT = 1;
-    private static final int STATEMENT_TYPE_RETURN = 2;
-
-    private Project project;
-    private InstrumentResultMessage resultMessage;
+public class InstrumentOkHttpAction extends InstrumentAction {
+    // Package-private to be used by the benchmarks
+    static final int STATEMENT_TYPE_DECLARATION = 0;
+    static final int STATEMENT_TYPE_ASSIGNMENT = 1;
+    static final int STATEMENT_TYPE_RETURN = 2;
+    private static final String OKHTTP_CLIENT_TYPE = "okhttp3.OkHttpClient";
+
+    public InstrumentOkHttpAction() {
+        super("Instrumenting OkHttpClients", "OkHttp Instrumentation Result", "Failed to Instrument OkHttpClient");
+    }
 
     /**
      * Checks the existence of okHttp variables in this project AND Instruments to get OkHttp
      *
-     * @param e {@inheritDoc}
+     * @param project       {@inheritDoc}
+     * @param indicator     {@inheritDoc}
+     * @param plan          {@inheritDoc}
+     * @param resultMessage {@inheritDoc}
      */
     @Override
-    public void actionPerformed(@NotNull AnActionEvent e) {
-        project = e.getProject();
-        resultMessage = new InstrumentResultMessage();
-        String[] fileFilter = new String[]{"import okhttp3"};
-        String[] classFilter = new String[]{"OkHttpClient"};
-
-        try {
-            List<PsiFile> psiFiles = InstrumentUtil.getAllJavaFilesInProjectAsPsi(project);
-            InstrumentUtil.runScanOnJavaFile(psiFiles, fileFilter, classFilter, this::processPsiStatement);
-            resultMessage.showResultDialog(project, "OkHttp Instrumentation Result");
-        } catch (Exception exception) {
-            resultMessage.showErrorDialog(project, exception, "Failed to Instrument OkHttpClient");
-        }
+    protected void instrument(@NotNull Project project,
+                              @NotNull ProgressIndicator indicator,
+                              @NotNull InstrumentPlan plan,
+                              @NotNull InstrumentResultMessage resultMessage) {
+        InstrumentUastScanner.scanProject(project, setUp(project), indicator, plan, resultMessage);
     }
 
     /**
-     * Scan a statement to search for a instance of OkHttpClient to instrument.
-     * This method is used as {@link java.util.function.Consumer} callback for the method
-     * {@link InstrumentUtil#runScanOnJavaFile}
-     * <br/><br/>
-     *
-     * <p>The following occurrences should be instrumented </p>
-     *
-     * <pre>
-     * {@code
-     * OkHttpClient client = new OkHttpClient()
-     * OkHttpClient client = okHttpClientBuilder.build()
-     * client = new OkHttpClient()
-     * client = okHttpClientBuilder.build()
-     * }
-     * </pre>
+     * Creates a matcher of the sites of the {@code project}, without scanning it.
+     * It is used to share a single scan with other actions, see {@link InstrumentAllAction}, and to instrument the
+     * sites highlighted in the editor, see {@link nl.vu.cs.s2group.nappa.plugin.inspection.InstrumentInspection}.
      *
-     * @param rootPsiElement A potential Java statement to instrument
+     * @param project An object representing an IntelliJ project.
+     * @return The matcher of the OkHttp clients of the {@code project}
      */
-    private void processPsiStatement(@NotNull PsiElement rootPsiElement) {
-        rootPsiElement.accept(new JavaRecursiveElementVisitor() {
-            @Override
-            public void visitElement(PsiElement element) {
-                if (element.getText().contains("Nappa.getOkHttp(")) {
-                    resultMessage.incrementPossibleInstrumentationCount().incrementAlreadyInstrumentedCount();
-                    return;
-                }
-
-                int statementType = -1;
-
-                if (element instanceof PsiAssignmentExpression) statementType = STATEMENT_TYPE_ASSIGNMENT;
-                else if (element instanceof PsiVariable) statementType = STATEMENT_TYPE_DECLARATION;
-                else if (element instanceof PsiReturnStatement) statementType = STATEMENT_TYPE_RETURN;
-                else super.visitElement(element);
-
-                if (statementType == -1) return;
-                if (!hasTypeOkHttp(statementType, element)) return;
-
-                resultMessage.incrementPossibleInstrumentationCount();
-
-                String instrumentedLine = makeInstrumentationLine(statementType, element);
-
-                if (instrumentedLine == null) {
-                    resultMessage.incrementUnneededInstrumentationCount();
-                    return;
-                }
-
-                PsiCodeBlock psiBody = (PsiCodeBlock) InstrumentUtil.getAncestorPsiElementFromElement(rootPsiElement, PsiCodeBlock.class);
-
-                if (psiBody != null && psiBody.getText().contains(instrumentedLine)) {
-                    resultMessage.incrementAlreadyInstrumentedCount();
-                    return;
-                }
-
-                PsiClass psiClass = (PsiClass) InstrumentUtil.getAncestorPsiElementFromElement(rootPsiElement, PsiClass.class);
-
-                PsiMethod psiMethod = (PsiMethod) InstrumentUtil.getAncestorPsiElementFromElement(rootPsiElement, PsiMethod.class);
-
-                PsiElement instrumentedElement = PsiElementFactory
-                        .getInstance(project)
-                        .createStatementFromText(instrumentedLine, psiClass);
-
-                WriteCommandAction.runWriteCommandAction(project, () -> {
-                    element.replace(instrumentedElement);
-                });
-
-                //noinspection ConstantConditions -- Since we loop through classes, it is certain that there is a parent Java class
-                InstrumentUtil.addLibraryImport(project, psiClass);
-
-                resultMessage.incrementInstrumentationCount().appendPsiClass(psiClass);
-
-                if (psiMethod != null) resultMessage.appendPsiMethod(psiMethod);
-                else if (element instanceof PsiField) resultMessage.appendPsiField((PsiField) element);
-                else resultMessage.appendPsiClassInitializer();
-
-                resultMessage.appendNewBlock();
-            }
-        });
+    public static @NotNull
+    InstrumentUastScanner.SiteMatcher setUp(@NotNull Project project) {
+        return new Matcher(project);
     }
 
     /**
-     * Verifies if the {@code element} contains an assignment or declaration of a {@code OkHttpClient}
+     * Verifies if a type is {@code OkHttpClient}. The type is resolved, thus it holds for Java and Kotlin sources.
      *
-     * @param statementType An ID identifying the processed PsiElement class type
-     * @param element       A Psi element potentially contain the code to be instrumented
-     * @return {@code True} if the {@code element} has th type {@code OkHttpClient}, {@code False} otherwise
+     * @param type The type of a variable or expression, {@code null} if it is unknown
+     * @return {@code True} if the {@code type} is {@code okhttp3.OkHttpClient}, {@code False} otherwise
      */
-    private boolean hasTypeOkHttp(int statementType, PsiElement element) {
-        String okHttpClientType = "okhttp3.OkHttpClient";
+    private static boolean isOkHttpClientType(@Nullable PsiType type) {
         try {
-            switch (statementType) {
-                case STATEMENT_TYPE_ASSIGNMENT:
-                    PsiAssignmentExpression assignmentExpression = (PsiAssignmentExpression) element;
-                    return assignmentExpression.getType() != null &&
-                            assignmentExpression.getType().getCanonicalText().equals(okHttpClientType);
-
-                case STATEMENT_TYPE_DECLARATION:
-                    return ((PsiVariable) element).getType().getCanonicalText().equals(okHttpClientType);
-
-                case STATEMENT_TYPE_RETURN:
-                    PsiReturnStatement returnStatement = (PsiReturnStatement) element;
-                    return returnStatement.getReturnValue() != null &&
-                            returnStatement.getReturnValue().getType() != null &&
-                            returnStatement.getReturnValue().getType().getCanonicalText().equals(okHttpClientType);
-
-                default:
-                    return false;
-            }
+            return type != null && type.getCanonicalText().equals(OKHTTP_CLIENT_TYPE);
         } catch (PsiInvalidElementAccessException e) {
             return false;
         }
@@ -166,7 +86,7 @@ public class InstrumentOkHttpAction extends AnAction {
      * @param element       A Psi element containing the code to be instrumented
      * @return The new source-code line if instrumentation is possible, {@code null} otherwise
      */
-    private @Nullable String makeInstrumentationLine(int statementType, @NotNull PsiElement element) {
+    static @Nullable String makeInstrumentationLine(int statementType, @NotNull PsiElement element) {
         boolean isBuilder = element.getText().contains(".build()");
         boolean isDefaultOkHttpConstructor = element.getText().contains("new OkHttpClient()");
 
@@ -194,4 +114,125 @@ public class InstrumentOkHttpAction extends AnAction {
 
         return String.join(delimiter, expression);
     }
+
+    /**
+     * Matches the {@code OkHttpClient} sites of a project and wraps them in a call to {@code Nappa.getOkHttp}
+     */
+    private static final class Matcher implements InstrumentUastScanner.SiteMatcher {
+        private final Project project;
+
+        private Matcher(@NotNull Project project) {
+            this.project = project;
+        }
+
+        @Override
+        public @NotNull
+        InstrumentSiteKind getKind() {
+            return InstrumentSiteKind.OKHTTP_CLIENT;
+        }
+
+        /**
+         * The edits are only written to Java files
+         *
+         * @return {@inheritDoc}
+         */
+        @Override
+        public @NotNull
+        List<FileType> getFileTypes() {
+            return Collections.singletonList(JavaFileType.INSTANCE);
+        }
+
+        /**
+         * Verifies if the node is a declaration of, an assignment to or a return of a {@code OkHttpClient}
+         *
+         * <p>The following occurrences should be instrumented </p>
+         *
+         * <pre>
+         * {@code
+         * OkHttpClient client = new OkHttpClient()
+         * OkHttpClient client = okHttpClientBuilder.build()
+         * client = new OkHttpClient()
+         * client = okHttpClientBuilder.build()
+         * }
+         * </pre>
+         *
+         * @param node          {@inheritDoc}
+         * @param resultMessage {@inheritDoc}
+         * @return {@inheritDoc}
+         */
+        @Override
+        public boolean matches(@NotNull UElement node, @NotNull InstrumentResultMessage resultMessage) {
+            if (node instanceof UVariable && !(node instanceof UParameter) && ((UVariable) node).getUastInitializer() != null)
+                return resultMessage.measure(InstrumentPhase.TYPE_RESOLUTION, () -> isOkHttpClientType(((UVariable) node).getType()));
+            if (node instanceof UBinaryExpression && ((UBinaryExpression) node).getOperator() == UastBinaryOperator.ASSIGN)
+                return resultMessage.measure(InstrumentPhase.TYPE_RESOLUTION, () -> isOkHttpClientType(((UBinaryExpression) node).getLeftOperand().getExpressionType()));
+            if (node instanceof UReturnExpression && ((UReturnExpression) node).getReturnExpression() != null)
+                //noinspection ConstantConditions -- The return expression was verified above
+                return resultMessage.measure(InstrumentPhase.TYPE_RESOLUTION, () -> isOkHttpClientType(((UReturnExpression) node).getReturnExpression().getExpressionType()));
+            return false;
+        }
+
+        /**
+         * Wrap the {@code OkHttpClient} defined in a Java statement in a call to {@code Nappa.getOkHttp}
+         *
+         * @param site          {@inheritDoc}
+         * @param plan          {@inheritDoc}
+         * @param resultMessage {@inheritDoc}
+         */
+        @Override
+        public void instrument(@NotNull UElement site, @NotNull InstrumentPlan plan, @NotNull InstrumentResultMessage resultMessage) {
+            PsiElement element = site.getSourcePsi();
+            int statementType;
+            if (element instanceof PsiAssignmentExpression) statementType = STATEMENT_TYPE_ASSIGNMENT;
+            else if (element instanceof PsiVariable) statementType = STATEMENT_TYPE_DECLARATION;
+            else if (element instanceof PsiReturnStatement) statementType = STATEMENT_TYPE_RETURN;
+            else return;
+
+            resultMessage.incrementPossibleInstrumentationCount();
+
+            if (hasOkHttpProbe(element)) {
+                resultMessage.incrementAlreadyInstrumentedCount();
+                return;
+            }
+
+            String instrumentedLine = makeInstrumentationLine(statementType, element);
+
+            if (instrumentedLine == null) {
+                resultMessage.incrementUnneededInstrumentationCount();
+                return;
+            }
+
+            PsiClass psiClass = (PsiClass) InstrumentUtil.getAncestorPsiElementFromElement(element, PsiClass.class);
+            if (psiClass == null) return;
+
+            PsiMethod psiMethod = (PsiMethod) InstrumentUtil.getAncestorPsiElementFromElement(element, PsiMethod.class);
+
+            PsiElement instrumentedElement = PsiElementFactory
+                    .getInstance(project)
+                    .createStatementFromText(instrumentedLine, psiClass);
+
+            plan.replace(element, instrumentedElement);
+
+            InstrumentUtil.addLibraryImport(plan, psiClass);
+
+            resultMessage.incrementInstrumentationCount().appendPsiClass(psiClass);
+
+            if (psiMethod != null) resultMessage.appendPsiMethod(psiMethod);
+            else if (element instanceof PsiField) resultMessage.appendPsiField((PsiField) element);
+            else resultMessage.appendPsiClassInitializer();
+
+            resultMessage.appendNewBlock();
+        }
+
+        /**
+         * Verifies if the {@code element} already sends the client to the NAPPA library
+         *
+         * @param element A Psi element containing the code to be instrumented
+         * @return {@code True} if the {@code element} contains a call to {@code Nappa.getOkHttp}, {@code False} otherwise
+         */
+        private boolean hasOkHttpProbe(@NotNull PsiElement element) {
+            return PsiTreeUtil.findChildrenOfType(element, PsiMethodCallExpression.class).stream()
+                    .anyMatch(call -> InstrumentSiteCollector.isNappaCall(call, "getOkHttp"));
+        }
+    }
 }
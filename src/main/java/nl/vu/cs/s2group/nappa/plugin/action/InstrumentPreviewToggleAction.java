@@ -0,0 +1,32 @@
+package nl.vu.cs.s2group.nappa.plugin.action;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.ToggleAction;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Enables or disables the preview of the instrumentations. When enabled, the instrumentation actions show the
+ * changes in a diff viewer before writing them, and only write them if the user accepts the changes, see
+ * {@link nl.vu.cs.s2group.nappa.plugin.util.InstrumentPreview InstrumentPreview}. The choice is kept across restarts.
+ */
+public class InstrumentPreviewToggleAction extends ToggleAction {
+    private static final String PREVIEW_PROPERTY = "nl.vu.cs.s2group.nappa.plugin.preview";
+
+    /**
+     * @return {@code True} if the instrumentations must be previewed before writing them or {@code False} otherwise
+     */
+    public static boolean isPreviewEnabled() {
+        return PropertiesComponent.getInstance().getBoolean(PREVIEW_PROPERTY, false);
+    }
+
+    @Override
+    public boolean isSelected(@NotNull AnActionEvent e) {
+        return isPreviewEnabled();
+    }
+
+    @Override
+    public void setSelected(@NotNull AnActionEvent e, boolean state) {
+        PropertiesComponent.getInstance().setValue(PREVIEW_PROPERTY, state, false);
+    }
+}
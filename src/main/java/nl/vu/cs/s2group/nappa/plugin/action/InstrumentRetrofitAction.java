@@ -1,17 +1,27 @@
 package nl.vu.cs.s2group.nappa.plugin.action;
 
 
-import com.intellij.openapi.actionSystem.AnAction;
-import com.intellij.openapi.actionSystem.AnActionEvent;
-import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.ui.Messages;
 import com.intellij.psi.*;
-import com.intellij.psi.search.FilenameIndex;
-import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteCollector;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPlan;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUastScanner;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.idea.KotlinFileType;
+import org.jetbrains.kotlin.psi.KtCallExpression;
+import org.jetbrains.uast.UCallExpression;
+import org.jetbrains.uast.UElement;
+import org.jetbrains.uast.UExpression;
+import org.jetbrains.uast.USimpleNameReferenceExpression;
 
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -31,128 +41,176 @@ import java.util.List;
  * .build();
  */
 
-public class InstrumentRetrofitAction extends AnAction {
-    Project project;
-    PsiMethod signature;
-    StringBuilder displayMessage = new StringBuilder();
-
+public class InstrumentRetrofitAction extends InstrumentAction {
+    private static final String RETROFIT_CLASS = "Retrofit";
+    private static final String BUILDER_CLASS = "Builder";
 
+    public InstrumentRetrofitAction() {
+        super("Instrumenting Retrofit clients", "Retrofit Client Instrumentation", "Failed to Instrument Retrofit");
+    }
 
     /**
      * Will check the existence of Retrofit Variables in this project AND instruments Retrofit
      * clients to make use of okHttp as a client, and finally injects an interceptor to hook
      * the retrofit client to The prefetching Library..
+     * <p>
+     * The Java and Kotlin files are scanned in a single pass, see {@link InstrumentUastScanner}.
      *
-     * @param event
+     * @param project       {@inheritDoc}
+     * @param indicator     {@inheritDoc}
+     * @param plan          {@inheritDoc}
+     * @param resultMessage {@inheritDoc}
      */
     @Override
-    public void actionPerformed(AnActionEvent event) {
-        (new InstrumentRetrofitActionKt()).actionPerformed(event);
-        project = event.getProject();
-        boolean retrofitFound = false;
-        String[] fileNames = FilenameIndex.getAllFilenames(project);
-        // Generate a list of all the files included in the Project
-        List<PsiFile> psiFiles = new LinkedList<>();
-
-        List<PsiStatement> retrofitDeclarations = new LinkedList<PsiStatement>();
-
-        displayMessage.append("Greetings\n")
-                    .append("We will now instrument all retrofit Instances to make use of an NAPPA enabled OkHttp client\n\n");
-
-        // Fetch files from the project directory by searching by name
-        for (String fileName : fileNames) {
-            psiFiles.addAll(Arrays.asList(FilenameIndex.getFilesByName(project, fileName, GlobalSearchScope.projectScope(project))));
+    protected void instrument(@NotNull Project project,
+                              @NotNull ProgressIndicator indicator,
+                              @NotNull InstrumentPlan plan,
+                              @NotNull InstrumentResultMessage resultMessage) {
+        resultMessage.appendText("Greetings")
+                .appendText("We will now instrument all retrofit Instances to make use of an NAPPA enabled OkHttp client")
+                .appendNewBlock();
+
+        int retrofitFound = resultMessage.getPossibleInstrumentationCount();
+        InstrumentUastScanner.scanProject(project, setUp(project), indicator, plan, resultMessage);
+
+        if (resultMessage.getPossibleInstrumentationCount() == retrofitFound)
+            resultMessage.appendNewBlock()
+                    .appendText("NO INSTANCE OF RETROFIT FOUND:")
+                    .appendNewBlock()
+                    .appendText("Instrumentation process did not change anything.");
+    }
+
+    /**
+     * Creates a matcher of the sites of the {@code project}, without scanning it.
+     * It is used to share a single scan with other actions, see {@link InstrumentAllAction}, and to instrument the
+     * sites highlighted in the editor, see {@link nl.vu.cs.s2group.nappa.plugin.inspection.InstrumentInspection}.
+     *
+     * @param project An object representing an IntelliJ project.
+     * @return The matcher of the Retrofit builders of the {@code project}
+     */
+    public static @NotNull
+    InstrumentUastScanner.SiteMatcher setUp(@NotNull Project project) {
+        return new Matcher(project);
+    }
+
+    /**
+     * Matches the {@code Retrofit.Builder} sites of a project and sets the NAPPA {@code OkHttpClient} as their client
+     */
+    private static final class Matcher implements InstrumentUastScanner.SiteMatcher {
+        private final Project project;
+        private final InstrumentRetrofitActionKt kotlinWriter;
+
+        private Matcher(@NotNull Project project) {
+            this.project = project;
+            kotlinWriter = new InstrumentRetrofitActionKt(project);
         }
 
-        // Iterate all statements inside all project files declaring a new Retrofit Client
-        for (PsiFile psiFile : psiFiles) {
-            if (psiFile instanceof PsiJavaFile) {
-                PsiJavaFile javaFile = (PsiJavaFile) psiFile;
-                PsiClass[] psiClasses = javaFile.getClasses();
-
-                for (PsiClass psiClass : psiClasses) {
-                    PsiMethod[] psiMethods = psiClass.getMethods();
-                    for (PsiMethod psiMethod : psiMethods) {
-                        try {
-                            PsiStatement[] psiStatements = psiMethod.getBody().getStatements();
-                            for (PsiStatement statement : psiStatements) {
-
-                                // Find the retrofit builder
-                                if (statement.getText().contains("Retrofit.Builder")) {
-                                    retrofitFound = true;
-                                    displayMessage.append("\n Retrofit Definition found in file: ").append(psiFile.getName())
-                                                  .append("\nClass:").append(psiClass.getName())
-                                                  .append("\nMethod:").append(psiMethod.getName());
-
-                                    // If the current builder instance contains a client specified by the user
-                                    if (statement.getText().contains(".client")) {
-
-                                        displayMessage.append("\n\n IMPORTANT:")
-                                                      .append("\n-----------------\n")
-                                                      .append("\n Retrofit Client definition identified with an OkHttp Client Instance. ")
-                                                      .append("\n Statement:")
-                                                      .append(statement.getText())
-                                                      .append("\nPlease run \"Instrument OkHttp\" from the plugin if you have not done so yet.\n\n");
-
-
-
-                                    }
-                                    // If the user is using a default client
-                                    else {
-                                        displayMessage.append("\n INSTRUMENTING:")
-                                                      .append("\n Original Statement:\n")
-                                                      .append(statement.getText());
-
-                                        final PsiElement clientBuilderElement = PsiElementFactory.SERVICE.getInstance(project)
-                                                .createExpressionFromText(
-                                                        "new Retrofit.Builder().client(Nappa.getOkHttp())", psiClass);
-
-                                        // Considering the expression: new Retrofit.Builder().anotherExpression()...  Iterate recursively until
-                                        //    the expression reaches the new Retrofit.Builder() substring
-                                        statement.accept(new JavaRecursiveElementVisitor() {
-                                            @Override
-                                            public void visitElement(PsiElement element) {
-
-                                                // The  "new Retrofit.Builder()" is of PsiNewExpression  type
-                                                if (element instanceof PsiNewExpression) {
-
-
-                                                    // Inject the instrumented okHttpClient to the Retrofit Client
-                                                    WriteCommandAction.runWriteCommandAction(project, () -> {
-                                                        element.replace(clientBuilderElement);
-
-
-                                                    });
-                                                }
-                                                // Basecase: Only visit elements if the builder has not yet been encountered
-                                                else{
-                                                    super.visitElement(element);
-                                                }
-                                            }
-                                        });
-
-                                        displayMessage.append("\n New Statement:\n")
-                                                      .append(statement.getText())
-                                                      .append("\n\n").toString();
-                                    }
-
-                                }
-
-                            }
-
-                        } catch (NullPointerException e1) {
-                            e1.printStackTrace();
-                        }
-                    }
-                }
-            }
+        @Override
+        public @NotNull
+        InstrumentSiteKind getKind() {
+            return InstrumentSiteKind.RETROFIT_BUILDER;
         }
-        if(!retrofitFound)
-            displayMessage.append("\n\nNO INSTANCE OF RETROFIT FOUND:")
-                          .append("\n\nInstrumentation process did not change anything.");
 
-        Messages.showMessageDialog(displayMessage.toString(), "Retrofit Client Instrumentation", Messages.getInformationIcon());
-    }
+        @Override
+        public @NotNull
+        List<FileType> getFileTypes() {
+            return Arrays.asList(JavaFileType.INSTANCE, KotlinFileType.INSTANCE);
+        }
 
-}
+        /**
+         * Verifies if the node creates a Retrofit builder, i.e. {@code new Retrofit.Builder()} in Java or
+         * {@code Retrofit.Builder()} in Kotlin
+         *
+         * @param node          {@inheritDoc}
+         * @param resultMessage {@inheritDoc}
+         * @return {@inheritDoc}
+         */
+        @Override
+        public boolean matches(@NotNull UElement node, @NotNull InstrumentResultMessage resultMessage) {
+            if (!(node instanceof UCallExpression)) return false;
+            UCallExpression call = (UCallExpression) node;
+            if (!BUILDER_CLASS.equals(InstrumentUastScanner.getCalleeName(call))) return false;
+
+            // In Kotlin, the builder is a call qualified by the Retrofit class
+            UExpression receiver = call.getReceiver();
+            if (receiver instanceof USimpleNameReferenceExpression)
+                return RETROFIT_CLASS.equals(((USimpleNameReferenceExpression) receiver).getIdentifier());
+
+            // In Java, the type of a new expression is known even if the Retrofit library is not resolved
+            PsiType type = call.getReturnType();
+            return type != null && type.getCanonicalText().endsWith(RETROFIT_CLASS + "." + BUILDER_CLASS);
+        }
+
+        /**
+         * Instrument a Retrofit builder to use the NAPPA OkHttp client. The Kotlin builders are instrumented by
+         * {@link InstrumentRetrofitActionKt}.
+         *
+         * @param site          {@inheritDoc}
+         * @param plan          {@inheritDoc}
+         * @param resultMessage {@inheritDoc}
+         */
+        @Override
+        public void instrument(@NotNull UElement site, @NotNull InstrumentPlan plan, @NotNull InstrumentResultMessage resultMessage) {
+            PsiElement sourcePsi = site.getSourcePsi();
+            if (sourcePsi instanceof PsiNewExpression)
+                processJavaBuilder((PsiNewExpression) sourcePsi, plan, resultMessage);
+            else if (sourcePsi instanceof KtCallExpression)
+                kotlinWriter.processKotlinBuilder((KtCallExpression) sourcePsi, plan, resultMessage);
+        }
+
+        /**
+         * Instrument a Retrofit builder declared in a Java file to use the NAPPA OkHttp client
+         *
+         * @param builder       The {@code new Retrofit.Builder()} expression
+         * @param plan          The plan collecting the edits of the file
+         * @param resultMessage The result message of the file
+         */
+        private void processJavaBuilder(@NotNull PsiNewExpression builder,
+                                        @NotNull InstrumentPlan plan,
+                                        @NotNull InstrumentResultMessage resultMessage) {
+            PsiElement statement = PsiTreeUtil.getParentOfType(builder, PsiStatement.class);
+            if (statement == null) statement = PsiTreeUtil.getParentOfType(builder, PsiField.class);
+            if (statement == null) statement = builder;
+            PsiClass psiClass = PsiTreeUtil.getParentOfType(builder, PsiClass.class);
+            PsiMethod psiMethod = PsiTreeUtil.getParentOfType(builder, PsiMethod.class);
+
+            resultMessage.incrementPossibleInstrumentationCount()
+                    .appendNewBlock()
+                    .appendLocation(builder)
+                    .appendText(" Retrofit Definition found in file: " + builder.getContainingFile().getName())
+                    .appendText("Class:" + (psiClass != null ? psiClass.getName() : ""))
+                    .appendText("Method:" + (psiMethod != null ? psiMethod.getName() : ""));
+
+            // If the current builder instance contains a client specified by the user
+            if (InstrumentSiteCollector.chainCallsMethod(builder, "client")) {
+
+                // The warning is part of the record of the builder, thus it is listed with the site
+                resultMessage.appendText(" IMPORTANT:")
+                        .appendText("-----------------")
+                        .appendText(" Retrofit Client definition identified with an OkHttp Client Instance. ")
+                        .appendText(" Statement:" + statement.getText())
+                        .appendText("Please run \"Instrument OkHttp\" from the plugin if you have not done so yet.")
+                        .appendNewBlock();
+                return;
+            }
 
+            // If the user is using a default client
+            resultMessage.appendText(" INSTRUMENTING:")
+                    .appendText(" Original Statement:")
+                    .appendText(statement.getText());
+
+            final PsiElement clientBuilderElement = PsiElementFactory.getInstance(project)
+                    .createExpressionFromText("new Retrofit.Builder().client(Nappa.getOkHttp())", builder);
+
+            // Inject the instrumented okHttpClient to the Retrofit Client
+            plan.replace(builder, clientBuilderElement);
+            InstrumentUtil.addLibraryImport(plan, builder);
+
+            // The source code is modified only when the plan is applied, thus the new statement is previewed from the original text
+            resultMessage.incrementInstrumentationCount()
+                    .appendText(" New Statement:")
+                    .appendText(statement.getText().replace(builder.getText(), clientBuilderElement.getText()))
+                    .appendNewBlock();
+        }
+    }
+}
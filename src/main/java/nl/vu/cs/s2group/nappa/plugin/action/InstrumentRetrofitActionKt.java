@@ -1,26 +1,19 @@
 package nl.vu.cs.s2group.nappa.plugin.action;
 
 
-import com.intellij.openapi.actionSystem.AnAction;
-import com.intellij.openapi.actionSystem.AnActionEvent;
-import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.ui.Messages;
 import com.intellij.psi.*;
-import com.intellij.psi.search.FilenameIndex;
-import com.intellij.psi.search.GlobalSearchScope;
-import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUtil;
+import com.intellij.psi.util.PsiTreeUtil;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteCollectorKt;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPlan;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
 import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUtilKt;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.kotlin.psi.*;
 
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * Will check the existence of Retrofit Variables in this projects AND instruments Retrofit
- * clients. Overall, the hierarchy inside a project that is covered by this instrumenter is as follows:
+ * clients. This class writes the edits to the Kotlin files, the builders are found by {@link InstrumentRetrofitAction}. Overall, the hierarchy inside a project that is covered by this instrumenter is as follows:
  * <p>
  * File {@link PsiFile}
  * |--->Class {@link PsiClass}
@@ -35,150 +28,82 @@ import java.util.List;
  * .build();
  */
 
-public class InstrumentRetrofitActionKt extends AnAction {
-    Project project;
-    PsiMethod signature;
-    StringBuilder displayMessage = new StringBuilder();
-
+final class InstrumentRetrofitActionKt {
+    private final Project project;
 
+    /**
+     * @param project An object representing an IntelliJ project.
+     */
+    InstrumentRetrofitActionKt(@NotNull Project project) {
+        this.project = project;
+    }
 
     /**
-     * Will check the existence of Retrofit Variables in this project AND instruments Retrofit
-     * clients to make use of okHttp as a client, and finally injects an interceptor to hook
-     * the retrofit client to The prefetching Library..
+     * Instrument a Retrofit builder declared in a Kotlin file to use the NAPPA OkHttp client
      *
-     * @param event
+     * @param builder       The {@code Builder()} call in {@code Retrofit.Builder()}
+     * @param plan          The plan collecting the edits of the file
+     * @param resultMessage The result message of the file
      */
-    @Override
-    public void actionPerformed(AnActionEvent event) {
-        project = event.getProject();
-        boolean retrofitFound = false;
-        String[] fileNames = FilenameIndex.getAllFilenames(project);
-        // Generate a list of all the files included in the Project
-        List<PsiFile> psiFiles = new LinkedList<>();
-
-        List<PsiStatement> retrofitDeclarations = new LinkedList<PsiStatement>();
-
-        displayMessage.append("Greetings\n")
-                    .append("We will now instrument all retrofit Instances to make use of an NAPPA enabled OkHttp client\n\n");
-
-        // Fetch files from the project directory by searching by name
-        for (String fileName : fileNames) {
-            psiFiles.addAll(Arrays.asList(FilenameIndex.getFilesByName(project, fileName, GlobalSearchScope.projectScope(project))));
+    void processKotlinBuilder(@NotNull KtCallExpression builder,
+                              @NotNull InstrumentPlan plan,
+                              @NotNull InstrumentResultMessage resultMessage) {
+        PsiElement statement = getStatement(builder);
+        KtClassOrObject ktClass = PsiTreeUtil.getParentOfType(builder, KtClassOrObject.class);
+        KtNamedFunction function = PsiTreeUtil.getParentOfType(builder, KtNamedFunction.class);
+
+        resultMessage.incrementPossibleInstrumentationCount()
+                .appendNewBlock()
+                .appendLocation(builder)
+                .appendText(" Retrofit Definition found in file: " + builder.getContainingFile().getName())
+                .appendText("Class:" + (ktClass != null ? ktClass.getName() : ""))
+                .appendText("Method:" + (function != null ? function.getName() : ""));
+
+        // If the current builder instance contains a client specified by the user
+        if (InstrumentSiteCollectorKt.chainCallsMethod(builder, "client")) {
+
+            // The warning is part of the record of the builder, thus it is listed with the site
+            resultMessage.appendText(" IMPORTANT:")
+                    .appendText("-----------------")
+                    .appendText(" Retrofit Client definition identified with an OkHttp Client Instance. ")
+                    .appendText(" Statement:" + statement.getText())
+                    .appendText("Please run \"Instrument OkHttp\" from the plugin if you have not done so yet.")
+                    .appendNewBlock();
+            return;
         }
 
-        // Iterate all statements inside all project files declaring a new Retrofit Client
-        for (PsiFile psiFile : psiFiles) {
-            if (psiFile instanceof KtFile) {
-                KtFile ktFile = (KtFile) psiFile;
-                KtClass[] ktClasses = Arrays.stream(ktFile.getChildren()).filter(child -> child instanceof KtClass).toArray(KtClass[]::new);
-                for (KtClass ktClass : ktClasses) {
-                    if (ktClass.getBody() == null) continue;
-                    List<KtNamedFunction> functions = ktClass.getBody().getFunctions();
-                    for (KtNamedFunction function : functions) {
-                        try {
-                            KtBlockExpression bodyExpression = function.getBodyBlockExpression();
-                            if (bodyExpression == null) continue;
-                            for (KtExpression statement : bodyExpression.getStatements()) {
-
-                                // Find the retrofit builder
-                                if (statement.getText().contains("Retrofit.Builder")) {
-                                    retrofitFound = true;
-                                    displayMessage.append("\n Retrofit Definition found in file: ").append(psiFile.getName())
-                                                  .append("\nClass:").append(ktClass.getName())
-                                                  .append("\nMethod:").append(statement.getName());
-                                    InstrumentUtilKt.addLibraryImportToKt(project, ktFile);
-                                    // If the current builder instance contains a client specified by the user
-                                    if (statement.getText().contains(".client")) {
-
-                                        displayMessage.append("\n\n IMPORTANT:")
-                                                      .append("\n-----------------\n")
-                                                      .append("\n Retrofit Client definition identified with an OkHttp Client Instance. ")
-                                                      .append("\n Statement:")
-                                                      .append(statement.getText())
-                                                      .append("\nPlease run \"Instrument OkHttp\" from the plugin if you have not done so yet.\n\n");
-
-
-
-                                    }
-                                    // If the user is using a default client
-                                    else {
-                                        displayMessage.append("\n INSTRUMENTING:")
-                                                      .append("\n Original Statement:\n")
-                                                      .append(statement.getText());
-
-                                        KtPsiFactory factory = new KtPsiFactory(project);
-                                        final PsiElement clientBuilderElement = factory.createExpression("Builder()\n.client(Nappa.getOkHttp(OkHttpClient()))");
-
-
-                                        statement.accept(new KtTreeVisitorVoid(){
-                                            @Override
-                                            public void visitKtElement(@NotNull KtElement element) {
-                                                // The  "new Retrofit.Builder()" is of PsiNewExpression  type
+        // If the user is using a default client
+        resultMessage.appendText(" INSTRUMENTING:")
+                .appendText(" Original Statement:")
+                .appendText(statement.getText());
 
-                                                if (element instanceof KtCallExpression && element.getText().contains("Builder()")) {
+        KtPsiFactory factory = new KtPsiFactory(project);
+        final PsiElement clientBuilderElement = factory.createExpression("Builder()\n.client(Nappa.getOkHttp(OkHttpClient()))");
 
-                                                    // Inject the instrumented okHttpClient to the Retrofit Client
-                                                    WriteCommandAction.runWriteCommandAction(project, () -> {
-                                                        element.replace(clientBuilderElement);
+        // Inject the instrumented okHttpClient to the Retrofit Client
+        plan.replace(builder, clientBuilderElement);
+        InstrumentUtilKt.addLibraryImportToKt(plan, builder);
 
+        // The source code is modified only when the plan is applied, thus the new statement is previewed from the original text
+        resultMessage.incrementInstrumentationCount()
+                .appendText(" New Statement:")
+                .appendText(statement.getText().replace(builder.getText(), clientBuilderElement.getText()))
+                .appendNewBlock();
+    }
 
-                                                    });
-                                                }
-                                                // Basecase: Only visit elements if the builder has not yet been encountered
-                                                else{
-                                                    super.visitElement(element);
-                                                }
-                                                return;
-                                            }
-
-                                        });
-                                        // Considering the expression: new Retrofit.Builder().anotherExpression()...  Iterate recursively until
-                                        //    the expression reaches the new Retrofit.Builder() substring
-                                        statement.accept(new JavaRecursiveElementVisitor() {
-                                            @Override
-                                            public void visitElement(PsiElement element) {
-
-                                                // The  "new Retrofit.Builder()" is of PsiNewExpression  type
-                                                if (element instanceof PsiNewExpression) {
-
-
-                                                    // Inject the instrumented okHttpClient to the Retrofit Client
-                                                    WriteCommandAction.runWriteCommandAction(project, () -> {
-                                                        element.replace(clientBuilderElement);
-
-
-                                                    });
-                                                }
-                                                // Basecase: Only visit elements if the builder has not yet been encountered
-                                                else{
-                                                    super.visitElement(element);
-                                                }
-                                            }
-                                        });
-
-                                        displayMessage.append("\n New Statement:\n")
-                                                      .append(statement.getText())
-                                                      .append("\n\n").toString();
-                                    }
-
-                                }
-
-                            }
-
-                        } catch (NullPointerException e1) {
-                            e1.printStackTrace();
-                        }
-                    }
-                }
-            }
+    /**
+     * @param element An element of a Kotlin file
+     * @return The statement of a block, property or top level declaration containing the {@code element}
+     */
+    private static @NotNull
+    PsiElement getStatement(@NotNull PsiElement element) {
+        PsiElement statement = element;
+        while (statement.getParent() != null &&
+                !(statement.getParent() instanceof KtBlockExpression) &&
+                !(statement.getParent() instanceof KtClassBody) &&
+                !(statement.getParent() instanceof KtFile)) {
+            statement = statement.getParent();
         }
-        if(!retrofitFound)
-            displayMessage.append("\n\nNO INSTANCE OF RETROFIT FOUND:")
-                          .append("\n\nInstrumentation process did not change anything.");
-
-        Messages.showMessageDialog(displayMessage.toString(), "Retrofit Client Instrumentation", Messages.getInformationIcon());
+        return statement;
     }
-
 }
-
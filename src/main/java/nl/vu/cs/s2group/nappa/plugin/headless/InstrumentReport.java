@@ -0,0 +1,93 @@
+package nl.vu.cs.s2group.nappa.plugin.headless;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentStatistics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A machine-readable report of a headless instrumentation run, see {@link InstrumentStarter}.
+ * The report is serialized as JSON.
+ */
+public final class InstrumentReport {
+    private final String project;
+    private boolean success = true;
+    private final List<ActionReport> actions = new ArrayList<>();
+
+    /**
+     * @param project The path of the instrumented project
+     */
+    public InstrumentReport(@NotNull String project) {
+        this.project = project;
+    }
+
+    /**
+     * Records the outcome of an action which ran until the end. The action succeeded if all edits were applied.
+     *
+     * @param name          The name of the action, as given in the command line
+     * @param resultMessage The result message filled by the action
+     * @param skippedEdits  The number of edits that could not be applied
+     */
+    public void addAction(@NotNull String name, @NotNull InstrumentResultMessage resultMessage, int skippedEdits) {
+        ActionReport action = new ActionReport(name, skippedEdits == 0, null);
+        action.statistics = resultMessage.getStatistics();
+        action.skippedEdits = skippedEdits;
+        action.message = resultMessage.getMessage();
+        add(action);
+    }
+
+    /**
+     * Records an action which failed with an exception
+     *
+     * @param name  The name of the action, as given in the command line
+     * @param error The stack trace of the exception
+     */
+    public void addFailedAction(@NotNull String name, @NotNull String error) {
+        add(new ActionReport(name, false, error));
+    }
+
+    /**
+     * @return {@code True} if all actions succeeded, {@code False} otherwise
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * @return The report serialized as JSON
+     */
+    public @NotNull
+    String toJson() {
+        Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+        return gson.toJson(this);
+    }
+
+    private void add(@NotNull ActionReport action) {
+        actions.add(action);
+        success &= action.success;
+    }
+
+    /**
+     * The outcome of a single action. The fields are read by Gson when serializing the report.
+     */
+    @SuppressWarnings({"FieldCanBeLocal", "unused"})
+    private static final class ActionReport {
+        private final String name;
+        private final boolean success;
+        private InstrumentStatistics statistics;
+        private int skippedEdits;
+        private String message;
+        private final String error;
+
+        private ActionReport(@NotNull String name, boolean success, @Nullable String error) {
+            this.name = name;
+            this.success = success;
+            this.error = error;
+        }
+    }
+}
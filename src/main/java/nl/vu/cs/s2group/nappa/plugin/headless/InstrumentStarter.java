@@ -0,0 +1,205 @@
+package nl.vu.cs.s2group.nappa.plugin.headless;
+
+import com.intellij.ide.impl.ProjectUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ExceptionUtil;
+import nl.vu.cs.s2group.nappa.plugin.action.*;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs the instrumentation actions from the command line, without user interface. It is meant to instrument
+ * apps in a continuous integration pipeline, e.g.:
+ * <p>
+ * {@code idea nappa-instrument <projectDir> --actions=all --report=report.json}
+ * <p>
+ * The actions run in the given order, each one in the same way as when triggered from the menu, but the
+ * result is written as a JSON report instead of shown in a dialog, see {@link InstrumentReport}. The report is
+ * printed to the standard output if no report file is given. Selecting {@value #ALL_ACTIONS} actions runs them in a
+ * single scan, see {@link InstrumentAllAction}. The process exits with {@value #EXIT_FAILURE}
+ * if any action fails and with {@value #EXIT_USAGE} if the arguments are invalid.
+ */
+public class InstrumentStarter implements ApplicationStarter {
+    private static final String COMMAND_NAME = "nappa-instrument";
+    private static final String ACTIONS_OPTION = "--actions=";
+    private static final String REPORT_OPTION = "--report=";
+    private static final String ALL_ACTIONS = "all";
+
+    private static final int EXIT_SUCCESS = 0;
+    private static final int EXIT_FAILURE = 1;
+    private static final int EXIT_USAGE = 2;
+
+    // The actions available in the command line. All actions are selected by default and run in a single scan.
+    private static final Map<String, Supplier<InstrumentAction>> ACTIONS = new LinkedHashMap<>();
+
+    static {
+        ACTIONS.put("activity", InstrumentActivityAction::new);
+        ACTIONS.put("intent", InstrumentIntentExtrasAction::new);
+        ACTIONS.put("fragment", InstrumentFragmentAction::new);
+        ACTIONS.put("okhttp", InstrumentOkHttpAction::new);
+        ACTIONS.put("retrofit", InstrumentRetrofitAction::new);
+    }
+
+    @Override
+    public @NotNull
+    String getCommandName() {
+        return COMMAND_NAME;
+    }
+
+    @Override
+    public boolean isHeadless() {
+        return true;
+    }
+
+    @Override
+    public void main(@NotNull String[] args) {
+        // The actions wait for the Event Dispatch Thread to apply their edits, thus they cannot run on it
+        if (ApplicationManager.getApplication().isDispatchThread())
+            ApplicationManager.getApplication().executeOnPooledThread(() -> System.exit(run(args)));
+        else
+            System.exit(run(args));
+    }
+
+    /**
+     * Parses the command line arguments and instruments the project
+     *
+     * @param args The command line arguments. The first argument is the command name.
+     * @return The exit code of the process
+     */
+    private int run(@NotNull String[] args) {
+        String projectPath = null;
+        String reportPath = null;
+        List<String> actionNames = Collections.singletonList(ALL_ACTIONS);
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith(ACTIONS_OPTION)) {
+                actionNames = parseActionNames(arg.substring(ACTIONS_OPTION.length()));
+                if (actionNames == null) return printUsage("Unknown action in " + arg);
+            } else if (arg.startsWith(REPORT_OPTION)) {
+                reportPath = arg.substring(REPORT_OPTION.length());
+            } else if (projectPath == null && !arg.startsWith("--")) {
+                projectPath = arg;
+            } else {
+                return printUsage("Unexpected argument " + arg);
+            }
+        }
+        if (projectPath == null) return printUsage("The project directory is missing");
+
+        String absoluteProjectPath = new File(projectPath).getAbsolutePath();
+        InstrumentReport report = new InstrumentReport(absoluteProjectPath);
+        try {
+            instrumentProject(absoluteProjectPath, actionNames, report);
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (Exception e) {
+            report.addFailedAction("open", ExceptionUtil.getThrowableText(e));
+        }
+
+        try {
+            writeReport(report, reportPath);
+        } catch (IOException e) {
+            System.err.println("Failed to write the report: " + e.getMessage());
+            return EXIT_FAILURE;
+        }
+        return report.isSuccess() ? EXIT_SUCCESS : EXIT_FAILURE;
+    }
+
+    /**
+     * Opens the project, runs the selected actions and saves the instrumented files
+     *
+     * @param projectPath The absolute path of the project directory
+     * @param actionNames The names of the actions to run
+     * @param report      The report to fill with the outcome of each action
+     */
+    private void instrumentProject(@NotNull String projectPath,
+                                   @NotNull List<String> actionNames,
+                                   @NotNull InstrumentReport report) {
+        Project[] projectRef = new Project[1];
+        ApplicationManager.getApplication().invokeAndWait(() ->
+                projectRef[0] = ProjectUtil.openOrImport(projectPath, null, false));
+        Project project = projectRef[0];
+        if (project == null) throw new IllegalStateException("Failed to open the project " + projectPath);
+
+        try {
+            DumbService.getInstance(project).waitForSmartMode();
+            for (String actionName : actionNames) {
+                InstrumentResultMessage resultMessage = new InstrumentResultMessage();
+                try {
+                    InstrumentAction action = ALL_ACTIONS.equals(actionName) ? new InstrumentAllAction() : ACTIONS.get(actionName).get();
+                    int skippedEdits = action.instrumentInCurrentThread(project, new EmptyProgressIndicator(), resultMessage);
+                    report.addAction(actionName, resultMessage, skippedEdits);
+                } catch (ProcessCanceledException e) {
+                    throw e;
+                } catch (Exception e) {
+                    report.addFailedAction(actionName, ExceptionUtil.getThrowableText(e));
+                }
+            }
+            ApplicationManager.getApplication().invokeAndWait(() ->
+                    FileDocumentManager.getInstance().saveAllDocuments());
+        } finally {
+            ApplicationManager.getApplication().invokeAndWait(() -> ProjectUtil.closeAndDispose(project));
+        }
+    }
+
+    /**
+     * @param value The value of the {@value #ACTIONS_OPTION} option, e.g. {@code activity,intent} or {@value #ALL_ACTIONS}
+     * @return The names of the actions in the order given, or {@code null} if an action is unknown
+     */
+    private static @Nullable
+    List<String> parseActionNames(@NotNull String value) {
+        if (ALL_ACTIONS.equals(value)) return Collections.singletonList(ALL_ACTIONS);
+
+        List<String> actionNames = new ArrayList<>();
+        for (String name : StringUtil.split(value, ",")) {
+            String actionName = name.trim().toLowerCase(Locale.ROOT);
+            if (!ACTIONS.containsKey(actionName)) return null;
+            if (!actionNames.contains(actionName)) actionNames.add(actionName);
+        }
+        return actionNames.isEmpty() ? null : actionNames;
+    }
+
+    /**
+     * @param report     The report of the run
+     * @param reportPath The file to write the report to, or {@code null} to print it to the standard output
+     * @throws IOException If the report file cannot be written
+     */
+    private static void writeReport(@NotNull InstrumentReport report, @Nullable String reportPath) throws IOException {
+        String json = report.toJson();
+        if (reportPath == null) {
+            System.out.println(json);
+            return;
+        }
+        Path path = Paths.get(reportPath).toAbsolutePath();
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        Files.write(path, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param error The reason the arguments are invalid
+     * @return The exit code for invalid arguments
+     */
+    private static int printUsage(@NotNull String error) {
+        System.err.println(error);
+        System.err.println("Usage: " + COMMAND_NAME + " <projectDir> [" + ACTIONS_OPTION + ALL_ACTIONS + "|" +
+                String.join(",", ACTIONS.keySet()) + "] [" + REPORT_OPTION + "<file>]");
+        return EXIT_USAGE;
+    }
+}
@@ -0,0 +1,52 @@
+package nl.vu.cs.s2group.nappa.plugin.index;
+
+import java.util.Objects;
+
+/**
+ * A site of a file that can be instrumented, as recorded by the {@link InstrumentSiteIndex}
+ */
+public final class InstrumentSite {
+    private final int offset;
+    private final boolean probed;
+
+    /**
+     * @param offset The offset of the site in the file
+     * @param probed {@code True} if the site is already instrumented with a NAPPA probe
+     */
+    public InstrumentSite(int offset, boolean probed) {
+        this.offset = offset;
+        this.probed = probed;
+    }
+
+    /**
+     * @return The offset of the site in the file
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return {@code True} if the site is already instrumented with a NAPPA probe
+     */
+    public boolean isProbed() {
+        return probed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        InstrumentSite that = (InstrumentSite) o;
+        return offset == that.offset && probed == that.probed;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(offset, probed);
+    }
+
+    @Override
+    public String toString() {
+        return "InstrumentSite{offset=" + offset + ", probed=" + probed + "}";
+    }
+}
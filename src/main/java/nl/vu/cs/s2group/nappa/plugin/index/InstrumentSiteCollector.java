@@ -0,0 +1,419 @@
+package nl.vu.cs.s2group.nappa.plugin.index;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.PsiUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the instrumentable sites of a Java file for the {@link InstrumentSiteIndex}.
+ * <p>
+ * References cannot be resolved while indexing, thus the sites are identified by their syntax. The collector
+ * finds a superset of the sites handled by the actions, since a missing site would never be instrumented.
+ */
+public class InstrumentSiteCollector extends JavaRecursiveElementWalkingVisitor {
+    // Defines all variations of the method startActivity in the Android API. The index and
+    // InstrumentIntentExtrasAction share this set, thus they agree on the sites to instrument.
+    public static final Set<String> START_ACTIVITY_METHODS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            // https://developer.android.com/reference/android/app/Activity#startActivity(android.content.Intent)
+            "startActivity",
+
+            // https://developer.android.com/reference/android/app/Activity#startActivityForResult(android.content.Intent,%20int)
+            "startActivityForResult",
+
+            // https://developer.android.com/reference/android/app/Activity#startActivityFromChild(android.app.Activity,%20android.content.Intent,%20int)
+            // This method was deprecated in API level 30.
+            "startActivityFromChild",
+
+            // https://developer.android.com/reference/android/app/Activity#startActivityFromFragment(android.app.Fragment,%20android.content.Intent,%20int,%20android.os.Bundle)
+            // This method was deprecated in API level 28.
+            "startActivityFromFragment",
+
+            // https://developer.android.com/reference/android/app/Activity#startActivityIfNeeded(android.content.Intent,%20int,%20android.os.Bundle)
+            "startActivityIfNeeded"
+    )));
+
+    // Defines the methods of FragmentTransaction showing a fragment, see InstrumentFragmentAction
+    static final Set<String> FRAGMENT_TRANSACTION_METHODS = new HashSet<>(Arrays.asList(
+            "add",
+            "replace"
+    ));
+    // A file without this word does not use fragments, thus its "add" and "replace" calls are not transactions
+    static final String FRAGMENT_WORD = "Fragment";
+    // A file without these words does not create the arguments of a fragment
+    private static final String[] BUNDLE_WORDS = new String[]{"Bundle", "bundleOf"};
+    // The id of a view declared in the resources, e.g. R.id.container or android.R.id.content
+    private static final Pattern RESOURCE_ID_PATTERN = Pattern.compile("(\\w+\\.)*R\\.id\\.\\w+");
+
+    // The activities are recognized by the name of their superclass, e.g. AppCompatActivity or BaseActivity
+    static final String ACTIVITY_WORD = "Activity";
+
+    static final String NAPPA_CLASS = "Nappa";
+    static final String NAPPA_LIFECYCLE_OBSERVER_CLASS = "NappaLifecycleObserver";
+    static final String OKHTTP_CLIENT_CLASS = "OkHttpClient";
+
+    private final Map<String, List<InstrumentSite>> sites = new HashMap<>();
+    private final boolean mentionsOkHttpClient;
+    private final boolean mentionsFragment;
+    private final boolean mentionsBundle;
+
+    // Names of the variables declared with the type OkHttpClient and with any other type
+    private final Set<String> okHttpClientVariables = new HashSet<>();
+    private final Set<String> otherVariables = new HashSet<>();
+
+    // Assignments that might create a OkHttpClient, verified once all variables are known
+    private final List<PsiAssignmentExpression> assignments = new ArrayList<>();
+
+    private InstrumentSiteCollector(boolean mentionsOkHttpClient, boolean mentionsFragment, boolean mentionsBundle) {
+        this.mentionsOkHttpClient = mentionsOkHttpClient;
+        this.mentionsFragment = mentionsFragment;
+        this.mentionsBundle = mentionsBundle;
+    }
+
+    /**
+     * @param javaFile The Java file to index
+     * @param text     The content of the file
+     * @return The sites found in the file, grouped by the name of their kind
+     */
+    static @NotNull
+    Map<String, List<InstrumentSite>> collect(@NotNull PsiJavaFile javaFile, @NotNull CharSequence text) {
+        boolean mentionsFragment = StringUtil.contains(text, FRAGMENT_WORD);
+        InstrumentSiteCollector collector = new InstrumentSiteCollector(StringUtil.contains(text, OKHTTP_CLIENT_CLASS),
+                mentionsFragment, mentionsFragment && mentionsBundle(text));
+        javaFile.accept(collector);
+        collector.collectAssignments();
+        return InstrumentSiteIndex.sortSites(collector.sites);
+    }
+
+    @Override
+    public void visitNewExpression(PsiNewExpression expression) {
+        super.visitNewExpression(expression);
+        PsiJavaCodeReferenceElement reference = expression.getClassReference();
+        if (reference == null) return;
+
+        String name = reference.getReferenceName();
+        if (OKHTTP_CLIENT_CLASS.equals(name))
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.OKHTTP_CLIENT, expression, isArgumentOfNappaCall(expression, "getOkHttp"));
+        else if ("Builder".equals(name) && isQualifiedBy(reference, "Retrofit"))
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.RETROFIT_BUILDER, expression, chainCallsMethod(expression, "client"));
+        else if (NAPPA_LIFECYCLE_OBSERVER_CLASS.equals(name))
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.NAPPA_PROBE, expression, true);
+    }
+
+    @Override
+    public void visitMethodCallExpression(PsiMethodCallExpression expression) {
+        super.visitMethodCallExpression(expression);
+        PsiReferenceExpression methodExpression = expression.getMethodExpression();
+        String name = methodExpression.getReferenceName();
+        if (name == null) return;
+
+        if (isNappaCall(expression, null)) {
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.NAPPA_PROBE, expression, true);
+        } else if (START_ACTIVITY_METHODS.contains(name)) {
+            PsiElement identifier = methodExpression.getReferenceNameElement();
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.START_ACTIVITY,
+                    identifier != null ? identifier : expression, hasNotifyExtrasProbe(expression));
+        } else if (mentionsFragment && isFragmentTransaction(expression, name)) {
+            PsiElement identifier = methodExpression.getReferenceNameElement();
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.FRAGMENT_NAVIGATION,
+                    identifier != null ? identifier : expression, isPrecededByNappaCall(expression, "setCurrentFragment"));
+        } else if (mentionsBundle && "setArguments".equals(name) && expression.getArgumentList().getExpressionCount() == 1) {
+            PsiElement identifier = methodExpression.getReferenceNameElement();
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.FRAGMENT_NAVIGATION,
+                    identifier != null ? identifier : expression, isPrecededByNappaCall(expression, "notifyExtras"));
+        }
+    }
+
+    @Override
+    public void visitMethod(PsiMethod method) {
+        super.visitMethod(method);
+        PsiCodeBlock body = method.getBody();
+        if (body == null || !"onCreate".equals(method.getName())) return;
+
+        PsiIdentifier identifier = method.getNameIdentifier();
+        InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.ON_CREATE, identifier != null ? identifier : method,
+                registersLifecycleObserver(body));
+    }
+
+    /**
+     * Records the activities without a method {@code onCreate}, the lifecycle observer is injected in a new one
+     *
+     * @param aClass {@inheritDoc}
+     */
+    @Override
+    public void visitClass(PsiClass aClass) {
+        super.visitClass(aClass);
+        if (aClass instanceof PsiAnonymousClass || aClass.isInterface() || aClass.hasModifierProperty(PsiModifier.ABSTRACT)) return;
+        if (aClass.findMethodsByName("onCreate", false).length > 0) return;
+        PsiReferenceList extendsList = aClass.getExtendsList();
+        if (extendsList == null || Arrays.stream(extendsList.getReferenceElements())
+                .map(PsiJavaCodeReferenceElement::getReferenceName)
+                .noneMatch(name -> name != null && name.contains(ACTIVITY_WORD))) return;
+
+        PsiIdentifier identifier = aClass.getNameIdentifier();
+        InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.ON_CREATE, identifier != null ? identifier : aClass,
+                registersLifecycleObserver(aClass));
+    }
+
+    @Override
+    public void visitVariable(PsiVariable variable) {
+        super.visitVariable(variable);
+        if (!mentionsOkHttpClient || variable.getName() == null) return;
+
+        PsiTypeElement typeElement = variable.getTypeElement();
+        if (typeElement == null || !isOkHttpClientType(typeElement)) {
+            otherVariables.add(variable.getName());
+            return;
+        }
+
+        okHttpClientVariables.add(variable.getName());
+        PsiExpression initializer = variable.getInitializer();
+        if (initializer != null) addOkHttpClientSite(initializer);
+    }
+
+    @Override
+    public void visitAssignmentExpression(PsiAssignmentExpression expression) {
+        super.visitAssignmentExpression(expression);
+        if (mentionsOkHttpClient) assignments.add(expression);
+    }
+
+    @Override
+    public void visitReturnStatement(PsiReturnStatement statement) {
+        super.visitReturnStatement(statement);
+        PsiExpression returnValue = statement.getReturnValue();
+        if (!mentionsOkHttpClient || returnValue == null) return;
+
+        // The return type of lambda functions is unknown, thus they are always considered
+        PsiElement owner = PsiTreeUtil.getParentOfType(statement, PsiMethod.class, PsiLambdaExpression.class);
+        if (owner instanceof PsiMethod) {
+            PsiTypeElement returnTypeElement = ((PsiMethod) owner).getReturnTypeElement();
+            if (returnTypeElement == null || !isOkHttpClientType(returnTypeElement)) return;
+        }
+        addOkHttpClientSite(returnValue);
+    }
+
+    /**
+     * Records the assignments to a variable declared as {@code OkHttpClient}. The type of a variable declared
+     * in another file is unknown, thus the assignment is also recorded.
+     */
+    private void collectAssignments() {
+        for (PsiAssignmentExpression assignment : assignments) {
+            PsiExpression left = PsiUtil.skipParenthesizedExprDown(assignment.getLExpression());
+            String name = left instanceof PsiReferenceExpression ? ((PsiReferenceExpression) left).getReferenceName() : null;
+            if (name == null || (otherVariables.contains(name) && !okHttpClientVariables.contains(name))) continue;
+
+            PsiExpression right = assignment.getRExpression();
+            if (right != null) addOkHttpClientSite(right);
+        }
+    }
+
+    /**
+     * Records a expression assigned to or returned as a {@code OkHttpClient} if it creates a client
+     *
+     * @param expression The expression defining the client
+     */
+    private void addOkHttpClientSite(@NotNull PsiExpression expression) {
+        PsiExpression value = PsiUtil.skipParenthesizedExprDown(expression);
+        if (value instanceof PsiMethodCallExpression && isNappaCall((PsiMethodCallExpression) value, "getOkHttp")) {
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.OKHTTP_CLIENT, value, true);
+        } else if (value instanceof PsiNewExpression || (value instanceof PsiMethodCallExpression &&
+                "build".equals(((PsiMethodCallExpression) value).getMethodExpression().getReferenceName()))) {
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.OKHTTP_CLIENT, value, false);
+        }
+    }
+
+    /**
+     * Verifies if a type is {@code OkHttpClient}
+     *
+     * @param typeElement The type of a variable or method
+     * @return {@code True} if the type is named {@code OkHttpClient}, {@code False} otherwise
+     */
+    private static boolean isOkHttpClientType(@NotNull PsiTypeElement typeElement) {
+        PsiJavaCodeReferenceElement reference = typeElement.getInnermostComponentReferenceElement();
+        return reference != null && OKHTTP_CLIENT_CLASS.equals(reference.getReferenceName());
+    }
+
+    /**
+     * Verifies if a reference is qualified by a class, e.g. {@code Retrofit.Builder}
+     *
+     * @param reference The reference to verify
+     * @param className The name of the qualifier class
+     * @return {@code True} if the reference is qualified by the class, {@code False} otherwise
+     */
+    private static boolean isQualifiedBy(@NotNull PsiJavaCodeReferenceElement reference, @NotNull String className) {
+        PsiElement qualifier = reference.getQualifier();
+        return qualifier instanceof PsiJavaCodeReferenceElement &&
+                className.equals(((PsiJavaCodeReferenceElement) qualifier).getReferenceName());
+    }
+
+    /**
+     * Verifies if a method is called in the chain of calls following the {@code expression},
+     * e.g. {@code new Retrofit.Builder().baseUrl(url).client(client).build()}
+     *
+     * @param expression The first expression of the chain
+     * @param methodName The name of the method to search for
+     * @return {@code True} if the method is called in the chain, {@code False} otherwise
+     */
+    public static boolean chainCallsMethod(@NotNull PsiExpression expression, @NotNull String methodName) {
+        return chainCallsMethod(expression, methodName::equals);
+    }
+
+    /**
+     * @param expression The first expression of the chain
+     * @param methodName Accepts the names of the methods to search for
+     * @return {@code True} if an accepted method is called in the chain, {@code False} otherwise
+     */
+    private static boolean chainCallsMethod(@NotNull PsiExpression expression, @NotNull Predicate<String> methodName) {
+        PsiElement element = expression;
+        while (element.getParent() instanceof PsiReferenceExpression &&
+                element.getParent().getParent() instanceof PsiMethodCallExpression) {
+            PsiMethodCallExpression call = (PsiMethodCallExpression) element.getParent().getParent();
+            String name = call.getMethodExpression().getReferenceName();
+            if (name != null && methodName.test(name)) return true;
+            element = call;
+        }
+        return false;
+    }
+
+    /**
+     * Verifies if a method call might add or replace a fragment in a container, e.g.
+     * {@code getSupportFragmentManager().beginTransaction().replace(R.id.container, fragment).commit()}.
+     * Methods with the same name in other classes, e.g. {@code String.replace(a, b)} or {@code List.add(i, x)},
+     * are told apart by the container view id sent as first argument or by the transaction around the call.
+     *
+     * @param call The method call to verify
+     * @param name The name of the called method
+     * @return {@code True} if the call might be a fragment transaction, {@code False} otherwise
+     */
+    private static boolean isFragmentTransaction(@NotNull PsiMethodCallExpression call, @NotNull String name) {
+        PsiExpression[] arguments = call.getArgumentList().getExpressions();
+        if (!isFragmentTransactionCall(name, arguments.length)) return false;
+        if (isResourceId(arguments[0].getText()) || chainCallsMethod(call, InstrumentSiteCollector::isCommitMethod))
+            return true;
+
+        PsiExpression receiver = call.getMethodExpression().getQualifierExpression();
+        while (receiver instanceof PsiMethodCallExpression) {
+            PsiReferenceExpression methodExpression = ((PsiMethodCallExpression) receiver).getMethodExpression();
+            if ("beginTransaction".equals(methodExpression.getReferenceName())) return true;
+            receiver = methodExpression.getQualifierExpression();
+        }
+        return false;
+    }
+
+    /**
+     * Verifies if an element instantiates the NAPPA lifecycle observer, e.g. the {@code onCreate} method
+     * of an activity containing {@code getLifecycle().addObserver(new NappaLifecycleObserver(this))}
+     *
+     * @param element The element to verify, e.g. a class or a method body
+     * @return {@code True} if the element instantiates the lifecycle observer, {@code False} otherwise
+     */
+    public static boolean registersLifecycleObserver(@NotNull PsiElement element) {
+        return PsiTreeUtil.findChildrenOfType(element, PsiNewExpression.class).stream()
+                .map(PsiNewExpression::getClassReference)
+                .anyMatch(reference -> reference != null && NAPPA_LIFECYCLE_OBSERVER_CLASS.equals(reference.getReferenceName()));
+    }
+
+    /**
+     * Verifies if a method call is a call to the NAPPA library, e.g. {@code Nappa.notifyExtras(...)}
+     *
+     * @param call       The method call to verify
+     * @param methodName The name of the NAPPA method or {@code null} to accept any method
+     * @return {@code True} if it is a call to the NAPPA method, {@code False} otherwise
+     */
+    public static boolean isNappaCall(@NotNull PsiMethodCallExpression call, @Nullable String methodName) {
+        PsiReferenceExpression methodExpression = call.getMethodExpression();
+        PsiExpression qualifier = methodExpression.getQualifierExpression();
+        return qualifier instanceof PsiReferenceExpression &&
+                NAPPA_CLASS.equals(((PsiReferenceExpression) qualifier).getReferenceName()) &&
+                (methodName == null || methodName.equals(methodExpression.getReferenceName()));
+    }
+
+    /**
+     * Verifies if an expression is sent as a argument to a method of the NAPPA library
+     *
+     * @param expression The expression to verify
+     * @param methodName The name of the NAPPA method
+     * @return {@code True} if the expression is an argument of the NAPPA method, {@code False} otherwise
+     */
+    private static boolean isArgumentOfNappaCall(@NotNull PsiExpression expression, @NotNull String methodName) {
+        PsiElement argumentList = PsiUtil.skipParenthesizedExprUp(expression).getParent();
+        return argumentList instanceof PsiExpressionList &&
+                argumentList.getParent() instanceof PsiMethodCallExpression &&
+                isNappaCall((PsiMethodCallExpression) argumentList.getParent(), methodName);
+    }
+
+    /**
+     * Verifies if a method call might add or replace a fragment. Calls to {@code add(containerViewId, fragment)} and
+     * {@code replace(containerViewId, fragment)}, with an optional tag, have two or three arguments.
+     *
+     * @param name          The name of the called method
+     * @param argumentCount The number of arguments of the call
+     * @return {@code True} if the call might be a fragment transaction, {@code False} otherwise
+     */
+    static boolean isFragmentTransactionCall(@NotNull String name, int argumentCount) {
+        return FRAGMENT_TRANSACTION_METHODS.contains(name) && (argumentCount == 2 || argumentCount == 3);
+    }
+
+    /**
+     * @param text The source code of an expression
+     * @return {@code True} if the expression is the id of a view declared in the resources, e.g. {@code R.id.container}
+     */
+    static boolean isResourceId(@NotNull String text) {
+        return RESOURCE_ID_PATTERN.matcher(text).matches();
+    }
+
+    /**
+     * @param name The name of a method
+     * @return {@code True} if the method commits a fragment transaction, e.g. {@code commitAllowingStateLoss}
+     */
+    static boolean isCommitMethod(@NotNull String name) {
+        return name.startsWith("commit");
+    }
+
+    /**
+     * @param text The content of a file
+     * @return {@code True} if the file might create the arguments of a fragment, {@code False} otherwise
+     */
+    static boolean mentionsBundle(@NotNull CharSequence text) {
+        return Arrays.stream(BUNDLE_WORDS).anyMatch(word -> StringUtil.contains(text, word));
+    }
+
+    /**
+     * Verifies if a {@code startActivity} method call is preceded by a {@code Nappa.notifyExtras(...)} probe.
+     * A method call declared in an inline statement is never considered probed, since the action replaces
+     * inline statements with a code block when instrumenting them.
+     *
+     * @param call The {@code startActivity} method call
+     * @return {@code True} if the previous statement is a probe, {@code False} otherwise
+     */
+    public static boolean hasNotifyExtrasProbe(@NotNull PsiMethodCallExpression call) {
+        return isPrecededByNappaCall(call, "notifyExtras");
+    }
+
+    /**
+     * Verifies if the statement of a method call is preceded by a call to the NAPPA library, e.g.
+     * {@code Nappa.setCurrentFragment(...)}. A method call declared in an inline statement is never considered
+     * probed, see {@link #hasNotifyExtrasProbe}.
+     *
+     * @param call       The method call
+     * @param methodName The name of the NAPPA method
+     * @return {@code True} if the previous statement is a call to the NAPPA method, {@code False} otherwise
+     */
+    public static boolean isPrecededByNappaCall(@NotNull PsiMethodCallExpression call, @NotNull String methodName) {
+        PsiStatement statement = PsiTreeUtil.getParentOfType(call, PsiStatement.class);
+        if (statement == null || !(statement.getParent() instanceof PsiCodeBlock)) return false;
+        if (PsiTreeUtil.getParentOfType(call, PsiLambdaExpression.class, true, PsiStatement.class) != null)
+            return false;
+
+        PsiStatement previousStatement = PsiTreeUtil.getPrevSiblingOfType(statement, PsiStatement.class);
+        if (!(previousStatement instanceof PsiExpressionStatement)) return false;
+        PsiExpression expression = ((PsiExpressionStatement) previousStatement).getExpression();
+        return expression instanceof PsiMethodCallExpression && isNappaCall((PsiMethodCallExpression) expression, methodName);
+    }
+}
@@ -0,0 +1,315 @@
+package nl.vu.cs.s2group.nappa.plugin.index;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiTreeUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.lexer.KtTokens;
+import org.jetbrains.kotlin.psi.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Collects the instrumentable sites of a Kotlin file for the {@link InstrumentSiteIndex}.
+ * <p>
+ * References cannot be resolved while indexing, thus the sites are identified by their syntax.
+ * See {@link InstrumentSiteCollector} for the Java counterpart.
+ */
+public class InstrumentSiteCollectorKt extends KtTreeVisitorVoid {
+    private final Map<String, List<InstrumentSite>> sites = new HashMap<>();
+    private final boolean mentionsFragment;
+    private final boolean mentionsBundle;
+
+    private InstrumentSiteCollectorKt(boolean mentionsFragment, boolean mentionsBundle) {
+        this.mentionsFragment = mentionsFragment;
+        this.mentionsBundle = mentionsBundle;
+    }
+
+    /**
+     * @param ktFile The Kotlin file to index
+     * @param text   The content of the file
+     * @return The sites found in the file, grouped by the name of their kind
+     */
+    static @NotNull
+    Map<String, List<InstrumentSite>> collect(@NotNull KtFile ktFile, @NotNull CharSequence text) {
+        boolean mentionsFragment = StringUtil.contains(text, InstrumentSiteCollector.FRAGMENT_WORD);
+        InstrumentSiteCollectorKt collector = new InstrumentSiteCollectorKt(mentionsFragment,
+                mentionsFragment && InstrumentSiteCollector.mentionsBundle(text));
+        ktFile.accept(collector);
+        return InstrumentSiteIndex.sortSites(collector.sites);
+    }
+
+    @Override
+    public void visitCallExpression(@NotNull KtCallExpression expression) {
+        super.visitCallExpression(expression);
+        String name = getCalleeName(expression);
+        if (name == null) return;
+
+        if (isNappaCall(expression, null) || InstrumentSiteCollector.NAPPA_LIFECYCLE_OBSERVER_CLASS.equals(name))
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.NAPPA_PROBE, expression, true);
+        else if (InstrumentSiteCollector.START_ACTIVITY_METHODS.contains(name))
+            //noinspection ConstantConditions -- The callee has a name, thus it is not null
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.START_ACTIVITY, expression.getCalleeExpression(), hasNotifyExtrasProbe(expression));
+        else if (InstrumentSiteCollector.OKHTTP_CLIENT_CLASS.equals(name))
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.OKHTTP_CLIENT, expression, isArgumentOfNappaCall(expression, "getOkHttp"));
+        else if ("Builder".equals(name) && isQualifiedBy(expression, "Retrofit"))
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.RETROFIT_BUILDER, expression, chainCallsMethod(expression, "client"));
+        else if (mentionsFragment && isFragmentTransaction(expression, name))
+            //noinspection ConstantConditions -- The callee has a name, thus it is not null
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.FRAGMENT_NAVIGATION, expression.getCalleeExpression(),
+                    isPrecededByNappaCall(expression, "setCurrentFragment"));
+        else if (mentionsBundle && "setArguments".equals(name) && expression.getValueArguments().size() == 1)
+            //noinspection ConstantConditions -- The callee has a name, thus it is not null
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.FRAGMENT_NAVIGATION, expression.getCalleeExpression(),
+                    isPrecededByNappaCall(expression, "notifyExtras"));
+    }
+
+    @Override
+    public void visitBinaryExpression(@NotNull KtBinaryExpression expression) {
+        super.visitBinaryExpression(expression);
+        // The arguments of a fragment are usually set as a property, e.g. "fragment.arguments = bundle"
+        if (!mentionsBundle || expression.getOperationToken() != KtTokens.EQ) return;
+        KtExpression left = expression.getLeft();
+        if (left instanceof KtDotQualifiedExpression) left = ((KtDotQualifiedExpression) left).getSelectorExpression();
+        if (left instanceof KtNameReferenceExpression && "arguments".equals(((KtNameReferenceExpression) left).getReferencedName()) &&
+                isBundleValue(expression.getRight()))
+            InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.FRAGMENT_NAVIGATION, expression, isPrecededByNappaCall(expression, "notifyExtras"));
+    }
+
+    /**
+     * Verifies if a call might add or replace a fragment in a container, see
+     * {@link InstrumentSiteCollector#isFragmentTransactionCall}. The calls with type arguments, e.g.
+     * {@code replace<DetailFragment>(R.id.container)}, create the fragment themselves, thus they are not sites.
+     *
+     * @param call The call to verify
+     * @param name The name of the called function
+     * @return {@code True} if the call might be a fragment transaction, {@code False} otherwise
+     */
+    private static boolean isFragmentTransaction(@NotNull KtCallExpression call, @NotNull String name) {
+        List<KtValueArgument> arguments = call.getValueArguments();
+        if (!InstrumentSiteCollector.isFragmentTransactionCall(name, arguments.size()) || !call.getTypeArguments().isEmpty())
+            return false;
+        KtExpression container = arguments.get(0).getArgumentExpression();
+        if (container != null && InstrumentSiteCollector.isResourceId(container.getText())) return true;
+        if (chainCallsMethod(call, InstrumentSiteCollector::isCommitMethod)) return true;
+
+        KtDotQualifiedExpression qualifiedExpression = getQualifiedParent(call);
+        KtExpression receiver = qualifiedExpression == null ? null : qualifiedExpression.getReceiverExpression();
+        while (receiver instanceof KtDotQualifiedExpression) {
+            KtExpression selector = ((KtDotQualifiedExpression) receiver).getSelectorExpression();
+            if (selector instanceof KtCallExpression && "beginTransaction".equals(getCalleeName((KtCallExpression) selector)))
+                return true;
+            receiver = ((KtDotQualifiedExpression) receiver).getReceiverExpression();
+        }
+        return receiver instanceof KtCallExpression && "beginTransaction".equals(getCalleeName((KtCallExpression) receiver));
+    }
+
+    /**
+     * Verifies if the value assigned to a property named {@code arguments} might be a {@code Bundle}, i.e. a
+     * variable or a call, e.g. {@code bundleOf(...)} or {@code Bundle().apply { ... }}, rather than a literal
+     *
+     * @param value The assigned value
+     * @return {@code True} if the value might be a bundle, {@code False} otherwise
+     */
+    private static boolean isBundleValue(@Nullable KtExpression value) {
+        KtExpression expression = value == null ? null : KtPsiUtil.safeDeparenthesize(value);
+        // The receiver of a chain creates the value, e.g. Bundle().apply { ... }
+        while (expression instanceof KtDotQualifiedExpression)
+            expression = ((KtDotQualifiedExpression) expression).getReceiverExpression();
+        if (expression instanceof KtNameReferenceExpression) return true;
+        if (!(expression instanceof KtCallExpression)) return false;
+
+        // The collection builders, e.g. listOf(...), do not create a bundle
+        String name = getCalleeName((KtCallExpression) expression);
+        return name != null && (!name.endsWith("Of") || "bundleOf".equals(name));
+    }
+
+    @Override
+    public void visitNamedFunction(@NotNull KtNamedFunction function) {
+        super.visitNamedFunction(function);
+        KtExpression body = function.getBodyExpression();
+        if (body == null || !"onCreate".equals(function.getName())) return;
+
+        PsiElement identifier = function.getNameIdentifier();
+        InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.ON_CREATE, identifier != null ? identifier : function,
+                registersLifecycleObserver(body));
+    }
+
+    /**
+     * Records the activities without a function {@code onCreate}, as {@link InstrumentSiteCollector#visitClass} does
+     *
+     * @param klass {@inheritDoc}
+     */
+    @Override
+    public void visitClass(@NotNull KtClass klass) {
+        super.visitClass(klass);
+        if (klass.isInterface() || klass.hasModifier(KtTokens.ABSTRACT_KEYWORD)) return;
+        if (klass.getSuperTypeListEntries().stream()
+                .noneMatch(entry -> StringUtil.contains(entry.getText(), InstrumentSiteCollector.ACTIVITY_WORD))) return;
+        KtClassBody body = klass.getBody();
+        if (body != null && body.getFunctions().stream().anyMatch(function -> "onCreate".equals(function.getName()))) return;
+
+        PsiElement identifier = klass.getNameIdentifier();
+        InstrumentSiteIndex.addSite(sites, InstrumentSiteKind.ON_CREATE, identifier != null ? identifier : klass,
+                registersLifecycleObserver(klass));
+    }
+
+    /**
+     * Verifies if an element instantiates the NAPPA lifecycle observer, as
+     * {@link InstrumentSiteCollector#registersLifecycleObserver} does for Java elements
+     *
+     * @param element The element to verify, e.g. a class or a function body
+     * @return {@code True} if the element instantiates the lifecycle observer, {@code False} otherwise
+     */
+    public static boolean registersLifecycleObserver(@NotNull PsiElement element) {
+        return PsiTreeUtil.findChildrenOfType(element, KtCallExpression.class).stream()
+                .anyMatch(call -> InstrumentSiteCollector.NAPPA_LIFECYCLE_OBSERVER_CLASS.equals(getCalleeName(call)));
+    }
+
+    /**
+     * @param call A call expression
+     * @return The name of the called function or class, or {@code null} if it is not a simple name
+     */
+    private static @Nullable
+    String getCalleeName(@NotNull KtCallExpression call) {
+        KtExpression callee = call.getCalleeExpression();
+        return callee instanceof KtNameReferenceExpression ? ((KtNameReferenceExpression) callee).getReferencedName() : null;
+    }
+
+    /**
+     * @param call A call expression
+     * @return The qualified expression in which the call is the selector, or {@code null} if the call is not qualified
+     */
+    private static @Nullable
+    KtDotQualifiedExpression getQualifiedParent(@NotNull KtExpression call) {
+        PsiElement parent = call.getParent();
+        if (!(parent instanceof KtDotQualifiedExpression)) return null;
+        KtDotQualifiedExpression qualifiedExpression = (KtDotQualifiedExpression) parent;
+        return qualifiedExpression.getSelectorExpression() == call ? qualifiedExpression : null;
+    }
+
+    /**
+     * Verifies if a call is qualified by a class, e.g. {@code Retrofit.Builder()}
+     *
+     * @param call      The call to verify
+     * @param className The name of the qualifier class
+     * @return {@code True} if the call is qualified by the class, {@code False} otherwise
+     */
+    private static boolean isQualifiedBy(@NotNull KtCallExpression call, @NotNull String className) {
+        KtDotQualifiedExpression qualifiedExpression = getQualifiedParent(call);
+        if (qualifiedExpression == null) return false;
+
+        KtExpression receiver = qualifiedExpression.getReceiverExpression();
+        if (receiver instanceof KtDotQualifiedExpression)
+            receiver = ((KtDotQualifiedExpression) receiver).getSelectorExpression();
+        return receiver instanceof KtNameReferenceExpression &&
+                className.equals(((KtNameReferenceExpression) receiver).getReferencedName());
+    }
+
+    /**
+     * Verifies if a method is called in the chain of calls following the {@code call},
+     * e.g. {@code Retrofit.Builder().baseUrl(url).client(client).build()}
+     *
+     * @param call       The first call of the chain
+     * @param methodName The name of the method to search for
+     * @return {@code True} if the method is called in the chain, {@code False} otherwise
+     */
+    public static boolean chainCallsMethod(@NotNull KtCallExpression call, @NotNull String methodName) {
+        return chainCallsMethod(call, methodName::equals);
+    }
+
+    /**
+     * @param call       The first call of the chain
+     * @param methodName Accepts the names of the functions to search for
+     * @return {@code True} if an accepted function is called in the chain, {@code False} otherwise
+     */
+    private static boolean chainCallsMethod(@NotNull KtCallExpression call, @NotNull Predicate<String> methodName) {
+        KtExpression element = call;
+        KtDotQualifiedExpression qualifiedExpression = getQualifiedParent(call);
+        if (qualifiedExpression != null) element = qualifiedExpression;
+
+        while (element.getParent() instanceof KtDotQualifiedExpression) {
+            KtDotQualifiedExpression parent = (KtDotQualifiedExpression) element.getParent();
+            if (parent.getReceiverExpression() != element) return false;
+
+            KtExpression selector = parent.getSelectorExpression();
+            String name = selector instanceof KtCallExpression ? getCalleeName((KtCallExpression) selector) : null;
+            if (name != null && methodName.test(name)) return true;
+            element = parent;
+        }
+        return false;
+    }
+
+    /**
+     * Verifies if a call is a call to the NAPPA library, e.g. {@code Nappa.notifyExtras(...)}
+     *
+     * @param call       The call to verify
+     * @param methodName The name of the NAPPA method or {@code null} to accept any method
+     * @return {@code True} if it is a call to the NAPPA method, {@code False} otherwise
+     */
+    public static boolean isNappaCall(@NotNull KtCallExpression call, @Nullable String methodName) {
+        KtDotQualifiedExpression qualifiedExpression = getQualifiedParent(call);
+        if (qualifiedExpression == null) return false;
+
+        KtExpression receiver = qualifiedExpression.getReceiverExpression();
+        return receiver instanceof KtNameReferenceExpression &&
+                InstrumentSiteCollector.NAPPA_CLASS.equals(((KtNameReferenceExpression) receiver).getReferencedName()) &&
+                (methodName == null || methodName.equals(getCalleeName(call)));
+    }
+
+    /**
+     * Verifies if a call is sent as a argument to a method of the NAPPA library
+     *
+     * @param call       The call to verify
+     * @param methodName The name of the NAPPA method
+     * @return {@code True} if the call is an argument of the NAPPA method, {@code False} otherwise
+     */
+    private static boolean isArgumentOfNappaCall(@NotNull KtCallExpression call, @NotNull String methodName) {
+        KtExpression argument = call;
+        KtDotQualifiedExpression qualifiedExpression = getQualifiedParent(call);
+        if (qualifiedExpression != null) argument = qualifiedExpression;
+
+        PsiElement valueArgument = argument.getParent();
+        if (!(valueArgument instanceof KtValueArgument) || !(valueArgument.getParent() instanceof KtValueArgumentList))
+            return false;
+        PsiElement nappaCall = valueArgument.getParent().getParent();
+        return nappaCall instanceof KtCallExpression && isNappaCall((KtCallExpression) nappaCall, methodName);
+    }
+
+    /**
+     * Verifies if a {@code startActivity} call is preceded by a {@code Nappa.notifyExtras(...)} probe
+     *
+     * @param call The {@code startActivity} call
+     * @return {@code True} if the previous statement is a probe, {@code False} otherwise
+     */
+    public static boolean hasNotifyExtrasProbe(@NotNull KtCallExpression call) {
+        return isPrecededByNappaCall(call, "notifyExtras");
+    }
+
+    /**
+     * Verifies if the statement of an expression is preceded by a call to the NAPPA library, e.g.
+     * {@code Nappa.setCurrentFragment(...)}
+     *
+     * @param expression A call or an assignment
+     * @param methodName The name of the NAPPA method
+     * @return {@code True} if the previous statement is a call to the NAPPA method, {@code False} otherwise
+     */
+    public static boolean isPrecededByNappaCall(@NotNull KtExpression expression, @NotNull String methodName) {
+        PsiElement statement = expression;
+        while (!(statement.getParent() instanceof KtBlockExpression)) {
+            statement = statement.getParent();
+            if (statement == null || statement instanceof KtDeclarationWithBody || statement instanceof PsiFile)
+                return false;
+        }
+
+        KtExpression previousStatement = PsiTreeUtil.getPrevSiblingOfType(statement, KtExpression.class);
+        if (!(previousStatement instanceof KtDotQualifiedExpression)) return false;
+        KtExpression selector = ((KtDotQualifiedExpression) previousStatement).getSelectorExpression();
+        return selector instanceof KtCallExpression && isNappaCall((KtCallExpression) selector, methodName);
+    }
+}
@@ -0,0 +1,258 @@
+package nl.vu.cs.s2group.nappa.plugin.index;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.idea.KotlinFileType;
+import org.jetbrains.kotlin.psi.KtFile;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A persistent index of the instrumentable sites of the Java and Kotlin files. The index maps the name of a
+ * {@link InstrumentSiteKind} to the sites of this kind found in a file, and records if each site already has a
+ * NAPPA probe.
+ * <p>
+ * The index is maintained incrementally by IntelliJ and survives restarts. Thus, the actions only scan the files
+ * with sites that are not instrumented yet, and only the statements containing these sites. The sites are
+ * identified by syntax alone since references cannot be resolved while indexing, thus the actions must still
+ * verify each site.
+ */
+public class InstrumentSiteIndex extends FileBasedIndexExtension<String, List<InstrumentSite>> {
+    public static final ID<String, List<InstrumentSite>> NAME = ID.create("nl.vu.cs.s2group.nappa.plugin.InstrumentSiteIndex");
+
+    // Increment when changing the indexed data, so IntelliJ rebuilds the index
+    private static final int VERSION = 5;
+
+    // A file without any of these words does not contain any site, thus its PSI is not built
+    private static final String[] SITE_WORDS = new String[]{
+            "OkHttpClient",
+            "Retrofit",
+            // Also found in the startActivity calls
+            "Activity",
+            "onCreate",
+            "Fragment",
+            "Nappa",
+    };
+
+    @Override
+    public @NotNull ID<String, List<InstrumentSite>> getName() {
+        return NAME;
+    }
+
+    @Override
+    public @NotNull DataIndexer<String, List<InstrumentSite>, FileContent> getIndexer() {
+        return inputData -> {
+            CharSequence text = inputData.getContentAsText();
+            if (!containsSiteWord(text)) return Collections.emptyMap();
+
+            PsiFile psiFile = inputData.getPsiFile();
+            if (psiFile instanceof PsiJavaFile) return InstrumentSiteCollector.collect((PsiJavaFile) psiFile, text);
+            if (psiFile instanceof KtFile && !((KtFile) psiFile).isScript())
+                return InstrumentSiteCollectorKt.collect((KtFile) psiFile, text);
+            return Collections.emptyMap();
+        };
+    }
+
+    @Override
+    public @NotNull KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @Override
+    public @NotNull DataExternalizer<List<InstrumentSite>> getValueExternalizer() {
+        return new DataExternalizer<List<InstrumentSite>>() {
+            @Override
+            public void save(@NotNull DataOutput out, List<InstrumentSite> sites) throws IOException {
+                DataInputOutputUtil.writeINT(out, sites.size());
+                for (InstrumentSite site : sites) {
+                    DataInputOutputUtil.writeINT(out, site.getOffset());
+                    out.writeBoolean(site.isProbed());
+                }
+            }
+
+            @Override
+            public List<InstrumentSite> read(@NotNull DataInput in) throws IOException {
+                int size = DataInputOutputUtil.readINT(in);
+                List<InstrumentSite> sites = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    sites.add(new InstrumentSite(DataInputOutputUtil.readINT(in), in.readBoolean()));
+                }
+                return sites;
+            }
+        };
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public @NotNull FileBasedIndex.InputFilter getInputFilter() {
+        return new DefaultFileTypeSpecificInputFilter(JavaFileType.INSTANCE, KotlinFileType.INSTANCE);
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    /**
+     * Search the index for the files in the {@code scope} containing at least one site of the {@code kind}
+     * which is not instrumented yet. Only the index is consulted, thus the content of the files is not loaded.
+     *
+     * @param scope The scope restricting the files to search
+     * @param kind  The kind of the sites to search for
+     * @return A set of files with sites to instrument
+     */
+    public static @NotNull
+    Set<VirtualFile> getFilesWithPendingSites(@NotNull GlobalSearchScope scope, @NotNull InstrumentSiteKind kind) {
+        Set<VirtualFile> files = new LinkedHashSet<>();
+        FileBasedIndex.getInstance().processValues(NAME, kind.name(), null, (file, sites) -> {
+            if (sites.stream().anyMatch(site -> !site.isProbed())) files.add(file);
+            return true;
+        }, scope);
+        return files;
+    }
+
+    /**
+     * Search the index for the sites of the {@code kind} in the {@code file} which are not instrumented yet
+     *
+     * @param project An object representing an IntelliJ project.
+     * @param file    The file to search
+     * @param kind    The kind of the sites to search for
+     * @return The sites to instrument ordered by offset
+     */
+    public static @NotNull
+    List<InstrumentSite> getPendingSites(@NotNull Project project, @NotNull VirtualFile file, @NotNull InstrumentSiteKind kind) {
+        List<InstrumentSite> pendingSites = new ArrayList<>();
+        FileBasedIndex.getInstance().processValues(NAME, kind.name(), file, (indexedFile, sites) -> {
+            for (InstrumentSite site : sites) {
+                if (!site.isProbed()) pendingSites.add(site);
+            }
+            return true;
+        }, GlobalSearchScope.fileScope(project, file));
+        return pendingSites;
+    }
+
+    /**
+     * Verifies if a file may have sites which are not instrumented yet, without building its PSI. The text of the
+     * file is searched for the words of the sites, then the pending flags of the index are consulted. The index is
+     * not consulted while it is being built or if the file has unsaved changes, which it may not reflect yet.
+     *
+     * @param psiFile A Java or Kotlin source file
+     * @return {@code False} if the file has no site to instrument, {@code True} if its sites must be collected
+     */
+    public static boolean mayHavePendingSites(@NotNull PsiFile psiFile) {
+        if (!containsSiteWord(psiFile.getViewProvider().getContents())) return false;
+        Project project = psiFile.getProject();
+        VirtualFile file = psiFile.getVirtualFile();
+        if (file == null || DumbService.isDumb(project) || FileDocumentManager.getInstance().isFileModified(file))
+            return true;
+        return Arrays.stream(InstrumentSiteKind.values()).anyMatch(kind -> !getPendingSites(project, file, kind).isEmpty());
+    }
+
+    /**
+     * @param text The content of a file
+     * @return {@code True} if the text contains a word of the sites, see {@link #SITE_WORDS}
+     */
+    private static boolean containsSiteWord(@NotNull CharSequence text) {
+        return Arrays.stream(SITE_WORDS).anyMatch(word -> StringUtil.contains(text, word));
+    }
+
+    /**
+     * Collect the sites of a file which are not instrumented yet from its PSI, instead of the index. Thus, the sites
+     * reflect the changes not saved or indexed yet, which is required while the file is edited.
+     *
+     * @param psiFile A Java or Kotlin source file
+     * @return The sites to instrument ordered by offset, grouped by kind
+     */
+    public static @NotNull
+    Map<InstrumentSiteKind, List<InstrumentSite>> collectPendingSites(@NotNull PsiFile psiFile) {
+        Map<String, List<InstrumentSite>> sites;
+        if (psiFile instanceof PsiJavaFile)
+            sites = InstrumentSiteCollector.collect((PsiJavaFile) psiFile, psiFile.getViewProvider().getContents());
+        else if (psiFile instanceof KtFile && !((KtFile) psiFile).isScript())
+            sites = InstrumentSiteCollectorKt.collect((KtFile) psiFile, psiFile.getViewProvider().getContents());
+        else
+            return Collections.emptyMap();
+
+        Map<InstrumentSiteKind, List<InstrumentSite>> pendingSites = new EnumMap<>(InstrumentSiteKind.class);
+        sites.forEach((kind, kindSites) -> {
+            List<InstrumentSite> kindPendingSites = new ArrayList<>();
+            for (InstrumentSite site : kindSites) {
+                if (!site.isProbed()) kindPendingSites.add(site);
+            }
+            if (!kindPendingSites.isEmpty()) pendingSites.put(InstrumentSiteKind.valueOf(kind), kindPendingSites);
+        });
+        return pendingSites;
+    }
+
+    /**
+     * Verifies if the {@code element} contains at least one of the {@code sites}
+     *
+     * @param element A Psi element of the file the sites were found in
+     * @param sites   The sites of the file, see {@link #getPendingSites}
+     * @return {@code True} if a site is located inside the {@code element}, {@code False} otherwise
+     */
+    public static boolean containsAnySite(@NotNull PsiElement element, @NotNull List<InstrumentSite> sites) {
+        TextRange range = element.getTextRange();
+        return range != null && sites.stream().anyMatch(site -> range.containsOffset(site.getOffset()));
+    }
+
+    /**
+     * Records a site found while indexing a file. A site found twice is recorded once, and it is considered
+     * probed if any of the occurrences is probed.
+     *
+     * @param sites   The sites found in the indexed file, grouped by the name of their kind
+     * @param kind    The kind of the site
+     * @param element The Psi element where the site starts
+     * @param probed  {@code True} if the site already has a NAPPA probe
+     */
+    static void addSite(@NotNull Map<String, List<InstrumentSite>> sites,
+                        @NotNull InstrumentSiteKind kind,
+                        @NotNull PsiElement element,
+                        boolean probed) {
+        int offset = element.getTextRange().getStartOffset();
+        List<InstrumentSite> kindSites = sites.computeIfAbsent(kind.name(), key -> new ArrayList<>());
+        for (int i = 0; i < kindSites.size(); i++) {
+            InstrumentSite site = kindSites.get(i);
+            if (site.getOffset() != offset) continue;
+            if (probed && !site.isProbed()) kindSites.set(i, new InstrumentSite(offset, true));
+            return;
+        }
+        kindSites.add(new InstrumentSite(offset, probed));
+    }
+
+    /**
+     * Orders the sites of each kind by offset
+     *
+     * @param sites The sites found in the indexed file, grouped by the name of their kind
+     * @return The {@code sites} map
+     */
+    static @NotNull
+    Map<String, List<InstrumentSite>> sortSites(@NotNull Map<String, List<InstrumentSite>> sites) {
+        for (List<InstrumentSite> kindSites : sites.values()) {
+            kindSites.sort(Comparator.comparingInt(InstrumentSite::getOffset));
+        }
+        return sites;
+    }
+}
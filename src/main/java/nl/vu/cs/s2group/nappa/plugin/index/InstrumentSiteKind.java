@@ -0,0 +1,41 @@
+package nl.vu.cs.s2group.nappa.plugin.index;
+
+/**
+ * The kinds of instrumentable sites recorded by the {@link InstrumentSiteIndex}
+ */
+public enum InstrumentSiteKind {
+    /**
+     * A creation of a {@code OkHttpClient}, either via its constructor or a builder.
+     * It is probed when wrapped in {@code Nappa.getOkHttp(...)}.
+     */
+    OKHTTP_CLIENT,
+
+    /**
+     * A {@code Retrofit.Builder} chain. It is probed when the chain defines a {@code client(...)}.
+     */
+    RETROFIT_BUILDER,
+
+    /**
+     * A call to {@code startActivity} or one of its variants. It is probed when the previous
+     * statement is a {@code Nappa.notifyExtras(...)} call.
+     */
+    START_ACTIVITY,
+
+    /**
+     * A lifecycle {@code onCreate} method, or an activity without it. It is probed when it registers a
+     * {@code NappaLifecycleObserver}.
+     */
+    ON_CREATE,
+
+    /**
+     * A fragment transaction adding or replacing a fragment in a container, or the arguments set to a fragment.
+     * It is probed when the previous statement is a {@code Nappa.setCurrentFragment(...)} or a
+     * {@code Nappa.notifyExtras(...)} call, respectively.
+     */
+    FRAGMENT_NAVIGATION,
+
+    /**
+     * A call to the NAPPA library, e.g. {@code Nappa.notifyExtras(...)}. These sites are always probed.
+     */
+    NAPPA_PROBE
+}
@@ -0,0 +1,142 @@
+package nl.vu.cs.s2group.nappa.plugin.inspection;
+
+import com.intellij.codeInspection.InspectionManager;
+import com.intellij.codeInspection.LocalInspectionTool;
+import com.intellij.codeInspection.LocalQuickFix;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.codeInspection.ProblemHighlightType;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiClassOwner;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import nl.vu.cs.s2group.nappa.plugin.action.InstrumentActivityAction;
+import nl.vu.cs.s2group.nappa.plugin.action.InstrumentFragmentAction;
+import nl.vu.cs.s2group.nappa.plugin.action.InstrumentIntentExtrasAction;
+import nl.vu.cs.s2group.nappa.plugin.action.InstrumentOkHttpAction;
+import nl.vu.cs.s2group.nappa.plugin.action.InstrumentRetrofitAction;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSite;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteIndex;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUastScanner;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.uast.UCallExpression;
+import org.jetbrains.uast.UDeclaration;
+import org.jetbrains.uast.UElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Highlights the sites of a Java or Kotlin file which are missing their NAPPA probe, while the file is edited:
+ * the {@code OkHttpClient} constructions, the {@code Retrofit.Builder} chains, the {@code startActivity} calls, the
+ * fragment transactions and arguments (if the project enables them), and the {@code onCreate} methods of the
+ * activities, or the activities themselves when they do not declare one. Each highlight has a quick fix
+ * instrumenting the site, see {@link InstrumentSiteQuickFix}.
+ * <p>
+ * The inspection is registered once per language, for the Java and the Kotlin files, and only checks the file being
+ * highlighted. The files without pending sites in the {@link InstrumentSiteIndex} are skipped. The sites of the
+ * other files are collected from their PSI, with the same collectors as the index, thus the sites reflect the
+ * unsaved changes and the sites already probed are discarded. The remaining sites are then matched by the
+ * instrumentation actions, which resolve their types, and highlighted. Their instrumentation is only planned by the
+ * quick fix.
+ */
+public class InstrumentInspection extends LocalInspectionTool {
+
+    /**
+     * Creates the matchers of all site kinds, in the order the instrumentations run
+     *
+     * @param project An object representing an IntelliJ project.
+     * @return The matchers, set up for the {@code project}
+     */
+    static @NotNull
+    List<InstrumentUastScanner.SiteMatcher> createMatchers(@NotNull Project project) {
+        List<InstrumentUastScanner.SiteMatcher> matchers = new ArrayList<>(Arrays.asList(InstrumentActivityAction.setUp(project),
+                InstrumentIntentExtrasAction.setUp(project), InstrumentOkHttpAction.setUp(project), InstrumentRetrofitAction.setUp(project)));
+        if (InstrumentFragmentAction.isEnabled(project)) matchers.add(InstrumentFragmentAction.setUp(project));
+        return matchers;
+    }
+
+    /**
+     * @param kind The kind of a site
+     * @return The description of a site of this kind missing its probe
+     */
+    static @NotNull
+    String getProblemDescription(@NotNull InstrumentSiteKind kind) {
+        switch (kind) {
+            case ON_CREATE:
+                return "Activity does not register the NAPPA lifecycle observer";
+            case START_ACTIVITY:
+                return "Intent extras are not sent to NAPPA before starting the activity";
+            case FRAGMENT_NAVIGATION:
+                return "Fragment navigation is not sent to NAPPA";
+            case OKHTTP_CLIENT:
+                return "OkHttpClient does not use the NAPPA interceptor";
+            case RETROFIT_BUILDER:
+                return "Retrofit client does not use the NAPPA OkHttp client";
+            default:
+                return "Site is missing its NAPPA probe";
+        }
+    }
+
+    /**
+     * Find the sites of the file missing their probe
+     *
+     * @param file       {@inheritDoc}
+     * @param manager    {@inheritDoc}
+     * @param isOnTheFly {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public @Nullable
+    ProblemDescriptor[] checkFile(@NotNull PsiFile file, @NotNull InspectionManager manager, boolean isOnTheFly) {
+        if (!(file instanceof PsiJavaFile) && !(file instanceof KtFile)) return null;
+        if (InstrumentUtil.isNappaLibraryPackage(((PsiClassOwner) file).getPackageName())) return null;
+        // Most files have no pending site, they are discarded before their sites are collected and resolved
+        if (!InstrumentSiteIndex.mayHavePendingSites(file)) return null;
+
+        Map<InstrumentSiteKind, List<InstrumentSite>> pendingSites = InstrumentSiteIndex.collectPendingSites(file);
+        if (pendingSites.isEmpty()) return null;
+
+        List<InstrumentUastScanner.SiteMatcher> matchers = new ArrayList<>();
+        List<List<InstrumentSite>> sites = new ArrayList<>();
+        for (InstrumentUastScanner.SiteMatcher matcher : createMatchers(file.getProject())) {
+            if (!matcher.getFileTypes().contains(file.getFileType())) continue;
+            matchers.add(matcher);
+            sites.add(pendingSites.getOrDefault(matcher.getKind(), Collections.emptyList()));
+        }
+
+        List<ProblemDescriptor> problems = new ArrayList<>();
+        // The sites are only matched, thus the records of the result message are discarded
+        InstrumentResultMessage resultMessage = new InstrumentResultMessage();
+        InstrumentUastScanner.visitFile(file, sites, matchers, resultMessage, (matcher, site) -> {
+            PsiElement anchor = getAnchor(site);
+            if (anchor == null || anchor.getTextLength() == 0) return;
+            problems.add(manager.createProblemDescriptor(anchor, getProblemDescription(matcher.getKind()), isOnTheFly,
+                    new LocalQuickFix[]{new InstrumentSiteQuickFix(matcher.getKind())},
+                    ProblemHighlightType.GENERIC_ERROR_OR_WARNING));
+        });
+        return problems.isEmpty() ? null : problems.toArray(ProblemDescriptor.EMPTY_ARRAY);
+    }
+
+    /**
+     * @param site A site matched by an action
+     * @return The element to highlight, i.e. the name of the called method or of the declaration, or the whole
+     * site if it has no name
+     */
+    private static @Nullable
+    PsiElement getAnchor(@NotNull UElement site) {
+        UElement anchor = null;
+        if (site instanceof UCallExpression) anchor = ((UCallExpression) site).getMethodIdentifier();
+        else if (site instanceof UDeclaration) anchor = ((UDeclaration) site).getUastAnchor();
+        PsiElement anchorPsi = anchor == null ? null : anchor.getSourcePsi();
+        return anchorPsi != null ? anchorPsi : site.getSourcePsi();
+    }
+}
@@ -0,0 +1,110 @@
+package nl.vu.cs.s2group.nappa.plugin.inspection;
+
+import com.intellij.codeInspection.LocalQuickFix;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentPlan;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentUastScanner;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.uast.UElement;
+import org.jetbrains.uast.UastContextKt;
+
+/**
+ * Instruments a site highlighted by the {@link InstrumentInspection}, with the same code as the instrumentation
+ * action of the site. Only the highlighted site is instrumented, thus the fix is undone in a single step.
+ */
+public class InstrumentSiteQuickFix implements LocalQuickFix {
+    private static final String FAMILY_NAME = "Instrument with NAPPA";
+    private final InstrumentSiteKind kind;
+
+    /**
+     * @param kind The kind of the highlighted site
+     */
+    public InstrumentSiteQuickFix(@NotNull InstrumentSiteKind kind) {
+        this.kind = kind;
+    }
+
+    @Override
+    public @NotNull
+    String getName() {
+        switch (kind) {
+            case ON_CREATE:
+                return "Register the NAPPA lifecycle observer";
+            case START_ACTIVITY:
+                return "Send the intent extras to NAPPA";
+            case FRAGMENT_NAVIGATION:
+                return "Send the fragment navigation to NAPPA";
+            case OKHTTP_CLIENT:
+                return "Add the NAPPA interceptor";
+            case RETROFIT_BUILDER:
+                return "Use the NAPPA OkHttp client";
+            default:
+                return FAMILY_NAME;
+        }
+    }
+
+    @Override
+    public @NotNull
+    String getFamilyName() {
+        return FAMILY_NAME;
+    }
+
+    /**
+     * The plan writes the edits in its own write command, see {@link InstrumentPlan#apply}
+     *
+     * @return {@code False}
+     */
+    @Override
+    public boolean startInWriteAction() {
+        return false;
+    }
+
+    /**
+     * Plans the instrumentation of the highlighted site and applies it. The site is found again from the
+     * highlighted element, as the file may have changed since it was highlighted.
+     *
+     * @param project    {@inheritDoc}
+     * @param descriptor {@inheritDoc}
+     */
+    @Override
+    public void applyFix(@NotNull Project project, @NotNull ProblemDescriptor descriptor) {
+        PsiElement element = descriptor.getPsiElement();
+        if (element == null || !element.isValid()) return;
+
+        InstrumentUastScanner.SiteMatcher matcher = InstrumentInspection.createMatchers(project).stream()
+                .filter(siteMatcher -> siteMatcher.getKind() == kind)
+                .findFirst()
+                .orElse(null);
+        if (matcher == null) return;
+
+        InstrumentResultMessage resultMessage = new InstrumentResultMessage();
+        UElement site = findSite(element, matcher, resultMessage);
+        if (site == null) return;
+
+        InstrumentPlan plan = new InstrumentPlan(project);
+        matcher.instrument(site, plan, resultMessage);
+        if (plan.getEditCount() > 0) plan.apply(getName(), resultMessage);
+    }
+
+    /**
+     * @param element       The highlighted element
+     * @param matcher       The matcher of the highlighted site
+     * @param resultMessage The result message of the fix
+     * @return The nearest site containing the {@code element} or {@code null} if it is not a site anymore
+     */
+    private static @Nullable
+    UElement findSite(@NotNull PsiElement element,
+                      @NotNull InstrumentUastScanner.SiteMatcher matcher,
+                      @NotNull InstrumentResultMessage resultMessage) {
+        for (PsiElement current = element; current != null && !(current instanceof PsiFile); current = current.getParent()) {
+            UElement node = UastContextKt.toUElement(current);
+            if (node != null && matcher.matches(node, resultMessage)) return node;
+        }
+        return null;
+    }
+}
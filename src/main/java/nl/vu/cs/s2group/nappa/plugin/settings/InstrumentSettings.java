@@ -0,0 +1,190 @@
+package nl.vu.cs.s2group.nappa.plugin.settings;
+
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The NAPPA settings of a project, i.e. the prefetching strategy the library is initialized with and its
+ * parameters, and the optional instrumentations. The settings are stored in the project, thus they can be shared
+ * with the team, and are edited in {@code Settings > Tools > NAPPA}, see {@link InstrumentSettingsConfigurable}.
+ * <p>
+ * The initialization injected by {@link nl.vu.cs.s2group.nappa.plugin.action.InstrumentActivityAction} is generated
+ * from these settings, and an existing initialization is updated when they change.
+ */
+@State(name = "NappaInstrumentSettings", storages = @Storage("nappa.xml"))
+public class InstrumentSettings implements PersistentStateComponent<InstrumentSettings.SettingsState> {
+    public static final String DEFAULT_STRATEGY = "STRATEGY_GREEDY_VISIT_FREQUENCY";
+    // The method generated in Java to create the parameters passed to the library
+    public static final String JAVA_PARAMETERS_METHOD_NAME = "nappaParameters";
+    // The strategies of the library offered in the settings page, other strategies can be typed
+    static final String[] KNOWN_STRATEGIES = new String[]{
+            DEFAULT_STRATEGY,
+            "STRATEGY_GREEDY_VISIT_FREQUENCY_AND_TIME",
+            "STRATEGY_TFPR",
+            "STRATEGY_PPM",
+            "STRATEGY_HITS"
+    };
+    private SettingsState state = new SettingsState();
+
+    /**
+     * The serialized settings. The parameters map the name of a {@code PrefetchingStrategyConfigKeys} constant to
+     * the source code of its value, e.g. {@code 0.6} or {@code true}, in the order they are passed to the library.
+     */
+    public static final class SettingsState {
+        public String strategy = DEFAULT_STRATEGY;
+        public Map<String, String> parameters = new LinkedHashMap<>();
+        public boolean fragmentProbes = false;
+        public boolean checkpoints = false;
+    }
+
+    /**
+     * @param project An object representing an IntelliJ project.
+     * @return The NAPPA settings of the project
+     */
+    public static @NotNull
+    InstrumentSettings getInstance(@NotNull Project project) {
+        return ServiceManager.getService(project, InstrumentSettings.class);
+    }
+
+    @Override
+    public @NotNull
+    SettingsState getState() {
+        return state;
+    }
+
+    @Override
+    public void loadState(@NotNull SettingsState state) {
+        this.state = state;
+    }
+
+    /**
+     * @return The name of the {@code PrefetchingStrategyType} constant of the strategy
+     */
+    public @NotNull
+    String getStrategy() {
+        return state.strategy == null || state.strategy.isEmpty() ? DEFAULT_STRATEGY : state.strategy;
+    }
+
+    /**
+     * @return The parameters of the strategy, see {@link SettingsState}
+     */
+    public @NotNull
+    Map<String, String> getParameters() {
+        return state.parameters == null ? new LinkedHashMap<>() : new LinkedHashMap<>(state.parameters);
+    }
+
+    /**
+     * @param strategy   The name of the {@code PrefetchingStrategyType} constant of the strategy
+     * @param parameters The parameters of the strategy, see {@link SettingsState}
+     */
+    public void setStrategy(@NotNull String strategy, @NotNull Map<String, String> parameters) {
+        state.strategy = strategy;
+        state.parameters = new LinkedHashMap<>(parameters);
+    }
+
+    /**
+     * The fragment probes call {@code Nappa.setCurrentFragment}, which the released versions of the library do not
+     * provide yet, thus they are only injected if the project opts in, see
+     * {@link nl.vu.cs.s2group.nappa.plugin.action.InstrumentFragmentAction}.
+     *
+     * @return {@code True} if the fragment navigation is instrumented, {@code False} otherwise
+     */
+    public boolean isFragmentProbesEnabled() {
+        return state.fragmentProbes;
+    }
+
+    /**
+     * @param enabled {@code True} to instrument the fragment navigation, see {@link #isFragmentProbesEnabled()}
+     */
+    public void setFragmentProbesEnabled(boolean enabled) {
+        state.fragmentProbes = enabled;
+    }
+
+    /**
+     * A run applies its edits in a single command, thus it is undone in a single step and a cancelled run does not
+     * modify any file. With checkpoints, long runs apply their edits every few hundred files instead, thus a
+     * cancelled or crashed run resumes from the last checkpoint, but each checkpoint is a separate undo step and
+     * the checkpoints applied before a cancellation are kept, see
+     * {@link nl.vu.cs.s2group.nappa.plugin.util.InstrumentScanner}.
+     *
+     * @return {@code True} if long runs are applied in checkpoints, {@code False} otherwise
+     */
+    public boolean isCheckpointsEnabled() {
+        return state.checkpoints;
+    }
+
+    /**
+     * @param enabled {@code True} to apply long runs in checkpoints, see {@link #isCheckpointsEnabled()}
+     */
+    public void setCheckpointsEnabled(boolean enabled) {
+        state.checkpoints = enabled;
+    }
+
+    /**
+     * Generate the initialization of the library in Java. The parameters are created by the method of
+     * {@link #getJavaParametersMethod()}, which is generated in the same class, e.g.
+     * {@code Nappa.init(this, PrefetchingStrategyType.STRATEGY_TFPR, nappaParameters())}
+     *
+     * @return The source code of the {@code Nappa.init} call, without the semicolon
+     */
+    public @NotNull
+    String getJavaInitCall() {
+        String strategyArgument = "PrefetchingStrategyType." + getStrategy();
+        if (getParameters().isEmpty()) return "Nappa.init(this, " + strategyArgument + ")";
+        return "Nappa.init(this, " + strategyArgument + ", " + JAVA_PARAMETERS_METHOD_NAME + "())";
+    }
+
+    /**
+     * Generate the method creating the parameters of the Java initialization. The map is filled statement by
+     * statement since the apps may target Java versions without {@code Map.of}, e.g.
+     *
+     * <pre>{@code
+     * private static java.util.Map<PrefetchingStrategyConfigKeys, Object> nappaParameters() {
+     *     java.util.Map<PrefetchingStrategyConfigKeys, Object> parameters = new java.util.HashMap<>();
+     *     parameters.put(PrefetchingStrategyConfigKeys.LOWER_THRESHOLD_SCORE, 0.6);
+     *     return parameters;
+     * }
+     * }</pre>
+     *
+     * @return The source code of the method, or {@code null} if the strategy has no parameters
+     */
+    public @Nullable
+    String getJavaParametersMethod() {
+        Map<String, String> parameters = getParameters();
+        if (parameters.isEmpty()) return null;
+        return "private static java.util.Map<PrefetchingStrategyConfigKeys, Object> " + JAVA_PARAMETERS_METHOD_NAME + "() {\n" +
+                "    java.util.Map<PrefetchingStrategyConfigKeys, Object> parameters = new java.util.HashMap<>();\n" +
+                parameters.entrySet().stream()
+                        .map(parameter -> "    parameters.put(PrefetchingStrategyConfigKeys." + parameter.getKey() + ", " + parameter.getValue() + ");\n")
+                        .collect(Collectors.joining()) +
+                "    return parameters;\n" +
+                "}";
+    }
+
+    /**
+     * Generate the initialization of the library in Kotlin, e.g.
+     * {@code Nappa.init(this, PrefetchingStrategyType.STRATEGY_TFPR, mapOf(PrefetchingStrategyConfigKeys.LOWER_THRESHOLD_SCORE to 0.6))}
+     *
+     * @return The source code of the {@code Nappa.init} call
+     */
+    public @NotNull
+    String getKotlinInitCall() {
+        Map<String, String> parameters = getParameters();
+        String strategyArgument = "PrefetchingStrategyType." + getStrategy();
+        if (parameters.isEmpty()) return "Nappa.init(this, " + strategyArgument + ")";
+        return "Nappa.init(this, " + strategyArgument + ", mapOf(" +
+                parameters.entrySet().stream()
+                        .map(parameter -> "PrefetchingStrategyConfigKeys." + parameter.getKey() + " to " + parameter.getValue())
+                        .collect(Collectors.joining(", ")) +
+                "))";
+    }
+}
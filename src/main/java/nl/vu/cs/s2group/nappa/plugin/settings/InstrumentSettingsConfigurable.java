@@ -0,0 +1,145 @@
+package nl.vu.cs.s2group.nappa.plugin.settings;
+
+import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.options.SearchableConfigurable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.ComboBox;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.components.JBTextArea;
+import com.intellij.util.ui.FormBuilder;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The settings page of the prefetching strategy, in {@code Settings > Tools > NAPPA}. The parameters are edited
+ * as text, one {@code KEY = value} pair per line, where {@code KEY} is a {@code PrefetchingStrategyConfigKeys}
+ * constant and {@code value} is the source code of its value. The page also enables the optional fragment probes
+ * and the checkpoints of long instrumentations.
+ */
+public class InstrumentSettingsConfigurable implements SearchableConfigurable {
+    private final Project project;
+    private ComboBox<String> strategyComboBox;
+    private JBTextArea parametersTextArea;
+    private JBCheckBox fragmentProbesCheckBox;
+    private JBCheckBox checkpointsCheckBox;
+
+    public InstrumentSettingsConfigurable(@NotNull Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public @NotNull
+    String getId() {
+        return "nl.vu.cs.s2group.nappa.plugin.settings";
+    }
+
+    @Override
+    public @Nls
+    String getDisplayName() {
+        return "NAPPA";
+    }
+
+    @Override
+    public @Nullable
+    JComponent createComponent() {
+        strategyComboBox = new ComboBox<>(InstrumentSettings.KNOWN_STRATEGIES);
+        strategyComboBox.setEditable(true);
+        parametersTextArea = new JBTextArea(6, 40);
+        JBLabel parametersHint = new JBLabel("One KEY = value per line, e.g. LOWER_THRESHOLD_SCORE = 0.6", UIUtil.ComponentStyle.SMALL);
+        JBLabel updateHint = new JBLabel("Run Instrument Activity again to update an existing Nappa.init call.", UIUtil.ComponentStyle.SMALL);
+        fragmentProbesCheckBox = new JBCheckBox("Instrument fragment navigation");
+        JBLabel fragmentProbesHint = new JBLabel("Requires a NAPPA library providing Nappa.setCurrentFragment.", UIUtil.ComponentStyle.SMALL);
+        checkpointsCheckBox = new JBCheckBox("Apply long instrumentations in checkpoints");
+        JBLabel checkpointsHint = new JBLabel("A cancelled run keeps its checkpoints and each checkpoint is undone separately.", UIUtil.ComponentStyle.SMALL);
+
+        return FormBuilder.createFormBuilder()
+                .addLabeledComponent("Prefetching strategy:", strategyComboBox)
+                .addLabeledComponent("Strategy parameters:", new JBScrollPane(parametersTextArea), true)
+                .addComponentToRightColumn(parametersHint)
+                .addComponent(updateHint)
+                .addComponent(fragmentProbesCheckBox)
+                .addComponent(fragmentProbesHint)
+                .addComponent(checkpointsCheckBox)
+                .addComponent(checkpointsHint)
+                .addComponentFillVertically(new JPanel(), 0)
+                .getPanel();
+    }
+
+    @Override
+    public boolean isModified() {
+        InstrumentSettings settings = InstrumentSettings.getInstance(project);
+        return !getSelectedStrategy().equals(settings.getStrategy()) ||
+                !formatParameters(settings.getParameters()).equals(parametersTextArea.getText().trim()) ||
+                fragmentProbesCheckBox.isSelected() != settings.isFragmentProbesEnabled() ||
+                checkpointsCheckBox.isSelected() != settings.isCheckpointsEnabled();
+    }
+
+    @Override
+    public void apply() throws ConfigurationException {
+        String strategy = getSelectedStrategy();
+        if (!StringUtil.isJavaIdentifier(strategy))
+            throw new ConfigurationException("The strategy must be the name of a PrefetchingStrategyType constant: " + strategy);
+        InstrumentSettings settings = InstrumentSettings.getInstance(project);
+        settings.setStrategy(strategy, parseParameters(parametersTextArea.getText()));
+        settings.setFragmentProbesEnabled(fragmentProbesCheckBox.isSelected());
+        settings.setCheckpointsEnabled(checkpointsCheckBox.isSelected());
+    }
+
+    @Override
+    public void reset() {
+        InstrumentSettings settings = InstrumentSettings.getInstance(project);
+        strategyComboBox.setSelectedItem(settings.getStrategy());
+        parametersTextArea.setText(formatParameters(settings.getParameters()));
+        fragmentProbesCheckBox.setSelected(settings.isFragmentProbesEnabled());
+        checkpointsCheckBox.setSelected(settings.isCheckpointsEnabled());
+    }
+
+    @Override
+    public void disposeUIResources() {
+        strategyComboBox = null;
+        parametersTextArea = null;
+        fragmentProbesCheckBox = null;
+        checkpointsCheckBox = null;
+    }
+
+    private @NotNull
+    String getSelectedStrategy() {
+        Object item = strategyComboBox.isEditable() ? strategyComboBox.getEditor().getItem() : strategyComboBox.getSelectedItem();
+        return item == null ? "" : item.toString().trim();
+    }
+
+    /**
+     * @param text The parameters, one {@code KEY = value} pair per line
+     * @return The parameters in the order they are written
+     * @throws ConfigurationException If a line is not a valid pair
+     */
+    private static @NotNull
+    Map<String, String> parseParameters(@NotNull String text) throws ConfigurationException {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (String line : StringUtil.splitByLines(text)) {
+            int separatorIndex = line.indexOf('=');
+            String key = separatorIndex < 0 ? "" : line.substring(0, separatorIndex).trim();
+            String value = separatorIndex < 0 ? "" : line.substring(separatorIndex + 1).trim();
+            if (!StringUtil.isJavaIdentifier(key) || value.isEmpty())
+                throw new ConfigurationException("Each parameter must be written as KEY = value: " + line.trim());
+            parameters.put(key, value);
+        }
+        return parameters;
+    }
+
+    private static @NotNull
+    String formatParameters(@NotNull Map<String, String> parameters) {
+        StringBuilder text = new StringBuilder();
+        parameters.forEach((key, value) -> text.append(key).append(" = ").append(value).append('\n'));
+        return text.toString().trim();
+    }
+}
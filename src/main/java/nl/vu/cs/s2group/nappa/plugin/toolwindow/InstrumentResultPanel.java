@@ -0,0 +1,165 @@
+package nl.vu.cs.s2group.nappa.plugin.toolwindow;
+
+import com.intellij.ide.util.EditSourceUtil;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.ui.SimpleToolWindowPanel;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.ui.table.TableView;
+import com.intellij.util.EditSourceOnDoubleClickHandler;
+import com.intellij.util.EditSourceOnEnterKeyHandler;
+import com.intellij.util.ui.ColumnInfo;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.ListTableModel;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage.Record;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Lists the records of an instrumentation in a table, one row per record, while the instrumentation runs.
+ * <p>
+ * The records are received in the scanning threads and queued. The queue is drained in the Event Dispatch Thread
+ * by a single pending update, thus the table is updated in batches instead of once per record. The table only
+ * renders the visible rows, thus a long result does not slow the IDE down. A double-click or Enter on a row
+ * navigates to its site.
+ */
+public class InstrumentResultPanel extends SimpleToolWindowPanel implements Disposable {
+    private final InstrumentResultMessage resultMessage;
+    private final ListTableModel<Record> model;
+    private final TableView<Record> table;
+    private final JBLabel summaryLabel;
+    private final Queue<Record> pendingRecords = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isUpdateScheduled = new AtomicBoolean();
+    private String status = "Running";
+    private volatile boolean isDisposed;
+
+    /**
+     * Creates the panel and starts listening to the records of the {@code resultMessage}
+     *
+     * @param resultMessage The result message filled by the instrumentation
+     */
+    public InstrumentResultPanel(@NotNull InstrumentResultMessage resultMessage) {
+        super(true, true);
+        this.resultMessage = resultMessage;
+        model = new ListTableModel<>(
+                column("Class", record -> StringUtil.notNullize(record.getClassName())),
+                column("Member", record -> StringUtil.notNullize(record.getMember())),
+                column("Details", record -> StringUtil.join(record.getDetails(), " ")),
+                column("Location", Record::getLocation));
+        table = new TableView<>(model);
+        table.setShowGrid(false);
+        EditSourceOnDoubleClickHandler.install(table);
+        EditSourceOnEnterKeyHandler.install(table);
+
+        summaryLabel = new JBLabel();
+        summaryLabel.setBorder(JBUI.Borders.empty(4, 8));
+        setToolbar(summaryLabel);
+        setContent(ScrollPaneFactory.createScrollPane(table));
+        updateSummary();
+
+        resultMessage.setRecordListener(this::addRecord);
+    }
+
+    /**
+     * Shows the last records and the final counters of the instrumentation, and stops listening to its records.
+     * This method must be invoked in the Event Dispatch Thread.
+     *
+     * @param status The outcome of the instrumentation, e.g. {@code Finished}
+     */
+    public void finish(@NotNull String status) {
+        this.status = status;
+        resultMessage.flush();
+        resultMessage.setRecordListener(null);
+        update();
+    }
+
+    @Override
+    public void dispose() {
+        isDisposed = true;
+        resultMessage.setRecordListener(null);
+        pendingRecords.clear();
+    }
+
+    /**
+     * Provides the site of the selected row to navigate to it
+     *
+     * @param dataId {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public @Nullable
+    Object getData(@NotNull @NonNls String dataId) {
+        if (CommonDataKeys.NAVIGATABLE.is(dataId)) {
+            Record record = table.getSelectedObject();
+            SmartPsiElementPointer<PsiElement> target = record == null ? null : record.getTarget();
+            PsiElement element = target == null ? null : target.getElement();
+            return element == null || !element.isValid() ? null : EditSourceUtil.getDescriptor(element);
+        }
+        return super.getData(dataId);
+    }
+
+    /**
+     * Queues a record and schedules an update of the table, unless one is already scheduled.
+     * This method is invoked in the thread appending the record.
+     *
+     * @param record The record to list
+     */
+    private void addRecord(@NotNull Record record) {
+        if (isDisposed) return;
+        pendingRecords.add(record);
+        if (isUpdateScheduled.compareAndSet(false, true))
+            // The update only changes the table, thus it can run while a modal dialog (e.g. the preview) is shown
+            ApplicationManager.getApplication().invokeLater(this::update, ModalityState.any());
+    }
+
+    /**
+     * Moves the queued records to the table and updates the summary
+     */
+    private void update() {
+        isUpdateScheduled.set(false);
+        if (isDisposed) return;
+        List<Record> records = new ArrayList<>();
+        Record record;
+        while ((record = pendingRecords.poll()) != null) {
+            records.add(record);
+        }
+        if (!records.isEmpty()) model.addRows(records);
+        updateSummary();
+    }
+
+    private void updateSummary() {
+        String overview = StringUtil.join(StringUtil.splitByLines(resultMessage.getInstrumentationOverview()), " ");
+        summaryLabel.setText(status + ". " + (overview.isEmpty() ? "No sites found yet." : overview));
+    }
+
+    /**
+     * @param name    The header of the column
+     * @param valueOf The text of the column for a record
+     * @return A column of the table
+     */
+    private static @NotNull
+    ColumnInfo<Record, String> column(@NotNull String name, @NotNull Function<Record, String> valueOf) {
+        return new ColumnInfo<Record, String>(name) {
+            @Override
+            public @Nullable
+            String valueOf(Record record) {
+                return valueOf.apply(record);
+            }
+        };
+    }
+}
@@ -0,0 +1,60 @@
+package nl.vu.cs.s2group.nappa.plugin.toolwindow;
+
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.openapi.wm.ToolWindowManager;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import com.intellij.ui.content.ContentManager;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The NAPPA tool window, listing the results of the instrumentations. Each run is shown in its own tab, see
+ * {@link InstrumentResultPanel}. Only the last {@value #MAX_RUNS} runs are kept, the older tabs are closed.
+ */
+public class InstrumentResultToolWindowFactory implements ToolWindowFactory, DumbAware {
+    public static final String TOOL_WINDOW_ID = "NAPPA";
+    private static final int MAX_RUNS = 5;
+
+    /**
+     * The tabs are added when an instrumentation starts, see {@link #showRun}
+     *
+     * @param project    {@inheritDoc}
+     * @param toolWindow {@inheritDoc}
+     */
+    @Override
+    public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+    }
+
+    /**
+     * Adds a tab listing the records of an instrumentation and shows the tool window. The tab is updated while the
+     * instrumentation runs. This method must be invoked in the Event Dispatch Thread before the instrumentation starts.
+     *
+     * @param project       An object representing an IntelliJ project.
+     * @param title         The title of the tab
+     * @param resultMessage The result message filled by the instrumentation
+     * @return The panel of the tab or {@code null} if the tool window is not available
+     */
+    public static @Nullable
+    InstrumentResultPanel showRun(@NotNull Project project, @NotNull String title, @NotNull InstrumentResultMessage resultMessage) {
+        ToolWindow toolWindow = ToolWindowManager.getInstance(project).getToolWindow(TOOL_WINDOW_ID);
+        if (toolWindow == null) return null;
+
+        ContentManager contentManager = toolWindow.getContentManager();
+        while (contentManager.getContentCount() >= MAX_RUNS) {
+            contentManager.removeContent(contentManager.getContent(0), true);
+        }
+
+        InstrumentResultPanel panel = new InstrumentResultPanel(resultMessage);
+        Content content = ContentFactory.SERVICE.getInstance().createContent(panel, title, false);
+        content.setDisposer(panel);
+        contentManager.addContent(content);
+        contentManager.setSelectedContent(content);
+        toolWindow.show(null);
+        return panel;
+    }
+}
@@ -0,0 +1,206 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the source files processed by the instrumentations of a project, stored in the file
+ * {@value #NAPPA_DIRECTORY}/{@value #LEDGER_FILE_NAME} in the project directory.
+ * <p>
+ * For each kind of instrumentation site, the ledger holds the hash of the content of each processed file once its
+ * edits were applied, and the number of probes placed in it. A file is skipped by the next runs while its content
+ * does not change. The ledger is saved once the edits of a scan are applied, see
+ * {@link InstrumentScanner#scanFilesInParallel}. If the checkpoints are enabled, it is also saved at every checkpoint,
+ * thus a run interrupted by a crash or cancellation resumes from the last checkpoint. Deleting the ledger file makes
+ * the next run scan all files again.
+ */
+public class InstrumentLedger {
+    private static final Logger LOG = Logger.getInstance(InstrumentLedger.class);
+    static final String NAPPA_DIRECTORY = ".nappa";
+    private static final String LEDGER_FILE_NAME = "instrumentation.json";
+
+    // Increment when changing the instrumentations or the ledger format, so the files are processed again
+    private static final int VERSION = 1;
+
+    private final Project project;
+    private final Path ledgerPath;
+    private final Map<String, Map<String, Entry>> entries;
+
+    /**
+     * The state of a file when it was last processed. The fields are read and written by Gson.
+     */
+    private static final class Entry {
+        private final String hash;
+        private final int probes;
+
+        private Entry(@NotNull String hash, int probes) {
+            this.hash = hash;
+            this.probes = probes;
+        }
+    }
+
+    /**
+     * The content of the ledger file. The fields are read and written by Gson.
+     */
+    private static final class LedgerFile {
+        private int version;
+        private Map<String, Map<String, Entry>> files;
+    }
+
+    private InstrumentLedger(@NotNull Project project,
+                             @Nullable Path ledgerPath,
+                             @NotNull Map<String, Map<String, Entry>> entries) {
+        this.project = project;
+        this.ledgerPath = ledgerPath;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the ledger of the project. An empty ledger is returned if the project does not have a ledger yet,
+     * if the ledger cannot be read or if it was written by another version of the plugin.
+     *
+     * @param project An object representing an IntelliJ project.
+     * @return The ledger of the project
+     */
+    public static @NotNull
+    InstrumentLedger load(@NotNull Project project) {
+        String basePath = project.getBasePath();
+        if (basePath == null) return new InstrumentLedger(project, null, new HashMap<>());
+
+        Path ledgerPath = Paths.get(basePath, NAPPA_DIRECTORY, LEDGER_FILE_NAME);
+        Map<String, Map<String, Entry>> entries = new HashMap<>();
+        if (Files.isRegularFile(ledgerPath)) {
+            try {
+                String json = new String(Files.readAllBytes(ledgerPath), StandardCharsets.UTF_8);
+                LedgerFile ledgerFile = new Gson().fromJson(json, LedgerFile.class);
+                if (ledgerFile != null && ledgerFile.version == VERSION && ledgerFile.files != null)
+                    ledgerFile.files.forEach((kind, files) -> entries.put(kind, new HashMap<>(files)));
+            } catch (IOException | JsonParseException e) {
+                LOG.warn("Failed to read the instrumentation ledger " + ledgerPath + ", all files will be processed", e);
+            }
+        }
+        return new InstrumentLedger(project, ledgerPath, entries);
+    }
+
+    /**
+     * Verifies if a file did not change since it was last processed for the {@code kind}.
+     * This method must be invoked under read access.
+     *
+     * @param kind The kind of the sites instrumented in the file
+     * @param file The file to verify
+     * @return {@code True} if the file was processed and did not change, {@code False} otherwise
+     */
+    public boolean isUpToDate(@NotNull InstrumentSiteKind kind, @NotNull VirtualFile file) {
+        String path = getRelativePath(file);
+        if (path == null) return false;
+
+        Entry entry;
+        synchronized (entries) {
+            Map<String, Entry> files = entries.get(kind.name());
+            entry = files == null ? null : files.get(path);
+        }
+        return entry != null && entry.hash.equals(hashContent(file));
+    }
+
+    /**
+     * Records the current content of a file processed for the {@code kind}. This method must be invoked under
+     * read access and after the edits of the file were applied.
+     *
+     * @param kind   The kind of the sites instrumented in the file
+     * @param file   The processed file
+     * @param probes The number of probes placed in the file
+     */
+    public void record(@NotNull InstrumentSiteKind kind, @NotNull VirtualFile file, int probes) {
+        String path = getRelativePath(file);
+        if (path == null || !file.isValid()) return;
+
+        Entry entry = new Entry(hashContent(file), probes);
+        synchronized (entries) {
+            entries.computeIfAbsent(kind.name(), key -> new HashMap<>()).put(path, entry);
+        }
+    }
+
+    /**
+     * Writes the ledger to the project directory. The ledger file is replaced atomically, thus a crash while
+     * saving does not corrupt the previous checkpoint. A failure to save is logged and does not interrupt
+     * the instrumentation.
+     */
+    public void save() {
+        if (ledgerPath == null) return;
+
+        LedgerFile ledgerFile = new LedgerFile();
+        ledgerFile.version = VERSION;
+        ledgerFile.files = new TreeMap<>();
+        synchronized (entries) {
+            entries.forEach((kind, files) -> ledgerFile.files.put(kind, new TreeMap<>(files)));
+        }
+        String json = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(ledgerFile);
+
+        try {
+            Files.createDirectories(ledgerPath.getParent());
+            Path tempPath = ledgerPath.resolveSibling(LEDGER_FILE_NAME + ".tmp");
+            Files.write(tempPath, json.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tempPath, ledgerPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, ledgerPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to save the instrumentation ledger " + ledgerPath, e);
+        }
+    }
+
+    /**
+     * @param file A file of the project
+     * @return The path of the file relative to the project directory, or {@code null} if it is outside the project
+     */
+    private @Nullable
+    String getRelativePath(@NotNull VirtualFile file) {
+        VirtualFile baseDir = ProjectUtil.guessProjectDir(project);
+        return baseDir == null ? null : VfsUtilCore.getRelativePath(file, baseDir, '/');
+    }
+
+    /**
+     * Hash the content of a file. The content of the open document is used, thus unsaved changes are considered.
+     *
+     * @param file The file to hash
+     * @return The SHA-256 hash of the file content in hexadecimal
+     */
+    private static @NotNull
+    String hashContent(@NotNull VirtualFile file) {
+        Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+        CharSequence text = document != null ? document.getImmutableCharSequence() : LoadTextUtil.loadText(file);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return StringUtil.toHexString(digest.digest(text.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.FilenameIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * A model of the applications and activities declared in the {@code AndroidManifest.xml} files of a project.
+ * <p>
+ * The activities are identified by their fully qualified name. The relative names (e.g. {@code .MainActivity})
+ * are resolved against the package of the manifest. The manifests of the source sets of a module (e.g.
+ * {@code src/main}, {@code src/debug} and the product flavors) are merged, as the Android build does: the package
+ * is declared in one of them, an activity declared in more than one manifest is listed once, and the activities
+ * marked with {@code tools:node="remove"} are removed. The main launcher activity is the activity, or the target
+ * of an {@code activity-alias}, with an intent filter for the action {@code MAIN} and the category {@code LAUNCHER}.
+ * The {@code Application} subclass of a module is declared by the {@code android:name} attribute of the
+ * {@code application} tag, in any of the merged manifests.
+ * <p>
+ * The model is cached in the project and only parsed again when a manifest changes, when a file is created,
+ * moved or deleted, or when the project structure changes.
+ */
+public final class InstrumentManifest {
+    private static final Key<CachedValue<ManifestModel>> MODEL_KEY = Key.create("nl.vu.cs.s2group.nappa.plugin.InstrumentManifest");
+    private static final String MANIFEST_FILE_NAME = "AndroidManifest.xml";
+    private static final String ANDROID_NAMESPACE = "http://schemas.android.com/apk/res/android";
+    private static final String TOOLS_NAMESPACE = "http://schemas.android.com/tools";
+    private static final String MAIN_ACTION = "android.intent.action.MAIN";
+    private static final String LAUNCHER_CATEGORY = "android.intent.category.LAUNCHER";
+
+    private InstrumentManifest() {
+        throw new IllegalStateException("InstrumentManifest is a utility class and should be instantiated!");
+    }
+
+    /**
+     * An activity declared in a manifest
+     */
+    public static final class Activity {
+        private final String qualifiedName;
+        private final boolean isMainLauncher;
+        private final Module module;
+
+        private Activity(@NotNull String qualifiedName, boolean isMainLauncher, @Nullable Module module) {
+            this.qualifiedName = qualifiedName;
+            this.isMainLauncher = isMainLauncher;
+            this.module = module;
+        }
+
+        /**
+         * @return The fully qualified name of the activity class
+         */
+        public @NotNull
+        String getQualifiedName() {
+            return qualifiedName;
+        }
+
+        /**
+         * @return {@code True} if this is the main launcher activity or {@code False} otherwise
+         */
+        public boolean isMainLauncher() {
+            return isMainLauncher;
+        }
+
+        /**
+         * @return The module of the manifest declaring the activity, or {@code null} if it is not in a module
+         */
+        public @Nullable
+        Module getModule() {
+            return module;
+        }
+    }
+
+    /**
+     * The application of a module, declared by the {@code application} tag of its merged manifests
+     */
+    public static final class Application {
+        private final String qualifiedName;
+        private final String packageName;
+        private final Module module;
+        private final Activity launcherActivity;
+        private final VirtualFile manifestFile;
+
+        private Application(@Nullable String qualifiedName, @Nullable String packageName, @Nullable Module module,
+                            @Nullable Activity launcherActivity, @NotNull VirtualFile manifestFile) {
+            this.qualifiedName = qualifiedName;
+            this.packageName = packageName;
+            this.module = module;
+            this.launcherActivity = launcherActivity;
+            this.manifestFile = manifestFile;
+        }
+
+        /**
+         * @return The fully qualified name of the {@code Application} subclass, or {@code null} if the manifests
+         * do not declare one
+         */
+        public @Nullable
+        String getQualifiedName() {
+            return qualifiedName;
+        }
+
+        /**
+         * @return The package declared by the manifests, or {@code null} if none declares it
+         */
+        public @Nullable
+        String getPackageName() {
+            return packageName;
+        }
+
+        /**
+         * @return The module of the manifests, or {@code null} if they are not in a module
+         */
+        public @Nullable
+        Module getModule() {
+            return module;
+        }
+
+        /**
+         * @return The main launcher activity of the application, or {@code null} if it is not an app (e.g. a library)
+         */
+        public @Nullable
+        Activity getLauncherActivity() {
+            return launcherActivity;
+        }
+
+        /**
+         * @return The manifest to register an {@code Application} subclass in, i.e. the manifest of the
+         * {@code main} source set if there is one
+         */
+        public @NotNull
+        VirtualFile getManifestFile() {
+            return manifestFile;
+        }
+    }
+
+    /**
+     * The applications and activities parsed from the manifests of a project
+     */
+    private static final class ManifestModel {
+        private final List<Application> applications;
+        private final List<Activity> activities;
+
+        private ManifestModel(@NotNull List<Application> applications, @NotNull List<Activity> activities) {
+            this.applications = Collections.unmodifiableList(applications);
+            this.activities = Collections.unmodifiableList(activities);
+        }
+    }
+
+    /**
+     * The application and activities declared by the manifests of a module, in the order they are merged
+     */
+    private static final class MergedManifest {
+        private String packageName;
+        private Module module;
+        private String applicationName;
+        private VirtualFile manifestFile;
+        private final Map<String, Boolean> activities = new LinkedHashMap<>();
+        private final Set<String> launcherAliasTargets = new HashSet<>();
+        private final Set<String> removedActivities = new HashSet<>();
+    }
+
+    /**
+     * Get the activities declared in all manifests of the project. This method must be invoked under read access
+     * and in smart mode.
+     *
+     * @param project An object representing an IntelliJ project.
+     * @return The activities of the project
+     */
+    public static @NotNull
+    List<Activity> getActivities(@NotNull Project project) {
+        return getModel(project).activities;
+    }
+
+    /**
+     * Get the applications declared in all manifests of the project, one per module. This method must be invoked
+     * under read access and in smart mode.
+     *
+     * @param project An object representing an IntelliJ project.
+     * @return The applications of the project
+     */
+    public static @NotNull
+    List<Application> getApplications(@NotNull Project project) {
+        return getModel(project).applications;
+    }
+
+    private static @NotNull
+    ManifestModel getModel(@NotNull Project project) {
+        return CachedValuesManager.getManager(project).getCachedValue(project, MODEL_KEY, () -> {
+            PsiFile[] manifestFiles = FilenameIndex.getFilesByName(project, MANIFEST_FILE_NAME, GlobalSearchScope.projectScope(project));
+            List<Object> dependencies = new ArrayList<>(Arrays.asList(manifestFiles));
+            dependencies.add(VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS);
+            dependencies.add(ProjectRootManager.getInstance(project));
+            return CachedValueProvider.Result.create(parseManifests(manifestFiles), dependencies.toArray());
+        }, false);
+    }
+
+    /**
+     * Find the class of an activity by its fully qualified name. The class is searched in the module declaring
+     * the activity and its dependencies, and then in the whole project. For a Kotlin activity, the light class
+     * representing it in Java is returned, see {@link PsiClass#getNavigationElement()} to get the Kotlin class.
+     * This method must be invoked under read access and in smart mode.
+     *
+     * @param project  An object representing an IntelliJ project.
+     * @param activity The activity to find
+     * @return The class of the activity or {@code null} if it is not found in the project sources
+     */
+    public static @Nullable
+    PsiClass findActivityClass(@NotNull Project project, @NotNull Activity activity) {
+        return findClass(project, activity.getQualifiedName(), activity.getModule());
+    }
+
+    /**
+     * Find the {@code Application} subclass of an application, as {@link #findActivityClass} does for activities
+     *
+     * @param project     An object representing an IntelliJ project.
+     * @param application The application declaring the class
+     * @return The class or {@code null} if the application does not declare one or it is not in the project sources
+     */
+    public static @Nullable
+    PsiClass findApplicationClass(@NotNull Project project, @NotNull Application application) {
+        String qualifiedName = application.getQualifiedName();
+        return qualifiedName == null ? null : findClass(project, qualifiedName, application.getModule());
+    }
+
+    private static @Nullable
+    PsiClass findClass(@NotNull Project project, @NotNull String qualifiedName, @Nullable Module module) {
+        JavaPsiFacade facade = JavaPsiFacade.getInstance(project);
+        GlobalSearchScope projectScope = GlobalSearchScope.projectScope(project);
+        if (module != null && !module.isDisposed()) {
+            PsiClass psiClass = facade.findClass(qualifiedName,
+                    GlobalSearchScope.moduleWithDependenciesScope(module).intersectWith(projectScope));
+            if (psiClass != null) return psiClass;
+        }
+        return facade.findClass(qualifiedName, projectScope);
+    }
+
+    /**
+     * @param manifestFiles All manifest files of the project
+     * @return The applications and activities declared in the manifest files, merged by module
+     */
+    private static @NotNull
+    ManifestModel parseManifests(@NotNull PsiFile[] manifestFiles) {
+        Map<VirtualFile, MergedManifest> mergedManifests = new LinkedHashMap<>();
+        for (PsiFile psiFile : manifestFiles) {
+            if (!(psiFile instanceof XmlFile)) continue;
+            XmlTag rootTag = ((XmlFile) psiFile).getRootTag();
+            if (rootTag == null || !"manifest".equals(rootTag.getName())) continue;
+
+            MergedManifest mergedManifest = mergedManifests.computeIfAbsent(getModuleDirectory(psiFile.getVirtualFile()),
+                    directory -> new MergedManifest());
+            String packageName = rootTag.getAttributeValue("package");
+            if (packageName != null && mergedManifest.packageName == null) mergedManifest.packageName = packageName;
+            if (mergedManifest.module == null) mergedManifest.module = ModuleUtilCore.findModuleForFile(psiFile);
+            // The Application subclass is registered in the manifest shared by all variants
+            VirtualFile sourceSetDirectory = psiFile.getVirtualFile().getParent();
+            if (mergedManifest.manifestFile == null || "main".equals(sourceSetDirectory.getName()))
+                mergedManifest.manifestFile = psiFile.getVirtualFile();
+
+            XmlTag applicationTag = rootTag.findFirstSubTag("application");
+            if (applicationTag != null) parseApplication(applicationTag, mergedManifest);
+        }
+
+        List<Application> applications = new ArrayList<>();
+        List<Activity> activities = new ArrayList<>();
+        for (MergedManifest mergedManifest : mergedManifests.values()) {
+            // The names are resolved once the package of the module is known, it might be declared in another manifest
+            Map<String, Boolean> qualifiedActivities = new LinkedHashMap<>();
+            mergedManifest.activities.forEach((name, isMainLauncher) ->
+                    qualifiedActivities.merge(resolveName(name, mergedManifest.packageName), isMainLauncher, Boolean::logicalOr));
+            for (String target : mergedManifest.launcherAliasTargets) {
+                qualifiedActivities.computeIfPresent(resolveName(target, mergedManifest.packageName), (name, isMainLauncher) -> true);
+            }
+            for (String removed : mergedManifest.removedActivities) {
+                qualifiedActivities.remove(resolveName(removed, mergedManifest.packageName));
+            }
+            Activity launcherActivity = null;
+            for (Map.Entry<String, Boolean> qualifiedActivity : qualifiedActivities.entrySet()) {
+                Activity activity = new Activity(qualifiedActivity.getKey(), qualifiedActivity.getValue(), mergedManifest.module);
+                if (launcherActivity == null && activity.isMainLauncher()) launcherActivity = activity;
+                activities.add(activity);
+            }
+
+            String applicationName = mergedManifest.applicationName == null ? null :
+                    resolveName(mergedManifest.applicationName, mergedManifest.packageName);
+            applications.add(new Application(applicationName, mergedManifest.packageName, mergedManifest.module,
+                    launcherActivity, mergedManifest.manifestFile));
+        }
+        return new ManifestModel(applications, activities);
+    }
+
+    /**
+     * Navigate the {@code activity} and {@code activity-alias} tags of the {@code application} tag of a manifest
+     *
+     * @param applicationTag The {@code application} tag of a manifest
+     * @param mergedManifest The merged manifest of the module to add the application and activities to
+     */
+    private static void parseApplication(@NotNull XmlTag applicationTag, @NotNull MergedManifest mergedManifest) {
+        String applicationName = applicationTag.getAttributeValue("name", ANDROID_NAMESPACE);
+        if (applicationName != null && mergedManifest.applicationName == null) mergedManifest.applicationName = applicationName;
+
+        for (XmlTag activityTag : applicationTag.findSubTags("activity")) {
+            String name = activityTag.getAttributeValue("name", ANDROID_NAMESPACE);
+            if (name == null) continue;
+            if ("remove".equals(activityTag.getAttributeValue("node", TOOLS_NAMESPACE))) {
+                mergedManifest.removedActivities.add(name);
+                continue;
+            }
+            mergedManifest.activities.merge(name, isMainLauncher(activityTag), Boolean::logicalOr);
+        }
+
+        // An alias is not a class, but it can make its target activity the main launcher
+        for (XmlTag aliasTag : applicationTag.findSubTags("activity-alias")) {
+            String target = aliasTag.getAttributeValue("targetActivity", ANDROID_NAMESPACE);
+            if (target != null && isMainLauncher(aliasTag)) mergedManifest.launcherAliasTargets.add(target);
+        }
+    }
+
+    /**
+     * @param activityTag An {@code activity} or {@code activity-alias} tag
+     * @return {@code True} if the tag has an intent filter for the main launcher or {@code False} otherwise
+     */
+    private static boolean isMainLauncher(@NotNull XmlTag activityTag) {
+        for (XmlTag intentFilterTag : activityTag.findSubTags("intent-filter")) {
+            boolean isMain = Arrays.stream(intentFilterTag.findSubTags("action"))
+                    .anyMatch(tag -> MAIN_ACTION.equals(tag.getAttributeValue("name", ANDROID_NAMESPACE)));
+            boolean isLauncher = Arrays.stream(intentFilterTag.findSubTags("category"))
+                    .anyMatch(tag -> LAUNCHER_CATEGORY.equals(tag.getAttributeValue("name", ANDROID_NAMESPACE)));
+            if (isMain && isLauncher) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resolve the name of a class declared in a manifest, as the Android build does. A name starting with a dot
+     * (e.g. {@code .MainActivity}) or without any dot (e.g. {@code MainActivity}) is relative to the package.
+     *
+     * @param name        The value of an {@code android:name} attribute
+     * @param packageName The package of the manifest, if declared
+     * @return The fully qualified name of the class
+     */
+    private static @NotNull
+    String resolveName(@NotNull String name, @Nullable String packageName) {
+        if (packageName == null || packageName.isEmpty()) return name.startsWith(".") ? name.substring(1) : name;
+        if (name.startsWith(".")) return packageName + name;
+        if (!name.contains(".")) return packageName + "." + name;
+        return name;
+    }
+
+    /**
+     * Get the directory of the Gradle module of a manifest. The manifests of the source sets are located in
+     * {@code <module>/src/<source set>/AndroidManifest.xml}, while a manifest outside a source set is considered
+     * a module on its own.
+     *
+     * @param manifestFile A manifest file
+     * @return The directory grouping the manifests merged with this manifest
+     */
+    private static @NotNull
+    VirtualFile getModuleDirectory(@NotNull VirtualFile manifestFile) {
+        VirtualFile sourceSetDirectory = manifestFile.getParent();
+        VirtualFile sourceDirectory = sourceSetDirectory.getParent();
+        if (sourceDirectory != null && "src".equals(sourceDirectory.getName()) && sourceDirectory.getParent() != null)
+            return sourceDirectory.getParent();
+        return sourceSetDirectory;
+    }
+}
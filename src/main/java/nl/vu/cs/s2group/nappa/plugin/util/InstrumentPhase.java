@@ -0,0 +1,36 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+/**
+ * The phases of an instrumentation, timed by {@link InstrumentResultMessage#measure}
+ */
+public enum InstrumentPhase {
+    /**
+     * Searching the indexes for the files that may contain sites to instrument
+     */
+    ENUMERATION,
+
+    /**
+     * Skipping the files and statements without sites to instrument
+     */
+    FILTERING,
+
+    /**
+     * Visiting the PSI of the candidate files and registering the edits
+     */
+    VISITING,
+
+    /**
+     * Resolving the types of the visited elements
+     */
+    TYPE_RESOLUTION,
+
+    /**
+     * Applying the edits to the source code
+     */
+    WRITE,
+
+    /**
+     * Adding the library imports to the instrumented files
+     */
+    IMPORTS,
+}
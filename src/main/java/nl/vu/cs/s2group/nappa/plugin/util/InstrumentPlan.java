@@ -0,0 +1,578 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.*;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.lexer.KtTokens;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.psi.KtImportDirective;
+import org.jetbrains.kotlin.psi.KtImportList;
+import org.jetbrains.kotlin.psi.KtPsiUtil;
+import org.jetbrains.kotlin.resolve.ImportPath;
+
+import java.util.*;
+
+import static org.jetbrains.kotlin.psi.KtPsiFactoryKt.KtPsiFactory;
+
+/**
+ * Collects the edits of an instrumentation without modifying the source code.
+ * <p>
+ * The instrumentation runs in two phases. In the plan phase, the actions scan the project under read access
+ * and register the edits in this object. The elements to modify are held through {@link SmartPsiElementPointer}
+ * and the elements to inject are built upfront from templates. In the apply phase, all edits are committed
+ * in a single write command, which results in a single undo step and avoids reparsing the files after each edit.
+ * <p>
+ * If the project enables them, long scans apply the plan at checkpoints (see
+ * {@link InstrumentScanner#scanFilesInParallel}). Each call to {@link #apply} commits the edits registered since the
+ * previous call, thus each checkpoint is a separate undo step.
+ * <p>
+ * In preview mode, the checkpoints do not apply the plan. Instead, the edits of each file can be applied to an
+ * in-memory copy of the file with {@link #previewFile}, which does not modify the source code and only requires
+ * read access, and the files created by the plan are listed by {@link #getNewFiles()}, see {@link InstrumentPreview}.
+ */
+public class InstrumentPlan {
+    private final Project project;
+    private final SmartPointerManager pointerManager;
+    private final List<Edit> edits;
+    // The imports are accumulated per file and added once per file when the plan is applied
+    private final Map<VirtualFile, Set<String>> javaImports;
+    private final Map<VirtualFile, Set<String>> kotlinImports;
+    private final Map<PsiElement, Set<String>> scopeNames;
+    private final List<Runnable> applyCallbacks;
+    private int appliedEdits;
+    private int skippedEdits;
+    private boolean isPreviewMode;
+
+    /**
+     * A single modification of the PSI tree, relative to a target element
+     */
+    private static final class Edit {
+        private final SmartPsiElementPointer<PsiElement> target;
+        private final Operation operation;
+        // The file created in the target directory, if the edit creates a file
+        private final PsiFile newFile;
+
+        private Edit(@NotNull SmartPsiElementPointer<PsiElement> target, @NotNull Operation operation) {
+            this(target, operation, null);
+        }
+
+        private Edit(@NotNull SmartPsiElementPointer<PsiElement> target, @NotNull Operation operation, @Nullable PsiFile newFile) {
+            this.target = target;
+            this.operation = operation;
+            this.newFile = newFile;
+        }
+    }
+
+    /**
+     * Modifies the PSI tree around the target of an edit. Returns {@code false} if the target can no longer be modified.
+     */
+    @FunctionalInterface
+    private interface Operation {
+        boolean apply(@NotNull PsiElement target);
+    }
+
+    /**
+     * @param project An object representing an IntelliJ project.
+     */
+    public InstrumentPlan(@NotNull Project project) {
+        this.project = project;
+        pointerManager = SmartPointerManager.getInstance(project);
+        edits = new ArrayList<>();
+        javaImports = new LinkedHashMap<>();
+        kotlinImports = new LinkedHashMap<>();
+        scopeNames = new HashMap<>();
+        applyCallbacks = new ArrayList<>();
+    }
+
+    /**
+     * @return {@code True} if no edit was registered in this plan or {@code False} otherwise
+     */
+    public boolean isEmpty() {
+        return edits.isEmpty() && javaImports.isEmpty() && kotlinImports.isEmpty();
+    }
+
+    /**
+     * @return The number of edits registered in this plan and not applied yet, imports excluded
+     */
+    public int getEditCount() {
+        return edits.size();
+    }
+
+    /**
+     * @return {@code True} if edits of this plan were already applied to the source code or {@code False} otherwise
+     */
+    public boolean hasAppliedEdits() {
+        return appliedEdits > 0;
+    }
+
+    /**
+     * @return The number of edits of this plan that could not be applied so far, see {@link #apply}
+     */
+    public int getSkippedEditCount() {
+        return skippedEdits;
+    }
+
+    /**
+     * Register a callback invoked in the Event Dispatch Thread once the edits registered so far are applied, e.g. to
+     * record the processed files. The callback is dropped if an edit of the next call to {@link #apply} is skipped,
+     * or if the plan is never applied, e.g. because the instrumentation was cancelled or its preview rejected.
+     *
+     * @param callback The callback to invoke after the next {@link #apply}
+     */
+    public void runAfterApply(@NotNull Runnable callback) {
+        applyCallbacks.add(callback);
+    }
+
+    /**
+     * @return {@code True} if the checkpoints must not apply this plan, see {@link #setPreviewMode}
+     */
+    public boolean isPreviewMode() {
+        return isPreviewMode;
+    }
+
+    /**
+     * In preview mode, the edits are only applied when the user accepts the preview of the instrumentation.
+     * Thus, the checkpoints of long scans do not apply this plan.
+     *
+     * @param isPreviewMode {@code True} to enable the preview mode or {@code False} to disable it
+     */
+    public void setPreviewMode(boolean isPreviewMode) {
+        this.isPreviewMode = isPreviewMode;
+    }
+
+    /**
+     * Append the {@code element} as the last child of the {@code parent}
+     *
+     * @param parent  The element to add the new element to
+     * @param element The element to inject
+     */
+    public void add(@NotNull PsiElement parent, @NotNull PsiElement element) {
+        edits.add(new Edit(pointerManager.createSmartPsiElementPointer(parent), parentElement -> {
+            parentElement.add(element);
+            return true;
+        }));
+    }
+
+    /**
+     * Create the {@code file} in the {@code directory}. Unlike the other edits, the file is not a change to an
+     * existing file, thus it is listed by {@link #getNewFiles()} instead of {@link #getEditedFiles()}.
+     *
+     * @param directory The directory to create the file in
+     * @param file      The file to create, e.g. built with {@link PsiFileFactory}
+     */
+    public void addFile(@NotNull PsiDirectory directory, @NotNull PsiFile file) {
+        edits.add(new Edit(pointerManager.createSmartPsiElementPointer(directory), directoryElement -> {
+            directoryElement.add(file);
+            return true;
+        }, file));
+    }
+
+    /**
+     * Inject the {@code element} right before the {@code anchor}
+     *
+     * @param anchor  The element used as reference in the PSI tree
+     * @param element The element to inject
+     */
+    public void addBefore(@NotNull PsiElement anchor, @NotNull PsiElement element) {
+        addBefore(anchor, element, null);
+    }
+
+    /**
+     * Inject the {@code element} right before the {@code anchor}, placing the {@code separator} between them
+     *
+     * @param anchor    The element used as reference in the PSI tree
+     * @param element   The element to inject
+     * @param separator The element to place between the injected element and the anchor (e.g. a Kotlin new line)
+     */
+    public void addBefore(@NotNull PsiElement anchor, @NotNull PsiElement element, @Nullable PsiElement separator) {
+        edits.add(new Edit(pointerManager.createSmartPsiElementPointer(anchor), anchorElement -> {
+            if (anchorElement.getParent() == null) return false;
+            PsiElement addedElement = anchorElement.getParent().addBefore(element, anchorElement);
+            if (separator != null) addedElement.getParent().addAfter(separator, addedElement);
+            return true;
+        }));
+    }
+
+    /**
+     * Inject the {@code element} right after the {@code anchor}
+     *
+     * @param anchor  The element used as reference in the PSI tree
+     * @param element The element to inject
+     */
+    public void addAfter(@NotNull PsiElement anchor, @NotNull PsiElement element) {
+        addAfter(anchor, element, null);
+    }
+
+    /**
+     * Inject the {@code element} right after the {@code anchor}, placing the {@code separator} between them
+     *
+     * @param anchor    The element used as reference in the PSI tree
+     * @param element   The element to inject
+     * @param separator The element to place between the anchor and the injected element (e.g. a Kotlin new line)
+     */
+    public void addAfter(@NotNull PsiElement anchor, @NotNull PsiElement element, @Nullable PsiElement separator) {
+        edits.add(new Edit(pointerManager.createSmartPsiElementPointer(anchor), anchorElement -> {
+            if (anchorElement.getParent() == null) return false;
+            PsiElement addedElement = anchorElement.getParent().addAfter(element, anchorElement);
+            if (separator != null) addedElement.getParent().addBefore(separator, addedElement);
+            return true;
+        }));
+    }
+
+    /**
+     * Replace the {@code target} with the {@code element}
+     *
+     * @param target  The element to replace
+     * @param element The element to inject
+     */
+    public void replace(@NotNull PsiElement target, @NotNull PsiElement element) {
+        edits.add(new Edit(pointerManager.createSmartPsiElementPointer(target), targetElement -> {
+            targetElement.replace(element);
+            return true;
+        }));
+    }
+
+    /**
+     * Remove the {@code target} from the PSI tree
+     *
+     * @param target The element to remove
+     */
+    public void delete(@NotNull PsiElement target) {
+        edits.add(new Edit(pointerManager.createSmartPsiElementPointer(target), targetElement -> {
+            targetElement.delete();
+            return true;
+        }));
+    }
+
+    /**
+     * Add an on demand import (e.g. {@code import nl.vu.cs.s2group.nappa.*;}) to a Java file. Each import is
+     * added only once per file, regardless of how many times it is requested. The import list of the file is
+     * only read when the plan is applied, thus requesting an import costs a set insertion.
+     *
+     * @param javaFile    The Java file to add the import to
+     * @param packageName The name of the package to import
+     */
+    public void addJavaImport(@NotNull PsiJavaFile javaFile, @NotNull String packageName) {
+        javaImports.computeIfAbsent(javaFile.getViewProvider().getVirtualFile(), key -> new TreeSet<>()).add(packageName);
+    }
+
+    /**
+     * Add an import directive (e.g. {@code import nl.vu.cs.s2group.nappa.*}) to a Kotlin file. Each import is
+     * added only once per file, regardless of how many times it is requested. The import list of the file is
+     * only read when the plan is applied, thus requesting an import costs a set insertion.
+     *
+     * @param ktFile     The Kotlin file to add the import to
+     * @param importPath The path to import
+     */
+    public void addKotlinImport(@NotNull KtFile ktFile, @NotNull String importPath) {
+        kotlinImports.computeIfAbsent(ktFile.getViewProvider().getVirtualFile(), key -> new TreeSet<>()).add(importPath);
+    }
+
+    /**
+     * Verifies if a name is used in the {@code scope}, either by an identifier of its source code (e.g. a local
+     * variable, a parameter or a referenced field) or by another variable injected in it by this plan.
+     * <p>
+     * The identifiers of a scope are collected once, the first time the scope is verified, thus each verification
+     * is a set lookup instead of a search in the text of the scope.
+     *
+     * @param scope        The element delimiting the scope of the variable (e.g. a method)
+     * @param variableName The variable name to verify
+     * @return {@code True} if the name is used or {@code False} otherwise
+     */
+    public boolean isVariableNameUsed(@NotNull PsiElement scope, @NotNull String variableName) {
+        return getScopeNames(scope).contains(variableName);
+    }
+
+    /**
+     * Reserve a variable name in the {@code scope}. Since the source code is modified only when applying the plan,
+     * this prevents two variables injected in the same scope from receiving the same name.
+     *
+     * @param scope        The element delimiting the scope of the variable (e.g. a method)
+     * @param variableName The variable name to reserve
+     */
+    public void reserveVariableName(@NotNull PsiElement scope, @NotNull String variableName) {
+        getScopeNames(scope).add(variableName);
+    }
+
+    /**
+     * @param scope The element delimiting the scope of a variable
+     * @return The names used in the {@code scope}, collected the first time the scope is requested
+     */
+    private @NotNull
+    Set<String> getScopeNames(@NotNull PsiElement scope) {
+        return scopeNames.computeIfAbsent(scope, key -> {
+            Set<String> names = new HashSet<>();
+            key.accept(new PsiRecursiveElementWalkingVisitor() {
+                @Override
+                public void visitElement(@NotNull PsiElement element) {
+                    if (element instanceof PsiIdentifier)
+                        names.add(element.getText());
+                    else if (element.getNode().getElementType() == KtTokens.IDENTIFIER)
+                        names.add(KtPsiUtil.unquoteIdentifier(element.getText()));
+                    super.visitElement(element);
+                }
+            });
+            return names;
+        });
+    }
+
+    /**
+     * Append all edits and imports registered in {@code other} to this plan. The edits of {@code other} are
+     * applied after the edits already registered in this plan.
+     * <p>
+     * The names used in the scopes are not merged. A scope belongs to a single file, which is scanned with its
+     * own plan, thus its names are no longer needed once the plan of the file is merged.
+     *
+     * @param other A plan created for the same project
+     */
+    public void merge(@NotNull InstrumentPlan other) {
+        edits.addAll(other.edits);
+        other.javaImports.forEach((file, packageNames) ->
+                javaImports.computeIfAbsent(file, key -> new TreeSet<>()).addAll(packageNames));
+        other.kotlinImports.forEach((file, importPaths) ->
+                kotlinImports.computeIfAbsent(file, key -> new TreeSet<>()).addAll(importPaths));
+    }
+
+    /**
+     * Commit all edits registered since the last call in a single write command and clear them from this plan.
+     * This method must be invoked in the Event Dispatch Thread.
+     *
+     * @param commandName   The name of the command shown in the undo history
+     * @param resultMessage The result message recording the time spent writing the edits and imports
+     * @return The number of edits of this plan that could not be applied because the source code changed after
+     * the plan phase, counting the edits of all calls
+     */
+    public int apply(@NotNull String commandName, @NotNull InstrumentResultMessage resultMessage) {
+        if (isEmpty()) {
+            runApplyCallbacks(true);
+            return skippedEdits;
+        }
+
+        int previousSkippedEdits = skippedEdits;
+
+        resultMessage.measure(InstrumentPhase.WRITE, () -> WriteCommandAction.writeCommandAction(project)
+                .withName(commandName)
+                .withGlobalUndo()
+                .run(() -> {
+                    for (Edit edit : edits) {
+                        PsiElement target = edit.target.getElement();
+                        if (target != null && edit.operation.apply(target)) appliedEdits++;
+                        else skippedEdits++;
+                    }
+                    resultMessage.measure(InstrumentPhase.IMPORTS, () -> {
+                        javaImports.forEach((file, packageNames) -> applyJavaImports(findFile(file, PsiJavaFile.class), packageNames));
+                        kotlinImports.forEach((file, importPaths) -> applyKotlinImports(findFile(file, KtFile.class), importPaths));
+                    });
+                }));
+
+        edits.clear();
+        javaImports.clear();
+        kotlinImports.clear();
+        runApplyCallbacks(skippedEdits == previousSkippedEdits);
+        return skippedEdits;
+    }
+
+    /**
+     * @param isFullyApplied {@code True} if no edit was skipped by the last apply, in which case the callbacks run
+     */
+    private void runApplyCallbacks(boolean isFullyApplied) {
+        List<Runnable> callbacks = new ArrayList<>(applyCallbacks);
+        applyCallbacks.clear();
+        if (isFullyApplied) callbacks.forEach(Runnable::run);
+    }
+
+    /**
+     * @return The existing files with edits or imports registered in this plan and not applied yet
+     */
+    public @NotNull
+    Set<VirtualFile> getEditedFiles() {
+        Set<VirtualFile> files = new LinkedHashSet<>();
+        for (Edit edit : edits) {
+            if (edit.newFile == null) ContainerUtil.addIfNotNull(files, edit.target.getVirtualFile());
+        }
+        files.addAll(javaImports.keySet());
+        files.addAll(kotlinImports.keySet());
+        return files;
+    }
+
+    /**
+     * @return The files created by this plan and not applied yet, see {@link #addFile}, mapped to the directory they
+     * are created in. The files of the directories that are no longer valid are not listed.
+     */
+    public @NotNull
+    Map<PsiFile, VirtualFile> getNewFiles() {
+        Map<PsiFile, VirtualFile> files = new LinkedHashMap<>();
+        for (Edit edit : edits) {
+            VirtualFile directory = edit.newFile == null ? null : edit.target.getVirtualFile();
+            if (directory != null && directory.isValid()) files.put(edit.newFile, directory);
+        }
+        return files;
+    }
+
+    /**
+     * Apply the edits and imports registered for a file to an in-memory copy of the file. The source code is not
+     * modified, thus this method only requires read access and can run in parallel for several files.
+     *
+     * @param file A file returned by {@link #getEditedFiles()}
+     * @return The text of the file once instrumented, or {@code null} if the file is no longer valid
+     */
+    public @Nullable
+    String previewFile(@NotNull VirtualFile file) {
+        PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+        if (psiFile == null) return null;
+        PsiFile copy = (PsiFile) psiFile.copy();
+
+        // The targets are found in the copy by their offsets, thus all of them are found before the copy is modified
+        List<PsiElement> targets = new ArrayList<>();
+        List<Operation> operations = new ArrayList<>();
+        for (Edit edit : edits) {
+            if (!file.equals(edit.target.getVirtualFile())) continue;
+            PsiElement target = findSameElementInCopy(edit.target.getElement(), copy);
+            if (target == null) continue;
+            targets.add(target);
+            operations.add(edit.operation);
+        }
+        for (int i = 0; i < targets.size(); i++) {
+            operations.get(i).apply(targets.get(i));
+        }
+
+        if (copy instanceof PsiJavaFile && javaImports.containsKey(file))
+            applyJavaImports((PsiJavaFile) copy, javaImports.get(file));
+        if (copy instanceof KtFile && kotlinImports.containsKey(file))
+            applyKotlinImports((KtFile) copy, kotlinImports.get(file));
+        return copy.getText();
+    }
+
+    /**
+     * @param file      A file with imports registered in this plan
+     * @param fileClass The class of the PSI file expected
+     * @param <F>       The type of the PSI file
+     * @return The PSI of the file or {@code null} if the file is no longer valid or of another type
+     */
+    private @Nullable <F extends PsiFile>
+    F findFile(@NotNull VirtualFile file, @NotNull Class<F> fileClass) {
+        PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+        return fileClass.isInstance(psiFile) ? fileClass.cast(psiFile) : null;
+    }
+
+    /**
+     * Find the element of a copy of a file corresponding to an element of the original file, i.e. the element of the
+     * same class and text range. The copy must not have been modified.
+     *
+     * @param element An element of the original file, if still valid
+     * @param copy    An unmodified copy of the file
+     * @return The corresponding element of the copy or {@code null} if it is not found
+     */
+    private static @Nullable
+    PsiElement findSameElementInCopy(@Nullable PsiElement element, @NotNull PsiFile copy) {
+        if (element == null) return null;
+        if (element instanceof PsiFile) return copy;
+        TextRange range = element.getTextRange();
+        PsiElement candidate = copy.findElementAt(range.getStartOffset());
+        while (candidate != null && !(candidate instanceof PsiFile)) {
+            if (candidate.getClass() == element.getClass() && range.equals(candidate.getTextRange())) return candidate;
+            candidate = candidate.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * Add the registered imports to a Java file. The import list is read once, and each missing import is inserted
+     * in alphabetical order among the imports of the file, before the {@code java} and {@code javax} imports,
+     * as laid out by the default code style.
+     *
+     * @param javaFile     The Java file to add the imports to, if still valid
+     * @param packageNames The names of the packages to import, sorted
+     */
+    private void applyJavaImports(@Nullable PsiJavaFile javaFile, @NotNull Set<String> packageNames) {
+        if (javaFile == null) return;
+        PsiImportList importList = javaFile.getImportList();
+        if (importList == null) return;
+        List<PsiImportStatement> imports = new ArrayList<>(Arrays.asList(importList.getImportStatements()));
+        List<String> importedNames = new ArrayList<>(imports.size());
+        for (PsiImportStatement importStatement : imports) {
+            importedNames.add(importStatement.isOnDemand()
+                    ? importStatement.getQualifiedName() + ".*"
+                    : importStatement.getQualifiedName());
+        }
+
+        PsiElementFactory factory = PsiElementFactory.getInstance(project);
+        for (String packageName : packageNames) {
+            String importedName = packageName + ".*";
+            if (importedNames.contains(importedName)) continue;
+            int index = findImportIndex(importedNames, importedName, "java.", "javax.");
+            PsiImportStatement importStatement = factory.createImportStatementOnDemand(packageName);
+            if (index < imports.size())
+                importStatement = (PsiImportStatement) importList.addBefore(importStatement, imports.get(index));
+            else if (!imports.isEmpty())
+                importStatement = (PsiImportStatement) importList.addAfter(importStatement, imports.get(imports.size() - 1));
+            else
+                importStatement = (PsiImportStatement) importList.add(importStatement);
+            imports.add(index, importStatement);
+            importedNames.add(index, importedName);
+        }
+    }
+
+    /**
+     * Add the registered imports to a Kotlin file. The import list is read once, and each missing import is
+     * inserted in alphabetical order among the imports of the file, before the {@code java}, {@code javax} and
+     * {@code kotlin} imports, as laid out by the default code style. An import of a class is skipped if its
+     * package is imported on demand.
+     *
+     * @param ktFile      The Kotlin file to add the imports to, if still valid
+     * @param importPaths The paths to import, sorted
+     */
+    private void applyKotlinImports(@Nullable KtFile ktFile, @NotNull Set<String> importPaths) {
+        if (ktFile == null) return;
+        KtImportList importList = ktFile.getImportList();
+        if (importList == null) return;
+        List<KtImportDirective> imports = new ArrayList<>(importList.getImports());
+        List<String> importedNames = new ArrayList<>(imports.size());
+        for (KtImportDirective directive : imports) {
+            ImportPath importPath = directive.getImportPath();
+            // The aliases are laid out after all other imports
+            importedNames.add(importPath == null || importPath.hasAlias() ? "\uffff" : importPath.getPathStr());
+        }
+
+        for (String importPath : importPaths) {
+            int lastDot = importPath.lastIndexOf('.');
+            String onDemandPath = lastDot < 0 ? importPath : importPath.substring(0, lastDot) + ".*";
+            if (importedNames.contains(importPath) || importedNames.contains(onDemandPath)) continue;
+            int index = findImportIndex(importedNames, importPath, "java.", "javax.", "kotlin.");
+            KtImportDirective directive = KtPsiFactory(project).createImportDirective(ImportPath.fromString(importPath));
+            if (index < imports.size())
+                directive = (KtImportDirective) importList.addBefore(directive, imports.get(index));
+            else if (!imports.isEmpty())
+                directive = (KtImportDirective) importList.addAfter(directive, imports.get(imports.size() - 1));
+            else
+                directive = (KtImportDirective) importList.add(directive);
+            imports.add(index, directive);
+            importedNames.add(index, importPath);
+        }
+    }
+
+    /**
+     * Find where to insert an import, i.e. before the first import that is alphabetically greater or belongs to
+     * the packages laid out at the end of the import list. The imports of the file are expected to follow this
+     * layout, otherwise the import is inserted before the first import out of order.
+     *
+     * @param importedNames    The names imported by the file, in the order they are declared
+     * @param importedName     The name to import, e.g. {@code nl.vu.cs.s2group.nappa.*}
+     * @param trailingPackages The prefixes of the packages laid out at the end of the import list
+     * @return The index of the import to insert the new import before, or the number of imports to insert it last
+     */
+    private static int findImportIndex(@NotNull List<String> importedNames,
+                                       @NotNull String importedName,
+                                       @NotNull String... trailingPackages) {
+        for (int i = 0; i < importedNames.size(); i++) {
+            String name = importedNames.get(i);
+            if (Arrays.stream(trailingPackages).anyMatch(name::startsWith) || name.compareTo(importedName) > 0) return i;
+        }
+        return importedNames.size();
+    }
+}
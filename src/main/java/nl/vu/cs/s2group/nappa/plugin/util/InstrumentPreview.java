@@ -0,0 +1,176 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+import com.intellij.diff.DiffContentFactory;
+import com.intellij.diff.DiffDialogHints;
+import com.intellij.diff.DiffManager;
+import com.intellij.diff.chains.SimpleDiffRequestChain;
+import com.intellij.diff.requests.SimpleDiffRequest;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The changes an {@link InstrumentPlan} would make to the source code, computed without writing them.
+ * <p>
+ * The edits of each file are applied to an in-memory copy of the file, see {@link InstrumentPlan#previewFile}.
+ * The files created by the plan, e.g. the {@code Application} class generated by the activity instrumentation,
+ * are listed after the edited files, see {@link InstrumentPlan#getNewFiles()}.
+ * The files are processed in parallel under read access, thus computing the preview is much cheaper than applying
+ * the plan and can be repeated as often as needed. The time spent editing the copies is an estimate of the time
+ * the plan takes to apply, excluding the update of the documents and editors.
+ */
+public final class InstrumentPreview {
+    private final List<FileChange> fileChanges;
+    private final long editNanos;
+
+    /**
+     * The text of a file before and after the instrumentation
+     */
+    private static final class FileChange {
+        private final String path;
+        private final FileType fileType;
+        // The current text is null if the file is created by the instrumentation
+        private final String currentText;
+        private final String instrumentedText;
+        private final long editNanos;
+
+        private FileChange(@NotNull String path, @NotNull FileType fileType, @Nullable String currentText,
+                           @NotNull String instrumentedText, long editNanos) {
+            this.path = path;
+            this.fileType = fileType;
+            this.currentText = currentText;
+            this.instrumentedText = instrumentedText;
+            this.editNanos = editNanos;
+        }
+    }
+
+    private InstrumentPreview(@NotNull List<FileChange> fileChanges) {
+        this.fileChanges = fileChanges;
+        this.editNanos = fileChanges.stream().mapToLong(fileChange -> fileChange.editNanos).sum();
+    }
+
+    /**
+     * Compute the changes of all files edited by the {@code plan}, in parallel. This method blocks until all files
+     * are processed and must not be invoked in the Event Dispatch Thread.
+     *
+     * @param project   An object representing an IntelliJ project.
+     * @param plan      The plan to preview
+     * @param indicator The progress indicator of the running task
+     * @return The preview of the plan, listing the files in the order they are edited, then the files created
+     */
+    public static @NotNull
+    InstrumentPreview compute(@NotNull Project project, @NotNull InstrumentPlan plan, @NotNull ProgressIndicator indicator) {
+        List<VirtualFile> files = new ArrayList<>(ReadAction.compute(plan::getEditedFiles));
+        // A file may be processed more than once if its read action is restarted, the last outcome is kept
+        Map<VirtualFile, FileChange> fileChanges = new ConcurrentHashMap<>();
+
+        indicator.setText("Computing the preview of the instrumentation");
+        InstrumentScanner.scanInParallel(project, files, (file, filePlan, fileResultMessage) -> {
+            PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+            if (psiFile == null) return;
+            long start = System.nanoTime();
+            String instrumentedText = plan.previewFile(file);
+            long editNanos = System.nanoTime() - start;
+            if (instrumentedText == null || instrumentedText.equals(psiFile.getText())) return;
+            fileChanges.put(file, new FileChange(getPath(project, file, null), file.getFileType(), psiFile.getText(), instrumentedText, editNanos));
+        }, indicator, new InstrumentPlan(project), new InstrumentResultMessage());
+
+        List<FileChange> orderedChanges = new ArrayList<>(fileChanges.size());
+        for (VirtualFile file : files) {
+            FileChange fileChange = fileChanges.get(file);
+            if (fileChange != null) orderedChanges.add(fileChange);
+        }
+        ReadAction.run(() -> plan.getNewFiles().forEach((newFile, directory) -> orderedChanges.add(new FileChange(
+                getPath(project, directory, newFile.getName()), newFile.getFileType(), null, newFile.getText(), 0))));
+        return new InstrumentPreview(orderedChanges);
+    }
+
+    /**
+     * @param project   An object representing an IntelliJ project.
+     * @param file      A file, or the directory of the file if it does not exist yet
+     * @param childName The name of the file in the {@code file} directory, or {@code null} if the file exists
+     * @return The path of the file relative to the project directory, or its absolute path if the file is not in the
+     * project directory
+     */
+    private static @NotNull
+    String getPath(@NotNull Project project, @NotNull VirtualFile file, @Nullable String childName) {
+        VirtualFile baseDir = ProjectUtil.guessProjectDir(project);
+        String path = baseDir == null ? null : VfsUtilCore.getRelativePath(file, baseDir, '/');
+        if (path == null) path = file.getPath();
+        if (childName == null) return path;
+        return path.isEmpty() ? childName : path + "/" + childName;
+    }
+
+    /**
+     * @return The paths of the files changed by the instrumentation, in the order they are shown
+     */
+    @NotNull
+    List<String> getChangedPaths() {
+        return fileChanges.stream().map(fileChange -> fileChange.path).collect(Collectors.toList());
+    }
+
+    /**
+     * @param path A path returned by {@link #getChangedPaths()}
+     * @return The text of the file once instrumented, or {@code null} if the instrumentation does not change it
+     */
+    @Nullable
+    String getInstrumentedText(@NotNull String path) {
+        return fileChanges.stream()
+                .filter(fileChange -> fileChange.path.equals(path))
+                .map(fileChange -> fileChange.instrumentedText)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * @return {@code True} if the instrumentation does not change any file or {@code False} otherwise
+     */
+    public boolean isEmpty() {
+        return fileChanges.isEmpty();
+    }
+
+    /**
+     * Show the changes in a diff viewer, one file at a time, and ask the user to apply them. The preview must not
+     * be {@link #isEmpty() empty}. This method blocks until the user closes the viewer and must be invoked in the
+     * Event Dispatch Thread.
+     *
+     * @param project An object representing an IntelliJ project.
+     * @param title   The title of the diff viewer
+     * @return {@code True} if the user accepts the changes or {@code False} otherwise
+     */
+    public boolean showAndConfirm(@NotNull Project project, @NotNull String title) {
+        DiffContentFactory contentFactory = DiffContentFactory.getInstance();
+        List<SimpleDiffRequest> requests = new ArrayList<>(fileChanges.size());
+        for (FileChange fileChange : fileChanges) {
+            boolean isNewFile = fileChange.currentText == null;
+            requests.add(new SimpleDiffRequest(fileChange.path,
+                    isNewFile ? contentFactory.createEmpty() : contentFactory.create(project, fileChange.currentText, fileChange.fileType),
+                    contentFactory.create(project, fileChange.instrumentedText, fileChange.fileType),
+                    isNewFile ? "New file" : "Current", "Instrumented"));
+        }
+        DiffManager.getInstance().showDiff(project, new SimpleDiffRequestChain(requests), DiffDialogHints.MODAL);
+
+        long newFiles = fileChanges.stream().filter(fileChange -> fileChange.currentText == null).count();
+        return Messages.showYesNoDialog(project,
+                "Apply the instrumentation to " + fileChanges.size() + " file(s)" +
+                        (newFiles > 0 ? ", including " + newFiles + " new file(s)" : "") + "? " +
+                        "Applying the edits is estimated to take " + TimeUnit.NANOSECONDS.toMillis(editNanos) + " ms.",
+                title, Messages.getQuestionIcon()) == Messages.YES;
+    }
+}
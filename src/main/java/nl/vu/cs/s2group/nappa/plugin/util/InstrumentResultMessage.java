@@ -1,75 +1,440 @@
 package nl.vu.cs.s2group.nappa.plugin.util;
 
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
-import com.intellij.psi.PsiClass;
-import com.intellij.psi.PsiField;
-import com.intellij.psi.PsiMethod;
-import com.intellij.psi.PsiStatement;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
- * Provides a self-contained {@link StringBuilder} to construct the result message for when finishing instrumenting.
- * Provides abstraction to present a result dialog
+ * Collects the result of an instrumentation as a list of {@link Record records}, one per block of the message.
+ * A record describes a site (e.g. the class and method instrumented) and points to it in the source code, or is
+ * a note about the whole run when no element was appended to it.
+ * <p>
+ * The memory used by a message is bounded: only the first {@value #MAX_SITE_RECORDS} site records are kept, and
+ * the others are only counted. A record points to its site once it is kept, thus the omitted records do not create
+ * smart pointers. The notes are always kept. The records are shown in the results tool window while
+ * the instrumentation runs, see {@link #setRecordListener}, and rendered as text by {@link #getMessage}.
+ * <p>
+ * The counters can be incremented from several threads. The records appended to the message are not synchronized,
+ * thus parallel scans fill a {@link #createFragment fragment} per element and {@link #merge} them afterwards.
+ * <p>
+ * The message also records the time spent in each {@link InstrumentPhase}, the total time of each action and the
+ * slowest files. These measurements are exported with {@link #getStatistics}.
  */
 @SuppressWarnings({"UnusedReturnValue"})
 public class InstrumentResultMessage {
-    private final StringBuilder builder;
+    private static final int SLOWEST_FILES_COUNT = 10;
+    private static final int MAX_SITE_RECORDS = 10000;
+    private static final int MAX_LINE_LENGTH = 300;
+
+    // The time measured by the phases running inside the current phase of each thread, see #measure
+    private static final ThreadLocal<Deque<long[]>> NESTED_PHASE_TIMES = ThreadLocal.withInitial(ArrayDeque::new);
+
+    /**
+     * The closed records of this message, in the order they were appended
+     */
+    private final List<Record> records;
+
+    /**
+     * The record being appended to, closed by {@link #appendNewBlock}
+     */
+    private RecordBuilder currentRecord;
+
+    /**
+     * Count of site records which were not kept, see {@value #MAX_SITE_RECORDS}
+     */
+    private final AtomicInteger omittedRecordCount;
+
+    /**
+     * Count of site records kept in {@code records}, shared with the fragments of this message
+     */
+    private final AtomicInteger siteRecordCount;
+
+    /**
+     * Notified of each record closed in this message, if any
+     */
+    private volatile Consumer<Record> recordListener;
 
     /**
      * Count of statements instrumented in this run
      */
-    private int instrumentationCount;
+    private final AtomicInteger instrumentationCount;
 
     /**
      * Count of statements that can be instrumented in this run
      */
-    private int possibleInstrumentationCount;
+    private final AtomicInteger possibleInstrumentationCount;
 
     /**
      * Count of statements that were instrumented in previous runs
      */
-    private int alreadyInstrumentedCount;
+    private final AtomicInteger alreadyInstrumentedCount;
 
     /**
      * Count of statements that do not need to be instrumented.
      */
-    private int unneededInstrumentationCount;
+    private final AtomicInteger unneededInstrumentationCount;
 
     /**
      * Count of statements that were processed in the instrumentation.
      */
-    private int processedElements;
+    private final AtomicInteger processedElements;
+
+    /**
+     * Time spent in each phase of the instrumentation, in nanoseconds.
+     */
+    private final Map<InstrumentPhase, AtomicLong> phaseTimes;
+
+    /**
+     * Total time of each action of the instrumentation, in nanoseconds.
+     */
+    private final Map<String, AtomicLong> actionTimes;
+
+    /**
+     * The slowest files processed in the instrumentation, the fastest of them first.
+     */
+    private final PriorityQueue<FileTime> slowestFiles;
+
+    /**
+     * The time spent processing a single file
+     */
+    private static final class FileTime {
+        private final String path;
+        private final long nanos;
+
+        private FileTime(String path, long nanos) {
+            this.path = path;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * A block of the result message. The text of a record is bounded, as the statements appended to it are
+     * truncated to {@value #MAX_LINE_LENGTH} characters.
+     */
+    public static final class Record {
+        private final String className;
+        private final String member;
+        private final List<String> details;
+        private final SmartPsiElementPointer<PsiElement> target;
+        private final String fileName;
+        private final int line;
+
+        private Record(@NotNull RecordBuilder builder) {
+            this.className = builder.className;
+            this.member = builder.member;
+            this.details = Collections.unmodifiableList(builder.details);
+            this.target = builder.target == null ? null : ReadAction.compute(() -> SmartPointerManager
+                    .getInstance(builder.target.getProject())
+                    .createSmartPsiElementPointer(builder.target));
+            this.fileName = builder.fileName;
+            this.line = builder.line;
+        }
+
+        /**
+         * @return The qualified name of the class of the site, or {@code null} if not appended
+         */
+        public @Nullable
+        String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return The description of the member of the site (e.g. {@code Method: onCreate}), or {@code null} if not appended
+         */
+        public @Nullable
+        String getMember() {
+            return member;
+        }
+
+        /**
+         * @return The free text lines of the record
+         */
+        public @NotNull
+        List<String> getDetails() {
+            return details;
+        }
+
+        /**
+         * @return A pointer to the site in the source code, or {@code null} if this record is a note
+         */
+        public @Nullable
+        SmartPsiElementPointer<PsiElement> getTarget() {
+            return target;
+        }
+
+        /**
+         * @return The file name and line of the site when it was found (e.g. {@code MainActivity.java:12}),
+         * or an empty string if this record is a note
+         */
+        public @NotNull
+        String getLocation() {
+            if (fileName == null) return "";
+            return line < 0 ? fileName : fileName + ":" + line;
+        }
+
+        /**
+         * @return {@code True} if this record describes a site or {@code False} if it is a note about the run
+         */
+        public boolean isSite() {
+            return target != null;
+        }
+
+        /**
+         * @param builder The builder to append the text of this record to
+         */
+        private void appendTo(@NotNull StringBuilder builder) {
+            if (className != null) builder.append("Class: ").append(className).append("\n");
+            if (member != null) builder.append(member).append("\n");
+            for (String detail : details) {
+                builder.append(detail).append("\n");
+            }
+            builder.append("\n");
+        }
+    }
+
+    /**
+     * The content of the record being appended to
+     */
+    private static final class RecordBuilder {
+        private String className;
+        private String member;
+        private final List<String> details = new ArrayList<>();
+        private PsiElement target;
+        private String fileName;
+        private int line = -1;
+
+        /**
+         * Points the record to the {@code element}. The most specific element is appended last, thus it replaces
+         * the previous target (e.g. the method replaces its class). The elements created by the instrumentation
+         * are not in the source code yet, thus they do not replace the target.
+         *
+         * @param element The element described by the record
+         */
+        private void setTarget(@NotNull PsiElement element) {
+            PsiElement navigationElement = element.getNavigationElement();
+            PsiFile psiFile = navigationElement.getContainingFile();
+            if (psiFile == null || !navigationElement.isPhysical()) return;
+            target = navigationElement;
+            fileName = psiFile.getName();
+            Document document = PsiDocumentManager.getInstance(psiFile.getProject()).getDocument(psiFile);
+            line = document == null ? -1 : document.getLineNumber(navigationElement.getTextOffset()) + 1;
+        }
+    }
 
     public InstrumentResultMessage() {
-        builder = new StringBuilder();
-        instrumentationCount = 0;
-        possibleInstrumentationCount = 0;
-        alreadyInstrumentedCount = 0;
-        unneededInstrumentationCount = 0;
-        processedElements = 0;
+        this(new AtomicInteger());
     }
 
     /**
-     * Returns the text of the result message.
+     * @param siteRecordCount The count of kept site records, shared with the message the new message is merged into
+     */
+    private InstrumentResultMessage(@NotNull AtomicInteger siteRecordCount) {
+        this.siteRecordCount = siteRecordCount;
+        records = new ArrayList<>();
+        omittedRecordCount = new AtomicInteger();
+        instrumentationCount = new AtomicInteger();
+        possibleInstrumentationCount = new AtomicInteger();
+        alreadyInstrumentedCount = new AtomicInteger();
+        unneededInstrumentationCount = new AtomicInteger();
+        processedElements = new AtomicInteger();
+        phaseTimes = new EnumMap<>(InstrumentPhase.class);
+        for (InstrumentPhase phase : InstrumentPhase.values()) {
+            phaseTimes.put(phase, new AtomicLong());
+        }
+        actionTimes = new ConcurrentHashMap<>();
+        slowestFiles = new PriorityQueue<>(Comparator.comparingLong(fileTime -> fileTime.nanos));
+    }
+
+    /**
+     * Create an empty message for a part of the run which is {@link #merge merged} into this message afterwards.
+     * The site records kept by the fragments count toward the limit of this message, thus the sites found once
+     * the limit is reached are only counted, even before the fragments are merged.
+     *
+     * @return The new message
+     */
+    public @NotNull
+    InstrumentResultMessage createFragment() {
+        return new InstrumentResultMessage(siteRecordCount);
+    }
+
+    /**
+     * Renders the overview and the records of the result message as text. The message is not modified, thus the
+     * text can be requested more than once.
      *
      * @return the result message
      */
     public String getMessage() {
-        addInstrumentationOverview();
+        StringBuilder builder = new StringBuilder(getInstrumentationOverview()).append("\n");
+        for (Record record : getRecords()) {
+            record.appendTo(builder);
+        }
+        if (currentRecord != null) new Record(currentRecord).appendTo(builder);
         return builder.toString();
     }
 
+    /**
+     * @return A snapshot of the closed records of the result message
+     */
+    public @NotNull
+    List<Record> getRecords() {
+        synchronized (records) {
+            return new ArrayList<>(records);
+        }
+    }
+
+    /**
+     * @return The count of site records which were not kept to bound the memory used by the message
+     */
+    public int getOmittedRecordCount() {
+        return omittedRecordCount.get();
+    }
+
+    /**
+     * Set the listener notified of each record closed in this message from now on. The listener is invoked in the
+     * thread appending or merging the record and must not block it.
+     *
+     * @param recordListener The listener, or {@code null} to remove it
+     */
+    public void setRecordListener(@Nullable Consumer<Record> recordListener) {
+        this.recordListener = recordListener;
+    }
+
+    /**
+     * @return The count of statements processed in this run
+     */
+    public int getProcessedElementsCount() {
+        return processedElements.get();
+    }
+
+    /**
+     * @return The count of statements instrumented in this run
+     */
+    public int getInstrumentationCount() {
+        return instrumentationCount.get();
+    }
+
+    /**
+     * @return The count of statements that can be instrumented
+     */
+    public int getPossibleInstrumentationCount() {
+        return possibleInstrumentationCount.get();
+    }
+
+    /**
+     * @return The count of statements that do not need to be instrumented
+     */
+    public int getUnneededInstrumentationCount() {
+        return unneededInstrumentationCount.get();
+    }
+
+    /**
+     * @return The count of statements that were already instrumented
+     */
+    public int getAlreadyInstrumentedCount() {
+        return alreadyInstrumentedCount.get();
+    }
+
+    /**
+     * Runs the {@code computation} and adds its time to the {@code phase}. The time of the phases measured inside
+     * the {@code computation} in the same thread is not added, thus the time of each phase excludes the others.
+     *
+     * @param phase       The phase of the computation
+     * @param computation The computation to measure
+     * @param <T>         The type of the result of the computation
+     * @return The result of the computation
+     */
+    public <T> T measure(@NotNull InstrumentPhase phase, @NotNull Supplier<T> computation) {
+        Deque<long[]> nestedPhaseTimes = NESTED_PHASE_TIMES.get();
+        long[] nestedTime = new long[]{0};
+        nestedPhaseTimes.push(nestedTime);
+        long start = System.nanoTime();
+        try {
+            return computation.get();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            nestedPhaseTimes.pop();
+            if (!nestedPhaseTimes.isEmpty()) nestedPhaseTimes.peek()[0] += elapsed;
+            phaseTimes.get(phase).addAndGet(elapsed - nestedTime[0]);
+        }
+    }
+
+    /**
+     * Runs the {@code computation} and adds its time to the {@code phase}, see {@link #measure(InstrumentPhase, Supplier)}
+     *
+     * @param phase       The phase of the computation
+     * @param computation The computation to measure
+     */
+    public void measure(@NotNull InstrumentPhase phase, @NotNull Runnable computation) {
+        measure(phase, () -> {
+            computation.run();
+            return null;
+        });
+    }
+
+    /**
+     * Record the total time of an action. The time is added to the previous time recorded for the action, if any.
+     *
+     * @param action The name of the action
+     * @param nanos  The time spent in the action, in nanoseconds
+     */
+    public void recordActionTime(@NotNull String action, long nanos) {
+        actionTimes.computeIfAbsent(action, key -> new AtomicLong()).addAndGet(nanos);
+    }
+
+    /**
+     * Record the time spent processing a file. Only the {@value #SLOWEST_FILES_COUNT} slowest files are kept.
+     *
+     * @param path  The path of the file
+     * @param nanos The time spent processing the file, in nanoseconds
+     */
+    public void recordFileTime(@NotNull String path, long nanos) {
+        synchronized (slowestFiles) {
+            slowestFiles.add(new FileTime(path, nanos));
+            if (slowestFiles.size() > SLOWEST_FILES_COUNT) slowestFiles.poll();
+        }
+    }
+
+    /**
+     * @return A snapshot of the counters and timings of the instrumentation
+     */
+    public @NotNull
+    InstrumentStatistics getStatistics() {
+        InstrumentStatistics statistics = new InstrumentStatistics(this);
+        new TreeMap<>(actionTimes).forEach((action, nanos) -> statistics.addActionTime(action, nanos.get()));
+        phaseTimes.forEach((phase, nanos) -> statistics.addPhaseTime(phase, nanos.get()));
+
+        List<FileTime> files;
+        synchronized (slowestFiles) {
+            files = new ArrayList<>(slowestFiles);
+        }
+        files.sort(Comparator.comparingLong((FileTime fileTime) -> fileTime.nanos).reversed());
+        for (FileTime file : files) {
+            statistics.addSlowFile(new InstrumentStatistics.FileTime(file.path, file.nanos));
+        }
+        return statistics;
+    }
+
     /**
      * Increment by 1 the count of statement processed in this run
      *
      * @return A instance of this object
      */
     public InstrumentResultMessage incrementProcessedElementsCount() {
-        processedElements++;
+        processedElements.incrementAndGet();
         return this;
     }
 
@@ -79,7 +444,7 @@ public class InstrumentResultMessage {
      * @return A instance of this object
      */
     public InstrumentResultMessage incrementInstrumentationCount() {
-        instrumentationCount++;
+        instrumentationCount.incrementAndGet();
         return this;
     }
 
@@ -89,7 +454,7 @@ public class InstrumentResultMessage {
      * @return A instance of this object
      */
     public InstrumentResultMessage incrementPossibleInstrumentationCount() {
-        possibleInstrumentationCount++;
+        possibleInstrumentationCount.incrementAndGet();
         return this;
     }
 
@@ -99,7 +464,7 @@ public class InstrumentResultMessage {
      * @return A instance of this object
      */
     public InstrumentResultMessage incrementUnneededInstrumentationCount() {
-        unneededInstrumentationCount++;
+        unneededInstrumentationCount.incrementAndGet();
         return this;
     }
 
@@ -109,44 +474,130 @@ public class InstrumentResultMessage {
      * @return A instance of this object
      */
     public InstrumentResultMessage incrementAlreadyInstrumentedCount() {
-        alreadyInstrumentedCount++;
+        alreadyInstrumentedCount.incrementAndGet();
         return this;
     }
 
     /**
-     * Insert a overview of the instrumentation in the begging of the result message
+     * Append the counters and the text of another result message to this message
+     *
+     * @param other The result message to merge into this message
+     * @return A instance of this object
      */
-    private void addInstrumentationOverview() {
+    public InstrumentResultMessage merge(@NotNull InstrumentResultMessage other) {
+        instrumentationCount.addAndGet(other.instrumentationCount.get());
+        possibleInstrumentationCount.addAndGet(other.possibleInstrumentationCount.get());
+        alreadyInstrumentedCount.addAndGet(other.alreadyInstrumentedCount.get());
+        unneededInstrumentationCount.addAndGet(other.unneededInstrumentationCount.get());
+        processedElements.addAndGet(other.processedElements.get());
+        other.phaseTimes.forEach((phase, nanos) -> phaseTimes.get(phase).addAndGet(nanos.get()));
+        other.actionTimes.forEach((action, nanos) -> recordActionTime(action, nanos.get()));
+        List<FileTime> otherFiles;
+        synchronized (other.slowestFiles) {
+            otherFiles = new ArrayList<>(other.slowestFiles);
+        }
+        for (FileTime file : otherFiles) {
+            recordFileTime(file.path, file.nanos);
+        }
+        other.closeRecord();
+        // The site records of a fragment are already counted toward the limit
+        boolean isFragment = other.siteRecordCount == siteRecordCount;
+        for (Record record : other.getRecords()) {
+            if (!isFragment && record.isSite() && !reserveSiteRecord()) {
+                omittedRecordCount.incrementAndGet();
+                continue;
+            }
+            addRecord(record);
+        }
+        omittedRecordCount.addAndGet(other.omittedRecordCount.get());
+        return this;
+    }
+
+    /**
+     * @return An overview of the counters of the instrumentation
+     */
+    public @NotNull
+    String getInstrumentationOverview() {
         StringBuilder message = new StringBuilder();
 
-        if (processedElements != 0) {
-            message.append(processedElements)
+        if (processedElements.get() != 0) {
+            message.append(processedElements.get())
                     .append(" elements were processed in this run.")
                     .append("\n\n");
         }
-        if (possibleInstrumentationCount != 0) {
-            message.append(possibleInstrumentationCount)
+        if (possibleInstrumentationCount.get() != 0) {
+            message.append(possibleInstrumentationCount.get())
                     .append(" statements can be instrumented.")
                     .append("\n");
         }
-        if (instrumentationCount != 0) {
-            message.append(instrumentationCount)
+        if (instrumentationCount.get() != 0) {
+            message.append(instrumentationCount.get())
                     .append(" statements were instrumented in this run.")
                     .append("\n");
         }
-        if (alreadyInstrumentedCount != 0) {
-            message.append(alreadyInstrumentedCount)
+        if (alreadyInstrumentedCount.get() != 0) {
+            message.append(alreadyInstrumentedCount.get())
                     .append(" statements were already instrumented.")
                     .append("\n");
         }
-        if (unneededInstrumentationCount != 0) {
-            message.append(unneededInstrumentationCount)
+        if (unneededInstrumentationCount.get() != 0) {
+            message.append(unneededInstrumentationCount.get())
                     .append(" statements do not need to be instrumented.")
                     .append("\n");
         }
 
-        message.append("\n");
-        builder.insert(0, message);
+        if (omittedRecordCount.get() != 0) {
+            message.append(omittedRecordCount.get())
+                    .append(" sites are not listed to limit the size of the result.")
+                    .append("\n");
+        }
+        return message.toString();
+    }
+
+    /**
+     * @return The record being appended to, which is opened if needed
+     */
+    private @NotNull
+    RecordBuilder getCurrentRecord() {
+        if (currentRecord == null) currentRecord = new RecordBuilder();
+        return currentRecord;
+    }
+
+    /**
+     * Close the record being appended to, if any, and add it to the records
+     */
+    private void closeRecord() {
+        if (currentRecord == null) return;
+        RecordBuilder record = currentRecord;
+        currentRecord = null;
+        // The record only points to its site once it is kept
+        if (record.target != null && !reserveSiteRecord()) {
+            omittedRecordCount.incrementAndGet();
+            return;
+        }
+        addRecord(new Record(record));
+    }
+
+    /**
+     * Count a site record toward the limit of {@value #MAX_SITE_RECORDS} kept site records
+     *
+     * @return {@code True} if the record can be kept or {@code False} if the limit is already reached
+     */
+    private boolean reserveSiteRecord() {
+        return siteRecordCount.getAndUpdate(count -> count < MAX_SITE_RECORDS ? count + 1 : count) < MAX_SITE_RECORDS;
+    }
+
+    /**
+     * Add a closed record and notify the listener of it
+     *
+     * @param record The record to add
+     */
+    private void addRecord(@NotNull Record record) {
+        synchronized (records) {
+            records.add(record);
+        }
+        Consumer<Record> listener = recordListener;
+        if (listener != null) listener.accept(record);
     }
 
     /**
@@ -156,7 +607,9 @@ public class InstrumentResultMessage {
      * @return A instance of this object
      */
     public InstrumentResultMessage appendPsiClass(@NotNull PsiClass psiClass) {
-        builder.append("Class: ").append(psiClass.getQualifiedName()).append("\n");
+        RecordBuilder record = getCurrentRecord();
+        record.className = psiClass.getQualifiedName();
+        record.setTarget(psiClass);
         return this;
     }
 
@@ -167,7 +620,9 @@ public class InstrumentResultMessage {
      * @return A instance of this object
      */
     public InstrumentResultMessage appendPsiMethod(@NotNull PsiMethod psiMethod) {
-        builder.append("Method: ").append(psiMethod.getName()).append("\n");
+        RecordBuilder record = getCurrentRecord();
+        record.member = "Method: " + psiMethod.getName();
+        record.setTarget(psiMethod);
         return this;
     }
 
@@ -178,7 +633,9 @@ public class InstrumentResultMessage {
      * @return A instance of this object
      */
     public InstrumentResultMessage appendOverridePsiMethod(@NotNull PsiMethod psiMethod) {
-        builder.append("Override method: ").append(psiMethod.getName()).append("\n");
+        RecordBuilder record = getCurrentRecord();
+        record.member = "Override method: " + psiMethod.getName();
+        record.setTarget(psiMethod);
         return this;
     }
 
@@ -190,7 +647,7 @@ public class InstrumentResultMessage {
      * @return A instance of this object
      */
     public InstrumentResultMessage appendText(String text) {
-        builder.append(text).append("\n");
+        getCurrentRecord().details.add(StringUtil.first(text, MAX_LINE_LENGTH, true));
         return this;
     }
 
@@ -200,7 +657,7 @@ public class InstrumentResultMessage {
      * @return A instance of this object
      */
     public InstrumentResultMessage appendPsiClassInitializer() {
-        builder.append("Initializer block: ").append("\n");
+        getCurrentRecord().member = "Initializer block";
         return this;
     }
 
@@ -211,7 +668,9 @@ public class InstrumentResultMessage {
      * @return A instance of this object
      */
     public InstrumentResultMessage appendPsiField(@NotNull PsiField psiField) {
-        builder.append("Field: ").append(psiField.getName()).append("\n");
+        RecordBuilder record = getCurrentRecord();
+        record.member = "Field: " + psiField.getName();
+        record.setTarget(psiField);
         return this;
     }
 
@@ -222,28 +681,39 @@ public class InstrumentResultMessage {
      * @return A instance of this object
      */
     public InstrumentResultMessage appendPsiStatement(@NotNull PsiStatement psiStatement) {
-        builder.append("Statement: ").append(psiStatement.getText()).append("\n");
+        RecordBuilder record = getCurrentRecord();
+        record.details.add("Statement: " + StringUtil.first(psiStatement.getText(), MAX_LINE_LENGTH, true));
+        record.setTarget(psiStatement);
         return this;
     }
 
     /**
-     * Append a block separator to the result message
+     * Point the current record to an element, without appending any text. It is used for the sites which are
+     * not described by a class or member, e.g. an expression.
      *
+     * @param element The element to navigate to from the record
      * @return A instance of this object
      */
-    public InstrumentResultMessage appendNewBlock() {
-        builder.append("\n");
+    public InstrumentResultMessage appendLocation(@NotNull PsiElement element) {
+        getCurrentRecord().setTarget(element);
         return this;
     }
 
     /**
-     * Takes the constructed message in {@code builder} and make a dialog with the result
+     * Close the current record of the result message. The next append starts a new record.
      *
-     * @param project An object representing an IntelliJ project.
-     * @param title   The title of the dialog
+     * @return A instance of this object
+     */
+    public InstrumentResultMessage appendNewBlock() {
+        closeRecord();
+        return this;
+    }
+
+    /**
+     * Close the current record, notifying the listener of it. It is invoked once the instrumentation finishes.
      */
-    public void showResultDialog(Project project, String title) {
-        Messages.showMessageDialog(project, getMessage(), title, Messages.getInformationIcon());
+    public void flush() {
+        closeRecord();
     }
 
     /**
@@ -253,7 +723,7 @@ public class InstrumentResultMessage {
      * @param exception The caught exception
      * @param title     The title of the dialog
      */
-    public void showErrorDialog(Project project, @NotNull Exception exception, String title) {
+    public void showErrorDialog(Project project, @NotNull Throwable exception, String title) {
         StringWriter errors = new StringWriter();
         exception.printStackTrace(new PrintWriter(errors));
         Messages.showErrorDialog(project, errors.toString(), title);
@@ -0,0 +1,268 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClassOwner;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
+import nl.vu.cs.s2group.nappa.plugin.settings.InstrumentSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.concurrency.CancellablePromise;
+import org.jetbrains.kotlin.psi.KtFile;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Scans a list of elements (e.g. source files) in parallel. Each element is processed in its own
+ * non-blocking read action in a thread pool bounded to the number of available cores.
+ * <p>
+ * A non-blocking read action is cancelled and restarted whenever a write action is requested, thus the
+ * processing of an element must not have side effects. For this reason, each element is processed
+ * with its own {@link InstrumentPlan} and {@link InstrumentResultMessage}. These fragments are merged
+ * in the order of the elements list, which keeps the result independent of the thread scheduling.
+ * Only a window of twice as many elements as threads is submitted at a time, and each element is submitted
+ * once another is merged. Thus, the promises and the fragments held by a scan do not grow with its size.
+ * <p>
+ * Source files are scanned with {@link #scanFilesInParallel}, which receives the files as {@link VirtualFile}
+ * and loads the PSI of one file at a time. The PSI is not referenced once the file is processed, thus it can
+ * be garbage-collected and the memory used by a scan does not grow with the size of the project.
+ * <p>
+ * The source files are recorded in the {@link InstrumentLedger} of the project once the plan is applied, and the
+ * files that did not change since they were last processed are skipped. By default, the plan is applied once the
+ * instrumentation finishes, thus a run is a single undo step and a cancelled run does not modify any file.
+ * If the project enables the checkpoints (see {@link InstrumentSettings#isCheckpointsEnabled()}), the plan is
+ * applied every {@value #CHECKPOINT_SIZE} files instead. Thus, an interrupted scan keeps the edits of the last
+ * checkpoint and the next run resumes from it, but each checkpoint is a separate undo step.
+ * There are no checkpoints in {@link InstrumentPlan#isPreviewMode() preview mode}.
+ */
+public final class InstrumentScanner {
+    private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "NAPPA Instrumentation Scanner", THREAD_COUNT);
+    // Twice the threads, thus a thread does not wait for the merge of the previous elements to start the next one
+    private static final int WINDOW_SIZE = THREAD_COUNT * 2;
+    private static final int CHECKPOINT_SIZE = 200;
+    private static final String CHECKPOINT_COMMAND_NAME = "NAPPA Instrumentation Checkpoint";
+
+    private InstrumentScanner() {
+        throw new IllegalStateException("InstrumentScanner is a utility class and should be instantiated!");
+    }
+
+    /**
+     * Processes a single element of the scan
+     *
+     * @param <T> The type of the scanned elements
+     */
+    @FunctionalInterface
+    public interface Processor<T> {
+        /**
+         * @param element       The element to process
+         * @param plan          The plan collecting the edits for this element
+         * @param resultMessage The result message collecting the outcome for this element
+         */
+        void process(@NotNull T element, @NotNull InstrumentPlan plan, @NotNull InstrumentResultMessage resultMessage);
+    }
+
+    /**
+     * The outcome of processing a single element
+     */
+    private static class Fragment {
+        private final InstrumentPlan plan;
+        private final InstrumentResultMessage resultMessage;
+
+        private Fragment(InstrumentPlan plan, InstrumentResultMessage resultMessage) {
+            this.plan = plan;
+            this.resultMessage = resultMessage;
+        }
+    }
+
+    /**
+     * Process all source {@code files} in parallel. The PSI of each file is loaded in the read action processing
+     * the file. The files that are not of the {@code fileClass}, Kotlin scripts, the files from the NAPPA
+     * library and the files that did not change since they were last processed for all {@code kinds} are skipped.
+     * <p>
+     * The processed files are recorded in the {@link InstrumentLedger} once the {@code plan} is applied, either at
+     * a checkpoint, if enabled, or when the instrumentation finishes. This method must not be invoked in the Event
+     * Dispatch Thread.
+     *
+     * @param project       An object representing an IntelliJ project.
+     * @param files         The source files to process
+     * @param fileClass     The class of the PSI files to process, e.g. {@link com.intellij.psi.PsiJavaFile}
+     * @param kinds         The kinds of the sites instrumented by the {@code processor}
+     * @param processor     The callback invoked for each file under read access
+     * @param indicator     The progress indicator of the running task
+     * @param plan          The plan collecting the edits of the instrumentation
+     * @param resultMessage The result message to fill with the outcome of the instrumentation
+     * @param <F>           The type of the PSI files
+     */
+    public static <F extends PsiFile> void scanFilesInParallel(@NotNull Project project,
+                                                               @NotNull List<VirtualFile> files,
+                                                               @NotNull Class<F> fileClass,
+                                                               @NotNull Collection<InstrumentSiteKind> kinds,
+                                                               @NotNull Processor<F> processor,
+                                                               @NotNull ProgressIndicator indicator,
+                                                               @NotNull InstrumentPlan plan,
+                                                               @NotNull InstrumentResultMessage resultMessage) {
+        PsiManager psiManager = PsiManager.getInstance(project);
+        InstrumentLedger ledger = InstrumentLedger.load(project);
+        // Sets are used since a read action may be restarted, thus a file may be visited more than once
+        Set<VirtualFile> unchangedFiles = ConcurrentHashMap.newKeySet();
+        Set<VirtualFile> processedFiles = ConcurrentHashMap.newKeySet();
+        Map<VirtualFile, Integer> pendingFiles = new LinkedHashMap<>();
+        boolean checkpoints = InstrumentSettings.getInstance(project).isCheckpointsEnabled();
+
+        scanInParallel(project, files, (virtualFile, filePlan, fileResultMessage) -> {
+            long start = System.nanoTime();
+            PsiFile psiFile = fileResultMessage.measure(InstrumentPhase.FILTERING, () -> {
+                if (!virtualFile.isValid()) return null;
+                if (kinds.stream().allMatch(kind -> ledger.isUpToDate(kind, virtualFile))) {
+                    unchangedFiles.add(virtualFile);
+                    return null;
+                }
+                PsiFile file = psiManager.findFile(virtualFile);
+                if (!fileClass.isInstance(file) || !file.isValid()) return null;
+                if (file instanceof KtFile && ((KtFile) file).isScript()) return null;
+                if (file instanceof PsiClassOwner && InstrumentUtil.isNappaLibraryPackage(((PsiClassOwner) file).getPackageName()))
+                    return null;
+                return file;
+            });
+            if (psiFile == null) return;
+            fileResultMessage.measure(InstrumentPhase.VISITING, () -> processor.process(fileClass.cast(psiFile), filePlan, fileResultMessage));
+            fileResultMessage.recordFileTime(virtualFile.getPath(), System.nanoTime() - start);
+            processedFiles.add(virtualFile);
+        }, (virtualFile, probes, mergedFiles) -> {
+            // In preview mode, the plan is applied only if the user accepts it, thus the files are not recorded
+            if (plan.isPreviewMode()) return;
+            if (processedFiles.contains(virtualFile)) pendingFiles.put(virtualFile, probes);
+            boolean isCheckpoint = checkpoints && mergedFiles % CHECKPOINT_SIZE == 0;
+            if (!isCheckpoint && mergedFiles != files.size()) return;
+
+            // If an edit was skipped, the files are not recorded so the next run processes them again
+            Map<VirtualFile, Integer> appliedFiles = new LinkedHashMap<>(pendingFiles);
+            pendingFiles.clear();
+            plan.runAfterApply(() -> {
+                appliedFiles.forEach((file, fileProbes) -> kinds.forEach(kind -> ledger.record(kind, file, fileProbes)));
+                ledger.save();
+            });
+            if (checkpoints)
+                ApplicationManager.getApplication().invokeAndWait(() -> plan.apply(CHECKPOINT_COMMAND_NAME, resultMessage));
+        }, indicator, plan, resultMessage);
+
+        if (!unchangedFiles.isEmpty())
+            resultMessage.appendNewBlock()
+                    .appendText(unchangedFiles.size() + " file(s) were skipped because they did not change since the last instrumentation.");
+    }
+
+    /**
+     * Process all {@code elements} in parallel and merge the outcome of each element into the {@code plan}
+     * and {@code resultMessage}. This method blocks until all elements are processed and must not be invoked
+     * while holding a read action.
+     *
+     * @param project       An object representing an IntelliJ project.
+     * @param elements      The elements to process
+     * @param processor     The callback invoked for each element under read access
+     * @param indicator     The progress indicator of the running task
+     * @param plan          The plan collecting the edits of the instrumentation
+     * @param resultMessage The result message to fill with the outcome of the instrumentation
+     * @param <T>           The type of the scanned elements
+     */
+    public static <T> void scanInParallel(@NotNull Project project,
+                                          @NotNull List<T> elements,
+                                          @NotNull Processor<T> processor,
+                                          @NotNull ProgressIndicator indicator,
+                                          @NotNull InstrumentPlan plan,
+                                          @NotNull InstrumentResultMessage resultMessage) {
+        scanInParallel(project, elements, processor, null, indicator, plan, resultMessage);
+    }
+
+    /**
+     * Invoked in the scanning thread after the outcome of an element is merged
+     *
+     * @param <T> The type of the scanned elements
+     */
+    @FunctionalInterface
+    private interface MergeListener<T> {
+        /**
+         * @param element        The merged element
+         * @param edits          The number of edits registered for the element
+         * @param mergedElements The number of elements merged so far, including this element
+         */
+        void merged(@NotNull T element, int edits, int mergedElements);
+    }
+
+    /**
+     * See {@link #scanInParallel(Project, List, Processor, ProgressIndicator, InstrumentPlan, InstrumentResultMessage)}
+     *
+     * @param mergeListener The listener notified after the outcome of each element is merged, if any
+     */
+    private static <T> void scanInParallel(@NotNull Project project,
+                                           @NotNull List<T> elements,
+                                           @NotNull Processor<T> processor,
+                                           @Nullable MergeListener<T> mergeListener,
+                                           @NotNull ProgressIndicator indicator,
+                                           @NotNull InstrumentPlan plan,
+                                           @NotNull InstrumentResultMessage resultMessage) {
+        // Only a window of elements is in flight, thus the fragments waiting to be merged do not grow with the scan
+        Deque<CancellablePromise<Fragment>> promises = new ArrayDeque<>(WINDOW_SIZE);
+        int submittedElements = 0;
+        try {
+            for (int i = 0; i < elements.size(); i++) {
+                while (submittedElements < elements.size() && promises.size() < WINDOW_SIZE) {
+                    promises.addLast(submit(project, elements.get(submittedElements), processor, indicator, resultMessage));
+                    submittedElements++;
+                }
+
+                InstrumentTask.reportFileProgress(indicator, i, elements.size());
+                Fragment fragment = ProgressIndicatorUtils.awaitWithCheckCanceled(promises.removeFirst(), indicator);
+                int edits = fragment.plan.getEditCount();
+                plan.merge(fragment.plan);
+                resultMessage.merge(fragment.resultMessage);
+                if (mergeListener != null) mergeListener.merged(elements.get(i), edits, i + 1);
+            }
+        } finally {
+            // Stop processing the remaining elements if the task was cancelled or an element failed
+            for (CancellablePromise<Fragment> promise : promises) {
+                promise.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Submit the processing of an element to the thread pool, in its own non-blocking read action
+     *
+     * @param project       An object representing an IntelliJ project.
+     * @param element       The element to process
+     * @param processor     The callback invoked for the element under read access
+     * @param indicator     The progress indicator of the running task
+     * @param resultMessage The message the outcome is merged into, which creates the message of the element
+     * @param <T>           The type of the scanned elements
+     * @return The promise of the outcome of the element
+     */
+    private static @NotNull
+    <T> CancellablePromise<Fragment> submit(@NotNull Project project,
+                                            @NotNull T element,
+                                            @NotNull Processor<T> processor,
+                                            @NotNull ProgressIndicator indicator,
+                                            @NotNull InstrumentResultMessage resultMessage) {
+        return ReadAction
+                .nonBlocking(() -> {
+                    InstrumentPlan elementPlan = new InstrumentPlan(project);
+                    InstrumentResultMessage elementResultMessage = resultMessage.createFragment();
+                    processor.process(element, elementPlan, elementResultMessage);
+                    return new Fragment(elementPlan, elementResultMessage);
+                })
+                .inSmartMode(project)
+                .wrapProgress(indicator)
+                .expireWith(project)
+                .submit(EXECUTOR);
+    }
+}
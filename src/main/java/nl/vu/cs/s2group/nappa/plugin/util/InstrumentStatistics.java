@@ -0,0 +1,128 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A snapshot of the counters and timings of an instrumentation, see {@link InstrumentResultMessage#getStatistics}.
+ * The statistics are serialized as JSON, thus the performance of the instrumentations can be compared across runs.
+ * <p>
+ * The time of a phase is the sum of the time spent in it by all threads, thus the phases of a parallel scan may
+ * add up to more than the total time of the action.
+ */
+public final class InstrumentStatistics {
+    private static final Logger LOG = Logger.getInstance(InstrumentStatistics.class);
+    private static final String STATISTICS_FILE_NAME = "statistics.jsonl";
+
+    // The fields are read by Gson when serializing the statistics
+    private final String timestamp = Instant.now().toString();
+    private final int processedElements;
+    private final int possibleInstrumentations;
+    private final int instrumentations;
+    private final int alreadyInstrumented;
+    private final int unneededInstrumentations;
+    private final Map<String, Double> actionMillis = new LinkedHashMap<>();
+    private final Map<String, Double> phaseMillis = new LinkedHashMap<>();
+    private final List<FileTime> slowestFiles = new ArrayList<>();
+
+    /**
+     * The time spent processing a single file
+     */
+    static final class FileTime {
+        private final String path;
+        private final double millis;
+
+        FileTime(@NotNull String path, long nanos) {
+            this.path = path;
+            this.millis = toMillis(nanos);
+        }
+    }
+
+    InstrumentStatistics(@NotNull InstrumentResultMessage resultMessage) {
+        processedElements = resultMessage.getProcessedElementsCount();
+        possibleInstrumentations = resultMessage.getPossibleInstrumentationCount();
+        instrumentations = resultMessage.getInstrumentationCount();
+        alreadyInstrumented = resultMessage.getAlreadyInstrumentedCount();
+        unneededInstrumentations = resultMessage.getUnneededInstrumentationCount();
+    }
+
+    void addActionTime(@NotNull String action, long nanos) {
+        actionMillis.put(action, toMillis(nanos));
+    }
+
+    void addPhaseTime(@NotNull InstrumentPhase phase, long nanos) {
+        phaseMillis.put(phase.name().toLowerCase(), toMillis(nanos));
+    }
+
+    void addSlowFile(@NotNull FileTime fileTime) {
+        slowestFiles.add(fileTime);
+    }
+
+    /**
+     * @return The total time of each action, in milliseconds
+     */
+    public @NotNull
+    Map<String, Double> getActionMillis() {
+        return Collections.unmodifiableMap(actionMillis);
+    }
+
+    /**
+     * @return The time spent in each phase, in milliseconds
+     */
+    public @NotNull
+    Map<String, Double> getPhaseMillis() {
+        return Collections.unmodifiableMap(phaseMillis);
+    }
+
+    /**
+     * @param prettyPrinting {@code True} to indent the JSON or {@code False} to write it in a single line
+     * @return The statistics serialized as JSON
+     */
+    public @NotNull
+    String toJson(boolean prettyPrinting) {
+        GsonBuilder builder = new GsonBuilder().disableHtmlEscaping();
+        if (prettyPrinting) builder.setPrettyPrinting();
+        Gson gson = builder.create();
+        return gson.toJson(this);
+    }
+
+    /**
+     * Appends the statistics as a single line to the file {@code .nappa/statistics.jsonl} in the project directory,
+     * which holds the statistics of all runs. A failure to write is logged and does not interrupt the instrumentation.
+     *
+     * @param project An object representing an IntelliJ project.
+     */
+    public void appendToProjectLog(@NotNull Project project) {
+        String basePath = project.getBasePath();
+        if (basePath == null) return;
+
+        Path path = Paths.get(basePath, InstrumentLedger.NAPPA_DIRECTORY, STATISTICS_FILE_NAME);
+        try {
+            Files.createDirectories(path.getParent());
+            Files.write(path, Collections.singletonList(toJson(false)), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            LOG.warn("Failed to write the instrumentation statistics to " + path, e);
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+}
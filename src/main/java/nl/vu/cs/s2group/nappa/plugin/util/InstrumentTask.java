@@ -0,0 +1,171 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import nl.vu.cs.s2group.nappa.plugin.toolwindow.InstrumentResultPanel;
+import nl.vu.cs.s2group.nappa.plugin.toolwindow.InstrumentResultToolWindowFactory;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Runs an instrumentation as a cancellable background task. The progress of the scan is shown in the IDE
+ * progress bar and its results are listed in the NAPPA tool window as they are found, see
+ * {@link InstrumentResultToolWindowFactory}.
+ * <p>
+ * The scan only registers edits in an {@link InstrumentPlan}. The plan is applied in the Event Dispatch Thread
+ * when the scan succeeds, in a single command, thus the run is undone in a single step and cancelling the task does
+ * not modify any file. If the project enables the checkpoints of long scans (see
+ * {@link InstrumentScanner#scanFilesInParallel}), cancelling the task keeps the edits applied up to the last
+ * checkpoint and discards the others, and each checkpoint is undone separately.
+ * In {@link InstrumentPlan#isPreviewMode() preview mode}, the changes are shown in a diff viewer once the scan
+ * finishes and the plan is only applied if the user accepts them, see {@link InstrumentPreview}.
+ * <p>
+ * Only a single instrumentation can run in a project at a time. Two instrumentations running simultaneously
+ * could otherwise modify the same source files.
+ */
+public class InstrumentTask extends Task.Backgroundable {
+    private static final Set<Project> runningProjects = ConcurrentHashMap.newKeySet();
+
+    private final InstrumentPlan plan;
+    private final InstrumentResultMessage resultMessage;
+    private final String resultTitle;
+    private final String errorTitle;
+    private final Consumer<ProgressIndicator> instrumentation;
+    private InstrumentPreview preview;
+    private InstrumentResultPanel resultPanel;
+
+    /**
+     * @param project         An object representing an IntelliJ project.
+     * @param title           The title of the task shown in the progress bar
+     * @param plan            The plan filled by the instrumentation
+     * @param resultMessage   The result message filled by the instrumentation
+     * @param resultTitle     The title of the results tab
+     * @param errorTitle      The title of the error dialog
+     * @param instrumentation The instrumentation to run in background
+     */
+    public InstrumentTask(@NotNull Project project,
+                          @NotNull String title,
+                          @NotNull InstrumentPlan plan,
+                          @NotNull InstrumentResultMessage resultMessage,
+                          @NotNull String resultTitle,
+                          @NotNull String errorTitle,
+                          @NotNull Consumer<ProgressIndicator> instrumentation) {
+        super(project, title, true);
+        this.plan = plan;
+        this.resultMessage = resultMessage;
+        this.resultTitle = resultTitle;
+        this.errorTitle = errorTitle;
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Verifies if there is an instrumentation task running in the project
+     *
+     * @param project An object representing an IntelliJ project.
+     * @return {@code True} if an instrumentation is running or {@code False} otherwise
+     */
+    public static boolean isRunning(@NotNull Project project) {
+        return runningProjects.contains(project);
+    }
+
+    /**
+     * Starts the task and opens its results tab, unless there is another instrumentation task running in the project.
+     */
+    @Override
+    public void queue() {
+        Project project = getProject();
+        if (!runningProjects.add(project)) {
+            Messages.showWarningDialog(project,
+                    "Another NAPPA instrumentation is running in this project. Wait until it finishes and try again.",
+                    getTitle());
+            return;
+        }
+        // If the task is not queued, onFinished never runs, thus the project would stay marked as running
+        try {
+            resultPanel = InstrumentResultToolWindowFactory.showRun(project, resultTitle, resultMessage);
+            super.queue();
+        } catch (RuntimeException | Error e) {
+            runningProjects.remove(project);
+            if (resultPanel != null) resultPanel.finish("Failed");
+            throw e;
+        }
+    }
+
+    @Override
+    public void run(@NotNull ProgressIndicator indicator) {
+        indicator.setIndeterminate(false);
+        instrumentation.accept(indicator);
+        if (plan.isPreviewMode()) preview = InstrumentPreview.compute(getProject(), plan, indicator);
+    }
+
+    @Override
+    public void onSuccess() {
+        if (preview != null && !preview.isEmpty() && !preview.showAndConfirm(getProject(), resultTitle)) {
+            resultMessage.appendNewBlock().appendText("The instrumentation was not applied. No file was modified.");
+            showResult("Not applied");
+            return;
+        }
+
+        int skippedEdits = plan.apply(getTitle(), resultMessage);
+        if (skippedEdits > 0)
+            resultMessage.appendNewBlock()
+                    .appendText(skippedEdits + " edit(s) were not applied because the source code changed during the scan. Run the instrumentation again to complete it.");
+        resultMessage.getStatistics().appendToProjectLog(getProject());
+        showResult("Finished");
+    }
+
+    @Override
+    public void onCancel() {
+        resultMessage.appendNewBlock();
+        if (plan.hasAppliedEdits())
+            resultMessage.appendText("The instrumentation was cancelled. The files instrumented up to the last checkpoint were kept. " +
+                    "Run the instrumentation again to resume it, or undo each checkpoint to revert it.");
+        else
+            resultMessage.appendText("The instrumentation was cancelled. No file was modified.");
+        showResult("Cancelled");
+    }
+
+    @Override
+    public void onThrowable(@NotNull Throwable error) {
+        if (resultPanel != null) resultPanel.finish("Failed");
+        resultMessage.showErrorDialog(getProject(), error, errorTitle);
+    }
+
+    @Override
+    public void onFinished() {
+        runningProjects.remove(getProject());
+    }
+
+    /**
+     * Completes the results tab with the last records. If the tool window is not available, only the overview of
+     * the result is shown in a dialog.
+     *
+     * @param status The outcome of the instrumentation
+     */
+    private void showResult(@NotNull String status) {
+        if (resultPanel != null) {
+            resultPanel.finish(status);
+            return;
+        }
+        resultMessage.flush();
+        Messages.showInfoMessage(getProject(), status + ".\n\n" + resultMessage.getInstrumentationOverview(), resultTitle);
+    }
+
+    /**
+     * Updates the progress bar with the number of files processed and checks if the task was cancelled
+     *
+     * @param indicator The progress indicator of the running task
+     * @param processed The number of files processed so far
+     * @param total     The total number of files to process
+     */
+    public static void reportFileProgress(@NotNull ProgressIndicator indicator, int processed, int total) {
+        indicator.checkCanceled();
+        indicator.setFraction(total == 0 ? 1 : (double) processed / total);
+        indicator.setText2("Scanning file " + (processed + 1) + " of " + total);
+    }
+}
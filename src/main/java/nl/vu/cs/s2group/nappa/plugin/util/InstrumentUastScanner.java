@@ -0,0 +1,274 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSite;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteIndex;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.uast.*;
+import org.jetbrains.uast.visitor.AbstractUastVisitor;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Scans the Java and Kotlin files of a project in a single pass over their UAST (Unified Abstract Syntax Tree).
+ * <p>
+ * UAST represents the source code of both languages with the same elements, e.g. a Java method call and a Kotlin
+ * function call are both a {@link org.jetbrains.uast.UCallExpression UCallExpression}. Thus, the files of both
+ * languages are listed and scanned together, and the sites are matched by the same code regardless of the language.
+ * Only the edits are language specific, since they are written to the PSI of the file, see {@link SiteMatcher}.
+ * <p>
+ * The files are scanned in parallel, see {@link InstrumentScanner#scanFilesInParallel}. The UAST of a file is built
+ * while it is visited, and only the nodes containing a site recorded in the {@link InstrumentSiteIndex} are visited.
+ * Thus, the UAST of the declarations without sites is never built. The matchers of several kinds can share a single
+ * scan, see {@link #scanProject(Project, List, ProgressIndicator, InstrumentPlan, InstrumentResultMessage)}.
+ */
+public final class InstrumentUastScanner {
+
+    private InstrumentUastScanner() {
+        throw new IllegalStateException("InstrumentUastScanner is a utility class and should be instantiated!");
+    }
+
+    /**
+     * Matches the sites of a kind in the UAST of the scanned files and registers the edits to instrument them
+     */
+    public interface SiteMatcher {
+        /**
+         * @return The kind of the sites to instrument
+         */
+        @NotNull
+        InstrumentSiteKind getKind();
+
+        /**
+         * @return The types of the source files this matcher can instrument, e.g. {@code JavaFileType.INSTANCE}
+         */
+        @NotNull
+        List<FileType> getFileTypes();
+
+        /**
+         * Verifies if a node is a site to instrument. This method is invoked under read access for each node
+         * containing a site of the {@link #getKind() kind} which is not instrumented yet, and it must not depend on
+         * the language of the file. The nodes inside a matched site are not visited.
+         *
+         * @param node          A UAST node of the scanned file
+         * @param resultMessage The result message of the scanned file
+         * @return {@code True} if the node is a site to instrument or {@code False} otherwise
+         */
+        boolean matches(@NotNull UElement node, @NotNull InstrumentResultMessage resultMessage);
+
+        /**
+         * Registers the edits to instrument a site matched by {@link #matches}. The edits are written to the PSI
+         * of the file, thus this is the only step specific to the language of the site,
+         * see {@link UElement#getSourcePsi()}.
+         *
+         * @param site          The matched site
+         * @param plan          The plan collecting the edits of the scanned file
+         * @param resultMessage The result message of the scanned file
+         */
+        void instrument(@NotNull UElement site, @NotNull InstrumentPlan plan, @NotNull InstrumentResultMessage resultMessage);
+    }
+
+    /**
+     * Receives the sites matched while visiting a file, see {@link #visitFile}
+     */
+    @FunctionalInterface
+    public interface SiteConsumer {
+        /**
+         * @param matcher The matcher which matched the site
+         * @param site    The matched site
+         */
+        void consume(@NotNull SiteMatcher matcher, @NotNull UElement site);
+    }
+
+    /**
+     * Lists the source files with sites of the {@code matcher} kind and scans them in parallel, in a single pass
+     * for all languages. This method must not be invoked in the Event Dispatch Thread.
+     *
+     * @param project       An object representing an IntelliJ project.
+     * @param matcher       The matcher of the sites to instrument
+     * @param indicator     The progress indicator of the running task
+     * @param plan          The plan collecting the edits of the instrumentation
+     * @param resultMessage The result message to fill with the outcome of the instrumentation
+     */
+    public static void scanProject(@NotNull Project project,
+                                   @NotNull SiteMatcher matcher,
+                                   @NotNull ProgressIndicator indicator,
+                                   @NotNull InstrumentPlan plan,
+                                   @NotNull InstrumentResultMessage resultMessage) {
+        scanProject(project, Collections.singletonList(matcher), indicator, plan, resultMessage);
+    }
+
+    /**
+     * Lists the source files with sites of any of the {@code matchers} kinds and scans them in parallel. Each file
+     * is visited once and each node is sent to all matchers with a site in it, thus instrumenting the sites of
+     * several kinds costs about the same as instrumenting a single kind. A matcher only receives the nodes of the
+     * files of its {@link SiteMatcher#getFileTypes() types}. This method must not be invoked in the
+     * Event Dispatch Thread.
+     *
+     * @param project       An object representing an IntelliJ project.
+     * @param matchers      The matchers of the sites to instrument, each of a different kind
+     * @param indicator     The progress indicator of the running task
+     * @param plan          The plan collecting the edits of the instrumentation
+     * @param resultMessage The result message to fill with the outcome of the instrumentation
+     */
+    public static void scanProject(@NotNull Project project,
+                                   @NotNull List<SiteMatcher> matchers,
+                                   @NotNull ProgressIndicator indicator,
+                                   @NotNull InstrumentPlan plan,
+                                   @NotNull InstrumentResultMessage resultMessage) {
+        List<VirtualFile> files = resultMessage.measure(InstrumentPhase.ENUMERATION, () -> DumbService.getInstance(project)
+                .runReadActionInSmartMode(() -> {
+                    Set<VirtualFile> candidateFiles = new LinkedHashSet<>();
+                    for (SiteMatcher matcher : matchers) {
+                        candidateFiles.addAll(InstrumentUtil.getCandidateFilesInProject(project, matcher.getKind(),
+                                matcher.getFileTypes().toArray(new FileType[0])));
+                    }
+                    return new ArrayList<>(candidateFiles);
+                }));
+        List<InstrumentSiteKind> kinds = matchers.stream().map(SiteMatcher::getKind).collect(Collectors.toList());
+
+        InstrumentScanner.scanFilesInParallel(project, files, PsiFile.class, kinds, (psiFile, filePlan, fileResultMessage) -> {
+            List<List<InstrumentSite>> sites = fileResultMessage.measure(InstrumentPhase.FILTERING, () -> {
+                List<List<InstrumentSite>> matcherSites = new ArrayList<>(matchers.size());
+                for (SiteMatcher matcher : matchers) {
+                    matcherSites.add(matcher.getFileTypes().contains(psiFile.getFileType())
+                            ? InstrumentSiteIndex.getPendingSites(project, psiFile.getVirtualFile(), matcher.getKind())
+                            : Collections.emptyList());
+                }
+                return matcherSites;
+            });
+            scanFile(psiFile, sites, matchers, filePlan, fileResultMessage);
+        }, indicator, plan, resultMessage);
+    }
+
+    /**
+     * Visits the UAST of a file and instruments the sites matched by the {@code matcher}. The subtrees without
+     * any of the {@code sites} are skipped. This method must be invoked under read access.
+     *
+     * @param psiFile       A Java or Kotlin source file
+     * @param sites         The sites of the file which are not instrumented yet, see {@link InstrumentSiteIndex#getPendingSites}
+     * @param matcher       The matcher of the sites to instrument
+     * @param plan          The plan collecting the edits of the file
+     * @param resultMessage The result message of the file
+     */
+    static void scanFile(@NotNull PsiFile psiFile,
+                         @NotNull List<InstrumentSite> sites,
+                         @NotNull SiteMatcher matcher,
+                         @NotNull InstrumentPlan plan,
+                         @NotNull InstrumentResultMessage resultMessage) {
+        scanFile(psiFile, Collections.singletonList(sites), Collections.singletonList(matcher), plan, resultMessage);
+    }
+
+    /**
+     * Visits the UAST of a file once and instruments the sites matched by each of the {@code matchers}. A node is
+     * only sent to the matchers with a site in it, and the subtrees without any site are skipped. The nodes inside
+     * a site matched by a matcher are not sent to this matcher, but they are still sent to the other matchers.
+     * This method must be invoked under read access.
+     *
+     * @param psiFile       A Java or Kotlin source file
+     * @param sites         The sites of the file which are not instrumented yet for each matcher, in the same order
+     *                      as the {@code matchers}, see {@link InstrumentSiteIndex#getPendingSites}
+     * @param matchers      The matchers of the sites to instrument
+     * @param plan          The plan collecting the edits of the file
+     * @param resultMessage The result message of the file
+     */
+    static void scanFile(@NotNull PsiFile psiFile,
+                         @NotNull List<List<InstrumentSite>> sites,
+                         @NotNull List<SiteMatcher> matchers,
+                         @NotNull InstrumentPlan plan,
+                         @NotNull InstrumentResultMessage resultMessage) {
+        visitFile(psiFile, sites, matchers, resultMessage, (matcher, site) -> matcher.instrument(site, plan, resultMessage));
+    }
+
+    /**
+     * Visits the UAST of a file once and sends the sites matched by each of the {@code matchers} to the
+     * {@code consumer}, as {@link #scanFile(PsiFile, List, List, InstrumentPlan, InstrumentResultMessage)} does.
+     * It is used to find the sites without instrumenting them, e.g. to highlight them in the editor.
+     * This method must be invoked under read access.
+     *
+     * @param psiFile       A Java or Kotlin source file
+     * @param sites         The sites of the file which are not instrumented yet for each matcher, in the same order
+     *                      as the {@code matchers}
+     * @param matchers      The matchers of the sites to find
+     * @param resultMessage The result message of the file
+     * @param consumer      The callback invoked for each matched site, in the order they are visited
+     */
+    public static void visitFile(@NotNull PsiFile psiFile,
+                                 @NotNull List<List<InstrumentSite>> sites,
+                                 @NotNull List<SiteMatcher> matchers,
+                                 @NotNull InstrumentResultMessage resultMessage,
+                                 @NotNull SiteConsumer consumer) {
+        if (sites.stream().allMatch(List::isEmpty)) return;
+        UFile uFile = UastContextKt.toUElement(psiFile, UFile.class);
+        if (uFile == null) return;
+
+        uFile.accept(new AbstractUastVisitor() {
+            // The matchers which matched an ancestor of the visited node, mapped to this ancestor
+            private final Map<SiteMatcher, UElement> matchedAncestors = new HashMap<>();
+
+            /**
+             * @param node {@inheritDoc}
+             * @return {@code True} to skip the children of the node or {@code False} to visit them
+             */
+            @Override
+            public boolean visitElement(@NotNull UElement node) {
+                ProgressManager.checkCanceled();
+                // Implicit nodes (e.g. a default constructor) do not have source, but their children might
+                PsiElement sourcePsi = node.getSourcePsi();
+                List<SiteMatcher> activeMatchers = new ArrayList<>(matchers.size());
+                for (int i = 0; i < matchers.size(); i++) {
+                    SiteMatcher matcher = matchers.get(i);
+                    List<InstrumentSite> matcherSites = sites.get(i);
+                    if (matcherSites.isEmpty() || matchedAncestors.containsKey(matcher)) continue;
+                    if (sourcePsi == null || InstrumentSiteIndex.containsAnySite(sourcePsi, matcherSites))
+                        activeMatchers.add(matcher);
+                }
+                if (activeMatchers.isEmpty()) return true;
+
+                resultMessage.incrementProcessedElementsCount();
+                boolean visitChildren = false;
+                for (SiteMatcher matcher : activeMatchers) {
+                    if (matcher.matches(node, resultMessage)) {
+                        consumer.consume(matcher, node);
+                        matchedAncestors.put(matcher, node);
+                    } else {
+                        visitChildren = true;
+                    }
+                }
+                // The children are not visited, thus afterVisitElement is not invoked for this node
+                if (!visitChildren) afterVisitElement(node);
+                return !visitChildren;
+            }
+
+            @Override
+            public void afterVisitElement(@NotNull UElement node) {
+                matchedAncestors.values().removeIf(ancestor -> ancestor == node);
+            }
+        });
+    }
+
+    /**
+     * Get the name of the method, function or class called, e.g. {@code startActivity} in {@code startActivity(intent)}
+     * or {@code Builder} in {@code new Retrofit.Builder()}. The name is read from the source when the call cannot be
+     * resolved, e.g. when the library declaring it is not indexed yet.
+     *
+     * @param call A method or constructor call in Java or Kotlin
+     * @return The simple name of the callee or {@code null} if it is unknown
+     */
+    public static @Nullable
+    String getCalleeName(@NotNull UCallExpression call) {
+        UIdentifier identifier = call.getMethodIdentifier();
+        if (identifier != null) return identifier.getName();
+        UReferenceExpression classReference = call.getClassReference();
+        return classReference != null ? classReference.getResolvedName() : call.getMethodName();
+    }
+}
@@ -1,21 +1,21 @@
 package nl.vu.cs.s2group.nappa.plugin.util;
 
-import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
-import com.intellij.psi.search.FilenameIndex;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.util.PsiTreeUtil;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteIndex;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteKind;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.psi.KtClass;
 import org.jetbrains.kotlin.psi.KtModifierList;
 
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.function.Consumer;
+import java.util.*;
 
 /**
  * An class containing common utility methods to simplify the instrumentation actions
@@ -33,105 +33,55 @@ public final class InstrumentUtil {
     }
 
     /**
-     * Scan the project directory for all source files to search for all Java source files
+     * Search the {@link InstrumentSiteIndex} for the source files of the {@code fileTypes} containing sites of the
+     * {@code kind} which are not instrumented yet. Only the index is consulted, thus the PSI of the files is not
+     * loaded. The PSI is loaded one file at a time while scanning, see {@link InstrumentScanner#scanFilesInParallel}.
      *
-     * @param project An object representing an IntelliJ project.
-     * @return A list of all Java source files in the project
+     * @param project   An object representing an IntelliJ project.
+     * @param kind      The kind of the sites to instrument
+     * @param fileTypes The types of the source files, e.g. {@link JavaFileType#INSTANCE}
+     * @return A list of the source files with sites to instrument
      */
     public static @NotNull
-    List<PsiFile> getAllJavaFilesInProjectAsPsi(Project project) {
-        List<PsiFile> psiFiles = new LinkedList<>();
-        String[] fileNames = FilenameIndex.getAllFilenames(project);
-
-        fileNames = Arrays.stream(fileNames)
-                .filter(fileName -> fileName.contains(".java"))
-                .toArray(String[]::new);
-
-        for (String fileName : fileNames) {
-            PsiFile[] psiJavaFiles = FilenameIndex.getFilesByName(project, fileName, GlobalSearchScope.projectScope(project));
-            // Remove the files from the NAPPA library from the list to process
-            psiJavaFiles = Arrays.stream(psiJavaFiles)
-                    .filter(psiJavaFile -> {
-                        String packageName = ((PsiJavaFile) psiJavaFile).getPackageName();
-                        return !packageName.contains(NAPPA_PACKAGE_NAME) || packageName.contains(NAPPA_SAMPLE_APP_PACKAGE_NAME);
-                    })
-                    .toArray(PsiFile[]::new);
-
-            psiFiles.addAll(Arrays.asList(psiJavaFiles));
-        }
-
-        return psiFiles;
+    List<VirtualFile> getCandidateFilesInProject(@NotNull Project project, @NotNull InstrumentSiteKind kind, @NotNull FileType... fileTypes) {
+        GlobalSearchScope scope = GlobalSearchScope.getScopeRestrictedByFileTypes(
+                GlobalSearchScope.projectScope(project), fileTypes);
+        return new ArrayList<>(InstrumentSiteIndex.getFilesWithPendingSites(scope, kind));
     }
 
     /**
-     * @param project    An object representing an IntelliJ project.
-     * @param psiElement The reference element to add the library import to
+     * Verifies if a package belongs to the NAPPA library. The sample app is not considered part of the library.
+     *
+     * @param packageName The qualified name of a package
+     * @return {@code True} if it is a package of the library or {@code False} otherwise
      */
-    public static void addLibraryImport(Project project, @NotNull PsiElement psiElement) {
-        PsiJavaFile psiJavaFile = (PsiJavaFile) getAncestorPsiElementFromElement(psiElement, PsiJavaFile.class);
-
-        if (psiJavaFile == null) return;
-        PsiImportList importList = psiJavaFile.getImportList();
-        if (importList == null || importList.findOnDemandImportStatement(NAPPA_PACKAGE_NAME) != null) return;
-        WriteCommandAction.runWriteCommandAction(project, () -> {
-            importList.add(PsiElementFactory.getInstance(project).createImportStatementOnDemand(NAPPA_PACKAGE_NAME));
-        });
+    public static boolean isNappaLibraryPackage(@NotNull String packageName) {
+        return packageName.contains(NAPPA_PACKAGE_NAME) && !packageName.contains(NAPPA_SAMPLE_APP_PACKAGE_NAME);
     }
 
     /**
-     * Iterate the Java files structure until reaching the statement level (e.g. {@code String a = "text"}).
-     * Upon reaching a statement, invokes the {@code callback} function passing the statement as parameter
+     * Request the library import in the file of the {@code psiElement}. The import is added once per file when the
+     * plan is applied, unless the file already imports it, thus it can be requested for each instrumented site.
      *
-     * @param psiFiles    A list of all Java files within a project
-     * @param fileFilter  Skip all files that does not contain any of the strings in the provided array
-     * @param classFilter Skip all classes that does not contain any of the strings in the provided array
-     * @param callback    A callback function invoked for each statement found in all files
+     * @param plan       The plan collecting the edits of the running instrumentation
+     * @param psiElement The reference element to add the library import to
      */
-    public static void runScanOnJavaFile(@NotNull List<PsiFile> psiFiles, String[] fileFilter, String[] classFilter, Consumer<PsiElement> callback) {
-        for (PsiFile psiFile : psiFiles) {
-            if (Arrays.stream(fileFilter).noneMatch(psiFile.getText()::contains)) continue;
-            PsiClass[] psiClasses = ((PsiJavaFile) psiFile).getClasses();
-            for (PsiClass psiClass : psiClasses) {
-                runFullScanOnJavaClass(psiClass, classFilter, callback);
-            }
-        }
+    public static void addLibraryImport(@NotNull InstrumentPlan plan, @NotNull PsiElement psiElement) {
+        PsiFile psiFile = psiElement.getContainingFile();
+        if (psiFile instanceof PsiJavaFile) plan.addJavaImport((PsiJavaFile) psiFile, NAPPA_PACKAGE_NAME);
     }
 
     /**
-     * Auxiliary method for {@link InstrumentUtil#runScanOnJavaFile} to be able to scan inner classes
+     * Request the import of the prefetching strategy package, i.e. {@code PrefetchingStrategyType} and
+     * {@code PrefetchingStrategyConfigKeys}, in the file of the {@code psiElement}, see
+     * {@link #addLibraryImport(InstrumentPlan, PsiElement)}
      *
-     * @param psiClass    A Java class
-     * @param classFilter Skip all classes that does not contain any of the strings in the provided array
-     * @param callback    A callback function invoked for each statement found in all files
+     * @param plan       The plan collecting the edits of the running instrumentation
+     * @param psiElement The reference element to add the import to
      */
-    private static void runFullScanOnJavaClass(@NotNull PsiClass psiClass, String[] classFilter, Consumer<PsiElement> callback) {
-        if (Arrays.stream(classFilter).noneMatch(psiClass.getText()::contains)) return;
-
-        PsiMethod[] psiMethods = psiClass.getMethods();
-        for (PsiMethod psiMethod : psiMethods) {
-            if (psiMethod.getBody() == null) continue;
-            PsiStatement[] psiStatements = psiMethod.getBody().getStatements();
-            for (PsiStatement statement : psiStatements) {
-                callback.accept(statement);
-            }
-        }
-
-        PsiClassInitializer[] psiClassInitializers = psiClass.getInitializers();
-        for (PsiClassInitializer psiClassInitializer : psiClassInitializers) {
-            for (PsiStatement statement : psiClassInitializer.getBody().getStatements()) {
-                callback.accept(statement);
-            }
-        }
-
-        PsiField[] psiFields = psiClass.getAllFields();
-        for (PsiField psiField : psiFields) {
-            callback.accept(psiField);
-        }
-
-        PsiClass[] psiClasses = psiClass.getInnerClasses();
-        for (PsiClass innerPsiClass : psiClasses) {
-            runFullScanOnJavaClass(innerPsiClass, classFilter, callback);
-        }
+    public static void addStrategyImport(@NotNull InstrumentPlan plan, @NotNull PsiElement psiElement) {
+        PsiFile psiFile = psiElement.getContainingFile();
+        if (psiFile instanceof PsiJavaFile) plan.addJavaImport((PsiJavaFile) psiFile, NAPPA_PACKAGE_NAME + ".prefetch");
     }
 
     /**
@@ -178,30 +128,28 @@ public final class InstrumentUtil {
     }
 
     /**
-     * Verifies if there is a variable with the name {@code variableName} in an ancestor with shared context
-     * where the {@code referenceElement} is located in the PSI tree. If a variable is found, then append
-     * a number to the variable name to avoid creating a variable with the same name.
+     * Verifies if the name {@code variableName} is used in the method (or code block) where the
+     * {@code referenceElement} is located in the PSI tree. If it is used, then append a number to the variable
+     * name to avoid creating a variable with the same name or hiding a field used in the method.
+     *
+     * <p>
+     * Names given to variables injected by the {@code plan} in the same context are also avoided.
+     * The names used in the method are cached by the {@code plan}, see {@link InstrumentPlan#isVariableNameUsed}.
      *
      * @param referenceElement Represents the {@link PsiElement} used as reference in the PSI tree
      * @param variableName     Represents the name of the variable to search for
+     * @param plan             The plan collecting the edits of the running instrumentation
      * @return A unique name for the new variable in the reference context
      */
-    public static String getUniqueVariableName(PsiElement referenceElement, String variableName) {
-        int number = 0;
-        String numberAsStr = "";
-        PsiElement elementToSearch = PsiTreeUtil.getParentOfType(referenceElement, PsiMethod.class);
-        if (elementToSearch == null)
-            elementToSearch = PsiTreeUtil.getParentOfType(referenceElement, PsiCodeBlock.class);
-        if (elementToSearch == null) return variableName;
-        while (true) {
-            String[] variableToSearch = new String[]{
-                    " " + variableName + numberAsStr + "=",
-                    " " + variableName + numberAsStr + " ="
-            };
-            if (Arrays.stream(variableToSearch).noneMatch(elementToSearch.getText()::contains))
-                return variableName + numberAsStr;
-            number++;
-            numberAsStr = Integer.toString(number);
+    public static String getUniqueVariableName(PsiElement referenceElement, String variableName, @NotNull InstrumentPlan plan) {
+        PsiElement scope = PsiTreeUtil.getParentOfType(referenceElement, PsiMethod.class);
+        if (scope == null) scope = PsiTreeUtil.getParentOfType(referenceElement, PsiCodeBlock.class);
+        if (scope == null) return variableName;
+        String uniqueName = variableName;
+        for (int number = 1; plan.isVariableNameUsed(scope, uniqueName); number++) {
+            uniqueName = variableName + number;
         }
+        plan.reserveVariableName(scope, uniqueName);
+        return uniqueName;
     }
 }
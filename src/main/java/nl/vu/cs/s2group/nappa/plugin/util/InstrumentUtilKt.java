@@ -1,24 +1,11 @@
 package nl.vu.cs.s2group.nappa.plugin.util;
 
-import com.intellij.openapi.command.WriteCommandAction;
-import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Condition;
 import com.intellij.psi.*;
-import com.intellij.psi.search.FilenameIndex;
-import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.util.PsiTreeUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.psi.*;
-import org.jetbrains.kotlin.resolve.ImportPath;
-
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Consumer;
-
-import static org.jetbrains.kotlin.psi.KtPsiFactoryKt.KtPsiFactory;
 
 /**
  * An class containing common utility methods to simplify the instrumentation actions
@@ -29,143 +16,52 @@ import static org.jetbrains.kotlin.psi.KtPsiFactoryKt.KtPsiFactory;
  */
 public final class InstrumentUtilKt {
     private static final String NAPPA_PACKAGE_NAME = "nl.vu.cs.s2group.nappa";
-    private static final String NAPPA_SAMPLE_APP_PACKAGE_NAME = "nl.vu.cs.s2group.nappa.sample.app";
 
     private InstrumentUtilKt() {
         throw new IllegalStateException("InstrumentUtil is a utility class and should be instantiated!");
     }
 
     /**
-     * Scan the project directory for all source files to search for all Java source files
+     * Request the library import in the file of the {@code psiElement}. The import is added once per file when the
+     * plan is applied, unless the file already imports it, thus it can be requested for each instrumented site.
      *
-     * @param project An object representing an IntelliJ project.
-     * @return A list of all Java source files in the project
-     */
-    public static @NotNull
-    List<PsiFile> getAllKotlinFilesInProjectAsPsi(Project project) {
-        List<PsiFile> psiFiles = new LinkedList<>();
-        String[] fileNames = FilenameIndex.getAllFilenames(project);
-
-        fileNames = Arrays.stream(fileNames)
-                .filter(fileName -> fileName.contains(".kt"))
-                .toArray(String[]::new);
-
-        for (String fileName : fileNames) {
-            PsiFile[] psiJavaFiles = FilenameIndex.getFilesByName(project, fileName, GlobalSearchScope.projectScope(project));
-            // Remove the files from the NAPPA library from the list to process
-            PsiFile[] ktFiles = Arrays.stream(psiJavaFiles)
-                    .filter(psiJavaFile -> {
-                        String packageName = ((KtFile) psiJavaFile).getPackageName();
-                        return !packageName.contains(NAPPA_PACKAGE_NAME) || packageName.contains(NAPPA_SAMPLE_APP_PACKAGE_NAME);
-                    })
-                    .toArray(PsiFile[]::new);
-            psiFiles.addAll(Arrays.asList(ktFiles));
-        }
-
-        return psiFiles;
-    }
-
-    /**
-     * @param project    An object representing an IntelliJ project.
+     * @param plan       The plan collecting the edits of the running instrumentation
      * @param psiElement The reference element to add the library import to
      */
-    public static void addLibraryImportToKt(Project project, @NotNull PsiElement psiElement) {
-        addLibraryImportToKt(project, psiElement, NAPPA_PACKAGE_NAME+".*");
-    }
-
-    public  static void addStrategyTypeImportToKt(Project project, @NotNull PsiElement psiElement){
-        addLibraryImportToKt(project, psiElement, NAPPA_PACKAGE_NAME+".prefetch.PrefetchingStrategyType");
-
+    public static void addLibraryImportToKt(@NotNull InstrumentPlan plan, @NotNull PsiElement psiElement) {
+        addLibraryImportToKt(plan, psiElement, NAPPA_PACKAGE_NAME + ".*");
     }
 
-
     /**
-     * @param project    An object representing an IntelliJ project.
-     * @param psiElement The reference element to add the library import to
+     * Request the import of {@code PrefetchingStrategyType} in the file of the {@code psiElement}, see
+     * {@link #addLibraryImportToKt(InstrumentPlan, PsiElement)}
+     *
+     * @param plan       The plan collecting the edits of the running instrumentation
+     * @param psiElement The reference element to add the import to
      */
-    private static void addLibraryImportToKt(Project project, @NotNull PsiElement psiElement, String importStatement) {
-        KtFile ktFile = (KtFile) getAncestorPsiElementFromElement(psiElement, KtFile.class);
-
-        if (ktFile == null) return;
-        KtImportList importList = ktFile.getImportList();
-        KtImportDirective importDirective = KtPsiFactory(project).createImportDirective(ImportPath.fromString(importStatement));
-        if(importList == null) return;
-        AtomicBoolean flag = new AtomicBoolean(false);
-        importList.getImports().forEach(directive ->{
-            if(directive.getImportPath().equals(importDirective.getImportPath())){
-                flag.set(true);
-            }
-        });
-
-        if(flag.get()) return;
-        WriteCommandAction.runWriteCommandAction(project, () -> {
-            importList.add(importDirective);
-        });
+    public static void addStrategyTypeImportToKt(@NotNull InstrumentPlan plan, @NotNull PsiElement psiElement) {
+        addLibraryImportToKt(plan, psiElement, NAPPA_PACKAGE_NAME + ".prefetch.PrefetchingStrategyType");
     }
 
     /**
-     * Iterate the Java files structure until reaching the statement level (e.g. {@code String a = "text"}).
-     * Upon reaching a statement, invokes the {@code callback} function passing the statement as parameter
+     * Request the import of {@code PrefetchingStrategyConfigKeys} in the file of the {@code psiElement}, see
+     * {@link #addLibraryImportToKt(InstrumentPlan, PsiElement)}
      *
-     * @param psiFiles    A list of all Java files within a project
-     * @param fileFilter  Skip all files that does not contain any of the strings in the provided array
-     * @param classFilter Skip all classes that does not contain any of the strings in the provided array
-     * @param callback    A callback function invoked for each statement found in all files
+     * @param plan       The plan collecting the edits of the running instrumentation
+     * @param psiElement The reference element to add the import to
      */
-    public static void runScanOnKotlinFile(@NotNull List<PsiFile> psiFiles, String[] fileFilter, String[] classFilter, Consumer<KtExpression> callback) {
-        for (PsiFile psiFile : psiFiles) {
-            if (Arrays.stream(fileFilter).noneMatch(psiFile.getText()::contains)) continue;
-            KtFile ktFile = (KtFile) psiFile;
-            KtClass[] ktClasses = Arrays.stream(ktFile.getChildren()).filter(child -> child instanceof KtClass).toArray(KtClass[]::new);
-
-            for (KtClass psiClass : ktClasses) {
-                runFullScanOnKotlinClass(psiClass, classFilter, callback);
-            }
-        }
+    public static void addStrategyConfigImportToKt(@NotNull InstrumentPlan plan, @NotNull PsiElement psiElement) {
+        addLibraryImportToKt(plan, psiElement, NAPPA_PACKAGE_NAME + ".prefetch.PrefetchingStrategyConfigKeys");
     }
 
     /**
-     * Auxiliary method for {@link InstrumentUtilKt#runScanOnKotlinFile} to be able to scan inner classes
-     *
-     * @param ktClass    A Java class
-     * @param classFilter Skip all classes that does not contain any of the strings in the provided array
-     * @param callback    A callback function invoked for each statement found in all files
+     * @param plan            The plan collecting the edits of the running instrumentation
+     * @param psiElement      The reference element to add the library import to
+     * @param importStatement The path to import
      */
-    private static void runFullScanOnKotlinClass(@NotNull KtClass ktClass, String[] classFilter, Consumer<KtExpression> callback) {
-        if (Arrays.stream(classFilter).noneMatch(ktClass.getText()::contains)) return;
-        KtClassBody body = ktClass.getBody();
-        if(body != null){
-            List<KtNamedFunction> functions = ktClass.getBody().getFunctions();
-            for (KtNamedFunction function : functions) {
-                if (function.getBodyExpression() == null) continue;
-                List<KtExpression> ktStatements = function.getBodyBlockExpression().getStatements();
-
-                for (KtExpression statement : ktStatements) {
-                    callback.accept(statement);
-                }
-            }
-        }
-
-        //TODO: implementa
-        /*
-        PsiClassInitializer[] psiClassInitializers = psiClass.getInitializers();
-        for (PsiClassInitializer psiClassInitializer : psiClassInitializers) {
-            for (PsiStatement statement : psiClassInitializer.getBody().getStatements()) {
-                callback.accept(statement);
-            }
-        }
-
-        PsiField[] psiFields = psiClass.getAllFields();
-        for (PsiField psiField : psiFields) {
-            callback.accept(psiField);
-        }
-
-        KtClass[] innerClasses = Arrays.stream(ktClass.getChildren()).filter(child -> child instanceof KtClass).toArray(KtClass[]::new);
-        KtClass[] ktClasses = Arrays.stream(ktClass.getChildren()).filter(child -> child instanceof KtClass).toArray(KtClass[]::new);
-
-        for (PsiClass innerPsiClass : psiClasses) {
-            runFullScanOnKotlinClass(innerPsiClass, classFilter, callback);
-        }*/
+    private static void addLibraryImportToKt(@NotNull InstrumentPlan plan, @NotNull PsiElement psiElement, String importStatement) {
+        PsiFile psiFile = psiElement.getContainingFile();
+        if (psiFile instanceof KtFile) plan.addKotlinImport((KtFile) psiFile, importStatement);
     }
 
     /**
@@ -201,30 +97,28 @@ public final class InstrumentUtilKt {
     }
 
     /**
-     * Verifies if there is a variable with the name {@code variableName} in an ancestor with shared context
-     * where the {@code referenceElement} is located in the PSI tree. If a variable is found, then append
-     * a number to the variable name to avoid creating a variable with the same name.
+     * Verifies if the name {@code variableName} is used in the topmost function (or block) where the
+     * {@code referenceElement} is located in the PSI tree. If it is used, then append a number to the variable
+     * name to avoid creating a variable with the same name or hiding a property used in the function.
+     *
+     * <p>
+     * Names given to variables injected by the {@code plan} in the same context are also avoided.
+     * The names used in the function are cached by the {@code plan}, see {@link InstrumentPlan#isVariableNameUsed}.
      *
      * @param referenceElement Represents the {@link PsiElement} used as reference in the PSI tree
      * @param variableName     Represents the name of the variable to search for
+     * @param plan             The plan collecting the edits of the running instrumentation
      * @return A unique name for the new variable in the reference context
      */
-    public static String getUniqueVariableName(PsiElement referenceElement, String variableName) {
-        int number = 0;
-        String numberAsStr = "";
-        PsiElement elementToSearchKt = KtPsiUtil.getTopmostParentOfTypes(referenceElement, KtNamedFunction.class);
-        if (elementToSearchKt == null)
-            elementToSearchKt = KtPsiUtil.getTopmostParentOfTypes(referenceElement, KtBlockExpression.class);
-        if (elementToSearchKt == null) return variableName;
-        while (true) {
-            String[] variableToSearch = new String[]{
-                    " " + variableName + numberAsStr + ":",
-                    " " + variableName + numberAsStr + ":"
-            };
-            if (Arrays.stream(variableToSearch).noneMatch(elementToSearchKt.getText()::contains))
-                return variableName + numberAsStr;
-            number++;
-            numberAsStr = Integer.toString(number);
+    public static String getUniqueVariableName(PsiElement referenceElement, String variableName, @NotNull InstrumentPlan plan) {
+        PsiElement scope = KtPsiUtil.getTopmostParentOfTypes(referenceElement, KtNamedFunction.class);
+        if (scope == null) scope = KtPsiUtil.getTopmostParentOfTypes(referenceElement, KtBlockExpression.class);
+        if (scope == null) return variableName;
+        String uniqueName = variableName;
+        for (int number = 1; plan.isVariableNameUsed(scope, uniqueName); number++) {
+            uniqueName = variableName + number;
         }
+        plan.reserveVariableName(scope, uniqueName);
+        return uniqueName;
     }
 }
@@ -0,0 +1,247 @@
+package nl.vu.cs.s2group.nappa.plugin.action;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.EdtTestUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import nl.vu.cs.s2group.nappa.plugin.settings.InstrumentSettings;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+
+/**
+ * Runs {@link InstrumentFragmentAction} on small Java and Kotlin files using stubs of the fragment classes of the
+ * framework and the AndroidX library, and verifies the injected probes.
+ */
+public class InstrumentFragmentActionTest extends BasePlatformTestCase {
+    private static final String[][] STUBS = new String[][]{
+            {"android/os/Bundle.java", "package android.os;\n\npublic class Bundle {\n}\n"},
+            {"android/app/Fragment.java", "package android.app;\n\npublic class Fragment {\n" +
+                    "    public void setArguments(android.os.Bundle args) {\n    }\n\n" +
+                    "    public android.os.Bundle getArguments() {\n        return null;\n    }\n}\n"},
+            {"android/app/FragmentTransaction.java", "package android.app;\n\npublic abstract class FragmentTransaction {\n" +
+                    "    public abstract FragmentTransaction add(Fragment fragment, String tag);\n\n" +
+                    "    public abstract FragmentTransaction add(int containerViewId, Fragment fragment, String tag);\n\n" +
+                    "    public abstract int commit();\n}\n"},
+            {"androidx/fragment/app/Fragment.java", "package androidx.fragment.app;\n\npublic class Fragment {\n" +
+                    "    public void setArguments(android.os.Bundle args) {\n    }\n\n" +
+                    "    public android.os.Bundle getArguments() {\n        return null;\n    }\n}\n"},
+            {"androidx/fragment/app/FragmentTransaction.java", "package androidx.fragment.app;\n\npublic abstract class FragmentTransaction {\n" +
+                    "    public FragmentTransaction add(int containerViewId, Fragment fragment) {\n        return this;\n    }\n\n" +
+                    "    public FragmentTransaction replace(int containerViewId, Fragment fragment) {\n        return this;\n    }\n\n" +
+                    "    public abstract int commit();\n}\n"},
+            {"androidx/fragment/app/FragmentManager.java", "package androidx.fragment.app;\n\npublic abstract class FragmentManager {\n" +
+                    "    public abstract FragmentTransaction beginTransaction();\n}\n"},
+            {"com/example/R.java", "package com.example;\n\npublic final class R {\n" +
+                    "    public static final class id {\n        public static final int container = 1;\n    }\n}\n"},
+            {"com/example/DetailFragment.java", "package com.example;\n\npublic class DetailFragment extends androidx.fragment.app.Fragment {\n}\n"},
+    };
+
+    /**
+     * The actions wait for the Event Dispatch Thread to apply their edits, thus they cannot run on it
+     */
+    @Override
+    protected boolean runInDispatchThread() {
+        return false;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The ledger would skip the files of a previous test with the same content
+        String basePath = getProject().getBasePath();
+        if (basePath != null) FileUtil.delete(new File(basePath, ".nappa"));
+        for (String[] stub : STUBS) {
+            addFile(stub[0], stub[1]);
+        }
+        InstrumentSettings.getInstance(getProject()).setFragmentProbesEnabled(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            InstrumentSettings.getInstance(getProject()).setFragmentProbesEnabled(false);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testAndroidxReplace() {
+        PsiFile file = addFile("com/example/Navigator.java", "package com.example;\n\n" +
+                "import androidx.fragment.app.Fragment;\nimport androidx.fragment.app.FragmentManager;\n\n" +
+                "public class Navigator {\n" +
+                "    void show(FragmentManager manager, Fragment fragment) {\n" +
+                "        manager.beginTransaction().replace(R.id.container, fragment).commit();\n" +
+                "    }\n}\n");
+
+        InstrumentResultMessage resultMessage = instrument();
+
+        assertContainsCode(file, "Nappa.setCurrentFragment(fragment); manager.beginTransaction().replace(R.id.container, fragment).commit();");
+        assertEquals(1, resultMessage.getInstrumentationCount());
+    }
+
+    public void testAndroidxAdd() {
+        PsiFile file = addFile("com/example/Navigator.java", "package com.example;\n\n" +
+                "import androidx.fragment.app.Fragment;\nimport androidx.fragment.app.FragmentTransaction;\n\n" +
+                "public class Navigator {\n" +
+                "    void show(FragmentTransaction transaction, Fragment fragment) {\n" +
+                "        transaction.add(R.id.container, fragment);\n" +
+                "    }\n}\n");
+
+        instrument();
+
+        assertContainsCode(file, "Nappa.setCurrentFragment(fragment); transaction.add(R.id.container, fragment);");
+    }
+
+    public void testFrameworkAdd() {
+        PsiFile file = addFile("com/example/Navigator.java", "package com.example;\n\n" +
+                "import android.app.Fragment;\nimport android.app.FragmentTransaction;\n\n" +
+                "public class Navigator {\n" +
+                "    void show(FragmentTransaction transaction, Fragment fragment) {\n" +
+                "        transaction.add(R.id.container, fragment, \"detail\").commit();\n" +
+                "    }\n}\n");
+
+        instrument();
+
+        assertContainsCode(file, "Nappa.setCurrentFragment(fragment); transaction.add(R.id.container, fragment, \"detail\").commit();");
+    }
+
+    public void testFrameworkAddWithoutContainerIsSkipped() {
+        String text = "package com.example;\n\n" +
+                "import android.app.Fragment;\nimport android.app.FragmentTransaction;\n\n" +
+                "public class Navigator {\n" +
+                "    void show(FragmentTransaction transaction, Fragment fragment) {\n" +
+                "        transaction.add(fragment, \"headless\").commit();\n" +
+                "    }\n}\n";
+        PsiFile file = addFile("com/example/Navigator.java", text);
+
+        instrument();
+
+        assertEquals(text, getText(file));
+    }
+
+    public void testSetArguments() {
+        PsiFile file = addFile("com/example/Navigator.java", "package com.example;\n\n" +
+                "import android.os.Bundle;\n\n" +
+                "public class Navigator {\n" +
+                "    void show(DetailFragment fragment, Bundle arguments) {\n" +
+                "        fragment.setArguments(arguments);\n" +
+                "    }\n}\n");
+
+        instrument();
+
+        assertContainsCode(file, "Nappa.notifyExtras(arguments); fragment.setArguments(arguments);");
+    }
+
+    public void testKotlinArgumentsAssignment() {
+        PsiFile file = addFile("com/example/Navigator.kt", "package com.example\n\n" +
+                "import android.os.Bundle\n\n" +
+                "class Navigator {\n" +
+                "    fun show(fragment: DetailFragment, bundle: Bundle) {\n" +
+                "        fragment.arguments = bundle\n" +
+                "    }\n}\n");
+
+        instrument();
+
+        assertContainsCode(file, "Nappa.notifyExtras(bundle) fragment.arguments = bundle");
+    }
+
+    public void testArgumentIsExtractedToVariable() {
+        PsiFile file = addFile("com/example/Navigator.java", "package com.example;\n\n" +
+                "import androidx.fragment.app.FragmentTransaction;\n\n" +
+                "public class Navigator {\n" +
+                "    void show(FragmentTransaction transaction) {\n" +
+                "        transaction.replace(R.id.container, new DetailFragment());\n" +
+                "    }\n}\n");
+
+        instrument();
+
+        assertContainsCode(file, "DetailFragment fragment = new DetailFragment(); " +
+                "Nappa.setCurrentFragment(fragment); " +
+                "transaction.replace(R.id.container, fragment);");
+    }
+
+    public void testProbedSiteIsSkipped() {
+        String text = "package com.example;\n\n" +
+                "import androidx.fragment.app.Fragment;\nimport androidx.fragment.app.FragmentTransaction;\n" +
+                "import nl.vu.cs.s2group.nappa.*;\n\n" +
+                "public class Navigator {\n" +
+                "    void show(FragmentTransaction transaction, Fragment fragment) {\n" +
+                "        Nappa.setCurrentFragment(fragment);\n" +
+                "        transaction.replace(R.id.container, fragment);\n" +
+                "    }\n}\n";
+        PsiFile file = addFile("com/example/Navigator.java", text);
+
+        InstrumentResultMessage resultMessage = instrument();
+
+        assertEquals(text, getText(file));
+        assertEquals(0, resultMessage.getInstrumentationCount());
+    }
+
+    public void testStringReplaceIsNotTouched() {
+        String text = "package com.example;\n\n" +
+                "import androidx.fragment.app.Fragment;\n\n" +
+                "public class Navigator {\n" +
+                "    String title(Fragment fragment, String name) {\n" +
+                "        return name.replace(\"_\", \" \");\n" +
+                "    }\n}\n";
+        PsiFile file = addFile("com/example/Navigator.java", text);
+
+        InstrumentResultMessage resultMessage = instrument();
+
+        assertEquals(text, getText(file));
+        assertEquals(0, resultMessage.getPossibleInstrumentationCount());
+    }
+
+    public void testDisabledFragmentProbesFail() {
+        InstrumentSettings.getInstance(getProject()).setFragmentProbesEnabled(false);
+        try {
+            instrument();
+            fail("The action ran while the fragment probes were disabled");
+        } catch (IllegalStateException expected) {
+            // The fragment probes require a library version providing Nappa.setCurrentFragment
+        }
+    }
+
+    private @NotNull
+    PsiFile addFile(@NotNull String path, @NotNull String text) {
+        return EdtTestUtil.runInEdtAndGet(() -> myFixture.addFileToProject(path, text));
+    }
+
+    private @NotNull
+    InstrumentResultMessage instrument() {
+        InstrumentResultMessage resultMessage = new InstrumentResultMessage();
+        int skippedEdits = new InstrumentFragmentAction().instrumentInCurrentThread(getProject(), new EmptyProgressIndicator(), resultMessage);
+        assertEquals("Edits were skipped", 0, skippedEdits);
+        return resultMessage;
+    }
+
+    private static @NotNull
+    String getText(@NotNull PsiFile file) {
+        return ReadAction.compute(() -> {
+            Document document = FileDocumentManager.getInstance().getDocument(file.getVirtualFile());
+            return document != null ? document.getText() : file.getText();
+        });
+    }
+
+    /**
+     * Verifies the code of the file contains the expected code, ignoring the differences in whitespace
+     *
+     * @param file     The instrumented file
+     * @param expected The expected code
+     */
+    private static void assertContainsCode(@NotNull PsiFile file, @NotNull String expected) {
+        String text = getText(file);
+        assertTrue("Expected\n" + expected + "\nin\n" + text, normalize(text).contains(normalize(expected)));
+    }
+
+    private static @NotNull
+    String normalize(@NotNull String code) {
+        return code.replaceAll("\\s+", " ").trim();
+    }
+}
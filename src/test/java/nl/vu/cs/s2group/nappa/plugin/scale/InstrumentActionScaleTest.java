@@ -0,0 +1,220 @@
+package nl.vu.cs.s2group.nappa.plugin.scale;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.intellij.util.indexing.FileBasedIndex;
+import nl.vu.cs.s2group.nappa.plugin.action.*;
+import nl.vu.cs.s2group.nappa.plugin.index.InstrumentSiteIndex;
+import nl.vu.cs.s2group.nappa.plugin.util.InstrumentResultMessage;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs each instrumentation action on synthetic Android apps of 100, 1,000 and 10,000 source files (see
+ * {@link SyntheticAndroidProject}) and fails if the action exceeds the time or memory limits. The limits can
+ * be changed with the system properties:
+ * <ul>
+ * <li>{@value #BASE_MILLIS_PROPERTY}: the time allowed for any project, regardless of its size</li>
+ * <li>{@value #MILLIS_PER_FILE_PROPERTY}: the time allowed for each source file of the project</li>
+ * <li>{@value #MAX_HEAP_MB_PROPERTY}: the peak heap allowed while running the action, in MB</li>
+ * </ul>
+ * The measurements are appended to the CSV file given in the system property {@value #REPORT_PROPERTY}, if any.
+ * <p>
+ * These tests are slow, thus they are excluded from the {@code test} task and run with the {@code scaleTest} task.
+ */
+public class InstrumentActionScaleTest extends BasePlatformTestCase {
+    private static final String BASE_MILLIS_PROPERTY = "nappa.scale.baseMillis";
+    private static final String MILLIS_PER_FILE_PROPERTY = "nappa.scale.millisPerFile";
+    private static final String MAX_HEAP_MB_PROPERTY = "nappa.scale.maxHeapMb";
+    private static final String REPORT_PROPERTY = "nappa.scale.report";
+    private static final String REPORT_HEADER = "action,files,activities,indexMillis,scanMillis,peakHeapMb,instrumentedFiles";
+
+    private static final long BASE_MILLIS = Long.getLong(BASE_MILLIS_PROPERTY, 10_000);
+    private static final long MILLIS_PER_FILE = Long.getLong(MILLIS_PER_FILE_PROPERTY, 20);
+    private static final long MAX_HEAP_MB = Long.getLong(MAX_HEAP_MB_PROPERTY, 2048);
+
+    private static final int SMALL_PROJECT = 100;
+    private static final int MEDIUM_PROJECT = 1_000;
+    private static final int LARGE_PROJECT = 10_000;
+
+    /**
+     * The actions wait for the Event Dispatch Thread to apply their edits, thus they cannot run on it
+     */
+    @Override
+    protected boolean runInDispatchThread() {
+        return false;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The ledger would skip the files of a previous test with the same content
+        String basePath = getProject().getBasePath();
+        if (basePath != null) FileUtil.delete(new File(basePath, ".nappa"));
+    }
+
+    public void testActivitySmallProject() throws IOException {
+        runScaleTest("activity", InstrumentActivityAction::new, SMALL_PROJECT);
+    }
+
+    public void testActivityMediumProject() throws IOException {
+        runScaleTest("activity", InstrumentActivityAction::new, MEDIUM_PROJECT);
+    }
+
+    public void testActivityLargeProject() throws IOException {
+        runScaleTest("activity", InstrumentActivityAction::new, LARGE_PROJECT);
+    }
+
+    public void testIntentExtrasSmallProject() throws IOException {
+        runScaleTest("intent", InstrumentIntentExtrasAction::new, SMALL_PROJECT);
+    }
+
+    public void testIntentExtrasMediumProject() throws IOException {
+        runScaleTest("intent", InstrumentIntentExtrasAction::new, MEDIUM_PROJECT);
+    }
+
+    public void testIntentExtrasLargeProject() throws IOException {
+        runScaleTest("intent", InstrumentIntentExtrasAction::new, LARGE_PROJECT);
+    }
+
+    public void testOkHttpSmallProject() throws IOException {
+        runScaleTest("okhttp", InstrumentOkHttpAction::new, SMALL_PROJECT);
+    }
+
+    public void testOkHttpMediumProject() throws IOException {
+        runScaleTest("okhttp", InstrumentOkHttpAction::new, MEDIUM_PROJECT);
+    }
+
+    public void testOkHttpLargeProject() throws IOException {
+        runScaleTest("okhttp", InstrumentOkHttpAction::new, LARGE_PROJECT);
+    }
+
+    public void testRetrofitSmallProject() throws IOException {
+        runScaleTest("retrofit", InstrumentRetrofitAction::new, SMALL_PROJECT);
+    }
+
+    public void testRetrofitMediumProject() throws IOException {
+        runScaleTest("retrofit", InstrumentRetrofitAction::new, MEDIUM_PROJECT);
+    }
+
+    public void testRetrofitLargeProject() throws IOException {
+        runScaleTest("retrofit", InstrumentRetrofitAction::new, LARGE_PROJECT);
+    }
+
+    public void testAllSmallProject() throws IOException {
+        runScaleTest("all", InstrumentAllAction::new, SMALL_PROJECT);
+    }
+
+    public void testAllMediumProject() throws IOException {
+        runScaleTest("all", InstrumentAllAction::new, MEDIUM_PROJECT);
+    }
+
+    public void testAllLargeProject() throws IOException {
+        runScaleTest("all", InstrumentAllAction::new, LARGE_PROJECT);
+    }
+
+    /**
+     * Generates a synthetic app, runs the action on it and verifies the limits
+     *
+     * @param actionName The name of the action in the report
+     * @param action     Creates the action to run
+     * @param files      The number of source files of the app
+     * @throws IOException If the app or the report cannot be written
+     */
+    private void runScaleTest(@NotNull String actionName, @NotNull Supplier<InstrumentAction> action, int files) throws IOException {
+        VirtualFile sourceRoot = ModuleRootManager.getInstance(getModule()).getSourceRoots()[0];
+        int activities = SyntheticAndroidProject.generate(sourceRoot, files);
+
+        // The index is updated in background in the IDE, thus it is not part of the scan time
+        long indexStart = System.nanoTime();
+        ReadAction.run(() -> FileBasedIndex.getInstance().ensureUpToDate(InstrumentSiteIndex.NAME, getProject(), null));
+        long indexMillis = (System.nanoTime() - indexStart) / 1_000_000;
+
+        System.gc();
+        resetPeakHeap();
+        long scanStart = System.nanoTime();
+        InstrumentResultMessage resultMessage = new InstrumentResultMessage();
+        int skippedEdits = action.get().instrumentInCurrentThread(getProject(), new EmptyProgressIndicator(), resultMessage);
+        long scanMillis = (System.nanoTime() - scanStart) / 1_000_000;
+        long peakHeapMb = getPeakHeap() / (1024 * 1024);
+
+        int instrumentedFiles = countInstrumentedFiles(sourceRoot);
+        writeReport(actionName, files, activities, indexMillis, scanMillis, peakHeapMb, instrumentedFiles);
+
+        assertEquals("Edits were skipped", 0, skippedEdits);
+        assertTrue("No file was instrumented", instrumentedFiles > 0);
+        long maxMillis = BASE_MILLIS + MILLIS_PER_FILE * files;
+        assertTrue("The scan took " + scanMillis + " ms, the limit is " + maxMillis + " ms", scanMillis <= maxMillis);
+        assertTrue("The peak heap was " + peakHeapMb + " MB, the limit is " + MAX_HEAP_MB + " MB", peakHeapMb <= MAX_HEAP_MB);
+    }
+
+    /**
+     * @param sourceRoot The source root of the synthetic app
+     * @return The number of source files referring to the NAPPA library
+     */
+    private static int countInstrumentedFiles(@NotNull VirtualFile sourceRoot) {
+        AtomicInteger instrumentedFiles = new AtomicInteger();
+        ReadAction.run(() -> VfsUtilCore.iterateChildrenRecursively(sourceRoot, null, file -> {
+            if (file.isDirectory()) return true;
+            Document document = FileDocumentManager.getInstance().getDocument(file);
+            if (document != null && document.getImmutableCharSequence().toString().contains("Nappa"))
+                instrumentedFiles.incrementAndGet();
+            return true;
+        }));
+        return instrumentedFiles.get();
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * The peaks of the pools may happen at different times, thus their sum is an upper bound of the peak heap
+     *
+     * @return The sum of the peak usage of the heap pools since the last reset, in bytes
+     */
+    private static long getPeakHeap() {
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peakHeap += pool.getPeakUsage().getUsed();
+        }
+        return peakHeap;
+    }
+
+    private static void writeReport(@NotNull String actionName, int files, int activities, long indexMillis,
+                                    long scanMillis, long peakHeapMb, int instrumentedFiles) throws IOException {
+        String reportPath = System.getProperty(REPORT_PROPERTY);
+        if (reportPath == null) return;
+
+        Path path = Paths.get(reportPath);
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        if (!Files.exists(path))
+            Files.write(path, Collections.singletonList(REPORT_HEADER), StandardCharsets.UTF_8);
+        String line = String.join(",", actionName, Integer.toString(files), Integer.toString(activities),
+                Long.toString(indexMillis), Long.toString(scanMillis), Long.toString(peakHeapMb),
+                Integer.toString(instrumentedFiles));
+        Files.write(path, Collections.singletonList(line), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,256 @@
+package nl.vu.cs.s2group.nappa.plugin.scale;
+
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Generates a synthetic Android app with a given number of source files. One in ten files is an activity
+ * declared in the manifest. The other files alternate between OkHttp clients, Retrofit clients, navigators
+ * calling {@code startActivity} and plain models. The Java and Kotlin files alternate as well, except for the
+ * OkHttp clients, which are only instrumented in Java.
+ * <p>
+ * The project also contains stubs of the Android, OkHttp and Retrofit classes, thus the references of the
+ * generated files are resolved without the actual libraries.
+ */
+public final class SyntheticAndroidProject {
+    private static final String PACKAGE_NAME = "com.example.scale";
+    private static final String PACKAGE_PATH = PACKAGE_NAME.replace('.', '/');
+    private static final int FILES_PER_ACTIVITY = 10;
+
+    private static final String[][] STUBS = new String[][]{
+            {"android/os", "Bundle.java", "package android.os;\n\npublic class Bundle {\n}\n"},
+            {"android/content", "Context.java", "package android.content;\n\npublic class Context {\n" +
+                    "    public void startActivity(Intent intent) {\n    }\n}\n"},
+            {"android/content", "Intent.java", "package android.content;\n\npublic class Intent {\n" +
+                    "    public Intent(Context context, Class<?> cls) {\n    }\n\n" +
+                    "    public Intent putExtra(String name, int value) {\n        return this;\n    }\n\n" +
+                    "    public android.os.Bundle getExtras() {\n        return null;\n    }\n}\n"},
+            {"android/app", "Activity.java", "package android.app;\n\npublic class Activity extends android.content.Context {\n" +
+                    "    protected void onCreate(android.os.Bundle savedInstanceState) {\n    }\n\n" +
+                    "    public void setContentView(int layoutResID) {\n    }\n}\n"},
+            {"androidx/appcompat/app", "AppCompatActivity.java", "package androidx.appcompat.app;\n\n" +
+                    "public class AppCompatActivity extends android.app.Activity {\n}\n"},
+            {"okhttp3", "OkHttpClient.java", "package okhttp3;\n\npublic class OkHttpClient {\n" +
+                    "    public static class Builder {\n        public OkHttpClient build() {\n            return new OkHttpClient();\n        }\n    }\n}\n"},
+            {"retrofit2", "Retrofit.java", "package retrofit2;\n\npublic class Retrofit {\n" +
+                    "    public static class Builder {\n" +
+                    "        public Builder baseUrl(String baseUrl) {\n            return this;\n        }\n\n" +
+                    "        public Builder client(okhttp3.OkHttpClient client) {\n            return this;\n        }\n\n" +
+                    "        public Retrofit build() {\n            return new Retrofit();\n        }\n    }\n}\n"},
+    };
+
+    private SyntheticAndroidProject() {
+        throw new IllegalStateException("SyntheticAndroidProject is a utility class and should be instantiated!");
+    }
+
+    /**
+     * Writes the synthetic app to the {@code sourceRoot}
+     *
+     * @param sourceRoot The source root of a project
+     * @param files      The number of source files to generate, stubs excluded
+     * @return The number of activities generated
+     * @throws IOException If a file cannot be written
+     */
+    public static int generate(@NotNull VirtualFile sourceRoot, int files) throws IOException {
+        int activities = Math.max(1, files / FILES_PER_ACTIVITY);
+        WriteAction.runAndWait(() -> {
+            for (String[] stub : STUBS) {
+                writeFile(sourceRoot, stub[0], stub[1], stub[2]);
+            }
+
+            StringBuilder manifestActivities = new StringBuilder();
+            for (int i = 0; i < activities; i++) {
+                String next = "Activity" + ((i + 1) % activities);
+                if (i % 2 == 0) writeFile(sourceRoot, PACKAGE_PATH, "Activity" + i + ".java", javaActivity(i, next));
+                else writeFile(sourceRoot, PACKAGE_PATH, "Activity" + i + ".kt", kotlinActivity(i, next));
+                manifestActivities.append(manifestActivity(i));
+            }
+            writeFile(sourceRoot, "", "AndroidManifest.xml", manifest(manifestActivities));
+
+            for (int i = activities; i < files; i++) {
+                // Alternate the languages between consecutive files of the same kind
+                boolean isJava = (i / 4) % 2 == 0;
+                switch (i % 4) {
+                    case 0:
+                        writeFile(sourceRoot, PACKAGE_PATH, "HttpClient" + i + ".java", javaOkHttpClient(i));
+                        break;
+                    case 1:
+                        writeFile(sourceRoot, PACKAGE_PATH, "Api" + i + (isJava ? ".java" : ".kt"),
+                                isJava ? javaRetrofitClient(i) : kotlinRetrofitClient(i));
+                        break;
+                    case 2:
+                        writeFile(sourceRoot, PACKAGE_PATH, "Navigator" + i + (isJava ? ".java" : ".kt"),
+                                isJava ? javaNavigator(i) : kotlinNavigator(i));
+                        break;
+                    default:
+                        writeFile(sourceRoot, PACKAGE_PATH, "Model" + i + (isJava ? ".java" : ".kt"),
+                                isJava ? javaModel(i) : kotlinModel(i));
+                }
+            }
+        });
+        return activities;
+    }
+
+    private static void writeFile(@NotNull VirtualFile sourceRoot,
+                                  @NotNull String directory,
+                                  @NotNull String fileName,
+                                  @NotNull String text) throws IOException {
+        VirtualFile parent = directory.isEmpty() ? sourceRoot : VfsUtil.createDirectoryIfMissing(sourceRoot, directory);
+        VfsUtil.saveText(parent.findOrCreateChildData(SyntheticAndroidProject.class, fileName), text);
+    }
+
+    private static @NotNull
+    String manifest(@NotNull CharSequence activities) {
+        return "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\" package=\"" + PACKAGE_NAME + "\">\n" +
+                "    <application>\n" + activities + "    </application>\n" +
+                "</manifest>\n";
+    }
+
+    private static @NotNull
+    String manifestActivity(int index) {
+        if (index != 0) return "        <activity android:name=\"" + PACKAGE_NAME + ".Activity" + index + "\" />\n";
+        return "        <activity android:name=\"" + PACKAGE_NAME + ".Activity0\">\n" +
+                "            <intent-filter>\n" +
+                "                <action android:name=\"android.intent.action.MAIN\" />\n" +
+                "                <category android:name=\"android.intent.category.LAUNCHER\" />\n" +
+                "            </intent-filter>\n" +
+                "        </activity>\n";
+    }
+
+    private static @NotNull
+    String javaActivity(int index, @NotNull String next) {
+        return "package " + PACKAGE_NAME + ";\n\n" +
+                "import android.content.Intent;\n" +
+                "import android.os.Bundle;\n" +
+                "import androidx.appcompat.app.AppCompatActivity;\n\n" +
+                "public class Activity" + index + " extends AppCompatActivity {\n" +
+                "    @Override\n" +
+                "    protected void onCreate(Bundle savedInstanceState) {\n" +
+                "        super.onCreate(savedInstanceState);\n" +
+                "        setContentView(" + index + ");\n" +
+                "    }\n\n" +
+                "    public void openNext() {\n" +
+                "        Intent intent = new Intent(this, " + next + ".class);\n" +
+                "        intent.putExtra(\"id\", " + index + ");\n" +
+                "        startActivity(intent);\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    private static @NotNull
+    String kotlinActivity(int index, @NotNull String next) {
+        return "package " + PACKAGE_NAME + "\n\n" +
+                "import android.content.Intent\n" +
+                "import android.os.Bundle\n" +
+                "import androidx.appcompat.app.AppCompatActivity\n\n" +
+                "class Activity" + index + " : AppCompatActivity() {\n" +
+                "    override fun onCreate(savedInstanceState: Bundle?) {\n" +
+                "        super.onCreate(savedInstanceState)\n" +
+                "        setContentView(" + index + ")\n" +
+                "    }\n\n" +
+                "    fun openNext() {\n" +
+                "        val intent = Intent(this, " + next + "::class.java)\n" +
+                "        intent.putExtra(\"id\", " + index + ")\n" +
+                "        startActivity(intent)\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    private static @NotNull
+    String javaOkHttpClient(int index) {
+        return "package " + PACKAGE_NAME + ";\n\n" +
+                "import okhttp3.OkHttpClient;\n\n" +
+                "public class HttpClient" + index + " {\n" +
+                "    private OkHttpClient client = new OkHttpClient();\n\n" +
+                "    public OkHttpClient create() {\n" +
+                "        OkHttpClient okHttpClient = new OkHttpClient.Builder().build();\n" +
+                "        return okHttpClient;\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    private static @NotNull
+    String javaRetrofitClient(int index) {
+        return "package " + PACKAGE_NAME + ";\n\n" +
+                "import retrofit2.Retrofit;\n\n" +
+                "public class Api" + index + " {\n" +
+                "    public Retrofit create() {\n" +
+                "        Retrofit retrofit = new Retrofit.Builder()\n" +
+                "                .baseUrl(\"https://example.com/" + index + "/\")\n" +
+                "                .build();\n" +
+                "        return retrofit;\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    private static @NotNull
+    String kotlinRetrofitClient(int index) {
+        return "package " + PACKAGE_NAME + "\n\n" +
+                "import retrofit2.Retrofit\n\n" +
+                "class Api" + index + " {\n" +
+                "    fun create(): Retrofit {\n" +
+                "        val retrofit = Retrofit.Builder()\n" +
+                "                .baseUrl(\"https://example.com/" + index + "/\")\n" +
+                "                .build()\n" +
+                "        return retrofit\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    private static @NotNull
+    String javaNavigator(int index) {
+        return "package " + PACKAGE_NAME + ";\n\n" +
+                "import android.content.Context;\n" +
+                "import android.content.Intent;\n\n" +
+                "public class Navigator" + index + " {\n" +
+                "    public void open(Context context) {\n" +
+                "        Intent intent = new Intent(context, Activity0.class);\n" +
+                "        intent.putExtra(\"source\", " + index + ");\n" +
+                "        context.startActivity(intent);\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    private static @NotNull
+    String kotlinNavigator(int index) {
+        return "package " + PACKAGE_NAME + "\n\n" +
+                "import android.content.Context\n" +
+                "import android.content.Intent\n\n" +
+                "class Navigator" + index + " {\n" +
+                "    fun open(context: Context) {\n" +
+                "        val intent = Intent(context, Activity0::class.java)\n" +
+                "        intent.putExtra(\"source\", " + index + ")\n" +
+                "        context.startActivity(intent)\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    private static @NotNull
+    String javaModel(int index) {
+        return "package " + PACKAGE_NAME + ";\n\n" +
+                "public class Model" + index + " {\n" +
+                "    private final int id;\n" +
+                "    private final String name;\n\n" +
+                "    public Model" + index + "(int id, String name) {\n" +
+                "        this.id = id;\n" +
+                "        this.name = name;\n" +
+                "    }\n\n" +
+                "    public int getId() {\n" +
+                "        return id;\n" +
+                "    }\n\n" +
+                "    public String getName() {\n" +
+                "        return name;\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    private static @NotNull
+    String kotlinModel(int index) {
+        return "package " + PACKAGE_NAME + "\n\n" +
+                "data class Model" + index + "(val id: Int, val name: String)\n";
+    }
+}
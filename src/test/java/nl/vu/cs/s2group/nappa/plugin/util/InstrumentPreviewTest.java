@@ -0,0 +1,80 @@
+package nl.vu.cs.s2group.nappa.plugin.util;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.psi.*;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+import com.intellij.testFramework.EdtTestUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Computes the {@link InstrumentPreview} of plans creating a file and editing a manifest, as the activity
+ * instrumentation does when it generates an {@code Application} class, and verifies both changes are listed.
+ */
+public class InstrumentPreviewTest extends BasePlatformTestCase {
+    private static final String MANIFEST_TEXT = "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\" package=\"com.example\">\n" +
+            "    <application android:label=\"Example\"/>\n" +
+            "</manifest>\n";
+
+    /**
+     * The preview waits for its read actions, thus it cannot run on the Event Dispatch Thread
+     */
+    @Override
+    protected boolean runInDispatchThread() {
+        return false;
+    }
+
+    public void testNewFileIsListed() {
+        PsiFile activityFile = addFile("com/example/MainActivity.java", "package com.example;\n\npublic class MainActivity {\n}\n");
+        InstrumentPlan plan = new InstrumentPlan(getProject());
+        ReadAction.run(() -> plan.addFile(activityFile.getContainingDirectory(), PsiFileFactory.getInstance(getProject())
+                .createFileFromText("NappaApplication.java", JavaFileType.INSTANCE, "package com.example;\n\npublic class NappaApplication {\n}\n")));
+
+        InstrumentPreview preview = InstrumentPreview.compute(getProject(), plan, new EmptyProgressIndicator());
+
+        String path = findPath(preview, "NappaApplication.java");
+        assertEquals("package com.example;\n\npublic class NappaApplication {\n}\n", preview.getInstrumentedText(path));
+        assertNull("The directory was previewed as a file", findPathOrNull(preview, "example"));
+    }
+
+    public void testManifestChangeIsListed() {
+        PsiFile manifestFile = addFile("AndroidManifest.xml", MANIFEST_TEXT);
+        InstrumentPlan plan = new InstrumentPlan(getProject());
+        ReadAction.run(() -> {
+            XmlTag applicationTag = ((XmlFile) manifestFile).getRootTag().findFirstSubTag("application");
+            plan.add(applicationTag, XmlElementFactory.getInstance(getProject())
+                    .createAttribute("android:name", ".NappaApplication", applicationTag));
+        });
+
+        InstrumentPreview preview = InstrumentPreview.compute(getProject(), plan, new EmptyProgressIndicator());
+
+        String instrumentedText = preview.getInstrumentedText(findPath(preview, "AndroidManifest.xml"));
+        assertNotNull(instrumentedText);
+        assertTrue(instrumentedText, instrumentedText.contains("android:name=\".NappaApplication\""));
+        assertEquals("The preview modified the manifest", MANIFEST_TEXT, ReadAction.compute(manifestFile::getText));
+    }
+
+    private @NotNull
+    PsiFile addFile(@NotNull String path, @NotNull String text) {
+        return EdtTestUtil.runInEdtAndGet(() -> myFixture.addFileToProject(path, text));
+    }
+
+    private static @NotNull
+    String findPath(@NotNull InstrumentPreview preview, @NotNull String fileName) {
+        String path = findPathOrNull(preview, fileName);
+        assertNotNull(fileName + " is not listed in " + preview.getChangedPaths(), path);
+        return path;
+    }
+
+    private static @Nullable
+    String findPathOrNull(@NotNull InstrumentPreview preview, @NotNull String fileName) {
+        return preview.getChangedPaths().stream()
+                .filter(path -> path.equals(fileName) || path.endsWith("/" + fileName))
+                .findFirst()
+                .orElse(null);
+    }
+}